@@ -1,5 +1,8 @@
 package com.jordanleex13.sensortag;
 
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
 import android.app.Service;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
@@ -12,13 +15,48 @@ import android.bluetooth.BluetoothManager;
 import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.os.Binder;
 import android.os.IBinder;
+import android.os.PowerManager;
+import android.support.v4.app.NotificationCompat;
 
 import com.jordanleex13.sensortag.SensorTag.IntentNames;
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
 import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
-
+import com.jordanleex13.sensortag.config.GattOperation;
+import com.jordanleex13.sensortag.config.GattQueue;
+import com.jordanleex13.sensortag.config.SensorConfig;
+import com.jordanleex13.sensortag.models.FrameArena;
+import com.jordanleex13.sensortag.models.FrameHistory;
+import com.jordanleex13.sensortag.models.FrameListener;
+import com.jordanleex13.sensortag.models.RawFrameStore;
+import com.jordanleex13.sensortag.processing.AdaptivePeriodController;
+import com.jordanleex13.sensortag.processing.AlertEngine;
+import com.jordanleex13.sensortag.processing.AlertRule;
+import com.jordanleex13.sensortag.processing.QuantileSet;
+import com.jordanleex13.sensortag.processing.RollupSet;
+import com.jordanleex13.sensortag.processing.StatsSet;
+import com.jordanleex13.sensortag.processing.SamplePipeline;
+import com.jordanleex13.sensortag.processing.TimeAligner;
+import com.jordanleex13.sensortag.processing.TimestampReconstructor;
+import com.jordanleex13.sensortag.processing.VibrationSpectrum;
+import com.jordanleex13.sensortag.profiles.SensorProfile;
+import com.jordanleex13.sensortag.profiles.SensorProfiles;
+import com.jordanleex13.sensortag.recording.CaptureRecorder;
+import com.jordanleex13.sensortag.recording.SessionRecorder;
+import com.jordanleex13.sensortag.streaming.SampleServer;
+import com.jordanleex13.sensortag.ui.DeviceActivity;
+import com.jordanleex13.sensortag.upload.BatchUploader;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 
@@ -44,6 +82,10 @@ import java.util.UUID;
  * Source code found at: https://github.com/googlesamples/android-BluetoothLeGatt
  *
  * Code is drawn from TISensorTag2 Source Code and modified for this application
+ *
+ * When started with {@link #ACTION_START_FOREGROUND} the service runs in the foreground and owns the
+ * connection: it enables the sensors, reconnects after link loss and keeps processing and recording
+ * while no activity is bound. Activities then only attach to display the data.
  */
 public class BleService extends Service {
 
@@ -58,6 +100,7 @@ public class BleService extends Service {
     private BluetoothAdapter mBluetoothAdapter;
     private BluetoothGatt mBluetoothGatt;
     private String mBluetoothDeviceAddress;
+    private String mDeviceName;
 
     /**
      * Shows the state of the connection between phone and BLE device-------- See {@code BluetoothProfile}
@@ -67,6 +110,61 @@ public class BleService extends Service {
     private static final int STATE_CONNECTING = 1;
     private static final int STATE_CONNECTED = 2;
 
+    /**
+     * Foreground mode. Sensors are enabled by the service once services are discovered
+     */
+    private static final int NOTIFICATION_ID = 1;
+    private boolean mForeground;
+    private volatile boolean mSensorsEnabled;
+    private PowerManager.WakeLock mWakeLock;
+
+    /**
+     * Processing and recording. Every notification is decoded by the pipeline; the recorder and the
+     * rollups are only set while a session is being recorded. Statistics and quantiles are always kept, and
+     * so are the last raw frames, decoded only when a page reads them. Everything but the recorders sees the
+     * sample times reconstructed from the configured periods instead of the bursty arrival times.
+     */
+    private static final int HISTORY_FRAMES = 6000;    // 10 minutes at the shortest period
+    private static final int ARENA_SLOTS = 256;        // Values the UI thread may lag behind
+    private static final long ROLLUP_SAVE_INTERVAL = 60 * 1000;    // Rollups a killed session may lose
+    private final TimestampReconstructor mTimestamps = new TimestampReconstructor();
+    // What the profiles decode; stages that take every sample register for these
+    private final SensorConversion[] mConversions = SensorProfiles.getDefault().getConversions();
+    private final SamplePipeline mPipeline = new SamplePipeline();
+    private final StatsSet mStats = new StatsSet();
+    private final QuantileSet mQuantiles = new QuantileSet();
+    private final AlertEngine mAlerts = new AlertEngine();
+    private final FrameHistory mHistory = new FrameHistory(HISTORY_FRAMES);
+    private final FrameArena mArena = new FrameArena(ARENA_SLOTS, RawFrameStore.MAX_FRAME_LENGTH);
+    private volatile FrameListener[] mFrameListeners = new FrameListener[0];
+    private final Map<String, Integer> mDeviceIds = new HashMap<>();
+    private volatile SessionRecorder mRecorder;
+    private volatile CaptureRecorder mCapture;     // Set instead of writing every frame in capture mode
+    // Arrival time of the notification being delivered. Alerts fire inside mPipeline.onNotification on the same
+    // thread, and the capture rings hold arrival times.
+    private long mArrival;
+    private RollupSet mRollups;
+    private BatchUploader mUploader;
+    private SampleServer mServer;
+    private AdaptivePeriodController mPeriods;
+    private TimeAligner mAligner;
+    private VibrationSpectrum mSpectrum;
+
+    /**
+     * Sensor configuration. Every GATT write goes through the queue. mConfig is the profile of the connected
+     * tag and mTagConfig the state the tag is in once the queue drains, null until its services are discovered.
+     */
+    private static final String CONFIG_PREFERENCES = "sensor_config";
+    private final GattQueue mQueue = new GattQueue(new GattQueue.Executor() {
+        @Override
+        public boolean execute(GattOperation operation) {
+            return issue(operation);
+        }
+    });
+    private final Object mConfigLock = new Object();
+    private SensorConfig mConfig = SensorConfig.defaults();
+    private SensorConfig mTagConfig;
+
     /**
      * Used as keys for intents
      */
@@ -74,12 +172,51 @@ public class BleService extends Service {
     public final static String ACTION_GATT_DISCONNECTED = "com.jordanleex13.sensortag.ACTION_GATT_DISCONNECTED";
     public final static String ACTION_GATT_SERVICES_DISCOVERED = "com.jordanleex13.sensortag.ACTION_GATT_SERVICES_DISCOVERED";
     public final static String ACTION_DATA_READ = "com.jordanleex13.sensortag.ACTION_DATA_READ";
-    public final static String ACTION_DATA_NOTIFY = "com.jordanleex13.sensortag.ACTION_DATA_NOTIFY";
     public final static String ACTION_DATA_WRITE = "com.jordanleex13.sensortag.ACTION_DATA_WRITE";
+    public final static String ACTION_ALERT = "com.jordanleex13.sensortag.ACTION_ALERT";
+
+    /**
+     * Used with startService(). START takes the device name and address as extras
+     */
+    public final static String ACTION_START_FOREGROUND = "com.jordanleex13.sensortag.ACTION_START_FOREGROUND";
+    public final static String ACTION_STOP_FOREGROUND = "com.jordanleex13.sensortag.ACTION_STOP_FOREGROUND";
 
 
-    // Empty Constructor
     public BleService() {
+        mPipeline.register(mStats, mConversions);
+        mPipeline.register(mQuantiles, SensorConversion.IR_TEMPERATURE, SensorConversion.HUMIDITY2,
+                SensorConversion.LUXOMETER, SensorConversion.BAROMETER);
+        mPipeline.register(mAlerts, mConversions);
+        mAlerts.setListener(new AlertEngine.Listener() {
+            @Override
+            public void onAlert(AlertRule rule, int deviceId, long timestamp, double value, boolean raised) {
+                final Intent intent = new Intent(ACTION_ALERT);
+                intent.putExtra(IntentNames.EXTRAS_ALERT_NAME, rule.getName());
+                intent.putExtra(IntentNames.EXTRAS_ALERT_VALUE, value);
+                intent.putExtra(IntentNames.EXTRAS_ALERT_RAISED, raised);
+                sendBroadcast(intent);
+                CaptureRecorder capture = mCapture;
+                if (capture != null && raised) {
+                    capture.trigger(mArrival);
+                }
+            }
+        });
+        mQueue.setListener(new GattQueue.Listener() {
+            @Override
+            public void onIdle() {
+                // The first batch after discovery has been written, the data can be shown
+                boolean enabled;
+                synchronized (mConfigLock) {
+                    enabled = mTagConfig != null && !mSensorsEnabled;
+                    if (enabled) {
+                        mSensorsEnabled = true;
+                    }
+                }
+                if (enabled) {
+                    broadcastUpdate(ACTION_GATT_SERVICES_DISCOVERED);
+                }
+            }
+        });
     }
 
     public class LocalBinder extends Binder {   //11111111111111
@@ -102,16 +239,117 @@ public class BleService extends Service {
 
     /**
      * Called when all clients have disconnected from a particular interface
-     * published by the service. The default implementation does nothing and
-     * returns false.
+     * published by the service. The connection is kept in foreground mode so the
+     * next activity can attach without reconnecting and rediscovering services.
      */
     @Override
     public boolean onUnbind(Intent intent) {
         //Log.d(TAG, "on UNBIND");
-        close();
+        if (!mForeground) {
+            close();
+        }
         return super.onUnbind(intent);
     }
 
+    /**
+     * Handles {@link #ACTION_START_FOREGROUND} and {@link #ACTION_STOP_FOREGROUND}. The start intent is
+     * redelivered if the process is killed, so the service reconnects to the same device on restart.
+     */
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_STOP_FOREGROUND.equals(intent.getAction())) {
+            stopForegroundMode();
+            if (mBluetoothDeviceAddress != null) {
+                disconnect(mBluetoothDeviceAddress);
+            }
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+
+        if (intent != null) {
+            String address = intent.getStringExtra(IntentNames.EXTRAS_DEVICE_ADDRESS);
+            mDeviceName = intent.getStringExtra(IntentNames.EXTRAS_DEVICE_NAME);
+            if (initialize() && address != null) {
+                connect(address);
+            }
+        }
+        startForegroundMode();
+        return START_REDELIVER_INTENT;
+    }
+
+    /**
+     * Makes sure a running recording is flushed and the GATT connection released before the service goes away
+     */
+    @Override
+    public void onDestroy() {
+        stopRecording();
+        stopUpload();
+        stopStreaming();
+        stopForegroundMode();
+        close();
+        super.onDestroy();
+    }
+
+    private void startForegroundMode() {
+        if (mForeground) {
+            return;
+        }
+        mForeground = true;
+        PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        mWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, BleService.class.getSimpleName());
+        mWakeLock.acquire();
+        startForeground(NOTIFICATION_ID, buildNotification());
+        //Log.i(TAG, "Foreground mode started");
+    }
+
+    /**
+     * Leaves foreground mode. The connection is closed as usual once the last activity unbinds
+     */
+    public void stopForegroundMode() {
+        if (!mForeground) {
+            return;
+        }
+        mForeground = false;
+        stopForeground(true);
+        mWakeLock.release();
+        mWakeLock = null;
+        //Log.i(TAG, "Foreground mode stopped");
+    }
+
+    public boolean isForeground() {
+        return mForeground;
+    }
+
+    /**
+     * Ongoing notification shown while in foreground mode. Opens DeviceActivity and has a Stop action
+     */
+    private Notification buildNotification() {
+        Intent open = new Intent(this, DeviceActivity.class);
+        open.putExtra(IntentNames.EXTRAS_DEVICE_NAME, mDeviceName);
+        open.putExtra(IntentNames.EXTRAS_DEVICE_ADDRESS, mBluetoothDeviceAddress);
+        PendingIntent content = PendingIntent.getActivity(this, 0, open, PendingIntent.FLAG_UPDATE_CURRENT);
+
+        Intent stop = new Intent(this, BleService.class);
+        stop.setAction(ACTION_STOP_FOREGROUND);
+        PendingIntent stopPending = PendingIntent.getService(this, 0, stop, 0);
+
+        return new NotificationCompat.Builder(this)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(mDeviceName != null ? mDeviceName : getString(R.string.app_name))
+                .setContentText(isRecording() ? "Recording" : "Streaming")
+                .setContentIntent(content)
+                .setOngoing(true)
+                .addAction(android.R.drawable.ic_menu_close_clear_cancel, "Stop", stopPending)
+                .build();
+    }
+
+    private void updateNotification() {
+        if (mForeground) {
+            NotificationManager nm = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            nm.notify(NOTIFICATION_ID, buildNotification());
+        }
+    }
+
     /**
      * After using a given BLE device, the app must call this method to ensure resources are
      * released properly.
@@ -167,6 +405,11 @@ public class BleService extends Service {
             return false;
         }
 
+        // Already connected or connecting, eg. when an activity attaches to a running service
+        if (address.equals(mBluetoothDeviceAddress) && mBluetoothGatt != null && mConnectionState != STATE_DISCONNECTED) {
+            return true;
+        }
+
         final BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(address);
         int connectionState = mBluetoothManager.getConnectionState(device, BluetoothProfile.GATT);
 
@@ -277,7 +520,18 @@ public class BleService extends Service {
             } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
                 //Log.i(TAG, "Disconnected from GATT server.");
                 mConnectionState = STATE_DISCONNECTED;
+                mQueue.clear();
+                synchronized (mConfigLock) {
+                    mTagConfig = null;
+                    mSensorsEnabled = false;
+                }
                 broadcastUpdate(ACTION_GATT_DISCONNECTED);
+
+                // Link loss while running unattended. Waits for the tag to come back in range
+                if (mForeground && mBluetoothGatt.connect()) {
+                    //Log.i(TAG, "Reconnecting");
+                    mConnectionState = STATE_CONNECTING;
+                }
             } else {
                 //Log.e(TAG, "Not connected or disconnected. Something went wrong");
             }
@@ -296,7 +550,7 @@ public class BleService extends Service {
 
             if (status == BluetoothGatt.GATT_SUCCESS) {
                 //Log.i(TAG, "SUCCESSFULLY DISCOVERED SERVICES");
-                broadcastUpdate(ACTION_GATT_SERVICES_DISCOVERED);
+                enableSensors(gatt.getDevice().getAddress());
             } else {
                 //Log.w(TAG, "onServicesDiscovered received: " + status);
             }
@@ -329,6 +583,7 @@ public class BleService extends Service {
         @Override
         public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
 //            //Log.i(TAG, "Callback: Characteristic write from  " + characteristic.getUuid().toString() + "\nStatus: " + status);
+            mQueue.onComplete(characteristic.getUuid());
             broadcastUpdate(ACTION_DATA_WRITE, characteristic, status);
         }
 
@@ -342,7 +597,27 @@ public class BleService extends Service {
         @Override
         public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
 //            //Log.i(TAG, "Callback: characteristic changed " + characteristic.getUuid().toString());
-            broadcastUpdate(ACTION_DATA_NOTIFY, characteristic, BluetoothGatt.GATT_SUCCESS);
+            long now = System.currentTimeMillis();
+            String address = gatt.getDevice().getAddress();
+            int deviceId = getDeviceId(address);
+            UUID uuid = characteristic.getUuid();
+            // The stack's own array, valid until the next notification. Everything below copies what it keeps.
+            byte[] value = characteristic.getValue();
+            CaptureRecorder capture = mCapture;
+            SessionRecorder recorder = mRecorder;
+            if (capture != null) {
+                capture.declareDevice(deviceId, address);
+                capture.append(now, deviceId, uuid, value);
+            } else if (recorder != null) {
+                recorder.declareDevice(deviceId, address);
+                recorder.append(now, deviceId, uuid, value);
+            }
+            // Recordings keep the arrival time, replays can reconstruct again
+            long time = mTimestamps.reconstruct(deviceId, uuid, now);
+            mHistory.append(deviceId, uuid, time, value);
+            mArrival = now;
+            mPipeline.onNotification(deviceId, uuid, time, value);
+            dispatchFrame(deviceId, uuid, time, value);
         }
 
 
@@ -354,7 +629,7 @@ public class BleService extends Service {
         @Override
         public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
             //Log.i(TAG, "Callback: Descriptor write from " + descriptor.getUuid().toString() + "\nStatus: " + status);
-
+            mQueue.onComplete(descriptor.getCharacteristic().getUuid());
         }
     };
 
@@ -388,6 +663,44 @@ public class BleService extends Service {
     }
 
 
+    /**
+     * Copies a notification value into the arena once and hands the slot to every frame listener. If the
+     * arena is full because a listener holds on to its slots, the listeners miss the value; the history,
+     * pipeline and recorder already have it.
+     */
+    private void dispatchFrame(int deviceId, UUID uuid, long timestamp, byte[] value) {
+        FrameListener[] listeners = mFrameListeners;
+        if (listeners.length == 0 || value.length > mArena.getSlotSize()) {
+            return;
+        }
+        int slot = mArena.acquire(value);
+        if (slot < 0) {
+            return;
+        }
+        for (FrameListener l : listeners) {
+            l.onFrame(deviceId, uuid, timestamp, mArena, slot);
+        }
+        mArena.release(slot);
+    }
+
+    /**
+     * Delivers every notification value to {@code listener} on the BLE thread, replacing a broadcast with
+     * the value as an extra. See {@link FrameListener}.
+     */
+    public synchronized void addFrameListener(FrameListener listener) {
+        FrameListener[] n = new FrameListener[mFrameListeners.length + 1];
+        System.arraycopy(mFrameListeners, 0, n, 0, mFrameListeners.length);
+        n[mFrameListeners.length] = listener;
+        mFrameListeners = n;
+    }
+
+    public synchronized void removeFrameListener(FrameListener listener) {
+        List<FrameListener> list = new ArrayList<>(Arrays.asList(mFrameListeners));
+        list.remove(listener);
+        mFrameListeners = list.toArray(new FrameListener[list.size()]);
+    }
+
+
     /**
      * Retrieves a list of supported GATT services on the connected device. This should be
      * invoked only after {@code BluetoothGatt#discoverServices()} completes successfully.
@@ -402,138 +715,467 @@ public class BleService extends Service {
 
 
     /**
-     * Enables service with corresponding configuration UUID----------- see {@code SensorTagGatt} for full list of UUIDs
-     * Works with all services on SensorTag2 except for Motion Services which is a special case detailed below
+     * Brings the tag from its power up state to the profile saved for it, or the defaults, in one batch.
+     * Services discovered is broadcast once the batch has been written.
      *
-     * @param service       BluetoothGattService to be enabled
-     * @param configUuid    Configuration UUID of that service
+     * @param address   Address of the tag whose services were discovered
      */
-    public void enableService(BluetoothGattService service, UUID configUuid) {
-        BluetoothGattCharacteristic config = service.getCharacteristic(configUuid);
-        config.setValue(new byte[] {1});
-        mBluetoothGatt.writeCharacteristic(config);
-        //Log.i(TAG, "Enabling " + service.getUuid());
+    private void enableSensors(String address) {
+        synchronized (mConfigLock) {
+            mConfig = loadConfig(address);
+            List<GattOperation> ops = mConfig.diff(SensorConfig.tagDefaults());
+            mTagConfig = mConfig.copy();
+            updateTimestampPeriods();
+
+            for (SensorProfile profile : SensorProfiles.getDefault().getProfiles()) {
+                ops.addAll(profile.getEnableSequence());
+            }
+            mQueue.enqueue(ops);
+        }
+        updateMotionWake();
     }
 
     /**
-     * Enables motion service with corresponding configuration UUID----------- see {@code SensorTagGatt} for full list of UUIDs
+     * Issues one operation for {@code mQueue}. Returns false for services the tag does not have, eg. a
+     * SensorTag without the IO service, so the queue moves on.
+     */
+    private boolean issue(GattOperation operation) {
+        BluetoothGatt gatt = mBluetoothGatt;
+        if (gatt == null) {
+            return false;
+        }
+        BluetoothGattService service = gatt.getService(operation.getService());
+        if (service == null) {
+            //Log.d(TAG, "Service not on this tag " + operation.getService());
+            return false;
+        }
+        BluetoothGattCharacteristic characteristic = service.getCharacteristic(operation.getCharacteristic());
+        if (characteristic == null) {
+            return false;
+        }
+        if (operation.getType() == GattOperation.Type.WRITE) {
+            characteristic.setValue(operation.getValue());
+            return gatt.writeCharacteristic(characteristic);
+        }
+        boolean enable = operation.getType() == GattOperation.Type.ENABLE_NOTIFICATIONS;
+        gatt.setCharacteristicNotification(characteristic, enable); //Enabled locally
+
+        BluetoothGattDescriptor config = characteristic.getDescriptor(SensorTagGatt.UUID_NOTIFICATIONS);
+        if (config == null) {
+            return false;
+        }
+        config.setValue(enable ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE
+                : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+        return gatt.writeDescriptor(config); //Enabled remotely
+    }
+
+    /**
+     * @return True once the sensors of the current connection have been enabled. An attaching activity
+     *         can then show the data straight away
+     */
+    public boolean areSensorsEnabled() {
+        return mSensorsEnabled;
+    }
+
+    /**
+     * @return A copy of the profile of the connected tag. Change it and pass it to {@link #applyConfig}
+     */
+    public SensorConfig getSensorConfig() {
+        synchronized (mConfigLock) {
+            return mConfig.copy();
+        }
+    }
+
+    /**
+     * Makes {@code config} the profile of the connected tag and saves it for the tag's address. Only the
+     * characteristics that differ from the tag's state are written, as one batch, so switching presets is
+     * eg. {@code applyConfig(SensorConfig.lowPower())}. Before services are discovered the profile is only
+     * saved, and written on discovery.
      *
-     * @param service       BluetoothGattService to be enabled
-     * @param configUuid    Configuration UUID of that service
+     * @return Number of GATT operations queued
+     */
+    public int applyConfig(SensorConfig config) {
+        int count = 0;
+        synchronized (mConfigLock) {
+            mConfig = config.copy();
+            saveConfig(mBluetoothDeviceAddress, mConfig);
+            if (mTagConfig != null) {
+                List<GattOperation> ops = mConfig.diff(mTagConfig);
+                mTagConfig = mConfig.copy();
+                updateTimestampPeriods();
+                mQueue.enqueue(ops);
+                count = ops.size();
+            }
+        }
+        updateMotionWake();
+        return count;
+    }
+
+    /**
+     * Used by the sensor switches of the fragments
      */
-    public void enableMotionService(BluetoothGattService service, UUID configUuid, boolean wakeOnShake) {
+    public void setSensorNotifying(SensorConfig.Sensor sensor, boolean notifying) {
+        synchronized (mConfigLock) {
+            SensorConfig config = mConfig.copy();
+            config.setNotifying(sensor, notifying);
+            applyConfig(config);
+        }
+    }
 
-//        Byte 1
-//        Bit0	    2^0     Gyroscope z axis enable
-//        Bit1	    2^1     Gyroscope y axis enable
-//        Bit2	    2^2     Gyroscope x axis enable
-//        Bit3	    2^3     Accelerometer z axis enable
-//        Bit4	    2^4     Accelerometer y axis enable
-//        Bit5	    2^5     Accelerometer x axis enable
-//        Bit6	    2^6     Magnetometer enable (all axes)
-//        Bit7	    2^7     Wake-On-Motion Enable
+    /**
+     * Used by the period SeekBars of the fragments
+     */
+    public void setSensorPeriod(SensorConfig.Sensor sensor, int periodMillis) {
+        synchronized (mConfigLock) {
+            SensorConfig config = mConfig.copy();
+            config.setPeriod(sensor, periodMillis);
+            applyConfig(config);
+        }
+    }
 
-//        Byte 2
-//        8:9	Accelerometer range (0=2G, 1=4G, 2=8G, 3=16G)
-//        10:15	Not used
+    public void setWakeOnMotion(boolean wakeOnMotion) {
+        synchronized (mConfigLock) {
+            SensorConfig config = mConfig.copy();
+            config.setWakeOnMotion(wakeOnMotion);
+            applyConfig(config);
+        }
+    }
 
-        byte b[] = new byte[] {0x7F,0x00};
-        // 0x7F (hexadecimal) = 127 (decimal)
-        // 127 = 2^0 + 2^1 ... 2^6
-        // Enables all bits from 0-6
+    private SensorConfig loadConfig(String address) {
+        String text = getSharedPreferences(CONFIG_PREFERENCES, MODE_PRIVATE).getString(address, null);
+        if (text != null) {
+            try {
+                return SensorConfig.parse(text);
+            } catch (IllegalArgumentException e) {
+                e.printStackTrace();
+            }
+        }
+        return SensorConfig.defaults();
+    }
 
-        if (wakeOnShake) {
-            b[0] = (byte)0xFF;  // Enables bit 7
+    private void saveConfig(String address, SensorConfig config) {
+        if (address == null) {
+            return;
         }
+        SharedPreferences.Editor editor = getSharedPreferences(CONFIG_PREFERENCES, MODE_PRIVATE).edit();
+        editor.putString(address, config.toString());
+        editor.apply();
+    }
 
-        BluetoothGattCharacteristic config = service.getCharacteristic(configUuid);
-        config.setValue(b);
-        mBluetoothGatt.writeCharacteristic(config);
-        //Log.i(TAG, "Enabling motion services with wakeOnShake: " + wakeOnShake);
+    /**
+     * With wake-on-motion the tag only sends movement notifications while it moves, which the capture mode
+     * uses as a trigger
+     */
+    private long getWakeGap() {
+        synchronized (mConfigLock) {
+            boolean wake = mConfig.isEnabled(SensorConfig.Sensor.MOVEMENT) && mConfig.isWakeOnMotion();
+            return wake ? CaptureRecorder.DEFAULT_WAKE_GAP_MILLIS : -1;
+        }
     }
 
+    private void updateMotionWake() {
+        CaptureRecorder capture = mCapture;
+        if (capture != null) {
+            capture.setTriggerOnMotionWake(getWakeGap());
+        }
+    }
 
     /**
-     * Disables service with corresponding configuration UUID----------- see {@code SensorTagGatt} for full list of UUIDs
-     * Works with all services on SensorTag2 except for Motion Services which is a special case detailed below
+     * Writes a period outside the profile, eg. for adaptive sampling. Queued behind any pending writes.
      *
-     * @param service       BluetoothGattService to be disabled
-     * @param configUuid    Configuration UUID of that service
+     * @param p     Period in tens of milliseconds
      */
-    public void disableService(BluetoothGattService service, UUID configUuid) {
-        BluetoothGattCharacteristic config = service.getCharacteristic(configUuid);
-        config.setValue(new byte[] {0});
-        mBluetoothGatt.writeCharacteristic(config);
-        //Log.i(TAG, "Disabling " + service.getUuid());
+    public void changePeriod(BluetoothGattCharacteristic periodCharacteristic, byte p) {
+        int millis = (p & 0xFF) * 10;
+        SensorConfig.Sensor sensor = SensorConfig.Sensor.fromPeriod(periodCharacteristic.getUuid());
+        synchronized (mConfigLock) {
+            // Keeps track of the tag's state, so applying the profile again writes its own period back
+            if (sensor != null && mTagConfig != null && millis >= sensor.getMinPeriod()) {
+                mTagConfig.setPeriod(sensor, millis);
+                updateTimestampPeriods();
+            }
+            mQueue.enqueue(GattOperation.write(periodCharacteristic.getService().getUuid(),
+                    periodCharacteristic.getUuid(), new byte[]{p}));
+        }
+        //Log.i(TAG, "Changing period of service " + periodCharacteristic.getUuid().toString());
+    }
+
+
 
+    public void changeIO(BluetoothGattCharacteristic characteristic, byte[] val) {
+        mQueue.enqueue(GattOperation.write(characteristic.getService().getUuid(), characteristic.getUuid(), val));
+    }
+
+
+    /**
+     * Starts recording every notification to a new session in {@code directory}. See {@code SessionRecorder}
+     *
+     * @param directory     Directory for the session files
+     * @throws IOException  If the first segment cannot be created
+     */
+    public synchronized void startRecording(File directory) throws IOException {
+        stopRecording();
+        final RollupSet rollups = new RollupSet();
+        mRecorder = new SessionRecorder(directory);
+        mRecorder.setListener(new SessionRecorder.Listener() {
+            private long mLastSave = System.currentTimeMillis();
+
+            @Override
+            public void onSync(SessionRecorder recorder) {
+                long now = System.currentTimeMillis();
+                if (now - mLastSave < ROLLUP_SAVE_INTERVAL) {
+                    return;
+                }
+                mLastSave = now;
+                try {
+                    rollups.write(recorder.getDirectory());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        mRollups = rollups;
+        mStats.resetWindows();
+        mPipeline.register(mRollups, mConversions);
+        updateNotification();
+        //Log.i(TAG, "Recording to " + directory);
     }
 
     /**
-     * Disables motion service with corresponding configuration UUID----------- see {@code SensorTagGatt} for full list of UUIDs
+     * Records only around events: the last {@code preMillis} of frames and the next {@code postMillis} are
+     * written when an alert is raised, a Simple Keys button is pressed or, with wake on shake on, the tag
+     * starts moving. See {@code CaptureRecorder}
      *
-     * @param service BluetoothGattService to be disabled
-     * @param configUuid Configuration UUID of that service
+     * @param directory     Directory for the session files
+     * @throws IOException  If the first segment cannot be created
      */
-    public void disableMotionService(BluetoothGattService service, UUID configUuid) {
-        byte b[] = new byte[] {0x00,0x00};
+    public synchronized void startCapture(File directory, long preMillis, long postMillis) throws IOException {
+        startRecording(directory);
+        CaptureRecorder capture = new CaptureRecorder(mRecorder, preMillis, postMillis,
+                CaptureRecorder.DEFAULT_RING_CAPACITY);
+        capture.setTriggerOnMotionWake(getWakeGap());
+        mCapture = capture;
+    }
 
-        BluetoothGattCharacteristic config = service.getCharacteristic(configUuid);
-        config.setValue(b);
-        mBluetoothGatt.writeCharacteristic(config);
-        //Log.i(TAG, "Disabling motion services");
+    /**
+     * Flushes and closes the current session, if any, and saves its rollups next to it. While recording they
+     * are also saved every {@link #ROLLUP_SAVE_INTERVAL} by the recorder's sync timer.
+     */
+    public synchronized void stopRecording() {
+        SessionRecorder recorder = mRecorder;
+        RollupSet rollups = mRollups;
+        mCapture = null;
+        mRecorder = null;
+        mRollups = null;
+        if (recorder != null) {
+            mPipeline.unregister(rollups);
+            recorder.setListener(null);
+            try {
+                recorder.close();
+                rollups.write(recorder.getDirectory());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            updateNotification();
+        }
     }
 
     /**
-     * Enables service notifications with corresponding data UUID----------- see {@code SensorTagGatt} for full list of UUIDs
-     * Works with all services on SensorTag2
+     * Forwards every decoded sample to a collector. Undelivered batches are kept in the cache directory
+     * and resent when the collector is back
      *
-     * @param service       BluetoothGattService to enable notifications
-     * @param dataUuid      Data UUID of that service
+     * @param collector     Endpoint that receives the POSTed batches
      */
-    public void enableNotifications(BluetoothGattService service, UUID dataUuid) {
+    public synchronized void startUpload(URL collector) {
+        stopUpload();
+        mUploader = new BatchUploader(collector, new File(getCacheDir(), "upload"));
+        mPipeline.register(mUploader, mConversions);
+    }
+
+    public synchronized void stopUpload() {
+        if (mUploader == null) {
+            return;
+        }
+        mPipeline.unregister(mUploader);
+        try {
+            mUploader.close(1000);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        mUploader = null;
+    }
 
-        BluetoothGattCharacteristic dataCharacteristic = service.getCharacteristic(dataUuid);
-        mBluetoothGatt.setCharacteristicNotification(dataCharacteristic, true); //Enabled locally
+    /**
+     * Streams every decoded sample to desktop tools that connect on {@code port}. See {@code SampleServer}
+     *
+     * @param port  TCP port to listen on, or 0 for any free port
+     * @return      The port actually used
+     */
+    public synchronized int startStreaming(int port) throws IOException {
+        stopStreaming();
+        mServer = new SampleServer(port, SampleServer.DEFAULT_QUEUE_SIZE);
+        mPipeline.register(mServer, mConversions);
+        return mServer.getPort();
+    }
 
-        BluetoothGattDescriptor config = dataCharacteristic.getDescriptor(SensorTagGatt.UUID_NOTIFICATIONS);
-        config.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-        mBluetoothGatt.writeDescriptor(config); //Enabled remotely
+    public synchronized void stopStreaming() {
+        if (mServer == null) {
+            return;
+        }
+        mPipeline.unregister(mServer);
+        mServer.close();
+        mServer = null;
     }
 
     /**
-     * Disables service notifications with corresponding data UUID----------- see {@code SensorTagGatt} for full list of UUIDs
-     * Works with all services on SensorTag2
+     * Lets the sensor periods follow the signals: longer while they are static, the minimum as soon as they
+     * change. Overrides the periods of the profile until stopped. See {@code AdaptivePeriodController}
+     */
+    public synchronized void startAdaptiveSampling() {
+        stopAdaptiveSampling();
+        mPeriods = new AdaptivePeriodController();
+        mPeriods.setListener(new AdaptivePeriodController.Listener() {
+            @Override
+            public void onPeriodChange(UUID periodCharacteristic, int periodMillis) {
+                BluetoothGattCharacteristic c = getCharacteristicFromUUID(periodCharacteristic.toString());
+                if (c != null) {
+                    changePeriod(c, (byte) (periodMillis / 10));
+                }
+            }
+        });
+        mPipeline.register(mPeriods, AdaptivePeriodController.SENSORS);
+    }
+
+    public synchronized void stopAdaptiveSampling() {
+        if (mPeriods == null) {
+            return;
+        }
+        mPipeline.unregister(mPeriods);
+        mPeriods = null;
+        // Back to the periods of the profile
+        applyConfig(getSensorConfig());
+    }
+
+    /**
+     * Resamples the given channels onto one time grid and hands a frame per tick to {@code listener} on the BLE
+     * callback thread. Replaces the aligner started before. See {@code TimeAligner}
      *
-     * @param service       BluetoothGattService to disable notifications
-     * @param dataUuid      Data UUID of that service
+     * @param channels      Eg. "MOVEMENT_ACC.z" or "BAROMETER"
      */
-    public void disableNotifications(BluetoothGattService service, UUID dataUuid) {
+    public synchronized void startAligning(long tickMillis, long lookbackMillis,
+                                           TimeAligner.Interpolation interpolation, TimeAligner.Listener listener,
+                                           String... channels) {
+        stopAligning();
+        mAligner = new TimeAligner(TimeAligner.ANY_DEVICE, tickMillis, lookbackMillis, interpolation, channels);
+        mAligner.setListener(listener);
+        mPipeline.register(mAligner, mAligner.getSensors());
+    }
 
-        UUID notificationUuid = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+    public synchronized void stopAligning() {
+        if (mAligner == null) {
+            return;
+        }
+        mPipeline.unregister(mAligner);
+        mAligner = null;
+    }
 
-        BluetoothGattCharacteristic dataCharacteristic = service.getCharacteristic(dataUuid);
-        mBluetoothGatt.setCharacteristicNotification(dataCharacteristic, false); //Disabled locally
+    /**
+     * Hands a spectrum of the accelerometer magnitude to {@code listener} on the BLE callback thread every
+     * {@code VibrationSpectrum.DEFAULT_HOP} samples. Replaces the spectrum started before. See
+     * {@code VibrationSpectrum}
+     */
+    public synchronized void startVibrationSpectrum(VibrationSpectrum.Listener listener) {
+        stopVibrationSpectrum();
+        mSpectrum = new VibrationSpectrum();
+        mSpectrum.setListener(listener);
+        mPipeline.register(mSpectrum, SensorConversion.MOVEMENT_ACC);
+    }
 
-        BluetoothGattDescriptor config = dataCharacteristic.getDescriptor(notificationUuid);
-        config.setValue(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
-        mBluetoothGatt.writeDescriptor(config); //Disabled remotely
+    public synchronized void stopVibrationSpectrum() {
+        if (mSpectrum == null) {
+            return;
+        }
+        mPipeline.unregister(mSpectrum);
+        mSpectrum = null;
     }
 
-    public void changePeriod(BluetoothGattCharacteristic periodCharacteristic, byte p) {
+    /**
+     * Rollups of the session being recorded, for charting. Null when not recording
+     */
+    public synchronized RollupSet getRollups() {
+        return mRollups;
+    }
 
-        byte[] val = new byte[1];
-        val[0] = p;
+    /**
+     * Gives the timestamp reconstructor the periods the tag is configured with. Called with mConfigLock held
+     * whenever mTagConfig changes.
+     */
+    private void updateTimestampPeriods() {
+        for (SensorConfig.Sensor s : SensorConfig.Sensor.values()) {
+            if (s.getPeriod() != null) {
+                mTimestamps.setPeriod(s, mTagConfig.getPeriod(s));
+            }
+        }
+    }
 
-        periodCharacteristic.setValue(val);
-        mBluetoothGatt.writeCharacteristic(periodCharacteristic);
-        //Log.i(TAG, "Changing period of service " + periodCharacteristic.getUuid().toString());
+    /**
+     * Sample times, fitted periods, residual jitter and gaps of every sensor. See {@code TimestampReconstructor}
+     */
+    public TimestampReconstructor getTimestamps() {
+        return mTimestamps;
     }
 
+    /**
+     * Per channel statistics of every sensor. The windows restart with each recording.
+     */
+    public StatsSet getStats() {
+        return mStats;
+    }
+
+    /**
+     * Percentiles of the environmental sensors since the service started or {@link QuantileSet#reset()}
+     */
+    public QuantileSet getQuantiles() {
+        return mQuantiles;
+    }
 
+    /**
+     * Alert rules evaluated on every sample. Raised and cleared alerts are broadcast as {@link #ACTION_ALERT}.
+     */
+    public AlertEngine getAlerts() {
+        return mAlerts;
+    }
 
-    public void changeIO(BluetoothGattCharacteristic characteristic, byte[] val) {
-        characteristic.setValue(val);
-        mBluetoothGatt.writeCharacteristic(characteristic);
+    /**
+     * Last {@value #HISTORY_FRAMES} raw frames of every characteristic, for charts that scroll back
+     */
+    public FrameHistory getHistory() {
+        return mHistory;
+    }
+
+    /**
+     * Processing pipeline fed with every decoded notification. Stages register here.
+     */
+    public SamplePipeline getPipeline() {
+        return mPipeline;
+    }
+
+    /**
+     * Small ids used instead of the address by the pipeline and the recorder
+     */
+    private int getDeviceId(String address) {
+        synchronized (mDeviceIds) {
+            Integer id = mDeviceIds.get(address);
+            if (id == null) {
+                id = mDeviceIds.size();
+                mDeviceIds.put(address, id);
+            }
+            return id;
+        }
+    }
+
+    public boolean isRecording() {
+        return mRecorder != null;
     }
 
 
@@ -17,23 +17,9 @@ public class IntentNames {
     public final static String EXTRA_UUID = "com.jordanleex13.sensortag.EXTRA_UUID";
     public final static String EXTRA_STATUS = "com.jordanleex13.sensortag.EXTRA_STATUS";
 
-    public static final String ACTION_IRT_CHANGE = "com.jordanleex13.sensortag.ACTION_IRT_CHANGE";
-    public static final String EXTRAS_IRT_DATA = "com.jordanleex13.sensortag.EXTRAS_IRT_DATA";
-
-    public static final String ACTION_OPT_CHANGE = "com.jordanleex13.sensortag.ACTION_OPT_CHANGE";
-    public static final String EXTRAS_OPT_DATA = "com.jordanleex13.sensortag.EXTRAS_OPT_DATA";
-
-    public static final String ACTION_MOV_CHANGE = "com.jordanleex13.sensortag.ACTION_MOV_CHANGE";
-    public static final String EXTRAS_MOV_DATA = "com.jordanleex13.sensortag.EXTRAS_MOV_DATA";
-
-    public static final String ACTION_KEY_CHANGE = "com.jordanleex13.sensortag.ACTION_KEY_CHANGE";
-    public static final String EXTRAS_KEY_DATA = "com.jordanleex13.sensortag.EXTRAS_KEY_DATA";
-
-    public static final String ACTION_HUM_CHANGE = "com.jordanleex13.sensortag.ACTION_HUM_CHANGE";
-    public static final String EXTRAS_HUM_DATA = "com.jordanleex13.sensortag.EXTRAS_HUM_DATA";
-
-    public static final String ACTION_BAR_CHANGE = "com.jordanleex13.sensortag.ACTION_BAR_CHANGE";
-    public static final String EXTRAS_BAR_DATA = "com.jordanleex13.sensortag.EXTRAS_BAR_DATA";
+    public static final String EXTRAS_ALERT_NAME = "com.jordanleex13.sensortag.EXTRAS_ALERT_NAME";
+    public static final String EXTRAS_ALERT_VALUE = "com.jordanleex13.sensortag.EXTRAS_ALERT_VALUE";
+    public static final String EXTRAS_ALERT_RAISED = "com.jordanleex13.sensortag.EXTRAS_ALERT_RAISED";
 
 
 }
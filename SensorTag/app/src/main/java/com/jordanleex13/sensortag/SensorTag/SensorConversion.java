@@ -2,21 +2,27 @@ package com.jordanleex13.sensortag.SensorTag;
 
 import android.bluetooth.BluetoothGattCharacteristic;
 
+import com.jordanleex13.sensortag.frames.FrameDecoders;
+import com.jordanleex13.sensortag.frames.FrameSpec;
 import com.jordanleex13.sensortag.models.Point3D;
 
 import java.util.UUID;
 
 import static com.jordanleex13.sensortag.SensorTag.SensorTagGatt.UUID_HUM_CONF;
 import static com.jordanleex13.sensortag.SensorTag.SensorTagGatt.UUID_HUM_DATA;
+import static com.jordanleex13.sensortag.SensorTag.SensorTagGatt.UUID_HUM_PERI;
 import static com.jordanleex13.sensortag.SensorTag.SensorTagGatt.UUID_HUM_SERV;
 import static com.jordanleex13.sensortag.SensorTag.SensorTagGatt.UUID_IRT_CONF;
 import static com.jordanleex13.sensortag.SensorTag.SensorTagGatt.UUID_IRT_DATA;
+import static com.jordanleex13.sensortag.SensorTag.SensorTagGatt.UUID_IRT_PERI;
 import static com.jordanleex13.sensortag.SensorTag.SensorTagGatt.UUID_IRT_SERV;
 import static com.jordanleex13.sensortag.SensorTag.SensorTagGatt.UUID_MOV_CONF;
 import static com.jordanleex13.sensortag.SensorTag.SensorTagGatt.UUID_MOV_DATA;
+import static com.jordanleex13.sensortag.SensorTag.SensorTagGatt.UUID_MOV_PERI;
 import static com.jordanleex13.sensortag.SensorTag.SensorTagGatt.UUID_MOV_SERV;
 import static com.jordanleex13.sensortag.SensorTag.SensorTagGatt.UUID_OPT_CONF;
 import static com.jordanleex13.sensortag.SensorTag.SensorTagGatt.UUID_OPT_DATA;
+import static com.jordanleex13.sensortag.SensorTag.SensorTagGatt.UUID_OPT_PERI;
 import static com.jordanleex13.sensortag.SensorTag.SensorTagGatt.UUID_OPT_SERV;
 import static java.lang.Math.pow;
 
@@ -34,31 +40,24 @@ import static java.lang.Math.pow;
  * Taken from TI SensorTag Source Code and modified for this application
  */
 public enum SensorConversion {
-    IR_TEMPERATURE(UUID_IRT_SERV, UUID_IRT_DATA, UUID_IRT_CONF) {
+    IR_TEMPERATURE(UUID_IRT_SERV, UUID_IRT_DATA, UUID_IRT_CONF, UUID_IRT_PERI, 3) {
         @Override
-        public Point3D convert(final byte [] value) {
+        public void convert(final byte[] value, float[] out, int offset) {
 
 			/*
 			 * The IR Temperature sensor produces two measurements; Object ( AKA target or IR) Temperature, and Ambient ( AKA die ) temperature.
 			 * Both need some conversion, and Object temperature is dependent on Ambient temperature.
-			 * They are stored as [ObjLSB, ObjMSB, AmbLSB, AmbMSB] (4 bytes) Which means we need to shift the bytes around to get the correct values.
+			 * See FrameSpec.IR_TEMPERATURE for the layout.
 			 */
 
-            double ambient = extractAmbientTemperature(value);
-            double target = extractTargetTemperature(value, ambient);
-            double targetNewSensor = extractTargetTemperatureTMP007(value);
-            return new Point3D(ambient, target, targetNewSensor);
+            double ambient = FrameDecoders.irTemperatureAmbient(value);
+            out[offset] = (float) ambient;
+            out[offset + 1] = (float) extractTargetTemperature(FrameDecoders.irTemperatureObjectVoltage(value), ambient);
+            out[offset + 2] = FrameDecoders.irTemperatureObjectTmp007(value);
         }
 
-        private double extractAmbientTemperature(byte [] v) {
-            int offset = 2;
-            return shortUnsignedAtOffset(v, offset) / 128.0;
-        }
-
-        private double extractTargetTemperature(byte [] v, double ambient) {
-            Integer twoByteValue = shortSignedAtOffset(v, 0);
-
-            double Vobj2 = twoByteValue.doubleValue();
+        private double extractTargetTemperature(int objectVoltage, double ambient) {
+            double Vobj2 = objectVoltage;
             Vobj2 *= 0.00000015625;
 
             double Tdie = ambient + 273.15;
@@ -78,150 +77,104 @@ public enum SensorConversion {
 
             return tObj - 273.15;
         }
-        private double extractTargetTemperatureTMP007(byte [] v) {
-            int offset = 0;
-            return shortUnsignedAtOffset(v, offset) / 128.0;
-        }
     },
 
-    MOVEMENT_ACC(UUID_MOV_SERV,UUID_MOV_DATA, UUID_MOV_CONF,(byte)3) {
+    MOVEMENT_ACC(UUID_MOV_SERV,UUID_MOV_DATA, UUID_MOV_CONF, UUID_MOV_PERI, 3, (byte)3) {
         @Override
-        public Point3D convert(final byte[] value) {
-            // Range 8G
-            final float SCALE = (float) 4096.0;
-
-            int x = (value[7]<<8) + value[6];
-            int y = (value[9]<<8) + value[8];
-            int z = (value[11]<<8) + value[10];
-            return new Point3D(((x / SCALE) * -1), y / SCALE, ((z / SCALE)*-1));
+        public void convert(final byte[] value, float[] out, int offset) {
+            out[offset] = FrameDecoders.movementAccX(value);
+            out[offset + 1] = FrameDecoders.movementAccY(value);
+            out[offset + 2] = FrameDecoders.movementAccZ(value);
         }
     },
-    MOVEMENT_GYRO(UUID_MOV_SERV,UUID_MOV_DATA, UUID_MOV_CONF,(byte)3) {
+    MOVEMENT_GYRO(UUID_MOV_SERV,UUID_MOV_DATA, UUID_MOV_CONF, UUID_MOV_PERI, 3, (byte)3) {
         @Override
-        public Point3D convert(final byte[] value) {
-
-            final float SCALE = (float) 128.0;
-
-            int x = (value[1]<<8) + value[0];
-            int y = (value[3]<<8) + value[2];
-            int z = (value[5]<<8) + value[4];
-            return new Point3D(x / SCALE, y / SCALE, z / SCALE);
+        public void convert(final byte[] value, float[] out, int offset) {
+            out[offset] = FrameDecoders.movementGyroX(value);
+            out[offset + 1] = FrameDecoders.movementGyroY(value);
+            out[offset + 2] = FrameDecoders.movementGyroZ(value);
         }
     },
-    MOVEMENT_MAG(UUID_MOV_SERV,UUID_MOV_DATA, UUID_MOV_CONF,(byte)3) {
+    MOVEMENT_MAG(UUID_MOV_SERV,UUID_MOV_DATA, UUID_MOV_CONF, UUID_MOV_PERI, 3, (byte)3) {
         @Override
-        public Point3D convert(final byte[] value) {
-            final float SCALE = (float) (32768 / 4912);
-            if (value.length >= 18) {
-                int x = (value[13]<<8) + value[12];
-                int y = (value[15]<<8) + value[14];
-                int z = (value[17]<<8) + value[16];
-                return new Point3D(x / SCALE, y / SCALE, z / SCALE);
+        public void convert(final byte[] value, float[] out, int offset) {
+            if (value.length >= FrameDecoders.MOVEMENT_LENGTH) {
+                out[offset] = FrameDecoders.movementMagX(value);
+                out[offset + 1] = FrameDecoders.movementMagY(value);
+                out[offset + 2] = FrameDecoders.movementMagZ(value);
+            } else {
+                out[offset] = 0;
+                out[offset + 1] = 0;
+                out[offset + 2] = 0;
             }
-            else return new Point3D(0,0,0);
         }
     },
 
-    HUMIDITY(UUID_HUM_SERV, UUID_HUM_DATA, UUID_HUM_CONF) {
+    HUMIDITY(UUID_HUM_SERV, UUID_HUM_DATA, UUID_HUM_CONF, UUID_HUM_PERI, 1) {
         @Override
-        public Point3D convert(final byte[] value) {
-            int a = shortUnsignedAtOffset(value, 2);
-            // bits [1..0] are status bits and need to be cleared according
-            // to the user guide, but the iOS code doesn't bother. It should
-            // have minimal impact.
-            a = a - (a % 4);
-
-            return new Point3D((-6f) + 125f * (a / 65535f), 0, 0);
+        public void convert(final byte[] value, float[] out, int offset) {
+            // bits [1..0] are status bits and are cleared by the frame layout
+            int a = FrameDecoders.humiditySht21(value);
+            out[offset] = (-6f) + 125f * (a / 65535f);
         }
     },
-    HUMIDITY2(UUID_HUM_SERV, UUID_HUM_DATA, UUID_HUM_CONF) {
+    HUMIDITY2(UUID_HUM_SERV, UUID_HUM_DATA, UUID_HUM_CONF, UUID_HUM_PERI, 1) {
         @Override
-        public Point3D convert(final byte[] value) {
-            int a = shortUnsignedAtOffset(value, 2);
-
-            return new Point3D(100f * (a / 65535f), 0, 0);
+        public void convert(final byte[] value, float[] out, int offset) {
+            int a = FrameDecoders.humidityHdc1000(value);
+            out[offset] = 100f * (a / 65535f);
         }
     },
 
-    LUXOMETER(UUID_OPT_SERV, UUID_OPT_DATA, UUID_OPT_CONF) {
+    LUXOMETER(UUID_OPT_SERV, UUID_OPT_DATA, UUID_OPT_CONF, UUID_OPT_PERI, 1) {
         @Override
-        public Point3D convert(final byte [] value) {
-            int mantissa;
-            int exponent;
-            Integer sfloat= shortUnsignedAtOffset(value, 0);
-
-            mantissa = sfloat & 0x0FFF;
-            exponent = (sfloat >> 12) & 0xFF;
-
-            double output;
-            double magnitude = pow(2.0f, exponent);
-            output = (mantissa * magnitude);
-
-            return new Point3D(output / 100.0f, 0, 0);
+        public void convert(final byte[] value, float[] out, int offset) {
+            out[offset] = FrameDecoders.luxometerLux(value);
         }
     },
 
-    BAROMETER(SensorTagGatt.UUID_BAR_SERV, SensorTagGatt.UUID_BAR_DATA, SensorTagGatt.UUID_BAR_CONF) {
+    BAROMETER(SensorTagGatt.UUID_BAR_SERV, SensorTagGatt.UUID_BAR_DATA, SensorTagGatt.UUID_BAR_CONF,
+            SensorTagGatt.UUID_BAR_PERI, 1) {
         @Override
-        public Point3D convert(final byte[] value) {
-
-    //            if (DeviceActivity.getInstance().isSensorTag2())
-
-            if (value.length > 4) {
-                Integer val = twentyFourBitUnsignedAtOffset(value, 2);
-                return new Point3D((double) val / 100.0, 0, 0);
+        public void convert(final byte[] value, float[] out, int offset) {
+            if (value.length > FrameDecoders.BAROMETER_SFLOAT_LENGTH) {
+                out[offset] = FrameDecoders.barometerPressure(value);
             } else {
-                int mantissa;
-                int exponent;
-                Integer sfloat = shortUnsignedAtOffset(value, 2);
-
-                mantissa = sfloat & 0x0FFF;
-                exponent = (sfloat >> 12) & 0xFF;
-
-                double output;
-                double magnitude = pow(2.0f, exponent);
-                output = (mantissa * magnitude);
-                return new Point3D(output / 100.0f, 0, 0);
-
+                out[offset] = FrameDecoders.barometerSfloatPressure(value);
             }
         }
     };
 
 
-    /**
-     * Gyroscope, Magnetometer, Barometer, IR temperature all store 16 bit two's complement values as LSB MSB, which cannot be directly parsed
-     * as getIntValue(FORMAT_SINT16, offset) because the bytes are stored as little-endian.
-     *
-     * This function extracts these 16 bit two's complement values.
-     * */
-    private static Integer shortSignedAtOffset(byte[] c, int offset) {
-        Integer lowerByte = (int) c[offset] & 0xFF;
-        Integer upperByte = (int) c[offset+1]; // // Interpret MSB as signed
-        return (upperByte << 8) + lowerByte;
+    public void onCharacteristicChanged(BluetoothGattCharacteristic c) {
+        throw new UnsupportedOperationException("Error: the individual enum classes are supposed to override this method.");
     }
 
-    private static Integer shortUnsignedAtOffset(byte[] c, int offset) {
-        Integer lowerByte = (int) c[offset] & 0xFF;
-        Integer upperByte = (int) c[offset+1] & 0xFF;
-        return (upperByte << 8) + lowerByte;
-    }
-    private static Integer twentyFourBitUnsignedAtOffset(byte[] c, int offset) {
-        Integer lowerByte = (int) c[offset] & 0xFF;
-        Integer mediumByte = (int) c[offset+1] & 0xFF;
-        Integer upperByte = (int) c[offset + 2] & 0xFF;
-        return (upperByte << 16) + (mediumByte << 8) + lowerByte;
-    }
 
-    public void onCharacteristicChanged(BluetoothGattCharacteristic c) {
+    /**
+     * Decodes the raw data straight into a float array so that history and recording buffers do not
+     * have to keep a {@code Point3D} per sample. Only the first {@link #getChannelCount()} values are written.
+     * The byte layouts are described in {@link FrameSpec} and read by the generated {@link FrameDecoders}.
+     *
+     * @param value     The byte array which contains the data
+     * @param out       Destination array
+     * @param offset    Index in {@code out} of the first channel
+     */
+    public void convert(byte[] value, float[] out, int offset) {
         throw new UnsupportedOperationException("Error: the individual enum classes are supposed to override this method.");
     }
 
-
+    /**
+     * Same as {@link #convert(byte[], float[], int)}, for display. Unused channels are 0.
+     */
     public Point3D convert(byte[] value) {
-        throw new UnsupportedOperationException("Error: the individual enum classes are supposed to override this method.");
+        float[] v = new float[3];
+        convert(value, v, 0);
+        return new Point3D(v[0], v[1], v[2]);
     }
 
-    private final UUID service, data, config;
+    private final UUID service, data, config, period;
+    private final int channels; // Number of Point3D fields that carry data: x only, or x, y and z
     private byte enableCode; // See getEnableSensorCode for explanation.
     public static final byte DISABLE_SENSOR_CODE = 0;
     public static final byte ENABLE_SENSOR_CODE = 1;
@@ -230,20 +183,24 @@ public enum SensorConversion {
     /**
      * Constructor called by the Motion sensors because it more than a boolean enable code.
      */
-    private SensorConversion(UUID service, UUID data, UUID config, byte enableCode) {
+    private SensorConversion(UUID service, UUID data, UUID config, UUID period, int channels, byte enableCode) {
         this.service = service;
         this.data = data;
         this.config = config;
+        this.period = period;
+        this.channels = channels;
         this.enableCode = enableCode;
     }
 
     /**
      * Constructor called by all the sensors except Gyroscope
      * */
-    private SensorConversion(UUID service, UUID data, UUID config) {
+    private SensorConversion(UUID service, UUID data, UUID config, UUID period, int channels) {
         this.service = service;
         this.data = data;
         this.config = config;
+        this.period = period;
+        this.channels = channels;
         this.enableCode = ENABLE_SENSOR_CODE; // This is the sensor enable code for all sensors except the gyroscope
     }
 
@@ -266,6 +223,21 @@ public enum SensorConversion {
         return config;
     }
 
+    /**
+     * @return the period characteristic, in tens of milliseconds. The movement sensors share one.
+     */
+    public UUID getPeriod() {
+        return period;
+    }
+
+    /**
+     * @return the number of meaningful values produced by {@link #convert(byte[])}. Single value sensors
+     * (luxometer, humidity, barometer) only fill in x.
+     */
+    public int getChannelCount() {
+        return channels;
+    }
+
     public static SensorConversion getFromDataUuid(UUID uuid) {
         for (SensorConversion s : SensorConversion.values()) {
             if (s.getData().equals(uuid)) {
@@ -2,6 +2,8 @@ package com.jordanleex13.sensortag.SensorTag;
 
 import android.bluetooth.BluetoothDevice;
 
+import java.util.UUID;
+
 /**
  * Utility functions for the SensorTag
  *
@@ -25,4 +27,25 @@ public class SensorTagUtil {
         //Log.e("Util", "Device is null");
         return false;
     }
+
+    /**
+     * Reduces a 128 bit UUID to the 16 bit value that differs between SensorTag characteristics,
+     * eg. f000aa81-0451-4000-b000-000000000000 becomes 0xAA81. Used to keep recorded data small.
+     */
+    public static int toShortUuid(UUID uuid) {
+        return (int) (uuid.getMostSignificantBits() >>> 32) & 0xFFFF;
+    }
+
+    /**
+     * Inverse of {@link #toShortUuid(UUID)}. TI specific services (0xAAxx, 0xADxx, 0xCCxx, 0xFFCx) use the TI
+     * base UUID, everything else (eg. Simple Keys 0xFFE1) uses the Bluetooth SIG base UUID.
+     */
+    public static UUID fromShortUuid(int shortUuid) {
+        int group = shortUuid & 0xFF00;
+        boolean ti = group == 0xAA00 || group == 0xAD00 || group == 0xCC00 || (shortUuid & 0xFFF0) == 0xFFC0;
+        if (ti) {
+            return new UUID(0xF0000000_00000000L | ((long) shortUuid << 32) | 0x0451_4000L, 0xB000_0000_0000_0000L);
+        }
+        return new UUID(((long) shortUuid << 32) | 0x1000L, 0x8000_0080_5F9B_34FBL);
+    }
 }
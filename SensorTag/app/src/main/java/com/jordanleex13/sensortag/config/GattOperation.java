@@ -0,0 +1,100 @@
+package com.jordanleex13.sensortag.config;
+
+import com.jordanleex13.sensortag.SensorTag.SensorTagUtil;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * One remote GATT request: a characteristic write or a change of a characteristic's notifications. Operations
+ * are run one at a time by {@link GattQueue}.
+ */
+public class GattOperation {
+
+    public enum Type {
+        WRITE,
+        ENABLE_NOTIFICATIONS,
+        DISABLE_NOTIFICATIONS
+    }
+
+    private final Type mType;
+    private final UUID mService;
+    private final UUID mCharacteristic;
+    private final byte[] mValue;
+
+    private GattOperation(Type type, UUID service, UUID characteristic, byte[] value) {
+        mType = type;
+        mService = service;
+        mCharacteristic = characteristic;
+        mValue = value;
+    }
+
+    public static GattOperation write(UUID service, UUID characteristic, byte[] value) {
+        return new GattOperation(Type.WRITE, service, characteristic, value.clone());
+    }
+
+    /**
+     * Writes the Client Characteristic Configuration descriptor of {@code characteristic}
+     */
+    public static GattOperation notifications(UUID service, UUID characteristic, boolean enable) {
+        return new GattOperation(enable ? Type.ENABLE_NOTIFICATIONS : Type.DISABLE_NOTIFICATIONS, service,
+                characteristic, null);
+    }
+
+    public Type getType() {
+        return mType;
+    }
+
+    public UUID getService() {
+        return mService;
+    }
+
+    public UUID getCharacteristic() {
+        return mCharacteristic;
+    }
+
+    /**
+     * @return the bytes written, or null for a notification change
+     */
+    public byte[] getValue() {
+        return mValue;
+    }
+
+    /**
+     * @return true if both operations write the same attribute, so only the later one has to be sent
+     */
+    public boolean sameTarget(GattOperation other) {
+        return mCharacteristic.equals(other.mCharacteristic) && (mType == Type.WRITE) == (other.mType == Type.WRITE);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof GattOperation)) {
+            return false;
+        }
+        GattOperation other = (GattOperation) o;
+        return mType == other.mType && mService.equals(other.mService) && mCharacteristic.equals(other.mCharacteristic)
+                && Arrays.equals(mValue, other.mValue);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mCharacteristic.hashCode() + mType.hashCode();
+    }
+
+    /**
+     * eg. "write aa83=0a" or "notify aa81 on"
+     */
+    @Override
+    public String toString() {
+        String uuid = String.format("%04x", SensorTagUtil.toShortUuid(mCharacteristic));
+        if (mType != Type.WRITE) {
+            return "notify " + uuid + (mType == Type.ENABLE_NOTIFICATIONS ? " on" : " off");
+        }
+        StringBuilder sb = new StringBuilder("write ").append(uuid).append('=');
+        for (byte b : mValue) {
+            sb.append(String.format("%02x", b & 0xFF));
+        }
+        return sb.toString();
+    }
+}
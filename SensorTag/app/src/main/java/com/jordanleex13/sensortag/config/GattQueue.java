@@ -0,0 +1,241 @@
+package com.jordanleex13.sensortag.config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs GATT operations one at a time. The Android BLE stack silently drops a request issued while another
+ * one is waiting for its callback, so the next operation is only issued from the write callback of the
+ * previous one, instead of sleeping between them.
+ *
+ * An operation waiting in the queue is replaced by a later one for the same attribute, so switching settings
+ * quickly does not send the values in between. The later one takes its place at the end of the queue, so a
+ * batch keeps its order of stopping sensors, setting periods and starting them.
+ *
+ * A callback can also get lost, eg. when the link drops in the middle of a request. If none arrives within
+ * the timeout the operation is issued once more, and after that given up so the queue moves on.
+ */
+public class GattQueue {
+
+    /**
+     * Issues operations on the GATT connection
+     */
+    public interface Executor {
+        /**
+         * @return true once the request is issued and a write callback will follow, false if it could not be
+         *         issued (eg. the characteristic is missing on this tag). The queue then moves on.
+         */
+        boolean execute(GattOperation operation);
+    }
+
+    public interface Listener {
+        /**
+         * Called when the last queued operation has completed, on the thread that completed it
+         */
+        void onIdle();
+    }
+
+    public static final long DEFAULT_TIMEOUT = 2000;
+    /** Times an operation is issued before it is given up */
+    public static final int ATTEMPTS = 2;
+
+    private final Executor mExecutor;
+    private final long mTimeoutMillis;
+    private final ScheduledExecutorService mTimer;
+    private final List<GattOperation> mPending = new ArrayList<>();
+    private GattOperation mInFlight;
+    private int mAttempts;
+    private ScheduledFuture<?> mTimeout;
+    private Listener mListener;
+    private long mIssuedCount;
+    private long mSkippedCount;
+    private long mTimedOutCount;
+
+    public GattQueue(Executor executor) {
+        this(executor, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param timeoutMillis     How long to wait for the callback of an operation before issuing it again
+     */
+    public GattQueue(Executor executor, long timeoutMillis) {
+        mExecutor = executor;
+        mTimeoutMillis = timeoutMillis;
+        mTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "GattQueue-timeout");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public void enqueue(GattOperation operation) {
+        List<GattOperation> batch = new ArrayList<>(1);
+        batch.add(operation);
+        enqueue(batch);
+    }
+
+    /**
+     * Adds a batch in order and starts it if nothing is in flight. The listener is told when the queue drains,
+     * also for an empty batch.
+     */
+    public void enqueue(List<GattOperation> batch) {
+        boolean idle;
+        synchronized (this) {
+            for (GattOperation op : batch) {
+                int i = indexOfTarget(op);
+                if (i >= 0) {
+                    mPending.remove(i);
+                }
+                mPending.add(op);
+            }
+            idle = mInFlight == null && issueNext();
+        }
+        if (idle) {
+            notifyIdle();
+        }
+    }
+
+    private int indexOfTarget(GattOperation op) {
+        for (int i = 0; i < mPending.size(); i++) {
+            if (mPending.get(i).sameTarget(op)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Called from the write callbacks. Completions of requests the queue did not issue are ignored.
+     *
+     * @param characteristic    Characteristic written, or whose notification descriptor was written
+     */
+    public void onComplete(UUID characteristic) {
+        boolean idle;
+        synchronized (this) {
+            if (mInFlight == null || !mInFlight.getCharacteristic().equals(characteristic)) {
+                return;
+            }
+            cancelTimeout();
+            mInFlight = null;
+            idle = issueNext();
+        }
+        if (idle) {
+            notifyIdle();
+        }
+    }
+
+    /**
+     * Issues the operation in flight again, or gives it up, if its callback has not arrived
+     */
+    private void onTimeout(GattOperation op) {
+        boolean idle;
+        synchronized (this) {
+            if (mInFlight != op) {
+                return;
+            }
+            mTimeout = null;
+            if (mAttempts < ATTEMPTS && mExecutor.execute(op)) {
+                mAttempts++;
+                mIssuedCount++;
+                scheduleTimeout(op);
+                return;
+            }
+            mTimedOutCount++;
+            mInFlight = null;
+            idle = issueNext();
+        }
+        if (idle) {
+            notifyIdle();
+        }
+    }
+
+    private void scheduleTimeout(final GattOperation op) {
+        mTimeout = mTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                onTimeout(op);
+            }
+        }, mTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelTimeout() {
+        if (mTimeout != null) {
+            mTimeout.cancel(false);
+            mTimeout = null;
+        }
+    }
+
+    /**
+     * @return true if there was nothing left to issue
+     */
+    private boolean issueNext() {
+        while (!mPending.isEmpty()) {
+            GattOperation op = mPending.remove(0);
+            if (mExecutor.execute(op)) {
+                mInFlight = op;
+                mAttempts = 1;
+                mIssuedCount++;
+                scheduleTimeout(op);
+                return false;
+            }
+            mSkippedCount++;
+        }
+        return true;
+    }
+
+    private void notifyIdle() {
+        Listener l = mListener;
+        if (l != null) {
+            l.onIdle();
+        }
+    }
+
+    /**
+     * Drops every pending operation and the one in flight, eg. when the connection is lost
+     */
+    public synchronized void clear() {
+        mPending.clear();
+        cancelTimeout();
+        mInFlight = null;
+    }
+
+    public synchronized boolean isIdle() {
+        return mInFlight == null && mPending.isEmpty();
+    }
+
+    public synchronized int getPendingCount() {
+        return mPending.size();
+    }
+
+    /**
+     * @return operations issued on the connection since the queue was created
+     */
+    public synchronized long getIssuedCount() {
+        return mIssuedCount;
+    }
+
+    /**
+     * @return operations the executor could not issue
+     */
+    public synchronized long getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    /**
+     * @return operations given up because their callback never arrived
+     */
+    public synchronized long getTimedOutCount() {
+        return mTimedOutCount;
+    }
+}
@@ -0,0 +1,387 @@
+package com.jordanleex13.sensortag.config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static com.jordanleex13.sensortag.SensorTag.SensorTagGatt.*;
+
+/**
+ * Settings of every sensor service of a tag: whether it is enabled, whether it notifies, its period and, for
+ * the movement sensor, the accelerometer range and wake-on-motion. Saved per device address as the text of
+ * {@link #toString()}.
+ *
+ * A profile is applied by diffing it against the state the tag is in, see {@link #diff(SensorConfig)}, so
+ * switching presets only writes the characteristics that actually change.
+ */
+public class SensorConfig {
+
+    /**
+     * Sensor services of a CC2650 tag with their characteristics and period bounds. Keys only notify.
+     */
+    public enum Sensor {
+        IR_TEMPERATURE(UUID_IRT_SERV, UUID_IRT_DATA, UUID_IRT_CONF, UUID_IRT_PERI, 300, 1000),
+        HUMIDITY(UUID_HUM_SERV, UUID_HUM_DATA, UUID_HUM_CONF, UUID_HUM_PERI, 100, 1000),
+        LUXOMETER(UUID_OPT_SERV, UUID_OPT_DATA, UUID_OPT_CONF, UUID_OPT_PERI, 100, 800),
+        BAROMETER(UUID_BAR_SERV, UUID_BAR_DATA, UUID_BAR_CONF, UUID_BAR_PERI, 100, 1000),
+        MOVEMENT(UUID_MOV_SERV, UUID_MOV_DATA, UUID_MOV_CONF, UUID_MOV_PERI, 100, 1000),
+        KEYS(UUID_KEY_SERV, UUID_KEY_DATA, null, null, 0, 0);
+
+        private final UUID mService;
+        private final UUID mData;
+        private final UUID mConfig;
+        private final UUID mPeriod;
+        private final int mMinPeriod;
+        private final int mDefaultPeriod;
+
+        Sensor(UUID service, UUID data, UUID config, UUID period, int minPeriod, int defaultPeriod) {
+            mService = service;
+            mData = data;
+            mConfig = config;
+            mPeriod = period;
+            mMinPeriod = minPeriod;
+            mDefaultPeriod = defaultPeriod;
+        }
+
+        public UUID getService() {
+            return mService;
+        }
+
+        public UUID getData() {
+            return mData;
+        }
+
+        /**
+         * @return the configuration characteristic, or null for a notify only service
+         */
+        public UUID getConfig() {
+            return mConfig;
+        }
+
+        /**
+         * @return the period characteristic, or null for a notify only service
+         */
+        public UUID getPeriod() {
+            return mPeriod;
+        }
+
+        public int getMinPeriod() {
+            return mMinPeriod;
+        }
+
+        /**
+         * @return the period after power up
+         */
+        public int getDefaultPeriod() {
+            return mDefaultPeriod;
+        }
+
+        /**
+         * @return the sensor with this period characteristic, or null
+         */
+        public static Sensor fromPeriod(UUID period) {
+            for (Sensor s : values()) {
+                if (period.equals(s.mPeriod)) return s;
+            }
+            return null;
+        }
+    }
+
+    /** The period characteristics take one byte in tens of milliseconds */
+    public static final int MAX_PERIOD = 2550;
+
+    private static final int[] ACCEL_RANGES = {2, 4, 8, 16};
+
+    private final boolean[] mEnabled = new boolean[Sensor.values().length];
+    private final boolean[] mNotifying = new boolean[Sensor.values().length];
+    private final int[] mPeriod = new int[Sensor.values().length];
+    private int mAccelRange = 2;
+    private boolean mWakeOnMotion;
+
+    /**
+     * Starts as {@link #tagDefaults()}
+     */
+    public SensorConfig() {
+        for (Sensor s : Sensor.values()) {
+            mPeriod[s.ordinal()] = s.mDefaultPeriod;
+        }
+    }
+
+    /**
+     * State of a tag just after connecting: every sensor off, no notifications and the power up periods
+     */
+    public static SensorConfig tagDefaults() {
+        return new SensorConfig();
+    }
+
+    /**
+     * Every sensor on and notifying at its power up period, with wake-on-motion. What the app has always
+     * used before a profile is saved for a tag.
+     */
+    public static SensorConfig defaults() {
+        SensorConfig c = new SensorConfig();
+        for (Sensor s : Sensor.values()) {
+            c.setEnabled(s, true);
+            c.setNotifying(s, true);
+        }
+        c.setWakeOnMotion(true);
+        return c;
+    }
+
+    /**
+     * The slow environmental sensors at the longest period and the movement sensor off, since the gyroscope
+     * draws the most current. Buttons still notify.
+     */
+    public static SensorConfig lowPower() {
+        SensorConfig c = defaults();
+        for (Sensor s : Sensor.values()) {
+            if (s.mPeriod != null) c.setPeriod(s, MAX_PERIOD);
+        }
+        c.setEnabled(Sensor.MOVEMENT, false);
+        c.setNotifying(Sensor.MOVEMENT, false);
+        c.setWakeOnMotion(false);
+        return c;
+    }
+
+    /**
+     * Every sensor on at its shortest period
+     */
+    public static SensorConfig highRate() {
+        SensorConfig c = defaults();
+        for (Sensor s : Sensor.values()) {
+            if (s.mPeriod != null) c.setPeriod(s, s.mMinPeriod);
+        }
+        c.setWakeOnMotion(false);
+        return c;
+    }
+
+    public SensorConfig copy() {
+        SensorConfig c = new SensorConfig();
+        System.arraycopy(mEnabled, 0, c.mEnabled, 0, mEnabled.length);
+        System.arraycopy(mNotifying, 0, c.mNotifying, 0, mNotifying.length);
+        System.arraycopy(mPeriod, 0, c.mPeriod, 0, mPeriod.length);
+        c.mAccelRange = mAccelRange;
+        c.mWakeOnMotion = mWakeOnMotion;
+        return c;
+    }
+
+    public boolean isEnabled(Sensor sensor) {
+        return sensor.mConfig == null || mEnabled[sensor.ordinal()];
+    }
+
+    /**
+     * Powers the sensor up or down. Has no effect on {@link Sensor#KEYS}, which is always on.
+     */
+    public void setEnabled(Sensor sensor, boolean enabled) {
+        if (sensor.mConfig != null) {
+            mEnabled[sensor.ordinal()] = enabled;
+        }
+    }
+
+    public boolean isNotifying(Sensor sensor) {
+        return mNotifying[sensor.ordinal()];
+    }
+
+    public void setNotifying(Sensor sensor, boolean notifying) {
+        mNotifying[sensor.ordinal()] = notifying;
+    }
+
+    public int getPeriod(Sensor sensor) {
+        return mPeriod[sensor.ordinal()];
+    }
+
+    /**
+     * @param millis    Between the sensor's minimum and {@link #MAX_PERIOD}, rounded down to tens of
+     *                  milliseconds
+     */
+    public void setPeriod(Sensor sensor, int millis) {
+        if (sensor.mPeriod == null) {
+            throw new IllegalArgumentException(sensor + " has no period");
+        }
+        if (millis < sensor.mMinPeriod || millis > MAX_PERIOD) {
+            throw new IllegalArgumentException(sensor + " period " + millis + " outside " + sensor.mMinPeriod
+                    + ".." + MAX_PERIOD);
+        }
+        mPeriod[sensor.ordinal()] = millis / 10 * 10;
+    }
+
+    /**
+     * @return accelerometer full scale in G
+     */
+    public int getAccelRange() {
+        return mAccelRange;
+    }
+
+    /**
+     * @param g     2, 4, 8 or 16
+     */
+    public void setAccelRange(int g) {
+        if (Arrays.binarySearch(ACCEL_RANGES, g) < 0) {
+            throw new IllegalArgumentException("Accelerometer range " + g + "G");
+        }
+        mAccelRange = g;
+    }
+
+    public boolean isWakeOnMotion() {
+        return mWakeOnMotion;
+    }
+
+    public void setWakeOnMotion(boolean wakeOnMotion) {
+        mWakeOnMotion = wakeOnMotion;
+    }
+
+    /**
+     * @return the value of the sensor's configuration characteristic, or null for a notify only service
+     */
+    public byte[] getConfigValue(Sensor sensor) {
+        if (sensor.mConfig == null) {
+            return null;
+        }
+        if (sensor != Sensor.MOVEMENT) {
+            return new byte[]{(byte) (isEnabled(sensor) ? 1 : 0)};
+        }
+        if (!isEnabled(sensor)) {
+            return new byte[]{0, 0};    // Range and wake-on-motion do not matter while it is off
+        }
+        // Bits 0-6 turn on the gyroscope, accelerometer and magnetometer axes, bit 7 wake-on-motion.
+        // The second byte is the accelerometer range.
+        int axes = mWakeOnMotion ? 0xFF : 0x7F;
+        return new byte[]{(byte) axes, (byte) Arrays.binarySearch(ACCEL_RANGES, mAccelRange)};
+    }
+
+    /**
+     * @return the value of the sensor's period characteristic, or null for a notify only service
+     */
+    public byte[] getPeriodValue(Sensor sensor) {
+        if (sensor.mPeriod == null) {
+            return null;
+        }
+        return new byte[]{(byte) (getPeriod(sensor) / 10)};
+    }
+
+    /**
+     * Operations that take a tag from {@code current} to this profile, writing only what differs. They are
+     * ordered so no sensor notifies with stale settings: notifications that stop and sensors that power down
+     * go first, then the periods, then notifications that start and the sensors that power up or change.
+     */
+    public List<GattOperation> diff(SensorConfig current) {
+        List<GattOperation> ops = new ArrayList<>();
+        Sensor[] sensors = Sensor.values();
+        for (Sensor s : sensors) {
+            if (!isNotifying(s) && current.isNotifying(s)) {
+                ops.add(GattOperation.notifications(s.mService, s.mData, false));
+            }
+        }
+        for (Sensor s : sensors) {
+            if (s.mConfig != null && !isEnabled(s) && !Arrays.equals(getConfigValue(s), current.getConfigValue(s))) {
+                ops.add(GattOperation.write(s.mService, s.mConfig, getConfigValue(s)));
+            }
+        }
+        for (Sensor s : sensors) {
+            if (s.mPeriod != null && getPeriod(s) != current.getPeriod(s)) {
+                ops.add(GattOperation.write(s.mService, s.mPeriod, getPeriodValue(s)));
+            }
+        }
+        for (Sensor s : sensors) {
+            if (isNotifying(s) && !current.isNotifying(s)) {
+                ops.add(GattOperation.notifications(s.mService, s.mData, true));
+            }
+        }
+        for (Sensor s : sensors) {
+            if (s.mConfig != null && isEnabled(s) && !Arrays.equals(getConfigValue(s), current.getConfigValue(s))) {
+                ops.add(GattOperation.write(s.mService, s.mConfig, getConfigValue(s)));
+            }
+        }
+        return ops;
+    }
+
+    /**
+     * Reads the text of {@link #toString()}. Sensors that are not listed keep the values of
+     * {@link #tagDefaults()}.
+     *
+     * @throws IllegalArgumentException if the text is not a valid profile
+     */
+    public static SensorConfig parse(String text) {
+        SensorConfig c = new SensorConfig();
+        for (String entry : text.split(";")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int eq = entry.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected SENSOR=settings in \"" + entry + "\"");
+            }
+            Sensor sensor;
+            try {
+                sensor = Sensor.valueOf(entry.substring(0, eq).trim());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown sensor in \"" + entry + "\"");
+            }
+            for (String token : entry.substring(eq + 1).split(",")) {
+                token = token.trim();
+                try {
+                    if (token.equals("on")) {
+                        c.setEnabled(sensor, true);
+                    } else if (token.equals("off")) {
+                        c.setEnabled(sensor, false);
+                    } else if (token.equals("notify")) {
+                        c.setNotifying(sensor, true);
+                    } else if (token.equals("wake") && sensor == Sensor.MOVEMENT) {
+                        c.setWakeOnMotion(true);
+                    } else if (token.endsWith("ms")) {
+                        c.setPeriod(sensor, Integer.parseInt(token.substring(0, token.length() - 2)));
+                    } else if (token.endsWith("G") && sensor == Sensor.MOVEMENT) {
+                        c.setAccelRange(Integer.parseInt(token.substring(0, token.length() - 1)));
+                    } else if (!token.isEmpty()) {
+                        throw new IllegalArgumentException("Unknown setting \"" + token + "\" for " + sensor);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Bad number \"" + token + "\" for " + sensor);
+                }
+            }
+        }
+        return c;
+    }
+
+    /**
+     * eg. "IR_TEMPERATURE=on,1000ms,notify;...;MOVEMENT=on,100ms,notify,4G,wake;KEYS=notify"
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Sensor s : Sensor.values()) {
+            if (sb.length() > 0) sb.append(';');
+            sb.append(s.name()).append('=');
+            if (s.mConfig != null) {
+                sb.append(isEnabled(s) ? "on" : "off").append(',').append(getPeriod(s)).append("ms,");
+            }
+            if (isNotifying(s)) {
+                sb.append("notify,");
+            }
+            if (s == Sensor.MOVEMENT) {
+                sb.append(mAccelRange).append("G,");
+                if (mWakeOnMotion) sb.append("wake,");
+            }
+            if (sb.charAt(sb.length() - 1) == ',') sb.setLength(sb.length() - 1);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof SensorConfig)) {
+            return false;
+        }
+        SensorConfig other = (SensorConfig) o;
+        return Arrays.equals(mEnabled, other.mEnabled) && Arrays.equals(mNotifying, other.mNotifying)
+                && Arrays.equals(mPeriod, other.mPeriod) && mAccelRange == other.mAccelRange
+                && mWakeOnMotion == other.mWakeOnMotion;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(mPeriod) * 31 + Arrays.hashCode(mEnabled) * 7 + Arrays.hashCode(mNotifying);
+    }
+}
@@ -0,0 +1,154 @@
+package com.jordanleex13.sensortag.frames;
+
+/**
+ * Straight-line decoders of the fields described in {@link FrameSpec}.
+ *
+ * Generated by FrameDecoderGenerator, do not edit.
+ */
+public final class FrameDecoders {
+
+    public static final int IR_TEMPERATURE_LENGTH = 4;
+    public static final int MOVEMENT_LENGTH = 18;
+    public static final int HUMIDITY_LENGTH = 4;
+    public static final int LUXOMETER_LENGTH = 2;
+    public static final int BAROMETER_LENGTH = 6;
+    public static final int BAROMETER_SFLOAT_LENGTH = 4;
+
+    private FrameDecoders() {
+    }
+
+    /**
+     * irTemperature.objectVoltage: int16 at 0, little endian
+     */
+    public static int irTemperatureObjectVoltage(byte[] v) {
+        return (v[0] & 0xFF) | v[1] << 8;
+    }
+
+    /**
+     * irTemperature.ambient: uint16 at 2, little endian, / 128.0
+     */
+    public static float irTemperatureAmbient(byte[] v) {
+        return (float) (((v[2] & 0xFF) | (v[3] & 0xFF) << 8) / 128.0);
+    }
+
+    /**
+     * irTemperature.objectTmp007: uint16 at 0, little endian, / 128.0
+     */
+    public static float irTemperatureObjectTmp007(byte[] v) {
+        return (float) (((v[0] & 0xFF) | (v[1] & 0xFF) << 8) / 128.0);
+    }
+
+    /**
+     * movement.gyroX: int16 at 0, little endian, / 128.0
+     */
+    public static float movementGyroX(byte[] v) {
+        return (float) (((v[0] & 0xFF) | v[1] << 8) / 128.0);
+    }
+
+    /**
+     * movement.gyroY: int16 at 2, little endian, / 128.0
+     */
+    public static float movementGyroY(byte[] v) {
+        return (float) (((v[2] & 0xFF) | v[3] << 8) / 128.0);
+    }
+
+    /**
+     * movement.gyroZ: int16 at 4, little endian, / 128.0
+     */
+    public static float movementGyroZ(byte[] v) {
+        return (float) (((v[4] & 0xFF) | v[5] << 8) / 128.0);
+    }
+
+    /**
+     * movement.accX: int16 at 6, little endian, / -4096.0
+     */
+    public static float movementAccX(byte[] v) {
+        return (float) (((v[6] & 0xFF) | v[7] << 8) / -4096.0);
+    }
+
+    /**
+     * movement.accY: int16 at 8, little endian, / 4096.0
+     */
+    public static float movementAccY(byte[] v) {
+        return (float) (((v[8] & 0xFF) | v[9] << 8) / 4096.0);
+    }
+
+    /**
+     * movement.accZ: int16 at 10, little endian, / -4096.0
+     */
+    public static float movementAccZ(byte[] v) {
+        return (float) (((v[10] & 0xFF) | v[11] << 8) / -4096.0);
+    }
+
+    /**
+     * movement.magX: int16 at 12, little endian, / 6.0
+     */
+    public static float movementMagX(byte[] v) {
+        return (float) (((v[12] & 0xFF) | v[13] << 8) / 6.0);
+    }
+
+    /**
+     * movement.magY: int16 at 14, little endian, / 6.0
+     */
+    public static float movementMagY(byte[] v) {
+        return (float) (((v[14] & 0xFF) | v[15] << 8) / 6.0);
+    }
+
+    /**
+     * movement.magZ: int16 at 16, little endian, / 6.0
+     */
+    public static float movementMagZ(byte[] v) {
+        return (float) (((v[16] & 0xFF) | v[17] << 8) / 6.0);
+    }
+
+    /**
+     * humidity.temperature: uint16 at 0, little endian
+     */
+    public static int humidityTemperature(byte[] v) {
+        return (v[0] & 0xFF) | (v[1] & 0xFF) << 8;
+    }
+
+    /**
+     * humidity.sht21: uint16 at 2, little endian, mask 0xFFFC
+     */
+    public static int humiditySht21(byte[] v) {
+        return ((v[2] & 0xFF) | (v[3] & 0xFF) << 8) & 0xFFFC;
+    }
+
+    /**
+     * humidity.hdc1000: uint16 at 2, little endian
+     */
+    public static int humidityHdc1000(byte[] v) {
+        return (v[2] & 0xFF) | (v[3] & 0xFF) << 8;
+    }
+
+    /**
+     * luxometer.lux: sfloat at 0, little endian, / 100.0
+     */
+    public static float luxometerLux(byte[] v) {
+        int r = (v[0] & 0xFF) | (v[1] & 0xFF) << 8;
+        return (float) (((r & 0x0FFF) << (r >>> 12)) / 100.0);
+    }
+
+    /**
+     * barometer.temperature: int24 at 0, little endian, / 100.0
+     */
+    public static float barometerTemperature(byte[] v) {
+        return (float) (((v[0] & 0xFF) | (v[1] & 0xFF) << 8 | v[2] << 16) / 100.0);
+    }
+
+    /**
+     * barometer.pressure: uint24 at 2, little endian, / 100.0
+     */
+    public static float barometerPressure(byte[] v) {
+        return (float) (((v[2] & 0xFF) | (v[3] & 0xFF) << 8 | (v[4] & 0xFF) << 16) / 100.0);
+    }
+
+    /**
+     * barometerSfloat.pressure: sfloat at 2, little endian, / 100.0
+     */
+    public static float barometerSfloatPressure(byte[] v) {
+        int r = (v[2] & 0xFF) | (v[3] & 0xFF) << 8;
+        return (float) (((r & 0x0FFF) << (r >>> 12)) / 100.0);
+    }
+}
@@ -0,0 +1,169 @@
+package com.jordanleex13.sensortag.frames;
+
+/**
+ * One value inside a characteristic frame: where it is, how wide, how it is encoded and how the raw number
+ * is scaled. Instances are immutable, the modifiers return a copy.
+ *
+ * Fields are either plain integers of 1 to 3 bytes or TI SFLOAT (12 bit mantissa, 4 bit exponent in the top
+ * nibble, no sign) as used by the luxometer and the first barometer firmware. A field with a divisor other
+ * than 1 decodes to {@code raw / divisor}; a negative divisor flips the axis.
+ *
+ * {@link #raw(byte[])} and {@link #value(byte[])} interpret the description directly. They are the reference
+ * for the straight-line decoders in {@link FrameDecoders}, not meant for the sample path.
+ */
+public final class FrameField {
+
+    public enum Encoding {
+        INTEGER,
+        SFLOAT
+    }
+
+    private final String mName;
+    private final int mOffset;
+    private final int mWidth;
+    private final Encoding mEncoding;
+    private final boolean mSigned;
+    private final boolean mBigEndian;
+    private final int mMask;
+    private final double mDivisor;
+
+    private FrameField(String name, int offset, int width, Encoding encoding, boolean signed, boolean bigEndian,
+                       int mask, double divisor) {
+        if (offset < 0 || width < 1 || width > 3) {
+            throw new IllegalArgumentException("Bad position for " + name + ": " + offset + "+" + width);
+        }
+        if (divisor == 0 || Double.isNaN(divisor) || Double.isInfinite(divisor)) {
+            throw new IllegalArgumentException("Bad divisor for " + name + ": " + divisor);
+        }
+        mName = name;
+        mOffset = offset;
+        mWidth = width;
+        mEncoding = encoding;
+        mSigned = signed;
+        mBigEndian = bigEndian;
+        mMask = mask;
+        mDivisor = divisor;
+    }
+
+    public static FrameField uint8(String name, int offset) {
+        return new FrameField(name, offset, 1, Encoding.INTEGER, false, false, -1, 1);
+    }
+
+    public static FrameField int16(String name, int offset) {
+        return new FrameField(name, offset, 2, Encoding.INTEGER, true, false, -1, 1);
+    }
+
+    public static FrameField uint16(String name, int offset) {
+        return new FrameField(name, offset, 2, Encoding.INTEGER, false, false, -1, 1);
+    }
+
+    public static FrameField int24(String name, int offset) {
+        return new FrameField(name, offset, 3, Encoding.INTEGER, true, false, -1, 1);
+    }
+
+    public static FrameField uint24(String name, int offset) {
+        return new FrameField(name, offset, 3, Encoding.INTEGER, false, false, -1, 1);
+    }
+
+    public static FrameField sfloat(String name, int offset) {
+        return new FrameField(name, offset, 2, Encoding.SFLOAT, false, false, -1, 1);
+    }
+
+    /**
+     * @return this field with the most significant byte first
+     */
+    public FrameField bigEndian() {
+        return new FrameField(mName, mOffset, mWidth, mEncoding, mSigned, true, mMask, mDivisor);
+    }
+
+    /**
+     * @param mask  Bits to keep of the raw integer, eg. 0xFFFC to clear two status bits
+     */
+    public FrameField mask(int mask) {
+        if (mEncoding != Encoding.INTEGER) throw new IllegalArgumentException(mName + " is not an integer");
+        return new FrameField(mName, mOffset, mWidth, mEncoding, mSigned, mBigEndian, mask, mDivisor);
+    }
+
+    /**
+     * @param divisor   The raw value is divided by this, eg. 128 for a 1/128 degree resolution
+     */
+    public FrameField divide(double divisor) {
+        return new FrameField(mName, mOffset, mWidth, mEncoding, mSigned, mBigEndian, mMask, divisor);
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getOffset() {
+        return mOffset;
+    }
+
+    /**
+     * @return width in bytes
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public Encoding getEncoding() {
+        return mEncoding;
+    }
+
+    public boolean isSigned() {
+        return mSigned;
+    }
+
+    public boolean isBigEndian() {
+        return mBigEndian;
+    }
+
+    /**
+     * @return the bits kept of the raw integer, -1 for all of them
+     */
+    public int getMask() {
+        return mMask;
+    }
+
+    public double getDivisor() {
+        return mDivisor;
+    }
+
+    /**
+     * @return true if the field decodes to a fraction rather than the raw integer
+     */
+    public boolean isScaled() {
+        return mDivisor != 1;
+    }
+
+    /**
+     * @return the raw integer of the field, after sign extension and mask. For SFLOAT, mantissa times two
+     *         to the exponent.
+     */
+    public int raw(byte[] v) {
+        int raw = 0;
+        for (int i = 0; i < mWidth; i++) {
+            int b = v[mOffset + (mBigEndian ? i : mWidth - 1 - i)] & 0xFF;
+            raw = (raw << 8) | b;
+        }
+        if (mSigned && (raw & (1 << (8 * mWidth - 1))) != 0) {
+            raw -= 1 << (8 * mWidth);
+        }
+        if (mEncoding == Encoding.SFLOAT) {
+            return (raw & 0x0FFF) << (raw >>> 12);
+        }
+        return raw & mMask;
+    }
+
+    /**
+     * @return the raw value divided by the divisor
+     */
+    public double value(byte[] v) {
+        return raw(v) / mDivisor;
+    }
+
+    @Override
+    public String toString() {
+        return mName + "@" + mOffset;
+    }
+}
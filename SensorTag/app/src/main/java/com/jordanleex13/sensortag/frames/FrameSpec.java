@@ -0,0 +1,137 @@
+package com.jordanleex13.sensortag.frames;
+
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Layout of the value of one data characteristic: its length and the {@link FrameField}s in it.
+ *
+ * The specs below are the single description of the SensorTag frames. {@link FrameDecoders} is generated
+ * from them by {@code FrameDecoderGenerator} in the unit tests, which also fail when the two disagree. To
+ * change a frame, edit it here and run the generator.
+ */
+public final class FrameSpec {
+
+    /**
+     * TMP007: raw object voltage and die temperature, stored [ObjLSB, ObjMSB, AmbLSB, AmbMSB]. The TMP007
+     * computes the object temperature itself and sends it instead of the voltage.
+     */
+    public static final FrameSpec IR_TEMPERATURE = new FrameSpec("irTemperature", SensorTagGatt.UUID_IRT_DATA, 4,
+            FrameField.int16("objectVoltage", 0),
+            FrameField.uint16("ambient", 2).divide(128),
+            FrameField.uint16("objectTmp007", 0).divide(128));
+
+    /**
+     * MPU9250: gyroscope, accelerometer (8G range) and magnetometer. The accelerometer's x and z are flipped so
+     * the axes match the display. The magnetometer divisor is the integer 32768 / 4912 of the TI source.
+     */
+    public static final FrameSpec MOVEMENT = new FrameSpec("movement", SensorTagGatt.UUID_MOV_DATA, 18,
+            FrameField.int16("gyroX", 0).divide(128),
+            FrameField.int16("gyroY", 2).divide(128),
+            FrameField.int16("gyroZ", 4).divide(128),
+            FrameField.int16("accX", 6).divide(-4096),
+            FrameField.int16("accY", 8).divide(4096),
+            FrameField.int16("accZ", 10).divide(-4096),
+            FrameField.int16("magX", 12).divide(32768 / 4912),
+            FrameField.int16("magY", 14).divide(32768 / 4912),
+            FrameField.int16("magZ", 16).divide(32768 / 4912));
+
+    /**
+     * Relative humidity after the temperature. The SHT21 uses bits 1..0 for status, the HDC1000 does not.
+     */
+    public static final FrameSpec HUMIDITY = new FrameSpec("humidity", SensorTagGatt.UUID_HUM_DATA, 4,
+            FrameField.uint16("temperature", 0),
+            FrameField.uint16("sht21", 2).mask(0xFFFC),
+            FrameField.uint16("hdc1000", 2));
+
+    public static final FrameSpec LUXOMETER = new FrameSpec("luxometer", SensorTagGatt.UUID_OPT_DATA, 2,
+            FrameField.sfloat("lux", 0).divide(100));
+
+    /**
+     * BMP280: temperature and pressure in hundredths, 24 bits each
+     */
+    public static final FrameSpec BAROMETER = new FrameSpec("barometer", SensorTagGatt.UUID_BAR_DATA, 6,
+            FrameField.int24("temperature", 0).divide(100),
+            FrameField.uint24("pressure", 2).divide(100));
+
+    /**
+     * Early firmware sent the pressure as a 4 byte frame of two SFLOATs
+     */
+    public static final FrameSpec BAROMETER_SFLOAT = new FrameSpec("barometerSfloat", SensorTagGatt.UUID_BAR_DATA, 4,
+            FrameField.sfloat("pressure", 2).divide(100));
+
+    private static final List<FrameSpec> ALL = Collections.unmodifiableList(Arrays.asList(
+            IR_TEMPERATURE, MOVEMENT, HUMIDITY, LUXOMETER, BAROMETER, BAROMETER_SFLOAT));
+
+    private final String mName;
+    private final UUID mData;
+    private final int mLength;
+    private final List<FrameField> mFields;
+
+    /**
+     * @param name      Prefix of the generated decoder names, a Java identifier
+     * @param length    Number of bytes the fields need
+     * @throws IllegalArgumentException if a field runs past {@code length} or two fields share a name
+     */
+    public FrameSpec(String name, UUID data, int length, FrameField... fields) {
+        List<FrameField> list = new ArrayList<>();
+        for (FrameField f : fields) {
+            if (f.getOffset() + f.getWidth() > length) {
+                throw new IllegalArgumentException(name + "." + f.getName() + " runs past " + length + " bytes");
+            }
+            for (FrameField other : list) {
+                if (other.getName().equals(f.getName())) {
+                    throw new IllegalArgumentException("Two fields named " + name + "." + f.getName());
+                }
+            }
+            list.add(f);
+        }
+        mName = name;
+        mData = data;
+        mLength = length;
+        mFields = Collections.unmodifiableList(list);
+    }
+
+    /**
+     * @return every SensorTag frame, in the order of the generated source
+     */
+    public static List<FrameSpec> all() {
+        return ALL;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public UUID getData() {
+        return mData;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    public List<FrameField> getFields() {
+        return mFields;
+    }
+
+    /**
+     * @return the field with this name, or null
+     */
+    public FrameField getField(String name) {
+        for (FrameField f : mFields) {
+            if (f.getName().equals(name)) return f;
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return mName + mFields;
+    }
+}
@@ -0,0 +1,147 @@
+package com.jordanleex13.sensortag.models;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Preallocated pool of fixed size slots in one direct {@code ByteBuffer}, used to hand notification values
+ * to consumers on other threads without allocating an array per notification.
+ *
+ * A slot is referred to by its index. {@link #acquire(byte[])} copies a value into a free slot and returns
+ * it with one reference; consumers that keep the slot past the call they received it in {@link #retain(int)}
+ * it and {@link #release(int)} it when done, and the slot goes back to the pool when the last reference is
+ * released. When every slot is in use the value is not copied and the drop is counted, so a stalled consumer
+ * cannot make the BLE thread wait or allocate.
+ *
+ * All methods may be called from any thread and none of them allocate.
+ */
+public class FrameArena {
+
+    private final ByteBuffer mBuffer;
+    private final int mSlotSize;
+    private final byte[] mLengths;
+    private final AtomicIntegerArray mReferences;
+    private final int[] mFree;      // Stack of free slots
+    private int mFreeCount;
+    private long mDropped;
+
+    /**
+     * @param slots     Number of values that can be held at once
+     * @param slotSize  Longest value, at most 255 bytes
+     */
+    public FrameArena(int slots, int slotSize) {
+        if (slots <= 0 || slotSize <= 0 || slotSize > 255) {
+            throw new IllegalArgumentException("Bad arena size: " + slots + " slots of " + slotSize);
+        }
+        mBuffer = ByteBuffer.allocateDirect(slots * slotSize);
+        mSlotSize = slotSize;
+        mLengths = new byte[slots];
+        mReferences = new AtomicIntegerArray(slots);
+        mFree = new int[slots];
+        for (int i = 0; i < slots; i++) {
+            mFree[i] = slots - 1 - i;
+        }
+        mFreeCount = slots;
+    }
+
+    /**
+     * Copies a value into a free slot
+     *
+     * @return the slot, holding one reference, or -1 if the arena is full
+     * @throws IllegalArgumentException if the value does not fit a slot
+     */
+    public int acquire(byte[] value) {
+        if (value.length > mSlotSize) {
+            throw new IllegalArgumentException(value.length + " byte value, slots are " + mSlotSize);
+        }
+        int slot;
+        synchronized (this) {
+            if (mFreeCount == 0) {
+                mDropped++;
+                return -1;
+            }
+            slot = mFree[--mFreeCount];
+        }
+        int base = slot * mSlotSize;
+        for (int i = 0; i < value.length; i++) {
+            mBuffer.put(base + i, value[i]);
+        }
+        mLengths[slot] = (byte) value.length;
+        mReferences.set(slot, 1);
+        return slot;
+    }
+
+    /**
+     * Adds a reference to a slot that is held
+     */
+    public void retain(int slot) {
+        if (mReferences.getAndIncrement(slot) <= 0) {
+            mReferences.getAndDecrement(slot);
+            throw new IllegalStateException("Slot " + slot + " is not held");
+        }
+    }
+
+    /**
+     * Drops a reference, returning the slot to the pool with the last one
+     */
+    public void release(int slot) {
+        int left = mReferences.decrementAndGet(slot);
+        if (left < 0) {
+            mReferences.incrementAndGet(slot);
+            throw new IllegalStateException("Slot " + slot + " released more often than acquired");
+        }
+        if (left == 0) {
+            synchronized (this) {
+                mFree[mFreeCount++] = slot;
+            }
+        }
+    }
+
+    /**
+     * @return length of the value in a held slot
+     */
+    public int getLength(int slot) {
+        return mLengths[slot] & 0xFF;
+    }
+
+    /**
+     * @return byte {@code index} of the value in a held slot
+     */
+    public byte get(int slot, int index) {
+        return mBuffer.get(slot * mSlotSize + index);
+    }
+
+    /**
+     * Copies the value of a held slot
+     *
+     * @param out   At least {@link #getLength(int)} long
+     * @return      Length of the value
+     */
+    public int copy(int slot, byte[] out) {
+        int length = mLengths[slot] & 0xFF;
+        int base = slot * mSlotSize;
+        for (int i = 0; i < length; i++) {
+            out[i] = mBuffer.get(base + i);
+        }
+        return length;
+    }
+
+    public int getSlotCount() {
+        return mFree.length;
+    }
+
+    public int getSlotSize() {
+        return mSlotSize;
+    }
+
+    public synchronized int getFreeCount() {
+        return mFreeCount;
+    }
+
+    /**
+     * @return values not copied because every slot was held
+     */
+    public synchronized long getDroppedCount() {
+        return mDropped;
+    }
+}
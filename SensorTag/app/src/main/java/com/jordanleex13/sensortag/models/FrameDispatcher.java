@@ -0,0 +1,117 @@
+package com.jordanleex13.sensortag.models;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Hands notification values from the BLE callback thread to the pages on the UI thread as {@link FrameArena}
+ * slots, so showing a value neither copies it into a new array nor broadcasts it.
+ *
+ * Every data characteristic that can have a page gets a route when the dispatcher is made. On the BLE thread
+ * {@link #onFrame} retains the slot of a value whose page is showing and gives it to the {@link Poster}, which
+ * gets it to the UI thread, eg. as a pooled {@code Message}. There {@link #deliver} lets the page read the slot
+ * and releases it. Values without a page are not retained, so a hidden page costs nothing.
+ */
+public class FrameDispatcher implements FrameListener {
+
+    /**
+     * A page showing the values of one characteristic
+     */
+    public interface Page {
+
+        /**
+         * Called on the UI thread. The slot is released when this returns.
+         */
+        void onFrame(FrameArena arena, int slot);
+    }
+
+    /**
+     * Gets a retained slot to the UI thread, where it is passed to {@link #deliver}
+     */
+    public interface Poster {
+
+        /**
+         * Called on the BLE thread
+         */
+        void post(int route, FrameArena arena, int slot);
+    }
+
+    private final Map<UUID, Integer> mRoutes = new HashMap<>();
+    private final AtomicReferenceArray<Page> mPages;
+    private final Poster mPoster;
+    private final byte[][] mValues = new byte[256][];    // Decoders look at the value length, so one per length
+
+    /**
+     * @param data      Data characteristics that can have a page
+     */
+    public FrameDispatcher(List<UUID> data, Poster poster) {
+        for (int i = 0; i < data.size(); i++) {
+            mRoutes.put(data.get(i), i);
+        }
+        mPages = new AtomicReferenceArray<>(data.size());
+        mPoster = poster;
+    }
+
+    /**
+     * Shows the values of {@code data} on {@code page} from now on, in place of any other page
+     *
+     * @throws IllegalArgumentException if the characteristic has no route
+     */
+    public void setPage(UUID data, Page page) {
+        mPages.set(route(data), page);
+    }
+
+    /**
+     * Stops showing values on {@code page}, unless another page has replaced it already
+     */
+    public void removePage(UUID data, Page page) {
+        mPages.compareAndSet(route(data), page, null);
+    }
+
+    private int route(UUID data) {
+        Integer route = mRoutes.get(data);
+        if (route == null) {
+            throw new IllegalArgumentException("No page for " + data);
+        }
+        return route;
+    }
+
+    @Override
+    public void onFrame(int deviceId, UUID data, long timestamp, FrameArena arena, int slot) {
+        Integer route = mRoutes.get(data);
+        if (route == null || mPages.get(route) == null) {
+            return;
+        }
+        arena.retain(slot);
+        mPoster.post(route, arena, slot);
+    }
+
+    /**
+     * Passes a posted slot to the page of its route, if it is still showing, and releases it
+     */
+    public void deliver(int route, FrameArena arena, int slot) {
+        try {
+            Page page = mPages.get(route);
+            if (page != null) {
+                page.onFrame(arena, slot);
+            }
+        } finally {
+            arena.release(slot);
+        }
+    }
+
+    /**
+     * Copies the value of a slot for the decoders into an array kept for its length. For pages only: the
+     * array is overwritten by the next call with a value of the same length.
+     */
+    public byte[] read(FrameArena arena, int slot) {
+        int length = arena.getLength(slot);
+        byte[] value = mValues[length];
+        if (value == null) value = mValues[length] = new byte[length];
+        arena.copy(slot, value);
+        return value;
+    }
+}
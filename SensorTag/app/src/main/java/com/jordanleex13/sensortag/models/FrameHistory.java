@@ -0,0 +1,91 @@
+package com.jordanleex13.sensortag.models;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Recent raw frames of every device and decoded characteristic, one {@link RawFrameStore} each. Values of
+ * characteristics that no {@code SensorConversion} decodes (keys, IO) are ignored.
+ */
+public class FrameHistory {
+
+    private static final UUID[] CHARACTERISTICS;
+
+    static {
+        List<UUID> data = new ArrayList<>();
+        for (SensorConversion s : SensorConversion.values()) {
+            if (!data.contains(s.getData())) data.add(s.getData());
+        }
+        CHARACTERISTICS = data.toArray(new UUID[data.size()]);
+    }
+
+    private final int mCapacity;
+
+    // Indexed by device id, then characteristic
+    private RawFrameStore[][] mStores = new RawFrameStore[4][];
+
+    /**
+     * @param capacity  Frames retained per device and characteristic
+     */
+    public FrameHistory(int capacity) {
+        mCapacity = capacity;
+    }
+
+    private static int indexOf(UUID data) {
+        for (int i = 0; i < CHARACTERISTICS.length; i++) {
+            if (CHARACTERISTICS[i].equals(data)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Stores a notification value
+     */
+    public void append(int deviceId, UUID data, long timestamp, byte[] value) {
+        int c = indexOf(data);
+        if (c < 0) {
+            return;
+        }
+        store(deviceId, c, true).append(timestamp, value);
+    }
+
+    private synchronized RawFrameStore store(int deviceId, int c, boolean create) {
+        if (deviceId >= mStores.length) {
+            if (!create) return null;
+            RawFrameStore[][] grown = new RawFrameStore[Math.max(deviceId + 1, mStores.length * 2)][];
+            System.arraycopy(mStores, 0, grown, 0, mStores.length);
+            mStores = grown;
+        }
+        if (mStores[deviceId] == null) {
+            if (!create) return null;
+            mStores[deviceId] = new RawFrameStore[CHARACTERISTICS.length];
+        }
+        RawFrameStore s = mStores[deviceId][c];
+        if (s == null && create) {
+            s = mStores[deviceId][c] = new RawFrameStore(CHARACTERISTICS[c], mCapacity);
+        }
+        return s;
+    }
+
+    /**
+     * @return the frames of the characteristic that {@code sensor} decodes, or null if none were received
+     */
+    public RawFrameStore get(int deviceId, SensorConversion sensor) {
+        return store(deviceId, indexOf(sensor.getData()), false);
+    }
+
+    /**
+     * Empties every store, eg. when the user clears the display
+     */
+    public synchronized void clear() {
+        for (RawFrameStore[] device : mStores) {
+            if (device == null) continue;
+            for (RawFrameStore s : device) {
+                if (s != null) s.clear();
+            }
+        }
+    }
+}
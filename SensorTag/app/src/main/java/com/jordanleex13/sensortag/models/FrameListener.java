@@ -0,0 +1,20 @@
+package com.jordanleex13.sensortag.models;
+
+import java.util.UUID;
+
+/**
+ * Receives raw notification values as {@link FrameArena} slots. Called on the BLE callback thread, so
+ * implementations must be quick and should not allocate.
+ */
+public interface FrameListener {
+
+    /**
+     * @param deviceId      Id of the device the value came from
+     * @param data          UUID of the characteristic
+     * @param timestamp     Receive time in milliseconds
+     * @param arena         Arena holding the value
+     * @param slot          Slot of the value, valid during the call. {@link FrameArena#retain(int)} it to use it
+     *                      later, eg. on the UI thread, and release it there.
+     */
+    void onFrame(int deviceId, UUID data, long timestamp, FrameArena arena, int slot);
+}
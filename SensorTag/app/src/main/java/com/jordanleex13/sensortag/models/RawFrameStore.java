@@ -0,0 +1,265 @@
+package com.jordanleex13.sensortag.models;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.frames.FrameSpec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * History of one characteristic kept as the raw notification bytes, decoded only when read.
+ *
+ * Most samples are recorded and never looked at, so appending is a copy of the value into a block and
+ * nothing else. Frames are grouped in blocks of {@link #BLOCK_SIZE}; the first read of a sensor in a block
+ * decodes the whole block into a float column that is kept until the block is reused, so scrolling over a
+ * window decodes each frame at most once per sensor. Sensors sharing the characteristic (the movement frame)
+ * have a column each and are only decoded if asked for.
+ *
+ * A frame costs its timestamp, its bytes and a length byte, eg. 11 bytes for a luxometer sample against about
+ * 50 for a {@code Point3D} with its reference and timestamp.
+ *
+ * The store is a ring: once {@code capacity} frames have been appended the oldest one is dropped, and index 0
+ * always refers to the oldest retained frame. Safe to append from the BLE thread while the UI reads.
+ */
+public class RawFrameStore {
+
+    public static final int BLOCK_SIZE = 256;
+
+    /**
+     * Longest notification value of a BLE 4.0 connection, used for characteristics without a {@link FrameSpec}
+     */
+    public static final int MAX_FRAME_LENGTH = 20;
+
+    private final UUID mData;
+    private final SensorConversion[] mSensors;
+    private final int mFrameLength;
+    private final int mCapacity;
+    private final Block[] mBlocks;
+    private final byte[][] mScratch;    // Decoders look at the value length, so one array per length
+
+    private long mStart;    // Sequence number of the oldest retained frame
+    private long mEnd;      // Sequence number of the next frame
+    private long mDecoded;
+    private long mDroppedCount;
+
+    private class Block {
+        final long[] timestamps = new long[BLOCK_SIZE];
+        final byte[] frames = new byte[BLOCK_SIZE * mFrameLength];
+        final byte[] lengths = new byte[BLOCK_SIZE];
+        final float[][] columns = new float[mSensors.length][];    // Allocated on first read
+        final int[] decoded = new int[mSensors.length];             // Frames at the start of the column
+    }
+
+    /**
+     * @param data      Data characteristic of the frames; its {@code FrameSpec}s give the frame length
+     * @param capacity  Number of frames retained
+     */
+    public RawFrameStore(UUID data, int capacity) {
+        this(data, frameLength(data), capacity);
+    }
+
+    /**
+     * @param frameLength   Longest value accepted
+     */
+    public RawFrameStore(UUID data, int frameLength, int capacity) {
+        if (capacity <= 0 || frameLength <= 0 || frameLength > 255) {
+            throw new IllegalArgumentException("Bad store size: " + capacity + " frames of " + frameLength);
+        }
+        List<SensorConversion> sensors = new ArrayList<>();
+        for (SensorConversion s : SensorConversion.values()) {
+            if (s.getData().equals(data)) sensors.add(s);
+        }
+        mData = data;
+        mSensors = sensors.toArray(new SensorConversion[sensors.size()]);
+        mFrameLength = frameLength;
+        mCapacity = capacity;
+        // One block more than needed so the block being filled never holds retained frames of the oldest
+        mBlocks = new Block[(capacity + BLOCK_SIZE - 1) / BLOCK_SIZE + 1];
+        mScratch = new byte[frameLength + 1][];
+    }
+
+    /**
+     * @return the longest frame of a characteristic according to {@link FrameSpec#all()}
+     */
+    static int frameLength(UUID data) {
+        int length = 0;
+        for (FrameSpec spec : FrameSpec.all()) {
+            if (spec.getData().equals(data)) length = Math.max(length, spec.getLength());
+        }
+        return length == 0 ? MAX_FRAME_LENGTH : length;
+    }
+
+    /**
+     * Copies a notification value into the store
+     *
+     * @return false if the value is longer than the frame length, eg. from firmware this app does not know;
+     *         it is dropped and counted
+     */
+    public synchronized boolean append(long timestamp, byte[] value) {
+        if (value.length > mFrameLength) {
+            mDroppedCount++;
+            return false;
+        }
+        long seq = mEnd;
+        int slot = (int) (seq % BLOCK_SIZE);
+        int b = (int) ((seq / BLOCK_SIZE) % mBlocks.length);
+        Block block = mBlocks[b];
+        if (block == null) {
+            block = mBlocks[b] = new Block();
+        } else if (slot == 0) {
+            for (int s = 0; s < mSensors.length; s++) block.decoded[s] = 0;
+        }
+        block.timestamps[slot] = timestamp;
+        block.lengths[slot] = (byte) value.length;
+        System.arraycopy(value, 0, block.frames, slot * mFrameLength, value.length);
+        mEnd++;
+        if (mEnd - mStart > mCapacity) mStart++;
+        return true;
+    }
+
+    private long sequence(int index) {
+        if (index < 0 || index >= mEnd - mStart) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size());
+        }
+        return mStart + index;
+    }
+
+    private Block block(long seq) {
+        return mBlocks[(int) ((seq / BLOCK_SIZE) % mBlocks.length)];
+    }
+
+    private int sensorIndex(SensorConversion sensor) {
+        for (int s = 0; s < mSensors.length; s++) {
+            if (mSensors[s] == sensor) return s;
+        }
+        throw new IllegalArgumentException(sensor + " does not decode " + mData);
+    }
+
+    /**
+     * @return the decoded column of the block holding {@code seq}, decoded up to the newest frame in it
+     */
+    private float[] column(long seq, int s) {
+        Block block = block(seq);
+        long first = seq - seq % BLOCK_SIZE;
+        int filled = (int) Math.min(BLOCK_SIZE, mEnd - first);
+        SensorConversion sensor = mSensors[s];
+        int channels = sensor.getChannelCount();
+        float[] column = block.columns[s];
+        if (column == null) {
+            column = block.columns[s] = new float[BLOCK_SIZE * channels];
+        }
+        for (int i = block.decoded[s]; i < filled; i++) {
+            int length = block.lengths[i] & 0xFF;
+            byte[] frame = mScratch[length];
+            if (frame == null) frame = mScratch[length] = new byte[length];
+            System.arraycopy(block.frames, i * mFrameLength, frame, 0, length);
+            sensor.convert(frame, column, i * channels);
+            mDecoded++;
+        }
+        block.decoded[s] = filled;
+        return column;
+    }
+
+    public synchronized long getTimestamp(int index) {
+        long seq = sequence(index);
+        return block(seq).timestamps[(int) (seq % BLOCK_SIZE)];
+    }
+
+    /**
+     * Copies a raw frame
+     *
+     * @param out   At least the frame length long
+     * @return      Length of the frame
+     */
+    public synchronized int getFrame(int index, byte[] out) {
+        long seq = sequence(index);
+        Block block = block(seq);
+        int slot = (int) (seq % BLOCK_SIZE);
+        int length = block.lengths[slot] & 0xFF;
+        System.arraycopy(block.frames, slot * mFrameLength, out, 0, length);
+        return length;
+    }
+
+    /**
+     * Decodes the block of the frame if it has not been yet
+     */
+    public synchronized float get(SensorConversion sensor, int index, int channel) {
+        long seq = sequence(index);
+        return column(seq, sensorIndex(sensor))[(int) (seq % BLOCK_SIZE) * sensor.getChannelCount() + channel];
+    }
+
+    /**
+     * Copies a window of decoded samples, decoding the blocks it covers if they have not been yet
+     *
+     * @param from          Index of the first frame
+     * @param count         Number of frames wanted
+     * @param timestamps    Receives the timestamps from index 0, or null
+     * @param values        Receives {@code channels} values per frame from index 0
+     * @return              Number of frames copied, less than {@code count} at the newest end
+     */
+    public synchronized int read(SensorConversion sensor, int from, int count, long[] timestamps, float[] values) {
+        int s = sensorIndex(sensor);
+        int channels = sensor.getChannelCount();
+        int n = (int) Math.max(0, Math.min(count, mEnd - mStart - from));
+        long seq = n > 0 ? sequence(from) : 0;
+        for (int done = 0; done < n; ) {
+            int slot = (int) (seq % BLOCK_SIZE);
+            int run = Math.min(n - done, BLOCK_SIZE - slot);
+            float[] column = column(seq, s);
+            System.arraycopy(column, slot * channels, values, done * channels, run * channels);
+            if (timestamps != null) System.arraycopy(block(seq).timestamps, slot, timestamps, done, run);
+            done += run;
+            seq += run;
+        }
+        return n;
+    }
+
+    public synchronized void clear() {
+        mStart = mEnd = 0;
+        for (Block block : mBlocks) {
+            if (block == null) continue;
+            for (int s = 0; s < mSensors.length; s++) block.decoded[s] = 0;
+        }
+    }
+
+    public synchronized int size() {
+        return (int) (mEnd - mStart);
+    }
+
+    public int capacity() {
+        return mCapacity;
+    }
+
+    public UUID getData() {
+        return mData;
+    }
+
+    /**
+     * @return the sensors that decode the characteristic, in {@code SensorConversion} order
+     */
+    public SensorConversion[] getSensors() {
+        return mSensors.clone();
+    }
+
+    /**
+     * @return number of frame decodes done since the store was created, counting each sensor
+     */
+    public synchronized long getDecodedCount() {
+        return mDecoded;
+    }
+
+    /**
+     * @return values dropped because they were longer than the frame length
+     */
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * @return bytes held per retained frame before anything is decoded
+     */
+    public int bytesPerSample() {
+        return 8 + mFrameLength + 1;
+    }
+}
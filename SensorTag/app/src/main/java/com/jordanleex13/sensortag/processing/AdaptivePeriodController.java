@@ -0,0 +1,232 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Tunes the notification period of each sensor from how much its signal is changing, so quiet tags send
+ * fewer notifications and the radio sleeps more.
+ *
+ * Activity is the largest change of any channel since the previous sample. A change above the active
+ * threshold drops the period straight to the minimum so an event is followed closely from its second sample
+ * on; {@code quietSamples} samples in a row below the quiet threshold double it, up to the maximum. Changes
+ * between the two thresholds keep the period, which is the hysteresis. Because the change is measured per
+ * sample, a slow drift that adds up over a long period also counts as activity.
+ *
+ * Sensors that share a period characteristic (the movement sensors) are controlled together: any of them can
+ * shorten the period and all of them must be quiet to lengthen it. Bounds are per period characteristic.
+ */
+public class AdaptivePeriodController implements SampleListener {
+
+    /**
+     * Writes a new period, eg. through {@code BleService.changePeriod}. Called on the BLE callback thread.
+     */
+    public interface Listener {
+        void onPeriodChange(UUID periodCharacteristic, int periodMillis);
+    }
+
+    public static final int ANY_DEVICE = -1;
+    /** The period characteristics take one byte in tens of milliseconds */
+    public static final int MAX_PERIOD = 2550;
+    public static final int DEFAULT_QUIET_SAMPLES = 5;
+
+    public static final SensorConversion[] SENSORS = {SensorConversion.IR_TEMPERATURE, SensorConversion.MOVEMENT_ACC,
+            SensorConversion.MOVEMENT_GYRO, SensorConversion.HUMIDITY2, SensorConversion.LUXOMETER,
+            SensorConversion.BAROMETER};
+
+    private final int mDeviceId;
+    private final int mQuietSamples;
+    private Listener mListener;
+
+    // Indexed by sensor ordinal. Thresholds are NaN for sensors that are not controlled.
+    private final float[] mActive;
+    private final float[] mQuiet;
+    private final float[][] mPrev;
+    private final boolean[] mStarted;
+    private final int[] mQuietCount;
+    private final int[] mGroup;
+
+    // Indexed by period characteristic
+    private final UUID[] mGroupUuid;
+    private final int[] mMin;
+    private final int[] mMax;
+    private final int[] mPeriod;        // 0 until the first sample sets the minimum
+    private final long[] mWrites;
+
+    public AdaptivePeriodController() {
+        this(ANY_DEVICE, DEFAULT_QUIET_SAMPLES);
+    }
+
+    /**
+     * Starts with the default bounds and thresholds of {@link #SENSORS}
+     *
+     * @param deviceId      Device to follow, or {@link #ANY_DEVICE} when a single tag is connected
+     * @param quietSamples  Quiet samples in a row before the period is doubled
+     */
+    public AdaptivePeriodController(int deviceId, int quietSamples) {
+        mDeviceId = deviceId;
+        mQuietSamples = quietSamples;
+        SensorConversion[] all = SensorConversion.values();
+        mActive = new float[all.length];
+        mQuiet = new float[all.length];
+        mPrev = new float[all.length][];
+        mStarted = new boolean[all.length];
+        mQuietCount = new int[all.length];
+        mGroup = new int[all.length];
+
+        List<UUID> groups = new ArrayList<>();
+        for (SensorConversion s : all) {
+            mActive[s.ordinal()] = Float.NaN;
+            mQuiet[s.ordinal()] = Float.NaN;
+            mPrev[s.ordinal()] = new float[s.getChannelCount()];
+            int g = groups.indexOf(s.getPeriod());
+            if (g < 0) {
+                g = groups.size();
+                groups.add(s.getPeriod());
+            }
+            mGroup[s.ordinal()] = g;
+        }
+        mGroupUuid = groups.toArray(new UUID[groups.size()]);
+        mMin = new int[mGroupUuid.length];
+        mMax = new int[mGroupUuid.length];
+        mPeriod = new int[mGroupUuid.length];
+        mWrites = new long[mGroupUuid.length];
+
+        // Shortest periods the firmware accepts, thresholds a few times the sensor noise
+        configure(SensorConversion.IR_TEMPERATURE, 300, MAX_PERIOD, 0.5f, 0.1f);
+        configure(SensorConversion.MOVEMENT_ACC, 100, MAX_PERIOD, 0.05f, 0.02f);
+        configure(SensorConversion.MOVEMENT_GYRO, 100, MAX_PERIOD, 5f, 2f);
+        configure(SensorConversion.HUMIDITY2, 100, MAX_PERIOD, 0.5f, 0.15f);
+        configure(SensorConversion.LUXOMETER, 800, MAX_PERIOD, 10f, 3f);
+        configure(SensorConversion.BAROMETER, 100, MAX_PERIOD, 0.1f, 0.04f);
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @param minMillis         Period while the signal is changing
+     * @param maxMillis         Period once it has been quiet for a while, at most {@link #MAX_PERIOD}
+     * @param activeThreshold   Change between two samples, in sensor units, that counts as activity
+     * @param quietThreshold    Change below which a sample counts as quiet, at most {@code activeThreshold}
+     */
+    public synchronized void configure(SensorConversion sensor, int minMillis, int maxMillis, float activeThreshold,
+                                       float quietThreshold) {
+        if (minMillis < 10 || maxMillis > MAX_PERIOD || minMillis > maxMillis) {
+            throw new IllegalArgumentException("Bad period bounds " + minMillis + ".." + maxMillis);
+        }
+        if (quietThreshold > activeThreshold) {
+            throw new IllegalArgumentException("Quiet threshold above the active threshold");
+        }
+        int s = sensor.ordinal();
+        mActive[s] = activeThreshold;
+        mQuiet[s] = quietThreshold;
+        mMin[mGroup[s]] = minMillis;
+        mMax[mGroup[s]] = maxMillis;
+    }
+
+    /**
+     * Stops controlling a sensor. Its samples no longer hold back the other sensors of its group.
+     */
+    public synchronized void disable(SensorConversion sensor) {
+        mActive[sensor.ordinal()] = Float.NaN;
+        mQuiet[sensor.ordinal()] = Float.NaN;
+    }
+
+    @Override
+    public synchronized void onSample(int deviceId, SensorConversion sensor, long timestamp, float[] values) {
+        if (mDeviceId != ANY_DEVICE && deviceId != mDeviceId) {
+            return;
+        }
+        int s = sensor.ordinal();
+        if (Float.isNaN(mActive[s])) {
+            return;
+        }
+        int g = mGroup[s];
+        float[] prev = mPrev[s];
+        float change = 0;
+        for (int c = 0; c < prev.length; c++) {
+            if (mStarted[s]) change = Math.max(change, Math.abs(values[c] - prev[c]));
+            prev[c] = values[c];
+        }
+        boolean first = !mStarted[s];
+        mStarted[s] = true;
+
+        if (mPeriod[g] == 0) {
+            // The tag may be running at any period, start from the fast end
+            setPeriod(g, mMin[g]);
+        } else if (first) {
+            return;
+        } else if (change > mActive[s]) {
+            clearQuiet(g);
+            setPeriod(g, mMin[g]);
+        } else if (change < mQuiet[s]) {
+            mQuietCount[s]++;
+            if (groupQuiet(g)) {
+                clearQuiet(g);
+                setPeriod(g, Math.min(mMax[g], mPeriod[g] * 2));
+            }
+        } else {
+            mQuietCount[s] = 0;
+        }
+    }
+
+    private boolean groupQuiet(int g) {
+        for (int s = 0; s < mGroup.length; s++) {
+            if (mGroup[s] == g && !Float.isNaN(mActive[s]) && mQuietCount[s] < mQuietSamples) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void clearQuiet(int g) {
+        for (int s = 0; s < mGroup.length; s++) {
+            if (mGroup[s] == g) mQuietCount[s] = 0;
+        }
+    }
+
+    private void setPeriod(int g, int millis) {
+        millis = millis / 10 * 10;
+        if (millis == mPeriod[g]) {
+            return;
+        }
+        mPeriod[g] = millis;
+        mWrites[g]++;
+        Listener l = mListener;
+        if (l != null) {
+            l.onPeriodChange(mGroupUuid[g], millis);
+        }
+    }
+
+    /**
+     * @return the period last written for the sensor's period characteristic, or 0 before its first sample
+     */
+    public synchronized int getPeriod(SensorConversion sensor) {
+        return mPeriod[mGroup[sensor.ordinal()]];
+    }
+
+    /**
+     * @return number of period writes for the sensor's period characteristic
+     */
+    public synchronized long getWriteCount(SensorConversion sensor) {
+        return mWrites[mGroup[sensor.ordinal()]];
+    }
+
+    /**
+     * Forgets the signal history and the periods; the next sample of each sensor sets its minimum again
+     */
+    public synchronized void reset() {
+        for (int s = 0; s < mStarted.length; s++) {
+            mStarted[s] = false;
+            mQuietCount[s] = 0;
+        }
+        for (int g = 0; g < mPeriod.length; g++) {
+            mPeriod[g] = 0;
+        }
+    }
+}
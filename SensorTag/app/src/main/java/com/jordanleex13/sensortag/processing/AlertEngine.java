@@ -0,0 +1,153 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pipeline stage that evaluates {@link AlertRule}s as samples arrive.
+ *
+ * Rules are indexed by sensor and channel, so a sample only visits the rules watching its own channels and
+ * the cost per sample does not grow with rules on other sensors. The index is rebuilt when rules are added
+ * or removed and swapped in whole, so the ingest path never takes a lock.
+ */
+public class AlertEngine implements SampleListener {
+
+    /**
+     * Receives alerts on the BLE callback thread
+     */
+    public interface Listener {
+        /**
+         * @param value     Value that triggered the change, or for rate rules the rate per second
+         * @param raised    true when the alert is raised, false when it clears
+         */
+        void onAlert(AlertRule rule, int deviceId, long timestamp, double value, boolean raised);
+    }
+
+    public static final int ANY_DEVICE = -1;
+
+    private static final int SENSORS = SensorConversion.values().length;
+
+    private final int mDeviceId;
+    private final List<AlertRule> mRules = new ArrayList<>();
+    private Listener mListener;
+
+    // Indexed by sensor ordinal, then channel. Null where no rule is watching.
+    private volatile AlertRule[][][] mIndex = new AlertRule[SENSORS][][];
+
+    public AlertEngine() {
+        this(ANY_DEVICE);
+    }
+
+    /**
+     * @param deviceId  Device to watch, or {@link #ANY_DEVICE} when a single tag is connected
+     */
+    public AlertEngine(int deviceId) {
+        mDeviceId = deviceId;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Parses and adds a rule. See {@link AlertRule} for the syntax.
+     *
+     * @throws IllegalArgumentException if the rule cannot be parsed
+     */
+    public AlertRule add(String name, String text) {
+        AlertRule rule = AlertRule.parse(name, text);
+        add(rule);
+        return rule;
+    }
+
+    public synchronized void add(AlertRule rule) {
+        mRules.add(rule);
+        rebuild();
+    }
+
+    /**
+     * Removes every rule called {@code name}
+     *
+     * @return true if a rule was removed
+     */
+    public synchronized boolean remove(String name) {
+        boolean removed = false;
+        for (int i = mRules.size() - 1; i >= 0; i--) {
+            if (mRules.get(i).getName().equals(name)) {
+                mRules.remove(i);
+                removed = true;
+            }
+        }
+        if (removed) {
+            rebuild();
+        }
+        return removed;
+    }
+
+    public synchronized List<AlertRule> getRules() {
+        return new ArrayList<>(mRules);
+    }
+
+    /**
+     * @return the sensors the rules watch, for registering with the pipeline
+     */
+    public synchronized SensorConversion[] getSensors() {
+        List<SensorConversion> sensors = new ArrayList<>();
+        for (SensorConversion s : SensorConversion.values()) {
+            if (mIndex[s.ordinal()] != null) sensors.add(s);
+        }
+        return sensors.toArray(new SensorConversion[sensors.size()]);
+    }
+
+    private void rebuild() {
+        AlertRule[][][] index = new AlertRule[SENSORS][][];
+        for (AlertRule rule : mRules) {
+            int s = rule.getSensor().ordinal();
+            if (index[s] == null) {
+                index[s] = new AlertRule[rule.getSensor().getChannelCount()][];
+            }
+            AlertRule[] old = index[s][rule.getChannel()];
+            AlertRule[] rules = new AlertRule[old == null ? 1 : old.length + 1];
+            if (old != null) {
+                System.arraycopy(old, 0, rules, 0, old.length);
+            }
+            rules[rules.length - 1] = rule;
+            index[s][rule.getChannel()] = rules;
+        }
+        mIndex = index;
+    }
+
+    @Override
+    public void onSample(int deviceId, SensorConversion sensor, long timestamp, float[] values) {
+        if (mDeviceId != ANY_DEVICE && deviceId != mDeviceId) {
+            return;
+        }
+        AlertRule[][] channels = mIndex[sensor.ordinal()];
+        if (channels == null) {
+            return;
+        }
+        for (int c = 0; c < channels.length; c++) {
+            AlertRule[] rules = channels[c];
+            if (rules == null) continue;
+            for (AlertRule rule : rules) {
+                if (rule.evaluate(timestamp, values[c])) {
+                    Listener l = mListener;
+                    if (l != null) {
+                        l.onAlert(rule, deviceId, timestamp, rule.getLastValue(), rule.isActive());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Clears every alert and the rate history, eg. after a reconnect
+     */
+    public synchronized void reset() {
+        for (AlertRule rule : mRules) {
+            rule.reset();
+        }
+    }
+}
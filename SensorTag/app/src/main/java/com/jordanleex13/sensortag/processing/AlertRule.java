@@ -0,0 +1,270 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+
+import java.util.Locale;
+
+/**
+ * One alert condition on one channel, parsed once from text such as
+ *
+ * <pre>
+ *     IR_TEMPERATURE.y &gt; 60 for 5s
+ *     rate HUMIDITY2 &gt; 2/min hysteresis 0.5
+ *     BAROMETER &lt; 990 hysteresis 1
+ * </pre>
+ *
+ * Grammar: {@code [rate] SENSOR[.x|.y|.z] (>|<) number[/s|/min|/h] [hysteresis number] [for duration]}, where
+ * a duration is a number followed by ms, s, min or h. Without a channel the rule watches x. Rates without a
+ * unit are per second and their hysteresis is in the unit of the threshold.
+ *
+ * An alert is raised once the condition has held for the hold time and cleared when the value comes back
+ * past the threshold by more than the hysteresis. Rates are a smoothed derivative with a time constant of
+ * {@link #RATE_TIME_CONSTANT} ms. All evaluation state is kept in primitive fields, so evaluating a sample
+ * never allocates.
+ */
+public class AlertRule {
+
+    public static final long RATE_TIME_CONSTANT = 10000;
+
+    private final String mName;
+    private final String mText;
+    private final SensorConversion mSensor;
+    private final int mChannel;
+    private final boolean mRate;
+    private final boolean mAbove;
+    private final double mThreshold;    // Per ms for rates
+    private final double mHysteresis;
+    private final long mHoldMillis;
+
+    // Evaluation state
+    private boolean mActive;
+    private long mPendingSince = -1;
+    private boolean mStarted;
+    private long mPrevTimestamp;
+    private float mPrevValue;
+    private double mSlope;
+    private double mLast;
+
+    private AlertRule(String name, String text, SensorConversion sensor, int channel, boolean rate, boolean above,
+                      double threshold, double hysteresis, long holdMillis) {
+        mName = name;
+        mText = text;
+        mSensor = sensor;
+        mChannel = channel;
+        mRate = rate;
+        mAbove = above;
+        mThreshold = threshold;
+        mHysteresis = hysteresis;
+        mHoldMillis = holdMillis;
+    }
+
+    /**
+     * @param name  Reported with every alert
+     * @param text  Condition, see the class comment
+     * @throws IllegalArgumentException if the text does not follow the grammar
+     */
+    public static AlertRule parse(String name, String text) {
+        String[] tokens = text.trim().split("\\s+");
+        int i = 0;
+        boolean rate = false;
+        if (tokens[i].equalsIgnoreCase("rate")) {
+            rate = true;
+            i++;
+        }
+
+        String source = token(tokens, i++, text);
+        int dot = source.indexOf('.');
+        String sensorName = dot < 0 ? source : source.substring(0, dot);
+        SensorConversion sensor;
+        try {
+            sensor = SensorConversion.valueOf(sensorName.toUpperCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown sensor " + sensorName + " in \"" + text + "\"");
+        }
+        int channel = 0;
+        if (dot >= 0) {
+            channel = "xyz".indexOf(source.substring(dot + 1).toLowerCase(Locale.US));
+            if (source.length() != dot + 2 || channel < 0 || channel >= sensor.getChannelCount()) {
+                throw new IllegalArgumentException("Unknown channel " + source + " in \"" + text + "\"");
+            }
+        }
+
+        String op = token(tokens, i++, text);
+        boolean above;
+        if (op.equals(">")) {
+            above = true;
+        } else if (op.equals("<")) {
+            above = false;
+        } else {
+            throw new IllegalArgumentException("Expected > or < instead of " + op + " in \"" + text + "\"");
+        }
+
+        String value = token(tokens, i++, text);
+        double threshold;
+        int slash = value.indexOf('/');
+        long unit = 1000;   // Rates without a unit are per second
+        if (rate) {
+            if (slash >= 0) {
+                unit = unitMillis(value.substring(slash + 1), text);
+                value = value.substring(0, slash);
+            }
+            threshold = number(value, text) / unit;
+        } else {
+            if (slash >= 0) {
+                throw new IllegalArgumentException("Only rates take a unit: " + value + " in \"" + text + "\"");
+            }
+            threshold = number(value, text);
+        }
+
+        double hysteresis = 0;
+        long hold = 0;
+        while (i < tokens.length) {
+            String keyword = tokens[i++].toLowerCase(Locale.US);
+            if (keyword.equals("hysteresis")) {
+                hysteresis = Math.abs(number(token(tokens, i++, text), text));
+                if (rate) hysteresis /= unit;     // Same unit as the threshold
+            } else if (keyword.equals("for")) {
+                hold = duration(token(tokens, i++, text), text);
+            } else {
+                throw new IllegalArgumentException("Unexpected " + keyword + " in \"" + text + "\"");
+            }
+        }
+        return new AlertRule(name, text, sensor, channel, rate, above, threshold, hysteresis, hold);
+    }
+
+    private static String token(String[] tokens, int i, String text) {
+        if (i >= tokens.length || tokens[i].isEmpty()) {
+            throw new IllegalArgumentException("Incomplete rule \"" + text + "\"");
+        }
+        return tokens[i];
+    }
+
+    private static double number(String s, String text) {
+        try {
+            return Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Expected a number instead of " + s + " in \"" + text + "\"");
+        }
+    }
+
+    private static long unitMillis(String unit, String text) {
+        switch (unit.toLowerCase(Locale.US)) {
+            case "ms":
+                return 1;
+            case "s":
+                return 1000;
+            case "min":
+                return 60 * 1000;
+            case "h":
+                return 60 * 60 * 1000;
+            default:
+                throw new IllegalArgumentException("Unknown unit " + unit + " in \"" + text + "\"");
+        }
+    }
+
+    private static long duration(String s, String text) {
+        int i = 0;
+        while (i < s.length() && (Character.isDigit(s.charAt(i)) || s.charAt(i) == '.')) i++;
+        if (i == 0 || i == s.length()) {
+            throw new IllegalArgumentException("Expected a duration such as 5s instead of " + s + " in \"" + text + "\"");
+        }
+        return Math.round(number(s.substring(0, i), text) * unitMillis(s.substring(i), text));
+    }
+
+    /**
+     * Feeds one value of the watched channel
+     *
+     * @return true if the alert was raised or cleared by this value
+     */
+    boolean evaluate(long timestamp, float value) {
+        double x = value;
+        if (mRate) {
+            if (!mStarted) {
+                mStarted = true;
+                mPrevTimestamp = timestamp;
+                mPrevValue = value;
+                return false;
+            }
+            long dt = timestamp - mPrevTimestamp;
+            if (dt <= 0) {
+                return false;
+            }
+            double slope = (value - mPrevValue) / dt;
+            mSlope += (slope - mSlope) * dt / (RATE_TIME_CONSTANT + dt);
+            mPrevTimestamp = timestamp;
+            mPrevValue = value;
+            x = mSlope;
+            mLast = mSlope * 1000;
+        } else {
+            mLast = value;
+        }
+
+        if (mActive) {
+            boolean clear = mAbove ? x < mThreshold - mHysteresis : x > mThreshold + mHysteresis;
+            if (clear) {
+                mActive = false;
+                return true;
+            }
+            return false;
+        }
+        boolean met = mAbove ? x > mThreshold : x < mThreshold;
+        if (!met) {
+            mPendingSince = -1;
+            return false;
+        }
+        if (mPendingSince < 0) {
+            mPendingSince = timestamp;
+        }
+        if (timestamp - mPendingSince >= mHoldMillis) {
+            mActive = true;
+            mPendingSince = -1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Forgets the evaluation state, eg. when the device reconnects
+     */
+    void reset() {
+        mActive = false;
+        mPendingSince = -1;
+        mStarted = false;
+        mSlope = 0;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public String getText() {
+        return mText;
+    }
+
+    public SensorConversion getSensor() {
+        return mSensor;
+    }
+
+    public int getChannel() {
+        return mChannel;
+    }
+
+    /**
+     * @return true while the alert is raised
+     */
+    public boolean isActive() {
+        return mActive;
+    }
+
+    /**
+     * @return the last value compared with the threshold, or for rates the smoothed rate per second
+     */
+    public double getLastValue() {
+        return mLast;
+    }
+
+    @Override
+    public String toString() {
+        return mName + ": " + mText;
+    }
+}
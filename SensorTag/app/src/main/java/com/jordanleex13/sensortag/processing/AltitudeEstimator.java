@@ -0,0 +1,217 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+
+/**
+ * Altitude and vertical speed from the barometer, smoothed by a two state (altitude, vertical speed)
+ * Kalman filter.
+ *
+ * Pressure is turned into altitude with the international barometric formula against a reference pressure,
+ * which defaults to the standard sea level pressure and can be set from a known altitude with
+ * {@link #calibrate(double)}. Between barometer samples the state is predicted with constant velocity; when
+ * accelerometer fusion is on, the mean vertical acceleration since the previous barometer sample is used as
+ * the control input instead, which lets the speed follow changes without waiting for several pressure
+ * readings. The vertical acceleration is taken as the magnitude of the accelerometer minus 1 g, which holds
+ * however the tag is mounted as long as the motion is mostly vertical.
+ *
+ * Every sample is handled in constant time and memory.
+ */
+public class AltitudeEstimator implements SampleListener {
+
+    /**
+     * Receives every new estimate, on the BLE callback thread
+     */
+    public interface Listener {
+        void onAltitude(int deviceId, long timestamp, float altitude, float verticalSpeed);
+    }
+
+    public static final SensorConversion[] SENSORS = {SensorConversion.BAROMETER, SensorConversion.MOVEMENT_ACC};
+
+    public static final int ANY_DEVICE = -1;
+    public static final double SEA_LEVEL_HPA = 1013.25;
+    public static final double GRAVITY = 9.80665;
+
+    /** Altitude noise of a pressure reading, m^2 */
+    public static final double DEFAULT_MEASUREMENT_VARIANCE = 0.25;
+    /** Unmodelled vertical acceleration, (m/s^2)^2, without and with the accelerometer */
+    public static final double DEFAULT_PROCESS_VARIANCE = 0.5;
+    public static final double DEFAULT_FUSED_PROCESS_VARIANCE = 0.05;
+
+    private final int mDeviceId;
+    private final boolean mFuseAccelerometer;
+    private final double mMeasurementVariance;
+    private final double mProcessVariance;
+    private volatile double mReference = SEA_LEVEL_HPA;
+    private Listener mListener;
+
+    // State and covariance
+    private double mAltitude;
+    private double mSpeed;
+    private double mP00, mP01, mP11;
+    private long mPrevTimestamp;
+    private boolean mStarted;
+
+    // Vertical acceleration accumulated since the previous barometer sample
+    private double mAccelSum;
+    private int mAccelCount;
+
+    private volatile double mRawAltitude;
+    private volatile double mPressure;
+    private volatile float mOutAltitude;
+    private volatile float mOutSpeed;
+
+    public AltitudeEstimator() {
+        this(ANY_DEVICE, false);
+    }
+
+    /**
+     * @param deviceId              Device to follow, or {@link #ANY_DEVICE} when a single tag is connected
+     * @param fuseAccelerometer     Use MOVEMENT_ACC samples as control input
+     */
+    public AltitudeEstimator(int deviceId, boolean fuseAccelerometer) {
+        this(deviceId, fuseAccelerometer, DEFAULT_MEASUREMENT_VARIANCE,
+                fuseAccelerometer ? DEFAULT_FUSED_PROCESS_VARIANCE : DEFAULT_PROCESS_VARIANCE);
+    }
+
+    /**
+     * @param measurementVariance   Variance of the altitude of a single pressure reading, m^2
+     * @param processVariance       Variance of the vertical acceleration the model does not explain, (m/s^2)^2
+     */
+    public AltitudeEstimator(int deviceId, boolean fuseAccelerometer, double measurementVariance,
+                             double processVariance) {
+        mDeviceId = deviceId;
+        mFuseAccelerometer = fuseAccelerometer;
+        mMeasurementVariance = measurementVariance;
+        mProcessVariance = processVariance;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @param hPa   Pressure at altitude 0, eg. the sea level pressure (QNH) of the local weather report
+     */
+    public void setReferencePressure(double hPa) {
+        mReference = hPa;
+    }
+
+    public double getReferencePressure() {
+        return mReference;
+    }
+
+    /**
+     * Sets the reference pressure so that the last pressure reading corresponds to {@code altitude}
+     */
+    public void calibrate(double altitude) {
+        if (mPressure > 0) {
+            mReference = mPressure / Math.pow(1 - altitude / 44330.0, 5.255);
+        }
+    }
+
+    /**
+     * International barometric formula
+     *
+     * @param hPa           Pressure
+     * @param reference     Pressure at altitude 0
+     * @return              Altitude in metres
+     */
+    public static double toAltitude(double hPa, double reference) {
+        return 44330.0 * (1 - Math.pow(hPa / reference, 1 / 5.255));
+    }
+
+    @Override
+    public void onSample(int deviceId, SensorConversion sensor, long timestamp, float[] values) {
+        if (mDeviceId != ANY_DEVICE && deviceId != mDeviceId) {
+            return;
+        }
+        if (sensor == SensorConversion.MOVEMENT_ACC) {
+            if (mFuseAccelerometer) {
+                double g = Math.sqrt(values[0] * values[0] + values[1] * values[1] + values[2] * values[2]);
+                mAccelSum += (g - 1) * GRAVITY;
+                mAccelCount++;
+            }
+        } else if (sensor == SensorConversion.BAROMETER) {
+            update(deviceId, timestamp, values[0]);
+        }
+    }
+
+    private void update(int deviceId, long timestamp, double hPa) {
+        double z = toAltitude(hPa, mReference);
+        mPressure = hPa;
+        mRawAltitude = z;
+        double accel = mAccelCount > 0 ? mAccelSum / mAccelCount : 0;
+        mAccelSum = 0;
+        mAccelCount = 0;
+
+        double dt = (timestamp - mPrevTimestamp) / 1000.0;
+        mPrevTimestamp = timestamp;
+        if (!mStarted) {
+            mStarted = true;
+            mAltitude = z;
+            mSpeed = 0;
+            mP00 = mMeasurementVariance;
+            mP01 = 0;
+            mP11 = 1;
+        } else {
+            if (dt > 0) {
+                // Predict
+                mAltitude += mSpeed * dt + 0.5 * accel * dt * dt;
+                mSpeed += accel * dt;
+                double dt2 = dt * dt;
+                double q = mProcessVariance;
+                mP00 += 2 * dt * mP01 + dt2 * mP11 + q * dt2 * dt2 / 4;
+                mP01 += dt * mP11 + q * dt2 * dt / 2;
+                mP11 += q * dt2;
+            }
+
+            // Correct with the measured altitude
+            double s = mP00 + mMeasurementVariance;
+            double k0 = mP00 / s;
+            double k1 = mP01 / s;
+            double innovation = z - mAltitude;
+            mAltitude += k0 * innovation;
+            mSpeed += k1 * innovation;
+            mP11 -= k1 * mP01;
+            mP01 -= k0 * mP01;
+            mP00 -= k0 * mP00;
+        }
+
+        mOutAltitude = (float) mAltitude;
+        mOutSpeed = (float) mSpeed;
+        Listener l = mListener;
+        if (l != null) {
+            l.onAltitude(deviceId, timestamp, mOutAltitude, mOutSpeed);
+        }
+    }
+
+    /**
+     * @return filtered altitude in metres
+     */
+    public float getAltitude() {
+        return mOutAltitude;
+    }
+
+    /**
+     * @return filtered vertical speed in m/s, positive upwards
+     */
+    public float getVerticalSpeed() {
+        return mOutSpeed;
+    }
+
+    /**
+     * @return altitude of the last pressure reading, unfiltered
+     */
+    public double getRawAltitude() {
+        return mRawAltitude;
+    }
+
+    /**
+     * Forgets the state; the next pressure reading starts the filter again
+     */
+    public void reset() {
+        mStarted = false;
+        mAccelSum = 0;
+        mAccelCount = 0;
+    }
+}
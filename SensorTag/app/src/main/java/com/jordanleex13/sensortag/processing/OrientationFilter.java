@@ -0,0 +1,362 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+
+/**
+ * Madgwick AHRS filter that turns the 9-axis movement stream into roll, pitch and yaw.
+ *
+ * The gyroscope is integrated into a quaternion and the drift is corrected by a gradient descent step
+ * towards the attitude that best explains the measured gravity and magnetic field, weighted by {@code beta}.
+ * Without a magnetometer reading (short movement frames decode it as zeros) only gravity is used and yaw
+ * drifts with the gyroscope.
+ *
+ * The pipeline delivers the three sensors of a movement frame in declaration order with the same
+ * timestamp, so an update runs when the magnetometer value arrives. The step is the difference between
+ * receive timestamps, which copes with irregular connection intervals and dropped notifications. On the
+ * first frame and after a gap of more than {@link #MAX_GAP_MILLIS} the quaternion is set directly from
+ * gravity and the magnetic field, since the gradient step alone takes many seconds to find the heading.
+ *
+ * The body frame is that of the accelerometer and gyroscope in the MPU-9250. {@code SensorConversion}
+ * negates accelerometer x and z, which is undone here, and the magnetometer inside the MPU-9250 has x and
+ * y swapped and z inverted relative to the other two.
+ *
+ * State is kept in primitive fields and nothing is allocated per update. Angles are in degrees.
+ */
+public class OrientationFilter implements SampleListener {
+
+    /**
+     * Receives the orientation after every update, on the BLE callback thread
+     */
+    public interface Listener {
+        void onOrientation(int deviceId, long timestamp, float roll, float pitch, float yaw);
+    }
+
+    public static final SensorConversion[] SENSORS = {
+            SensorConversion.MOVEMENT_ACC, SensorConversion.MOVEMENT_GYRO, SensorConversion.MOVEMENT_MAG};
+
+    public static final int ANY_DEVICE = -1;
+    public static final float DEFAULT_BETA = 0.1f;
+    public static final long MAX_GAP_MILLIS = 5000;
+
+    private static final float DEG_TO_RAD = (float) (Math.PI / 180);
+    private static final float RAD_TO_DEG = (float) (180 / Math.PI);
+
+    private final int mDeviceId;
+    private final float mBeta;
+    private Listener mListener;
+
+    private float q0 = 1, q1, q2, q3;
+    private float ax, ay, az;
+    private float gx, gy, gz;
+    private long mAccTimestamp = Long.MIN_VALUE;
+    private long mGyroTimestamp = Long.MIN_VALUE;
+    private long mPrevTimestamp;
+    private boolean mStarted;
+    private volatile float mRoll, mPitch, mYaw;
+
+    public OrientationFilter() {
+        this(ANY_DEVICE, DEFAULT_BETA);
+    }
+
+    /**
+     * @param deviceId  Device to follow, or {@link #ANY_DEVICE} when a single tag is connected
+     * @param beta      Gain of the correction step. Higher trusts the accelerometer and magnetometer more.
+     */
+    public OrientationFilter(int deviceId, float beta) {
+        mDeviceId = deviceId;
+        mBeta = beta;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void onSample(int deviceId, SensorConversion sensor, long timestamp, float[] values) {
+        if (mDeviceId != ANY_DEVICE && deviceId != mDeviceId) {
+            return;
+        }
+        switch (sensor) {
+            case MOVEMENT_ACC:
+                ax = -values[0];
+                ay = values[1];
+                az = -values[2];
+                mAccTimestamp = timestamp;
+                break;
+            case MOVEMENT_GYRO:
+                gx = values[0] * DEG_TO_RAD;
+                gy = values[1] * DEG_TO_RAD;
+                gz = values[2] * DEG_TO_RAD;
+                mGyroTimestamp = timestamp;
+                break;
+            case MOVEMENT_MAG:
+                if (mAccTimestamp == timestamp && mGyroTimestamp == timestamp) {
+                    update(deviceId, timestamp, values[1], values[0], -values[2]);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void update(int deviceId, long timestamp, float mx, float my, float mz) {
+        long elapsed = timestamp - mPrevTimestamp;
+        mPrevTimestamp = timestamp;
+        if (!mStarted || elapsed <= 0 || elapsed > MAX_GAP_MILLIS) {
+            // Nothing to integrate over, start from this frame alone
+            mStarted = true;
+            initialise(mx, my, mz);
+        } else if (mx == 0 && my == 0 && mz == 0) {
+            updateImu(elapsed / 1000f, mBeta);
+        } else {
+            updateMarg(mx, my, mz, elapsed / 1000f, mBeta);
+        }
+
+        mRoll = (float) Math.atan2(q0 * q1 + q2 * q3, 0.5f - q1 * q1 - q2 * q2) * RAD_TO_DEG;
+        mPitch = (float) Math.asin(clamp(-2.0f * (q1 * q3 - q0 * q2))) * RAD_TO_DEG;
+        mYaw = (float) Math.atan2(q1 * q2 + q0 * q3, 0.5f - q2 * q2 - q3 * q3) * RAD_TO_DEG;
+        Listener l = mListener;
+        if (l != null) {
+            l.onOrientation(deviceId, timestamp, mRoll, mPitch, mYaw);
+        }
+    }
+
+    /**
+     * Sets the quaternion from the earth axes seen in the sensor frame: up is the measured gravity, west is
+     * up x magnetic field and north completes the right handed frame. Heading is 0 without a magnetometer.
+     */
+    private void initialise(float mx, float my, float mz) {
+        float recipNorm = ax * ax + ay * ay + az * az;
+        if (recipNorm == 0) {
+            return;
+        }
+        recipNorm = invSqrt(recipNorm);
+        float ux = ax * recipNorm, uy = ay * recipNorm, uz = az * recipNorm;
+        float wx = uy * mz - uz * my, wy = uz * mx - ux * mz, wz = ux * my - uy * mx;
+        float w = wx * wx + wy * wy + wz * wz;
+        if (w < 1e-6f * (mx * mx + my * my + mz * mz) || w == 0) {
+            // No usable field, take the sensor x axis as north
+            wx = 0;
+            wy = uz;
+            wz = -uy;
+            w = wy * wy + wz * wz;
+            if (w < 1e-6f) {
+                wx = -uz;
+                wy = 0;
+                wz = ux;
+                w = wx * wx + wz * wz;
+            }
+        }
+        recipNorm = invSqrt(w);
+        wx *= recipNorm;
+        wy *= recipNorm;
+        wz *= recipNorm;
+        float nx = wy * uz - wz * uy, ny = wz * ux - wx * uz, nz = wx * uy - wy * ux;
+
+        // Rows of the sensor to earth rotation are north, west and up
+        float trace = nx + wy + uz;
+        if (trace > 0) {
+            float s = 0.5f * invSqrt(trace + 1);
+            q0 = 0.25f / s;
+            q1 = (uy - wz) * s;
+            q2 = (nz - ux) * s;
+            q3 = (wx - ny) * s;
+        } else if (nx > wy && nx > uz) {
+            float s = 2 * (float) Math.sqrt(1 + nx - wy - uz);
+            q0 = (uy - wz) / s;
+            q1 = 0.25f * s;
+            q2 = (ny + wx) / s;
+            q3 = (nz + ux) / s;
+        } else if (wy > uz) {
+            float s = 2 * (float) Math.sqrt(1 + wy - nx - uz);
+            q0 = (nz - ux) / s;
+            q1 = (ny + wx) / s;
+            q2 = 0.25f * s;
+            q3 = (wz + uy) / s;
+        } else {
+            float s = 2 * (float) Math.sqrt(1 + uz - nx - wy);
+            q0 = (wx - ny) / s;
+            q1 = (nz + ux) / s;
+            q2 = (wz + uy) / s;
+            q3 = 0.25f * s;
+        }
+        recipNorm = invSqrt(q0 * q0 + q1 * q1 + q2 * q2 + q3 * q3);
+        q0 *= recipNorm;
+        q1 *= recipNorm;
+        q2 *= recipNorm;
+        q3 *= recipNorm;
+    }
+
+    private void updateMarg(float mx, float my, float mz, float dt, float beta) {
+        // Rate of change of quaternion from gyroscope
+        float qDot1 = 0.5f * (-q1 * gx - q2 * gy - q3 * gz);
+        float qDot2 = 0.5f * (q0 * gx + q2 * gz - q3 * gy);
+        float qDot3 = 0.5f * (q0 * gy - q1 * gz + q3 * gx);
+        float qDot4 = 0.5f * (q0 * gz + q1 * gy - q2 * gx);
+
+        if (!(ax == 0 && ay == 0 && az == 0)) {
+            float recipNorm = invSqrt(ax * ax + ay * ay + az * az);
+            float nax = ax * recipNorm;
+            float nay = ay * recipNorm;
+            float naz = az * recipNorm;
+            recipNorm = invSqrt(mx * mx + my * my + mz * mz);
+            mx *= recipNorm;
+            my *= recipNorm;
+            mz *= recipNorm;
+
+            float _2q0mx = 2.0f * q0 * mx;
+            float _2q0my = 2.0f * q0 * my;
+            float _2q0mz = 2.0f * q0 * mz;
+            float _2q1mx = 2.0f * q1 * mx;
+            float _2q0 = 2.0f * q0;
+            float _2q1 = 2.0f * q1;
+            float _2q2 = 2.0f * q2;
+            float _2q3 = 2.0f * q3;
+            float _2q0q2 = 2.0f * q0 * q2;
+            float _2q2q3 = 2.0f * q2 * q3;
+            float q0q0 = q0 * q0;
+            float q0q1 = q0 * q1;
+            float q0q2 = q0 * q2;
+            float q0q3 = q0 * q3;
+            float q1q1 = q1 * q1;
+            float q1q2 = q1 * q2;
+            float q1q3 = q1 * q3;
+            float q2q2 = q2 * q2;
+            float q2q3 = q2 * q3;
+            float q3q3 = q3 * q3;
+
+            // Reference direction of the earth's magnetic field
+            float hx = mx * q0q0 - _2q0my * q3 + _2q0mz * q2 + mx * q1q1 + _2q1 * my * q2 + _2q1 * mz * q3
+                    - mx * q2q2 - mx * q3q3;
+            float hy = _2q0mx * q3 + my * q0q0 - _2q0mz * q1 + _2q1mx * q2 - my * q1q1 + my * q2q2
+                    + _2q2 * mz * q3 - my * q3q3;
+            float _2bx = (float) Math.sqrt(hx * hx + hy * hy);
+            float _2bz = -_2q0mx * q2 + _2q0my * q1 + mz * q0q0 + _2q1mx * q3 - mz * q1q1 + _2q2 * my * q3
+                    - mz * q2q2 + mz * q3q3;
+            float _4bx = 2.0f * _2bx;
+            float _4bz = 2.0f * _2bz;
+
+            // Gradient descent corrective step
+            float fx = 2.0f * q1q3 - _2q0q2 - nax;
+            float fy = 2.0f * q0q1 + _2q2q3 - nay;
+            float fz = 1 - 2.0f * q1q1 - 2.0f * q2q2 - naz;
+            float fmx = _2bx * (0.5f - q2q2 - q3q3) + _2bz * (q1q3 - q0q2) - mx;
+            float fmy = _2bx * (q1q2 - q0q3) + _2bz * (q0q1 + q2q3) - my;
+            float fmz = _2bx * (q0q2 + q1q3) + _2bz * (0.5f - q1q1 - q2q2) - mz;
+            float s0 = -_2q2 * fx + _2q1 * fy - _2bz * q2 * fmx + (-_2bx * q3 + _2bz * q1) * fmy + _2bx * q2 * fmz;
+            float s1 = _2q3 * fx + _2q0 * fy - 4.0f * q1 * fz + _2bz * q3 * fmx + (_2bx * q2 + _2bz * q0) * fmy
+                    + (_2bx * q3 - _4bz * q1) * fmz;
+            float s2 = -_2q0 * fx + _2q3 * fy - 4.0f * q2 * fz + (-_4bx * q2 - _2bz * q0) * fmx
+                    + (_2bx * q1 + _2bz * q3) * fmy + (_2bx * q0 - _4bz * q2) * fmz;
+            float s3 = _2q1 * fx + _2q2 * fy + (-_4bx * q3 + _2bz * q1) * fmx + (-_2bx * q0 + _2bz * q2) * fmy
+                    + _2bx * q1 * fmz;
+            float norm = s0 * s0 + s1 * s1 + s2 * s2 + s3 * s3;
+            if (norm > 0) {
+                recipNorm = invSqrt(norm);
+                qDot1 -= beta * s0 * recipNorm;
+                qDot2 -= beta * s1 * recipNorm;
+                qDot3 -= beta * s2 * recipNorm;
+                qDot4 -= beta * s3 * recipNorm;
+            }
+        }
+        integrate(qDot1, qDot2, qDot3, qDot4, dt);
+    }
+
+    private void updateImu(float dt, float beta) {
+        float qDot1 = 0.5f * (-q1 * gx - q2 * gy - q3 * gz);
+        float qDot2 = 0.5f * (q0 * gx + q2 * gz - q3 * gy);
+        float qDot3 = 0.5f * (q0 * gy - q1 * gz + q3 * gx);
+        float qDot4 = 0.5f * (q0 * gz + q1 * gy - q2 * gx);
+
+        if (!(ax == 0 && ay == 0 && az == 0)) {
+            float recipNorm = invSqrt(ax * ax + ay * ay + az * az);
+            float nax = ax * recipNorm;
+            float nay = ay * recipNorm;
+            float naz = az * recipNorm;
+
+            float _2q0 = 2.0f * q0;
+            float _2q1 = 2.0f * q1;
+            float _2q2 = 2.0f * q2;
+            float _2q3 = 2.0f * q3;
+            float _4q0 = 4.0f * q0;
+            float _4q1 = 4.0f * q1;
+            float _4q2 = 4.0f * q2;
+            float _8q1 = 8.0f * q1;
+            float _8q2 = 8.0f * q2;
+            float q0q0 = q0 * q0;
+            float q1q1 = q1 * q1;
+            float q2q2 = q2 * q2;
+            float q3q3 = q3 * q3;
+
+            float s0 = _4q0 * q2q2 + _2q2 * nax + _4q0 * q1q1 - _2q1 * nay;
+            float s1 = _4q1 * q3q3 - _2q3 * nax + 4.0f * q0q0 * q1 - _2q0 * nay - _4q1 + _8q1 * q1q1 + _8q1 * q2q2
+                    + _4q1 * naz;
+            float s2 = 4.0f * q0q0 * q2 + _2q0 * nax + _4q2 * q3q3 - _2q3 * nay - _4q2 + _8q2 * q1q1 + _8q2 * q2q2
+                    + _4q2 * naz;
+            float s3 = 4.0f * q1q1 * q3 - _2q1 * nax + 4.0f * q2q2 * q3 - _2q2 * nay;
+            float norm = s0 * s0 + s1 * s1 + s2 * s2 + s3 * s3;
+            if (norm > 0) {
+                recipNorm = invSqrt(norm);
+                qDot1 -= beta * s0 * recipNorm;
+                qDot2 -= beta * s1 * recipNorm;
+                qDot3 -= beta * s2 * recipNorm;
+                qDot4 -= beta * s3 * recipNorm;
+            }
+        }
+        integrate(qDot1, qDot2, qDot3, qDot4, dt);
+    }
+
+    private void integrate(float qDot1, float qDot2, float qDot3, float qDot4, float dt) {
+        q0 += qDot1 * dt;
+        q1 += qDot2 * dt;
+        q2 += qDot3 * dt;
+        q3 += qDot4 * dt;
+        float recipNorm = invSqrt(q0 * q0 + q1 * q1 + q2 * q2 + q3 * q3);
+        q0 *= recipNorm;
+        q1 *= recipNorm;
+        q2 *= recipNorm;
+        q3 *= recipNorm;
+    }
+
+    private static float invSqrt(float x) {
+        return (float) (1.0 / Math.sqrt(x));
+    }
+
+    private static float clamp(float v) {
+        return v > 1 ? 1 : (v < -1 ? -1 : v);
+    }
+
+    public float getRoll() {
+        return mRoll;
+    }
+
+    public float getPitch() {
+        return mPitch;
+    }
+
+    public float getYaw() {
+        return mYaw;
+    }
+
+    /**
+     * Copies the orientation quaternion (w, x, y, z), sensor frame to earth frame, into {@code out}.
+     * Only consistent when called on the thread that delivers samples.
+     */
+    public void getQuaternion(float[] out) {
+        out[0] = q0;
+        out[1] = q1;
+        out[2] = q2;
+        out[3] = q3;
+    }
+
+    /**
+     * Forgets the orientation; the next frame starts again from gravity and the magnetic field
+     */
+    public void reset() {
+        q0 = 1;
+        q1 = q2 = q3 = 0;
+        mStarted = false;
+        mAccTimestamp = Long.MIN_VALUE;
+        mGyroTimestamp = Long.MIN_VALUE;
+    }
+}
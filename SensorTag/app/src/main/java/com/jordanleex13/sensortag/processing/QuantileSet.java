@@ -0,0 +1,107 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+
+/**
+ * Pipeline stage that keeps a {@link QuantileSketch} for every channel of every device and sensor it sees,
+ * so percentiles over a shift are available without keeping the samples. {@link #reset()} starts over.
+ */
+public class QuantileSet implements SampleListener {
+
+    private static final int SENSORS = SensorConversion.values().length;
+
+    private final int mCompression;
+
+    // Indexed by device id, then sensor ordinal, then channel
+    private QuantileSketch[][][] mSketches = new QuantileSketch[4][][];
+
+    public QuantileSet() {
+        this(QuantileSketch.DEFAULT_COMPRESSION);
+    }
+
+    public QuantileSet(int compression) {
+        mCompression = compression;
+    }
+
+    @Override
+    public void onSample(int deviceId, SensorConversion sensor, long timestamp, float[] values) {
+        QuantileSketch[] s = sketches(deviceId, sensor, true);
+        for (int c = 0; c < s.length; c++) {
+            s[c].add(values[c]);
+        }
+    }
+
+    private synchronized QuantileSketch[] sketches(int deviceId, SensorConversion sensor, boolean create) {
+        if (deviceId >= mSketches.length) {
+            if (!create) return null;
+            QuantileSketch[][][] grown = new QuantileSketch[Math.max(deviceId + 1, mSketches.length * 2)][][];
+            System.arraycopy(mSketches, 0, grown, 0, mSketches.length);
+            mSketches = grown;
+        }
+        if (mSketches[deviceId] == null) {
+            if (!create) return null;
+            mSketches[deviceId] = new QuantileSketch[SENSORS][];
+        }
+        QuantileSketch[] s = mSketches[deviceId][sensor.ordinal()];
+        if (s == null && create) {
+            s = new QuantileSketch[sensor.getChannelCount()];
+            for (int c = 0; c < s.length; c++) {
+                s[c] = new QuantileSketch(mCompression);
+            }
+            mSketches[deviceId][sensor.ordinal()] = s;
+        }
+        return s;
+    }
+
+    /**
+     * @return the sketch of one channel, or null if the sensor has not produced any samples
+     */
+    public QuantileSketch get(int deviceId, SensorConversion sensor, int channel) {
+        QuantileSketch[] s = sketches(deviceId, sensor, false);
+        return s == null ? null : s[channel];
+    }
+
+    /**
+     * @return the quantile {@code q} of one channel, or NaN if the sensor has not produced any samples
+     */
+    public double quantile(int deviceId, SensorConversion sensor, int channel, double q) {
+        QuantileSketch s = get(deviceId, sensor, channel);
+        return s == null ? Double.NaN : s.quantile(q);
+    }
+
+    /**
+     * Forgets every sample, eg. at the start of a shift
+     */
+    public synchronized void reset() {
+        for (QuantileSketch[][] device : mSketches) {
+            if (device == null) continue;
+            for (QuantileSketch[] s : device) {
+                if (s == null) continue;
+                for (QuantileSketch c : s) {
+                    c.reset();
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the samples summarised by {@code other}, eg. the sketches of another segment of a session
+     */
+    public void merge(QuantileSet other) {
+        QuantileSketch[][][] theirs;
+        synchronized (other) {
+            theirs = other.mSketches;
+        }
+        for (int d = 0; d < theirs.length; d++) {
+            if (theirs[d] == null) continue;
+            for (SensorConversion sensor : SensorConversion.values()) {
+                QuantileSketch[] s = theirs[d][sensor.ordinal()];
+                if (s == null) continue;
+                QuantileSketch[] mine = sketches(d, sensor, true);
+                for (int c = 0; c < s.length; c++) {
+                    mine[c].merge(s[c]);
+                }
+            }
+        }
+    }
+}
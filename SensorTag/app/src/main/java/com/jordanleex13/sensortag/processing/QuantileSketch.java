@@ -0,0 +1,263 @@
+package com.jordanleex13.sensortag.processing;
+
+import java.util.Arrays;
+
+/**
+ * Bounded memory quantile estimate of one channel, after Dunning's merging t-digest.
+ *
+ * The distribution is summarised by at most about {@code compression} centroids (mean, weight) sorted by
+ * mean. Centroids near the median may hold many samples while those near the tails hold few, which keeps
+ * p1 and p99 much more accurate than the middle. New samples go to a fixed buffer; when it is full it is
+ * sorted and merged into the centroids in one pass, so adding costs O(log compression) amortised and never
+ * allocates. Two sketches are merged the same way, so segments, threads and devices can be summarised
+ * separately and combined.
+ *
+ * Access is synchronized like {@link RunningStats}.
+ */
+public class QuantileSketch {
+
+    public static final int DEFAULT_COMPRESSION = 100;
+
+    private final double mCompression;
+    private final double[] mMean;
+    private final double[] mWeight;
+    private int mCentroids;
+
+    private final double[] mBuffer;
+    private int mBuffered;
+
+    // Buffer and centroids merged in order, before compression
+    private double[] mTmpMean;
+    private double[] mTmpWeight;
+
+    private long mCount;
+    private double mMin;
+    private double mMax;
+
+    public QuantileSketch() {
+        this(DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param compression   Bound on the number of centroids. 100 gives a rank error around 0.1 % at p1 and
+     *                      p99 and well under 1 % at the median.
+     */
+    public QuantileSketch(int compression) {
+        if (compression < 10) {
+            throw new IllegalArgumentException("Compression too small: " + compression);
+        }
+        mCompression = compression;
+        int capacity = 2 * compression + 8;
+        mMean = new double[capacity];
+        mWeight = new double[capacity];
+        mBuffer = new double[4 * compression];
+        mTmpMean = new double[capacity + mBuffer.length];
+        mTmpWeight = new double[capacity + mBuffer.length];
+        reset();
+    }
+
+    /**
+     * Adds a sample. NaN is ignored.
+     */
+    public synchronized void add(double x) {
+        if (Double.isNaN(x)) {
+            return;
+        }
+        if (mBuffered == mBuffer.length) {
+            flush();
+        }
+        mBuffer[mBuffered++] = x;
+        mCount++;
+        if (x < mMin) mMin = x;
+        if (x > mMax) mMax = x;
+    }
+
+    /**
+     * Sorts the buffer into the centroids
+     */
+    private void flush() {
+        if (mBuffered == 0) {
+            return;
+        }
+        Arrays.sort(mBuffer, 0, mBuffered);
+        int i = 0, j = 0, n = 0;
+        while (i < mCentroids || j < mBuffered) {
+            if (j == mBuffered || (i < mCentroids && mMean[i] <= mBuffer[j])) {
+                mTmpMean[n] = mMean[i];
+                mTmpWeight[n] = mWeight[i];
+                i++;
+            } else {
+                mTmpMean[n] = mBuffer[j];
+                mTmpWeight[n] = 1;
+                j++;
+            }
+            n++;
+        }
+        mBuffered = 0;
+        compress(mTmpMean, mTmpWeight, n);
+    }
+
+    /**
+     * Rebuilds the centroids from {@code n} weighted points sorted by mean, merging neighbours as long as a
+     * centroid covers at most one unit of the scale function
+     */
+    private void compress(double[] means, double[] weights, int n) {
+        double total = 0;
+        for (int k = 0; k < n; k++) {
+            total += weights[k];
+        }
+        int out = 0;
+        mMean[0] = means[0];
+        mWeight[0] = weights[0];
+        double before = 0;     // Weight of the finished centroids
+        double limit = total * nextQuantile(0);
+        for (int k = 1; k < n; k++) {
+            double proposed = mWeight[out] + weights[k];
+            if (before + proposed <= limit) {
+                mMean[out] += (means[k] - mMean[out]) * weights[k] / proposed;
+                mWeight[out] = proposed;
+            } else {
+                before += mWeight[out];
+                limit = total * nextQuantile(before / total);
+                out++;
+                mMean[out] = means[k];
+                mWeight[out] = weights[k];
+            }
+        }
+        mCentroids = out + 1;
+    }
+
+    /**
+     * Scale function k(q) = compression / 2pi * asin(2q - 1), which is steep at the tails
+     *
+     * @return the quantile one unit of k above {@code q}
+     */
+    private double nextQuantile(double q) {
+        double k = mCompression / (2 * Math.PI) * Math.asin(2 * q - 1) + 1;
+        if (k >= mCompression / 4) {
+            return 1;
+        }
+        return (Math.sin(k * 2 * Math.PI / mCompression) + 1) / 2;
+    }
+
+    /**
+     * @param q     Quantile between 0 and 1, eg. 0.95
+     * @return      Estimated value, NaN without samples
+     */
+    public synchronized double quantile(double q) {
+        if (q < 0 || q > 1) {
+            throw new IllegalArgumentException("Quantile out of range: " + q);
+        }
+        flush();
+        int n = mCentroids;
+        if (mCount == 0) {
+            return Double.NaN;
+        }
+        if (n == 1) {
+            return mMean[0];
+        }
+        double total = mCount;
+        double index = q * total;
+        if (index < 1) {
+            return mMin;
+        }
+        if (index > total - 1) {
+            return mMax;
+        }
+
+        // Tails: between the extreme sample and the centre of the outer centroid
+        double first = mWeight[0] / 2;
+        if (mWeight[0] > 1 && index < first) {
+            return mMin + (index - 1) / (first - 1) * (mMean[0] - mMin);
+        }
+        double last = mWeight[n - 1] / 2;
+        if (mWeight[n - 1] > 1 && total - index < last) {
+            return mMax - (total - index - 1) / (last - 1) * (mMax - mMean[n - 1]);
+        }
+
+        // Linear between the centres of the two centroids around the index
+        double soFar = first;
+        for (int i = 0; i < n - 1; i++) {
+            double dw = (mWeight[i] + mWeight[i + 1]) / 2;
+            if (soFar + dw > index) {
+                return mMean[i] + (index - soFar) / dw * (mMean[i + 1] - mMean[i]);
+            }
+            soFar += dw;
+        }
+        return mMean[n - 1];
+    }
+
+    /**
+     * Adds the samples summarised by {@code other}
+     */
+    public void merge(QuantileSketch other) {
+        double[] means;
+        double[] weights;
+        long count;
+        double min, max;
+        synchronized (other) {
+            other.flush();
+            means = Arrays.copyOf(other.mMean, other.mCentroids);
+            weights = Arrays.copyOf(other.mWeight, other.mCentroids);
+            count = other.mCount;
+            min = other.mMin;
+            max = other.mMax;
+        }
+        if (count == 0) {
+            return;
+        }
+        synchronized (this) {
+            flush();
+            int total = mCentroids + means.length;
+            if (mTmpMean.length < total) {
+                mTmpMean = new double[total];
+                mTmpWeight = new double[total];
+            }
+            int i = 0, j = 0, n = 0;
+            while (i < mCentroids || j < means.length) {
+                if (j == means.length || (i < mCentroids && mMean[i] <= means[j])) {
+                    mTmpMean[n] = mMean[i];
+                    mTmpWeight[n] = mWeight[i];
+                    i++;
+                } else {
+                    mTmpMean[n] = means[j];
+                    mTmpWeight[n] = weights[j];
+                    j++;
+                }
+                n++;
+            }
+            compress(mTmpMean, mTmpWeight, n);
+            mCount += count;
+            if (min < mMin) mMin = min;
+            if (max > mMax) mMax = max;
+        }
+    }
+
+    public synchronized void reset() {
+        mCentroids = 0;
+        mBuffered = 0;
+        mCount = 0;
+        mMin = Double.POSITIVE_INFINITY;
+        mMax = Double.NEGATIVE_INFINITY;
+    }
+
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    public synchronized double getMin() {
+        return mCount == 0 ? Double.NaN : mMin;
+    }
+
+    public synchronized double getMax() {
+        return mCount == 0 ? Double.NaN : mMax;
+    }
+
+    /**
+     * @return number of centroids once the buffer is merged, which bounds the memory in use
+     */
+    public synchronized int getCentroidCount() {
+        flush();
+        return mCentroids;
+    }
+}
@@ -0,0 +1,102 @@
+package com.jordanleex13.sensortag.processing;
+
+/**
+ * Power spectrum of a real signal whose length is a power of two.
+ *
+ * The n real inputs are packed into n/2 complex values, transformed in place by an iterative radix-2
+ * FFT and then split into the spectrum of the real signal, which halves the work of a complex FFT of the
+ * same length. Bit reversal and twiddle factors are computed once in the constructor and the transform
+ * uses only the preallocated buffers.
+ */
+class RealFft {
+
+    private final int mN;
+    private final int mHalf;
+    private final int[] mReverse;
+    private final float[] mCos;         // Twiddles of the n/2 point complex FFT
+    private final float[] mSin;
+    private final float[] mSplitCos;    // Twiddles of the n point split
+    private final float[] mSplitSin;
+    private final float[] mRe;
+    private final float[] mIm;
+
+    RealFft(int n) {
+        if (n < 4 || (n & (n - 1)) != 0) {
+            throw new IllegalArgumentException("Length must be a power of two of at least 4: " + n);
+        }
+        mN = n;
+        mHalf = n / 2;
+        mRe = new float[mHalf];
+        mIm = new float[mHalf];
+
+        int bits = Integer.numberOfTrailingZeros(mHalf);
+        mReverse = new int[mHalf];
+        for (int i = 0; i < mHalf; i++) {
+            mReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+        mCos = new float[mHalf / 2];
+        mSin = new float[mHalf / 2];
+        for (int k = 0; k < mHalf / 2; k++) {
+            mCos[k] = (float) Math.cos(2 * Math.PI * k / mHalf);
+            mSin[k] = (float) -Math.sin(2 * Math.PI * k / mHalf);
+        }
+        mSplitCos = new float[mHalf + 1];
+        mSplitSin = new float[mHalf + 1];
+        for (int k = 0; k <= mHalf; k++) {
+            mSplitCos[k] = (float) Math.cos(2 * Math.PI * k / n);
+            mSplitSin[k] = (float) -Math.sin(2 * Math.PI * k / n);
+        }
+    }
+
+    int size() {
+        return mN;
+    }
+
+    /**
+     * @param in        n real samples, not modified
+     * @param power     Receives |X[k]|^2 for k = 0 to n/2, so n/2 + 1 values
+     */
+    void powerSpectrum(float[] in, float[] power) {
+        float[] re = mRe;
+        float[] im = mIm;
+        for (int i = 0; i < mHalf; i++) {
+            int j = mReverse[i];
+            re[j] = in[2 * i];
+            im[j] = in[2 * i + 1];
+        }
+
+        // Radix-2 butterflies on the bit reversed data
+        for (int size = 2; size <= mHalf; size <<= 1) {
+            int halfSize = size >> 1;
+            int step = mHalf / size;
+            for (int start = 0; start < mHalf; start += size) {
+                for (int k = 0, t = 0; k < halfSize; k++, t += step) {
+                    int a = start + k;
+                    int b = a + halfSize;
+                    float wr = mCos[t];
+                    float wi = mSin[t];
+                    float xr = re[b] * wr - im[b] * wi;
+                    float xi = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - xr;
+                    im[b] = im[a] - xi;
+                    re[a] += xr;
+                    im[a] += xi;
+                }
+            }
+        }
+
+        // Split Z into the even and odd sample spectra and combine them into X
+        for (int k = 0; k <= mHalf; k++) {
+            int p = k == mHalf ? 0 : k;
+            int q = k == 0 ? 0 : mHalf - k;
+            float zr = re[p], zi = im[p];
+            float cr = re[q], ci = -im[q];         // conj(Z[n/2 - k])
+            float er = 0.5f * (zr + cr), ei = 0.5f * (zi + ci);
+            float or = 0.5f * (zi - ci), oi = -0.5f * (zr - cr);   // (Z - conj) / 2i
+            float wr = mSplitCos[k], wi = mSplitSin[k];
+            float xr = er + or * wr - oi * wi;
+            float xi = ei + or * wi + oi * wr;
+            power[k] = xr * xr + xi * xi;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.jordanleex13.sensortag.processing;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Min, max, mean and count per channel over fixed width time buckets. Buckets are created as samples
+ * arrive, so updating is constant time; reading a range is a binary search plus one step per bucket.
+ *
+ * At most {@code retention} buckets are kept: once that many exist the oldest one is dropped for each new
+ * one, so a fine resolution only covers the recent past and its memory does not grow with the session.
+ * Bucket 0 always refers to the oldest retained bucket.
+ *
+ * Written on the BLE callback thread and read by chart or query code, so access is synchronized.
+ */
+public class Rollup {
+
+    private final long mWidth;
+    private final int mChannels;
+    private final int mRetention;
+
+    private long[] mStarts;
+    private float[] mMin;
+    private float[] mMax;
+    private double[] mSum;
+    private int[] mCount;
+    private int mHead;      // Slot of the oldest bucket
+    private int mSize;
+    private long mCreated;  // Buckets created so far, the sequence number of the next one
+    private long mSaved;    // Sequence number of the first bucket the next save has to copy
+
+    /**
+     * @param width     Bucket width in milliseconds
+     * @param channels  Values per sample
+     */
+    public Rollup(long width, int channels) {
+        this(width, channels, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param retention Number of buckets kept
+     */
+    public Rollup(long width, int channels, int retention) {
+        if (retention <= 0) {
+            throw new IllegalArgumentException("Retention must be positive: " + retention);
+        }
+        mWidth = width;
+        mChannels = channels;
+        mRetention = retention;
+        allocate(Math.min(16, retention));
+    }
+
+    private void allocate(int n) {
+        long[] starts = new long[n];
+        int[] count = new int[n];
+        float[] min = new float[n * mChannels];
+        float[] max = new float[n * mChannels];
+        double[] sum = new double[n * mChannels];
+        // Only grows before the first bucket is dropped, so the buckets start at slot 0
+        if (mSize > 0) {
+            System.arraycopy(mStarts, 0, starts, 0, mSize);
+            System.arraycopy(mCount, 0, count, 0, mSize);
+            System.arraycopy(mMin, 0, min, 0, mSize * mChannels);
+            System.arraycopy(mMax, 0, max, 0, mSize * mChannels);
+            System.arraycopy(mSum, 0, sum, 0, mSize * mChannels);
+        }
+        mStarts = starts;
+        mCount = count;
+        mMin = min;
+        mMax = max;
+        mSum = sum;
+    }
+
+    public synchronized void add(long timestamp, float[] values) {
+        long start = bucketStart(timestamp);
+        int b;
+        if (mSize > 0 && mStarts[slot(mSize - 1)] == start) {
+            b = mSize - 1;
+        } else if (mSize == 0 || mStarts[slot(mSize - 1)] < start) {
+            b = newBucket(start);
+        } else {
+            // Late sample for an older bucket, eg. after a clock adjustment
+            b = search(start);
+            if (b < 0) return;
+        }
+
+        int s = slot(b);
+        int base = s * mChannels;
+        for (int c = 0; c < mChannels; c++) {
+            float v = values[c];
+            if (mCount[s] == 0 || v < mMin[base + c]) mMin[base + c] = v;
+            if (mCount[s] == 0 || v > mMax[base + c]) mMax[base + c] = v;
+            mSum[base + c] += v;
+        }
+        mCount[s]++;
+    }
+
+    private long bucketStart(long timestamp) {
+        long q = timestamp / mWidth;
+        if (timestamp < 0 && q * mWidth != timestamp) q--;
+        return q * mWidth;
+    }
+
+    private int slot(int bucket) {
+        return (mHead + bucket) % mStarts.length;
+    }
+
+    /**
+     * Like {@code Arrays.binarySearch} over the retained buckets
+     */
+    private int search(long start) {
+        int lo = 0;
+        int hi = mSize - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long s = mStarts[slot(mid)];
+            if (s < start) {
+                lo = mid + 1;
+            } else if (s > start) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    private int newBucket(long start) {
+        if (mSize == mStarts.length) {
+            if (mSize < mRetention) {
+                allocate((int) Math.min(mRetention, 2L * mSize));
+            } else {
+                // Full: the oldest bucket makes room
+                mHead = (mHead + 1) % mStarts.length;
+                mSize--;
+            }
+        }
+        int s = slot(mSize);
+        mStarts[s] = start;
+        mCount[s] = 0;
+        for (int c = 0; c < mChannels; c++) mSum[s * mChannels + c] = 0;
+        mCreated++;
+        return mSize++;
+    }
+
+    public long getWidth() {
+        return mWidth;
+    }
+
+    public int getChannelCount() {
+        return mChannels;
+    }
+
+    public int getRetention() {
+        return mRetention;
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * @return true if the buckets from {@code timestamp} on are all still retained
+     */
+    public synchronized boolean covers(long timestamp) {
+        return mCreated == mSize || (mSize > 0 && mStarts[slot(0)] <= bucketStart(timestamp));
+    }
+
+    /**
+     * @return index of the first bucket that ends after {@code timestamp}, or {@link #size()} if there is none
+     */
+    public synchronized int find(long timestamp) {
+        int i = search(bucketStart(timestamp));
+        return i >= 0 ? i : -i - 1;
+    }
+
+    public synchronized long getStart(int bucket) {
+        return mStarts[slot(bucket)];
+    }
+
+    public synchronized int getCount(int bucket) {
+        return mCount[slot(bucket)];
+    }
+
+    public synchronized float getMin(int bucket, int channel) {
+        return mMin[slot(bucket) * mChannels + channel];
+    }
+
+    public synchronized float getMax(int bucket, int channel) {
+        return mMax[slot(bucket) * mChannels + channel];
+    }
+
+    public synchronized float getMean(int bucket, int channel) {
+        int s = slot(bucket);
+        return (float) (mSum[s * mChannels + channel] / mCount[s]);
+    }
+
+    /**
+     * Copies the buckets created since the last call, including the open one, which is copied again by the
+     * next call as it may still change. Buckets dropped before they were copied are lost.
+     *
+     * @return the copy, to be written outside the lock, or null if there are no buckets
+     */
+    synchronized Rollup takeUnsaved() {
+        int from = (int) Math.max(0, mSaved - (mCreated - mSize));
+        if (from >= mSize) {
+            return null;
+        }
+        Rollup copy = new Rollup(mWidth, mChannels, mSize - from);
+        for (int b = from; b < mSize; b++) {
+            int s = slot(b);
+            int t = copy.newBucket(mStarts[s]);
+            copy.mCount[t] = mCount[s];
+            System.arraycopy(mMin, s * mChannels, copy.mMin, t * mChannels, mChannels);
+            System.arraycopy(mMax, s * mChannels, copy.mMax, t * mChannels, mChannels);
+            System.arraycopy(mSum, s * mChannels, copy.mSum, t * mChannels, mChannels);
+        }
+        mSaved = mCreated - 1;
+        return copy;
+    }
+
+    synchronized void write(DataOutputStream out) throws IOException {
+        out.writeLong(mWidth);
+        out.writeInt(mChannels);
+        out.writeInt(mSize);
+        for (int b = 0; b < mSize; b++) {
+            int s = slot(b);
+            out.writeLong(mStarts[s]);
+            out.writeInt(mCount[s]);
+            for (int c = 0; c < mChannels; c++) {
+                int i = s * mChannels + c;
+                out.writeFloat(mMin[i]);
+                out.writeFloat(mMax[i]);
+                out.writeDouble(mSum[i]);
+            }
+        }
+    }
+
+    /**
+     * Adds buckets written by {@link #write(DataOutputStream)}. A bucket that was saved again, because it was
+     * still open the first time, replaces the earlier copy. A bucket cut short by the end of the stream is
+     * not added.
+     */
+    synchronized void read(DataInputStream in) throws IOException {
+        if (in.readLong() != mWidth || in.readInt() != mChannels) {
+            throw new IOException("Rollup does not match its sensor");
+        }
+        int size = in.readInt();
+        float[] min = new float[mChannels];
+        float[] max = new float[mChannels];
+        double[] sum = new double[mChannels];
+        for (int i = 0; i < size; i++) {
+            long start = in.readLong();
+            int count = in.readInt();
+            for (int c = 0; c < mChannels; c++) {
+                min[c] = in.readFloat();
+                max[c] = in.readFloat();
+                sum[c] = in.readDouble();
+            }
+            int b;
+            if (mSize > 0 && mStarts[slot(mSize - 1)] == start) {
+                b = mSize - 1;
+            } else if (mSize == 0 || mStarts[slot(mSize - 1)] < start) {
+                b = newBucket(start);
+            } else {
+                continue;
+            }
+            int s = slot(b);
+            mCount[s] = count;
+            System.arraycopy(min, 0, mMin, s * mChannels, mChannels);
+            System.arraycopy(max, 0, mMax, s * mChannels, mChannels);
+            System.arraycopy(sum, 0, mSum, s * mChannels, mChannels);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Pipeline stage that keeps {@link Rollup}s at 1 s, 1 min and 1 h resolution for every device and
+ * sensor it sees. The 1 s buckets are kept for the last hour and the 1 min buckets for the last two days,
+ * older ranges are charted from the next coarser resolution. Saved next to a recorded session so long
+ * histories can be charted without going back to the raw data, see {@code SessionQuery#rollup}.
+ */
+public class RollupSet implements SampleListener {
+
+    public static final String FILE_NAME = "rollups.bin";
+    public static final long[] RESOLUTIONS = {1000, 60 * 1000, 60 * 60 * 1000};
+    /** Buckets kept at each resolution */
+    public static final int[] RETENTION = {3600, 2 * 24 * 60, Integer.MAX_VALUE};
+
+    private static final int MAGIC = 0x524F4C4C;    // "ROLL"
+    private static final int SENSORS = SensorConversion.values().length;
+
+    // Indexed by device id, then sensor ordinal, then resolution
+    private Rollup[][][] mRollups = new Rollup[4][][];
+    // Held while saving, so a periodic save and the final one do not write the file at the same time
+    private final Object mWriteLock = new Object();
+
+    @Override
+    public void onSample(int deviceId, SensorConversion sensor, long timestamp, float[] values) {
+        Rollup[] rollups = rollups(deviceId, sensor, true);
+        for (Rollup r : rollups) {
+            r.add(timestamp, values);
+        }
+    }
+
+    private synchronized Rollup[] rollups(int deviceId, SensorConversion sensor, boolean create) {
+        if (deviceId >= mRollups.length) {
+            if (!create) return null;
+            Rollup[][][] grown = new Rollup[Math.max(deviceId + 1, mRollups.length * 2)][][];
+            System.arraycopy(mRollups, 0, grown, 0, mRollups.length);
+            mRollups = grown;
+        }
+        if (mRollups[deviceId] == null) {
+            if (!create) return null;
+            mRollups[deviceId] = new Rollup[SENSORS][];
+        }
+        Rollup[] r = mRollups[deviceId][sensor.ordinal()];
+        if (r == null && create) {
+            r = new Rollup[RESOLUTIONS.length];
+            for (int i = 0; i < r.length; i++) {
+                r[i] = new Rollup(RESOLUTIONS[i], sensor.getChannelCount(), RETENTION[i]);
+            }
+            mRollups[deviceId][sensor.ordinal()] = r;
+        }
+        return r;
+    }
+
+    /**
+     * @return the rollup of one resolution, or null if the sensor has not produced any samples
+     */
+    public Rollup get(int deviceId, SensorConversion sensor, int resolution) {
+        Rollup[] r = rollups(deviceId, sensor, false);
+        return r == null ? null : r[resolution];
+    }
+
+    /**
+     * Picks the coarsest resolution that still gives at least one bucket per pixel, so drawing a day
+     * costs about as much as drawing a minute. Falls back to the finest resolution for short ranges, and to a
+     * coarser one if the range starts before what the finer one still keeps.
+     *
+     * @param from          Start of the range to chart
+     * @param to            End of the range to chart
+     * @param pixelWidth    Width of the chart in pixels
+     * @return              The rollup to draw from, or null if the sensor has no samples
+     */
+    public Rollup select(int deviceId, SensorConversion sensor, long from, long to, int pixelWidth) {
+        Rollup[] r = rollups(deviceId, sensor, false);
+        if (r == null) {
+            return null;
+        }
+        int i = r.length - 1;
+        while (i > 0 && (to - from) / r[i].getWidth() < pixelWidth) {
+            i--;
+        }
+        while (i < r.length - 1 && !r[i].covers(from)) {
+            i++;
+        }
+        return r[i];
+    }
+
+    /**
+     * Appends the buckets created since the last save, and the open ones, to {@link #FILE_NAME} in
+     * {@code directory}. Only those are copied under the rollup locks, so a save costs the same however long
+     * the session has run. Samples keep arriving while it writes; a save cut short loses only its own
+     * buckets.
+     */
+    public void write(File directory) throws IOException {
+        Rollup[][][] rollups;
+        synchronized (this) {
+            rollups = new Rollup[mRollups.length][][];
+            for (int d = 0; d < mRollups.length; d++) {
+                if (mRollups[d] != null) rollups[d] = mRollups[d].clone();
+            }
+        }
+        synchronized (mWriteLock) {
+            File file = new File(directory, FILE_NAME);
+            boolean empty = file.length() == 0;
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+            try {
+                if (empty) {
+                    out.writeInt(MAGIC);
+                }
+                for (int d = 0; d < rollups.length; d++) {
+                    if (rollups[d] == null) continue;
+                    for (SensorConversion s : SensorConversion.values()) {
+                        Rollup[] r = rollups[d][s.ordinal()];
+                        if (r == null) continue;
+                        for (int i = 0; i < r.length; i++) {
+                            Rollup unsaved = r[i].takeUnsaved();
+                            if (unsaved == null) continue;
+                            out.writeInt(d);
+                            out.writeUTF(s.name());
+                            out.writeByte(i);
+                            unsaved.write(out);
+                        }
+                    }
+                }
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Loads rollups saved by {@link #write(File)}
+     */
+    public static RollupSet read(File directory) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(new File(directory, FILE_NAME))));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a rollup file");
+            }
+            RollupSet set = new RollupSet();
+            try {
+                while (true) {
+                    int device = in.readInt();
+                    SensorConversion sensor = SensorConversion.valueOf(in.readUTF());
+                    set.rollups(device, sensor, true)[in.readByte()].read(in);
+                }
+            } catch (EOFException e) {
+                // End of the file, or of a save that was cut short
+            }
+            return set;
+        } finally {
+            in.close();
+        }
+    }
+}
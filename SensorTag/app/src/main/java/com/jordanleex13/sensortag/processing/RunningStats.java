@@ -0,0 +1,138 @@
+package com.jordanleex13.sensortag.processing;
+
+import java.util.Arrays;
+
+/**
+ * Count, mean, variance, min and max per channel, updated one sample at a time.
+ *
+ * Mean and variance use Welford's update, which stays accurate where the textbook sum of squares cancels
+ * out (eg. small variations on a large barometer reading). Two partial results are combined with the
+ * pairwise formula of Chan et al., so statistics of separate segments or threads can be merged exactly.
+ *
+ * Written on the BLE callback thread and read by UI code, so access is synchronized. Nothing is allocated
+ * per sample.
+ */
+public class RunningStats {
+
+    private final int mChannels;
+    private long mCount;
+    private final double[] mMean;
+    private final double[] mM2;        // Sum of squared differences from the mean
+    private final float[] mMin;
+    private final float[] mMax;
+
+    public RunningStats(int channels) {
+        mChannels = channels;
+        mMean = new double[channels];
+        mM2 = new double[channels];
+        mMin = new float[channels];
+        mMax = new float[channels];
+        reset();
+    }
+
+    public int getChannelCount() {
+        return mChannels;
+    }
+
+    public void add(float[] values) {
+        add(values, 0);
+    }
+
+    /**
+     * @param values    Array holding one sample
+     * @param offset    Index of the first channel in {@code values}
+     */
+    public synchronized void add(float[] values, int offset) {
+        long n = ++mCount;
+        for (int c = 0; c < mChannels; c++) {
+            float v = values[offset + c];
+            double delta = v - mMean[c];
+            mMean[c] += delta / n;
+            mM2[c] += delta * (v - mMean[c]);
+            if (v < mMin[c]) mMin[c] = v;
+            if (v > mMax[c]) mMax[c] = v;
+        }
+    }
+
+    /**
+     * Adds the samples summarised by {@code other}, as if they had been added one by one
+     */
+    public void merge(RunningStats other) {
+        if (other.mChannels != mChannels) {
+            throw new IllegalArgumentException("Channel count " + other.mChannels + " != " + mChannels);
+        }
+        // Snapshot first so that merging two live instances cannot deadlock
+        RunningStats o = other.copy();
+        synchronized (this) {
+            if (o.mCount == 0) {
+                return;
+            }
+            long n = mCount + o.mCount;
+            for (int c = 0; c < mChannels; c++) {
+                double delta = o.mMean[c] - mMean[c];
+                mMean[c] += delta * o.mCount / n;
+                mM2[c] += o.mM2[c] + delta * delta * ((double) mCount * o.mCount / n);
+                if (o.mMin[c] < mMin[c]) mMin[c] = o.mMin[c];
+                if (o.mMax[c] > mMax[c]) mMax[c] = o.mMax[c];
+            }
+            mCount = n;
+        }
+    }
+
+    /**
+     * Starts a new window: forgets every sample added so far
+     */
+    public synchronized void reset() {
+        mCount = 0;
+        Arrays.fill(mMean, 0);
+        Arrays.fill(mM2, 0);
+        Arrays.fill(mMin, Float.POSITIVE_INFINITY);
+        Arrays.fill(mMax, Float.NEGATIVE_INFINITY);
+    }
+
+    public synchronized RunningStats copy() {
+        RunningStats c = new RunningStats(mChannels);
+        c.mCount = mCount;
+        System.arraycopy(mMean, 0, c.mMean, 0, mChannels);
+        System.arraycopy(mM2, 0, c.mM2, 0, mChannels);
+        System.arraycopy(mMin, 0, c.mMin, 0, mChannels);
+        System.arraycopy(mMax, 0, c.mMax, 0, mChannels);
+        return c;
+    }
+
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return mean of a channel, NaN without samples
+     */
+    public synchronized double getMean(int channel) {
+        return mCount == 0 ? Double.NaN : mMean[channel];
+    }
+
+    /**
+     * @return sample variance (n - 1 denominator) of a channel, NaN with fewer than two samples
+     */
+    public synchronized double getVariance(int channel) {
+        return mCount < 2 ? Double.NaN : mM2[channel] / (mCount - 1);
+    }
+
+    public double getStandardDeviation(int channel) {
+        return Math.sqrt(getVariance(channel));
+    }
+
+    /**
+     * @return smallest value of a channel, NaN without samples
+     */
+    public synchronized float getMin(int channel) {
+        return mCount == 0 ? Float.NaN : mMin[channel];
+    }
+
+    /**
+     * @return largest value of a channel, NaN without samples
+     */
+    public synchronized float getMax(int channel) {
+        return mCount == 0 ? Float.NaN : mMax[channel];
+    }
+}
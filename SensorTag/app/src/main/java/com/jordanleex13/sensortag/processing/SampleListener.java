@@ -0,0 +1,18 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+
+/**
+ * A stage of the {@link SamplePipeline}. Called on the BLE callback thread for every decoded sample, so
+ * implementations must be quick and should not allocate.
+ */
+public interface SampleListener {
+
+    /**
+     * @param deviceId      Id of the device the sample came from
+     * @param sensor        Sensor that produced the sample
+     * @param timestamp     Receive time in milliseconds
+     * @param values        Decoded values, {@code sensor.getChannelCount()} of them. Reused for the next sample.
+     */
+    void onSample(int deviceId, SensorConversion sensor, long timestamp, float[] values);
+}
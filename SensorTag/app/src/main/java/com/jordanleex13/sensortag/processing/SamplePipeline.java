@@ -0,0 +1,128 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Decodes raw notifications and hands the values to the registered {@link SampleListener} stages.
+ *
+ * Routes are looked up by data UUID in a map that is rebuilt on registration, so a notification only
+ * costs a hash lookup plus one decode per sensor that has listeners. Sensors sharing a characteristic
+ * (accelerometer, gyroscope and magnetometer in the movement frame) are decoded and delivered in
+ * {@code SensorConversion} declaration order.
+ */
+public class SamplePipeline {
+
+    private volatile Map<UUID, Route[]> mRoutes = new HashMap<>();
+
+    /**
+     * Adds a stage for one sensor. May be called while notifications are being delivered; the routes are
+     * copied and swapped in, so the new stage sees samples from the next notification on.
+     */
+    public synchronized void register(SensorConversion sensor, SampleListener listener) {
+        Map<UUID, Route[]> routes = new HashMap<>(mRoutes);
+        Route[] current = routes.get(sensor.getData());
+        List<Route> list = new ArrayList<>();
+        Route target = null;
+        if (current != null) {
+            for (Route r : current) {
+                list.add(r);
+                if (r.sensor == sensor) target = r;
+            }
+        }
+        if (target == null) {
+            target = new Route(sensor);
+            list.add(target);
+        }
+        target.add(listener);
+
+        Route[] sorted = list.toArray(new Route[list.size()]);
+        Arrays.sort(sorted, new Comparator<Route>() {
+            @Override
+            public int compare(Route a, Route b) {
+                return a.sensor.ordinal() - b.sensor.ordinal();
+            }
+        });
+        routes.put(sensor.getData(), sorted);
+        mRoutes = routes;
+    }
+
+    /**
+     * Registers a stage for several sensors
+     */
+    public void register(SampleListener listener, SensorConversion... sensors) {
+        for (SensorConversion s : sensors) {
+            register(s, listener);
+        }
+    }
+
+    /**
+     * Removes a stage from every sensor it was registered for
+     */
+    public synchronized void unregister(SampleListener listener) {
+        Map<UUID, Route[]> routes = new HashMap<>();
+        for (Map.Entry<UUID, Route[]> e : mRoutes.entrySet()) {
+            List<Route> list = new ArrayList<>();
+            for (Route r : e.getValue()) {
+                Route copy = r.without(listener);
+                if (copy.listeners.length > 0) list.add(copy);
+            }
+            if (!list.isEmpty()) routes.put(e.getKey(), list.toArray(new Route[list.size()]));
+        }
+        mRoutes = routes;
+    }
+
+    /**
+     * Decodes a notification and delivers it to every interested stage
+     *
+     * @param deviceId      Id of the device that sent it
+     * @param uuid          Data UUID of the characteristic
+     * @param timestamp     Receive time in milliseconds
+     * @param value         Raw characteristic value
+     */
+    public void onNotification(int deviceId, UUID uuid, long timestamp, byte[] value) {
+        Route[] routes = mRoutes.get(uuid);
+        if (routes == null) {
+            return;
+        }
+        for (Route r : routes) {
+            r.sensor.convert(value, r.values, 0);
+            for (SampleListener l : r.listeners) {
+                l.onSample(deviceId, r.sensor, timestamp, r.values);
+            }
+        }
+    }
+
+    private static class Route {
+        final SensorConversion sensor;
+        final float[] values;
+        volatile SampleListener[] listeners = new SampleListener[0];
+
+        Route(SensorConversion sensor) {
+            this.sensor = sensor;
+            this.values = new float[sensor.getChannelCount()];
+        }
+
+        void add(SampleListener l) {
+            SampleListener[] n = new SampleListener[listeners.length + 1];
+            System.arraycopy(listeners, 0, n, 0, listeners.length);
+            n[listeners.length] = l;
+            listeners = n;
+        }
+
+        Route without(SampleListener l) {
+            Route copy = new Route(sensor);
+            for (SampleListener x : listeners) {
+                if (x != l) copy.add(x);
+            }
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+
+/**
+ * Pipeline stage that keeps {@link RunningStats} for every device and sensor it sees: one total since the
+ * stage was created and one window that can be restarted with {@link #resetWindows()}, eg. at the start of
+ * a recording or when the user clears the display.
+ */
+public class StatsSet implements SampleListener {
+
+    private static final int SENSORS = SensorConversion.values().length;
+
+    // Indexed by device id, then sensor ordinal, then total / window
+    private RunningStats[][][] mStats = new RunningStats[4][][];
+
+    @Override
+    public void onSample(int deviceId, SensorConversion sensor, long timestamp, float[] values) {
+        RunningStats[] s = stats(deviceId, sensor, true);
+        s[0].add(values);
+        s[1].add(values);
+    }
+
+    private synchronized RunningStats[] stats(int deviceId, SensorConversion sensor, boolean create) {
+        if (deviceId >= mStats.length) {
+            if (!create) return null;
+            RunningStats[][][] grown = new RunningStats[Math.max(deviceId + 1, mStats.length * 2)][][];
+            System.arraycopy(mStats, 0, grown, 0, mStats.length);
+            mStats = grown;
+        }
+        if (mStats[deviceId] == null) {
+            if (!create) return null;
+            mStats[deviceId] = new RunningStats[SENSORS][];
+        }
+        RunningStats[] s = mStats[deviceId][sensor.ordinal()];
+        if (s == null && create) {
+            s = new RunningStats[]{new RunningStats(sensor.getChannelCount()),
+                    new RunningStats(sensor.getChannelCount())};
+            mStats[deviceId][sensor.ordinal()] = s;
+        }
+        return s;
+    }
+
+    /**
+     * @return statistics of every sample seen, or null if the sensor has not produced any samples
+     */
+    public RunningStats getTotal(int deviceId, SensorConversion sensor) {
+        RunningStats[] s = stats(deviceId, sensor, false);
+        return s == null ? null : s[0];
+    }
+
+    /**
+     * @return statistics since the last {@link #resetWindows()}, or null if the sensor has not produced any samples
+     */
+    public RunningStats getWindow(int deviceId, SensorConversion sensor) {
+        RunningStats[] s = stats(deviceId, sensor, false);
+        return s == null ? null : s[1];
+    }
+
+    /**
+     * Restarts the window statistics of every device and sensor. Totals are kept.
+     */
+    public synchronized void resetWindows() {
+        for (RunningStats[][] device : mStats) {
+            if (device == null) continue;
+            for (RunningStats[] s : device) {
+                if (s != null) s[1].reset();
+            }
+        }
+    }
+
+    /**
+     * Adds the samples summarised by {@code other}, eg. the statistics of another segment of a session
+     */
+    public void merge(StatsSet other) {
+        RunningStats[][][] theirs;
+        synchronized (other) {
+            theirs = other.mStats;
+        }
+        for (int d = 0; d < theirs.length; d++) {
+            if (theirs[d] == null) continue;
+            for (SensorConversion sensor : SensorConversion.values()) {
+                RunningStats[] s = theirs[d][sensor.ordinal()];
+                if (s == null) continue;
+                RunningStats[] mine = stats(d, sensor, true);
+                mine[0].merge(s[0]);
+                mine[1].merge(s[1]);
+            }
+        }
+    }
+}
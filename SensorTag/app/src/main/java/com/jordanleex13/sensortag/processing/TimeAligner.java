@@ -0,0 +1,279 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Resamples selected channels of sensors with independent periods onto one time grid, so that stages
+ * correlating them see a single stream of frames with one value per channel.
+ *
+ * Channels are named like the sources of {@link AlertRule}, eg. {@code IR_TEMPERATURE.y} or
+ * {@code BAROMETER}. Grid ticks are multiples of the tick length since the epoch, on the receive
+ * timestamps. A tick is emitted once every channel has a sample at or after it, so the value can be
+ * interpolated between the samples around the tick, or once a sample {@code lookback} ms newer than the
+ * tick has arrived on any channel; channels without a sample after the tick then hold their last value.
+ * The lookback bounds both the latency and the samples buffered per channel. Before the first sample of a
+ * channel its value is NaN.
+ *
+ * When no sample arrives for more than {@link #MAX_GAP_MILLIS} past the lookback, eg. after a reconnect, the
+ * buffered samples are dropped and the grid restarts at the new sample instead of filling the gap with held
+ * values.
+ *
+ * Ticks are emitted from {@code onSample} on the BLE callback thread. Nothing is allocated per sample.
+ */
+public class TimeAligner implements SampleListener {
+
+    /**
+     * Receives one frame per tick, in tick order
+     */
+    public interface Listener {
+        /**
+         * @param timestamp     Grid time of the frame
+         * @param values        One value per channel in the order given to the constructor. Reused for the next frame.
+         */
+        void onFrame(int deviceId, long timestamp, float[] values);
+    }
+
+    public enum Interpolation {
+        /** Straight line between the samples around the tick */
+        LINEAR,
+        /** Last sample at or before the tick */
+        HOLD
+    }
+
+    public static final int ANY_DEVICE = -1;
+    public static final long MAX_GAP_MILLIS = 5000;
+
+    /**
+     * Shortest period of any sensor, used to size the per channel buffers from the lookback
+     */
+    private static final int MIN_PERIOD = 100;
+
+    private static class Track {
+        final SensorConversion sensor;
+        final int channel;
+        final String name;
+        final long[] times;
+        final float[] values;
+        int head;
+        int size;
+
+        Track(SensorConversion sensor, int channel, String name, int capacity) {
+            this.sensor = sensor;
+            this.channel = channel;
+            this.name = name;
+            times = new long[capacity];
+            values = new float[capacity];
+        }
+
+        int index(int k) {
+            return (head + k) % times.length;
+        }
+
+        long newest() {
+            return times[index(size - 1)];
+        }
+
+        void add(long t, float v) {
+            if (size == times.length) {
+                head = (head + 1) % times.length;
+                size--;
+            }
+            int i = index(size++);
+            times[i] = t;
+            values[i] = v;
+        }
+
+        /**
+         * Drops samples that can no longer be the one at or before {@code t}
+         */
+        void prune(long t) {
+            while (size > 1 && times[index(1)] <= t) {
+                head = (head + 1) % times.length;
+                size--;
+            }
+        }
+
+        float valueAt(long t, Interpolation interpolation) {
+            int before = -1;
+            for (int k = 0; k < size && times[index(k)] <= t; k++) {
+                before = k;
+            }
+            if (before < 0) {
+                return Float.NaN;
+            }
+            int i = index(before);
+            if (interpolation == Interpolation.HOLD || before == size - 1 || times[i] == t) {
+                return values[i];
+            }
+            int j = index(before + 1);
+            double f = (double) (t - times[i]) / (times[j] - times[i]);
+            return (float) (values[i] + f * (values[j] - values[i]));
+        }
+    }
+
+    private final int mDeviceId;
+    private final long mTick;
+    private final long mLookback;
+    private final Interpolation mInterpolation;
+    private final Track[] mTracks;
+    private final SensorConversion[] mSensors;
+    private final float[] mFrame;
+    private Listener mListener;
+
+    private long mNextTick = Long.MIN_VALUE;
+    private long mNewest = Long.MIN_VALUE;
+    private long mFrameCount;
+
+    /**
+     * @param deviceId      Device to follow, or {@link #ANY_DEVICE} when a single tag is connected
+     * @param tickMillis    Spacing of the grid
+     * @param lookbackMillis    How long a tick waits for samples after it before holding values
+     * @param channels      Channels of the frame, eg. "MOVEMENT_ACC.z"
+     * @throws IllegalArgumentException if a channel is not a sensor and x, y or z of it
+     */
+    public TimeAligner(int deviceId, long tickMillis, long lookbackMillis, Interpolation interpolation,
+                       String... channels) {
+        if (tickMillis <= 0 || lookbackMillis < 0 || channels.length == 0) {
+            throw new IllegalArgumentException("Bad grid: " + tickMillis + " ms ticks, " + lookbackMillis
+                    + " ms lookback, " + channels.length + " channels");
+        }
+        mDeviceId = deviceId;
+        mTick = tickMillis;
+        mLookback = lookbackMillis;
+        mInterpolation = interpolation;
+        int capacity = (int) (lookbackMillis / MIN_PERIOD) + 4;
+        mTracks = new Track[channels.length];
+        List<SensorConversion> sensors = new ArrayList<>();
+        for (int i = 0; i < channels.length; i++) {
+            mTracks[i] = parse(channels[i], capacity);
+            if (!sensors.contains(mTracks[i].sensor)) sensors.add(mTracks[i].sensor);
+        }
+        mSensors = sensors.toArray(new SensorConversion[sensors.size()]);
+        mFrame = new float[channels.length];
+    }
+
+    private static Track parse(String text, int capacity) {
+        String source = text.trim();
+        int dot = source.indexOf('.');
+        String sensorName = dot < 0 ? source : source.substring(0, dot);
+        SensorConversion sensor;
+        try {
+            sensor = SensorConversion.valueOf(sensorName.toUpperCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown sensor in \"" + text + "\"");
+        }
+        int channel = 0;
+        if (dot >= 0) {
+            String axis = source.substring(dot + 1).toLowerCase(Locale.US);
+            channel = axis.equals("x") ? 0 : axis.equals("y") ? 1 : axis.equals("z") ? 2 : -1;
+        }
+        if (channel < 0 || channel >= sensor.getChannelCount()) {
+            throw new IllegalArgumentException("Unknown channel in \"" + text + "\"");
+        }
+        return new Track(sensor, channel, source, capacity);
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @return the sensors to register this stage for
+     */
+    public SensorConversion[] getSensors() {
+        return mSensors.clone();
+    }
+
+    /**
+     * @return the channel names, in frame order
+     */
+    public String[] getChannels() {
+        String[] names = new String[mTracks.length];
+        for (int i = 0; i < mTracks.length; i++) {
+            names[i] = mTracks[i].name;
+        }
+        return names;
+    }
+
+    @Override
+    public synchronized void onSample(int deviceId, SensorConversion sensor, long timestamp, float[] values) {
+        if (mDeviceId != ANY_DEVICE && deviceId != mDeviceId) {
+            return;
+        }
+        if (!isSelected(sensor)) {
+            return;
+        }
+        if (mNextTick != Long.MIN_VALUE && timestamp - mNextTick > mLookback + MAX_GAP_MILLIS) {
+            // Back after a gap: drop what was buffered before it and start the grid again
+            reset();
+        }
+        for (Track t : mTracks) {
+            if (t.sensor == sensor) t.add(timestamp, values[t.channel]);
+        }
+        if (timestamp > mNewest) mNewest = timestamp;
+        if (mNextTick == Long.MIN_VALUE) mNextTick = ceil(timestamp);
+        emit(deviceId);
+    }
+
+    private boolean isSelected(SensorConversion sensor) {
+        for (SensorConversion s : mSensors) {
+            if (s == sensor) return true;
+        }
+        return false;
+    }
+
+    private long ceil(long t) {
+        long r = t % mTick;
+        if (r < 0) r += mTick;
+        return r == 0 ? t : t - r + mTick;
+    }
+
+    private void emit(int deviceId) {
+        while (true) {
+            long tick = mNextTick;
+            boolean bracketed = true;
+            for (Track t : mTracks) {
+                if (t.size == 0 || t.newest() < tick) {
+                    bracketed = false;
+                    break;
+                }
+            }
+            if (!bracketed && mNewest < tick + mLookback) {
+                return;
+            }
+            for (int i = 0; i < mTracks.length; i++) {
+                mFrame[i] = mTracks[i].valueAt(tick, mInterpolation);
+                mTracks[i].prune(tick + mTick);
+            }
+            mFrameCount++;
+            mNextTick = tick + mTick;
+            Listener l = mListener;
+            if (l != null) {
+                l.onFrame(deviceId, tick, mFrame);
+            }
+        }
+    }
+
+    /**
+     * @return frames emitted since the stage was created
+     */
+    public synchronized long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Forgets the buffered samples and restarts the grid with the next sample. The frame count is kept.
+     */
+    public synchronized void reset() {
+        for (Track t : mTracks) {
+            t.head = 0;
+            t.size = 0;
+        }
+        mNextTick = Long.MIN_VALUE;
+        mNewest = Long.MIN_VALUE;
+    }
+}
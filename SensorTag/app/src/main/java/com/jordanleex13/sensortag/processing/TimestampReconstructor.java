@@ -0,0 +1,256 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.config.SensorConfig;
+
+import java.util.UUID;
+
+/**
+ * Replaces the arrival time of each notification with an estimate of when the tag took the sample.
+ *
+ * Android hands notifications over in bursts, so arrival times bunch up and spread out even though the tag
+ * samples at a fixed period. Within a stream the samples are numbered and a line is fitted through
+ * (number, arrival) by an exponentially weighted running regression over about {@link #WINDOW} samples. The
+ * slope is the period as measured by the phone's clock, which absorbs the drift of the tag's clock. Until
+ * {@link #MIN_FIT} samples have been seen, and within {@link #MAX_DRIFT} of it afterwards, the slope is held to
+ * the configured period. The line runs through the mean arrival, so reconstructed times trail the samples by
+ * the mean delivery latency, which is the same for every sensor of a tag and does not affect spacing or
+ * alignment.
+ *
+ * The reconstructed time of a sample is the line at its number until the fit has seen {@link #WINDOW} samples.
+ * After that it is the previous time plus the fitted period, pulled towards the line by at most {@link #SLEW}
+ * of a period, so a burst that moves the line does not show up as uneven spacing.
+ *
+ * An arrival later than the line by more than {@link #GAP_PERIODS} periods, and at least
+ * {@link #MIN_GAP_MILLIS}, is a real gap, eg. a link loss: the {@link Listener} is told and the stream restarts
+ * at that arrival with the period fitted so far. An arrival that far ahead of the line means the period is not
+ * what it was thought to be, and also restarts the stream, without a gap. Configured periods come from
+ * {@link #setPeriod(SensorConfig.Sensor, int)}; changing one restarts the streams of that sensor.
+ *
+ * The difference between arrival and reconstructed time of every sample is kept in {@link RunningStats} as the
+ * residual jitter. Called on the BLE callback thread; nothing is allocated per notification.
+ */
+public class TimestampReconstructor {
+
+    /**
+     * Told about gaps on the BLE callback thread
+     */
+    public interface Listener {
+        /**
+         * @param last      Reconstructed time of the last sample before the gap
+         * @param arrival   Arrival time of the first sample after it
+         * @param missed    Samples the fitted period says were lost
+         */
+        void onGap(int deviceId, SensorConfig.Sensor sensor, long last, long arrival, long missed);
+    }
+
+    /** Samples the regression effectively averages over */
+    public static final int WINDOW = 256;
+    /** Samples before the fitted period replaces the configured one */
+    public static final int MIN_FIT = 16;
+    /** Largest relative difference between fitted and configured period */
+    public static final double MAX_DRIFT = 0.05;
+    /** Largest correction towards the line per sample once the fit is settled, relative to the period */
+    public static final double SLEW = 0.005;
+    /** A gap is at least this long, and at least {@link #GAP_PERIODS} periods */
+    public static final long MIN_GAP_MILLIS = 1000;
+    public static final int GAP_PERIODS = 4;
+
+    private static final SensorConfig.Sensor[] SENSORS = SensorConfig.Sensor.values();
+
+    private static class Stream {
+        final RunningStats jitter = new RunningStats(1);
+        final float[] residual = new float[1];
+        double prior;           // Period the slope is held to while the fit is young
+        long anchor;            // Arrival of the first sample, the origin of the regression
+        long n;                 // Samples since the stream started
+        long index;             // Number of the last sample
+        double meanIndex;
+        double meanArrival;
+        double varIndex;
+        double covariance;
+        double period;
+        double exact;           // Last reconstructed time since the anchor, before rounding
+        long last = Long.MIN_VALUE;
+        long gaps;
+
+        void restart(double prior) {
+            this.prior = prior;
+            n = 0;
+        }
+
+        double fitted(double nominal) {
+            if (n < MIN_FIT || varIndex <= 0) {
+                return prior;
+            }
+            double slope = covariance / varIndex;
+            return Math.max(nominal * (1 - MAX_DRIFT), Math.min(nominal * (1 + MAX_DRIFT), slope));
+        }
+
+        double line(long k) {
+            return meanArrival + period * (k - meanIndex);
+        }
+
+        void add(long k, double a, double nominal) {
+            n++;
+            double alpha = Math.max(1.0 / n, 1.0 / WINDOW);
+            double dk = k - meanIndex;
+            double da = a - meanArrival;
+            meanIndex += alpha * dk;
+            meanArrival += alpha * da;
+            varIndex = (1 - alpha) * (varIndex + alpha * dk * dk);
+            covariance = (1 - alpha) * (covariance + alpha * dk * da);
+            index = k;
+            period = fitted(nominal);
+        }
+    }
+
+    private final int[] mNominal = new int[SENSORS.length];
+    // Indexed by device id, then sensor ordinal
+    private Stream[][] mStreams = new Stream[4][];
+    private Listener mListener;
+
+    /**
+     * Starts with the power up periods of the tag
+     */
+    public TimestampReconstructor() {
+        for (SensorConfig.Sensor s : SENSORS) {
+            mNominal[s.ordinal()] = s.getDefaultPeriod();
+        }
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Sets the period the tag was configured with. Streams of the sensor restart if it changed.
+     */
+    public synchronized void setPeriod(SensorConfig.Sensor sensor, int periodMillis) {
+        if (mNominal[sensor.ordinal()] == periodMillis) {
+            return;
+        }
+        mNominal[sensor.ordinal()] = periodMillis;
+        for (Stream[] device : mStreams) {
+            if (device == null || device[sensor.ordinal()] == null) continue;
+            device[sensor.ordinal()].restart(periodMillis);
+        }
+    }
+
+    public synchronized int getPeriod(SensorConfig.Sensor sensor) {
+        return mNominal[sensor.ordinal()];
+    }
+
+    private static SensorConfig.Sensor fromData(UUID data) {
+        for (SensorConfig.Sensor s : SENSORS) {
+            if (s.getPeriod() != null && data.equals(s.getData())) return s;
+        }
+        return null;
+    }
+
+    private Stream stream(int deviceId, SensorConfig.Sensor sensor, boolean create) {
+        if (deviceId >= mStreams.length) {
+            if (!create) return null;
+            Stream[][] grown = new Stream[Math.max(deviceId + 1, mStreams.length * 2)][];
+            System.arraycopy(mStreams, 0, grown, 0, mStreams.length);
+            mStreams = grown;
+        }
+        if (mStreams[deviceId] == null) {
+            if (!create) return null;
+            mStreams[deviceId] = new Stream[SENSORS.length];
+        }
+        Stream s = mStreams[deviceId][sensor.ordinal()];
+        if (s == null && create) {
+            s = new Stream();
+            s.restart(mNominal[sensor.ordinal()]);
+            mStreams[deviceId][sensor.ordinal()] = s;
+        }
+        return s;
+    }
+
+    /**
+     * Longest delay of a sample that is still jitter rather than a gap
+     */
+    private static double gapThreshold(double period) {
+        return Math.max(GAP_PERIODS * period, MIN_GAP_MILLIS);
+    }
+
+    /**
+     * @param data      UUID of the data characteristic
+     * @param arrival   Receive time in milliseconds
+     * @return the reconstructed sample time, or {@code arrival} for characteristics without a period, eg. keys
+     */
+    public synchronized long reconstruct(int deviceId, UUID data, long arrival) {
+        SensorConfig.Sensor sensor = fromData(data);
+        if (sensor == null) {
+            return arrival;
+        }
+        Stream s = stream(deviceId, sensor, true);
+        int nominal = mNominal[sensor.ordinal()];
+        if (s.n > 0) {
+            double late = arrival - s.anchor - s.line(s.index + 1);
+            double threshold = gapThreshold(s.period);
+            if (late > threshold) {
+                s.gaps++;
+                long missed = Math.round(late / s.period);
+                Listener l = mListener;
+                if (l != null) {
+                    l.onGap(deviceId, sensor, s.last, arrival, missed);
+                }
+            }
+            if (late > threshold || late < -threshold) {
+                s.restart(s.n >= MIN_FIT ? s.period : s.prior);
+            }
+        }
+        long time;
+        if (s.n == 0) {
+            s.anchor = arrival;
+            s.meanIndex = 0;
+            s.meanArrival = 0;
+            s.varIndex = 0;
+            s.covariance = 0;
+            s.add(0, 0, nominal);
+            s.exact = 0;
+            time = arrival;
+        } else {
+            s.add(s.index + 1, arrival - s.anchor, nominal);
+            double target = s.line(s.index);
+            if (s.n <= WINDOW) {
+                s.exact = target;
+            } else {
+                double next = s.exact + s.period;
+                double slew = SLEW * s.period;
+                s.exact = next + Math.max(-slew, Math.min(slew, target - next));
+            }
+            time = s.anchor + Math.round(s.exact);
+        }
+        if (time <= s.last) {
+            // Restarted ahead of the old line, keep the order
+            time = s.last + 1;
+        }
+        s.last = time;
+        s.residual[0] = arrival - time;
+        s.jitter.add(s.residual);
+        return time;
+    }
+
+    /**
+     * @return arrival minus reconstructed time of every sample, or null if the sensor has not sent any
+     */
+    public synchronized RunningStats getJitter(int deviceId, SensorConfig.Sensor sensor) {
+        Stream s = stream(deviceId, sensor, false);
+        return s == null ? null : s.jitter;
+    }
+
+    /**
+     * @return the period measured on the phone's clock, or the configured one while there are too few samples
+     */
+    public synchronized double getFittedPeriod(int deviceId, SensorConfig.Sensor sensor) {
+        Stream s = stream(deviceId, sensor, false);
+        return s == null || s.n == 0 ? mNominal[sensor.ordinal()] : s.period;
+    }
+
+    public synchronized long getGapCount(int deviceId, SensorConfig.Sensor sensor) {
+        Stream s = stream(deviceId, sensor, false);
+        return s == null ? 0 : s.gaps;
+    }
+}
@@ -0,0 +1,172 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+
+/**
+ * Sliding window spectrum of the accelerometer magnitude, for vibration signatures of machinery.
+ *
+ * Magnitudes are kept in a ring of {@code windowSize} samples. Every {@code hop} samples the window is
+ * copied out oldest first with its mean removed (which takes out gravity), multiplied by a precomputed Hann
+ * window and run through a {@link RealFft}. The listener receives the energy in {@code bandCount} equal
+ * width bands between 0 and the Nyquist frequency and the dominant frequency, refined between bins by a
+ * parabola through the peak.
+ *
+ * Energies are one sided mean square acceleration in g^2, so a sine of amplitude A adds A^2 / 2 to the band
+ * it falls in. The sample rate is estimated from the receive timestamps of the window. All buffers are
+ * allocated up front and the band array passed to the listener is reused.
+ */
+public class VibrationSpectrum implements SampleListener {
+
+    /**
+     * Receives a spectrum every hop, on the BLE callback thread
+     */
+    public interface Listener {
+        /**
+         * @param sampleRate    Estimated sample rate of the window in Hz
+         * @param dominant      Frequency with the most energy in Hz
+         * @param bands         Energy per band in g^2. Reused for the next hop.
+         */
+        void onSpectrum(int deviceId, long timestamp, float sampleRate, float dominant, float[] bands);
+    }
+
+    public static final int ANY_DEVICE = -1;
+    public static final int DEFAULT_WINDOW = 256;
+    public static final int DEFAULT_HOP = 64;
+    public static final int DEFAULT_BANDS = 8;
+
+    private final int mDeviceId;
+    private final RealFft mFft;
+    private final int mWindowSize;
+    private final int mHop;
+    private final float[] mWindow;
+    private final float mScale;
+
+    private final float[] mRing;
+    private final long[] mTimes;
+    private int mNext;
+    private long mCount;
+    private int mSinceHop;
+
+    private final float[] mInput;
+    private final float[] mPower;
+    private final float[] mBands;
+    private Listener mListener;
+
+    private volatile float mSampleRate;
+    private volatile float mDominant;
+
+    public VibrationSpectrum() {
+        this(ANY_DEVICE, DEFAULT_WINDOW, DEFAULT_HOP, DEFAULT_BANDS);
+    }
+
+    /**
+     * @param deviceId      Device to follow, or {@link #ANY_DEVICE} when a single tag is connected
+     * @param windowSize    Samples per transform, a power of two
+     * @param hop           Samples between transforms, at most {@code windowSize}
+     * @param bandCount     Number of equal width bands reported
+     */
+    public VibrationSpectrum(int deviceId, int windowSize, int hop, int bandCount) {
+        if (hop < 1 || hop > windowSize) {
+            throw new IllegalArgumentException("Hop must be between 1 and the window size: " + hop);
+        }
+        mDeviceId = deviceId;
+        mFft = new RealFft(windowSize);
+        mWindowSize = windowSize;
+        mHop = hop;
+        mWindow = new float[windowSize];
+        double sumSquares = 0;
+        for (int i = 0; i < windowSize; i++) {
+            mWindow[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / windowSize));
+            sumSquares += mWindow[i] * mWindow[i];
+        }
+        mScale = (float) (2 / (windowSize * sumSquares));
+        mRing = new float[windowSize];
+        mTimes = new long[windowSize];
+        mInput = new float[windowSize];
+        mPower = new float[windowSize / 2 + 1];
+        mBands = new float[bandCount];
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void onSample(int deviceId, SensorConversion sensor, long timestamp, float[] values) {
+        if (sensor != SensorConversion.MOVEMENT_ACC || (mDeviceId != ANY_DEVICE && deviceId != mDeviceId)) {
+            return;
+        }
+        mRing[mNext] = (float) Math.sqrt(values[0] * values[0] + values[1] * values[1] + values[2] * values[2]);
+        mTimes[mNext] = timestamp;
+        mNext = (mNext + 1) % mWindowSize;
+        mCount++;
+        if (++mSinceHop >= mHop && mCount >= mWindowSize) {
+            mSinceHop = 0;
+            transform(deviceId, timestamp);
+        }
+    }
+
+    private void transform(int deviceId, long timestamp) {
+        int n = mWindowSize;
+        float mean = 0;
+        for (int i = 0; i < n; i++) {
+            mean += mRing[i];
+        }
+        mean /= n;
+        for (int i = 0, j = mNext; i < n; i++, j = (j + 1) % n) {
+            mInput[i] = (mRing[j] - mean) * mWindow[i];
+        }
+        mFft.powerSpectrum(mInput, mPower);
+
+        long span = timestamp - mTimes[mNext];
+        float rate = span > 0 ? (n - 1) * 1000f / span : 0;
+        int half = n / 2;
+        int bands = mBands.length;
+        for (int b = 0; b < bands; b++) {
+            mBands[b] = 0;
+        }
+        int peak = 1;
+        for (int k = 1; k <= half; k++) {
+            float p = mPower[k] * (k == half ? mScale / 2 : mScale);
+            mPower[k] = p;
+            mBands[Math.min(bands - 1, (k - 1) * bands / half)] += p;
+            if (p > mPower[peak]) peak = k;
+        }
+
+        float bin = peak;
+        if (peak > 1 && peak < half) {
+            float left = mPower[peak - 1], centre = mPower[peak], right = mPower[peak + 1];
+            float d = left - 2 * centre + right;
+            if (d != 0) bin += 0.5f * (left - right) / d;
+        }
+        float dominant = bin * rate / n;
+        mSampleRate = rate;
+        mDominant = dominant;
+        Listener l = mListener;
+        if (l != null) {
+            l.onSpectrum(deviceId, timestamp, rate, dominant, mBands);
+        }
+    }
+
+    public int getWindowSize() {
+        return mWindowSize;
+    }
+
+    public float getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * @return dominant frequency of the last window in Hz
+     */
+    public float getDominantFrequency() {
+        return mDominant;
+    }
+
+    /**
+     * @return upper edge in Hz of band {@code b} at the last estimated sample rate
+     */
+    public float getBandEdge(int b) {
+        return (b + 1) * mSampleRate / 2 / mBands.length;
+    }
+}
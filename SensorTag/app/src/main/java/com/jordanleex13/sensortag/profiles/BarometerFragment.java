@@ -1,11 +1,6 @@
 package com.jordanleex13.sensortag.profiles;
 
 
-import android.bluetooth.BluetoothGattService;
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
@@ -19,10 +14,13 @@ import android.widget.TextView;
 
 import com.jordanleex13.sensortag.BleService;
 import com.jordanleex13.sensortag.R;
-import com.jordanleex13.sensortag.SensorTag.IntentNames;
 import com.jordanleex13.sensortag.SensorTag.SensorConversion;
 import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
-import com.jordanleex13.sensortag.models.Point3D;
+import com.jordanleex13.sensortag.config.SensorConfig;
+import com.jordanleex13.sensortag.models.FrameArena;
+import com.jordanleex13.sensortag.models.FrameDispatcher;
+import com.jordanleex13.sensortag.processing.AltitudeEstimator;
+import com.jordanleex13.sensortag.ui.DeviceActivity;
 
 /**
  * A simple {@link Fragment} subclass that displays barometric data.
@@ -46,9 +44,10 @@ public class BarometerFragment extends Fragment {
      * BLE related variables
      */
     private BleService mBleService;
-    private BluetoothGattService mThis;
-    private static boolean mFirstTime = true;
+    private FrameDispatcher mFrames;
+    private final float[] mValues = new float[3];
     private static final int periodMinVal = 100;
+    private final AltitudeEstimator mAltitude = new AltitudeEstimator();
 
 
     public BarometerFragment() {
@@ -79,7 +78,6 @@ public class BarometerFragment extends Fragment {
         super.onCreate(savedInstanceState);
         sectionNumber = getArguments().getInt(FRAGMENT_POSITION);
         mBleService = BleService.getInstance();
-        mThis = mBleService.getServiceFromUUID(SensorTagGatt.UUID_BAR_SERV.toString());
     }
 
     /**
@@ -100,19 +98,22 @@ public class BarometerFragment extends Fragment {
         positionText.setText("Fragment " + sectionNumber + ": Barometer");
 
         barData = (TextView) v.findViewById(R.id.bar_data);
-        barData.setText("Pressure Data: 0.0mBar, 0.0m");
+        barData.setText("Pressure Data: 0.0mBar, 0.0m, 0.00m/s");
 
         periodLength = (TextView) v.findViewById(R.id.periodLength);
-        periodLength.setText("Sensor period (currently : " + ((90 * 10) + periodMinVal) + "ms)");
+        SensorConfig config = mBleService.getSensorConfig();
+        int period = config.getPeriod(SensorConfig.Sensor.BAROMETER);
+        periodLength.setText("Sensor period (currently : " + period + "ms)");
 
         periodBar = (SeekBar) v.findViewById(R.id.periodBar);
         periodBar.setMax(245); // because 0-245 corresponds to 100-2550     formula: * 10 + 100
-        periodBar.setProgress(90);
+        periodBar.setProgress((period - periodMinVal) / 10);
         periodBar.setOnSeekBarChangeListener(onSeekBarChangeListener);
 
         sensorSwitch = (Switch) v.findViewById(R.id.sensorSwitch);
+        sensorSwitch.setChecked(config.isNotifying(SensorConfig.Sensor.BAROMETER));
         sensorSwitch.setOnCheckedChangeListener(onCheckedChangeListener);
-        sensorSwitch.setChecked(true);
+        onCheckedChangeListener.onCheckedChanged(sensorSwitch, sensorSwitch.isChecked());
 
         return v;
     }
@@ -137,12 +138,8 @@ public class BarometerFragment extends Fragment {
             //Log.d(TAG, "Period Stop");
             int period = periodMinVal + (seekBar.getProgress() * 10);
 
-            if (period > 2450) period = 2450;
-            if (period < 100) period = 100;
-            byte p = (byte)((period / 10) + 10);
-
             //Log.d(TAG, "Period characteristic set to: " + period);
-            mBleService.changePeriod(mBleService.getCharacteristicFromUUID(SensorTagGatt.UUID_BAR_PERI.toString()), p);
+            mBleService.setSensorPeriod(SensorConfig.Sensor.BAROMETER, period);
         }
     };
 
@@ -153,66 +150,56 @@ public class BarometerFragment extends Fragment {
         @Override
         public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
             if (!isChecked) {
-                mBleService.disableNotifications(mThis, SensorTagGatt.UUID_BAR_DATA);
+                mBleService.setSensorNotifying(SensorConfig.Sensor.BAROMETER, false);
                 positionText.setAlpha(0.4f);
                 barData.setAlpha(0.4f);
                 periodLength.setAlpha(0.4f);
                 periodBar.setEnabled(false);
             } else {
-                if (!mFirstTime) {
-                    mBleService.enableNotifications(mThis, SensorTagGatt.UUID_BAR_DATA);
-                    positionText.setAlpha(1.0f);
-                    barData.setAlpha(1.0f);
-                    periodLength.setAlpha(1.0f);
-                    periodBar.setEnabled(true);
-                } else {
-                    mFirstTime = false;
-                    //Log.d(TAG, "FIRST TIME. Service already enabled");
-                }
+                mBleService.setSensorNotifying(SensorConfig.Sensor.BAROMETER, true);
+                positionText.setAlpha(1.0f);
+                barData.setAlpha(1.0f);
+                periodLength.setAlpha(1.0f);
+                periodBar.setEnabled(true);
             }
         }
     };
 
     /**
-     * Registers the broadcast receiver
+     * Starts showing the pressure values and estimating the altitude
      */
     @Override
     public void onResume() {
         super.onResume();
-        getActivity().registerReceiver(barometerUpdateReceiver, makeBarometerUpdateIntentFilter());
-        //Log.i(TAG, "Registering BAROMETER receiver");
+        mAltitude.reset();
+        mBleService.getPipeline().register(mAltitude, AltitudeEstimator.SENSORS);
+        mFrames = ((DeviceActivity) getActivity()).getFrameDispatcher();
+        mFrames.setPage(SensorTagGatt.UUID_BAR_DATA, barometerPage);
+        //Log.i(TAG, "Registering BAROMETER page");
     }
 
     /**
-     * Unregisters the broadcast receiver
+     * Stops showing the pressure values and unregisters the altitude estimator
      */
     @Override
     public void onPause() {
         super.onPause();
-        getActivity().unregisterReceiver(barometerUpdateReceiver);
-        //Log.i(TAG, "Unregistering BAROMETER receiver");
+        mFrames.removePage(SensorTagGatt.UUID_BAR_DATA, barometerPage);
+        mBleService.getPipeline().unregister(mAltitude);
+        //Log.i(TAG, "Unregistering BAROMETER page");
     }
 
     /**
-     * Receives updates from {@code mGattUpdateReceiver#ACTION_DATA_NOTIFY} and displays updated data
+     * Decodes values handed over by {@code DeviceActivity} straight from their arena slot and displays them
      */
-    private final BroadcastReceiver barometerUpdateReceiver = new BroadcastReceiver() {
+    private final FrameDispatcher.Page barometerPage = new FrameDispatcher.Page() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            final String action = intent.getAction();
-            if (IntentNames.ACTION_BAR_CHANGE.equals(action)) {
-                byte[] value = intent.getByteArrayExtra(IntentNames.EXTRAS_BAR_DATA);
-                Point3D v = SensorConversion.BAROMETER.convert(value);
-
-                barData.setText(String.format("Pressure Data: %.1f mBar", v.x / 100));
+        public void onFrame(FrameArena arena, int slot) {
+            SensorConversion.BAROMETER.convert(mFrames.read(arena, slot), mValues, 0);
 
-            }
+            // SensorConversion already returns hPa, which is the same as mBar
+            barData.setText(String.format("Pressure Data: %.1f mBar, %.1fm, %.2fm/s", mValues[0],
+                    mAltitude.getAltitude(), mAltitude.getVerticalSpeed()));
         }
     };
-
-    private static IntentFilter makeBarometerUpdateIntentFilter() {
-        final IntentFilter intentFilter = new IntentFilter();
-        intentFilter.addAction(IntentNames.ACTION_BAR_CHANGE);
-        return intentFilter;
-    }
 }
@@ -0,0 +1,23 @@
+package com.jordanleex13.sensortag.profiles;
+
+import android.support.v4.app.Fragment;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+
+/**
+ * Barometric pressure service
+ */
+public class BarometerProfile extends BaseSensorProfile {
+
+    public BarometerProfile() {
+        super("Barometer", 60, SensorTagGatt.UUID_BAR_SERV, SensorTagGatt.UUID_BAR_DATA,
+                SensorTagGatt.UUID_BAR_CONF, SensorTagGatt.UUID_BAR_PERI,
+                SensorConversion.BAROMETER);
+    }
+
+    @Override
+    public Fragment newFragment(int position) {
+        return BarometerFragment.newInstance(position);
+    }
+}
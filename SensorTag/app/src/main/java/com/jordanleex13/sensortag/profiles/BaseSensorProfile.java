@@ -0,0 +1,79 @@
+package com.jordanleex13.sensortag.profiles;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.config.GattOperation;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Holds the constant parts of a {@link SensorProfile}. Subclasses pass them to the constructor and provide
+ * the page.
+ */
+public abstract class BaseSensorProfile implements SensorProfile {
+
+    private final String mName;
+    private final int mOrder;
+    private final UUID mService;
+    private final UUID mData;
+    private final UUID mConfig;
+    private final UUID mPeriod;
+    private final SensorConversion[] mConversions;
+
+    protected BaseSensorProfile(String name, int order, UUID service, UUID data, UUID config, UUID period,
+                                SensorConversion... conversions) {
+        mName = name;
+        mOrder = order;
+        mService = service;
+        mData = data;
+        mConfig = config;
+        mPeriod = period;
+        mConversions = conversions;
+    }
+
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    @Override
+    public int getOrder() {
+        return mOrder;
+    }
+
+    @Override
+    public UUID getService() {
+        return mService;
+    }
+
+    @Override
+    public UUID getData() {
+        return mData;
+    }
+
+    @Override
+    public UUID getConfig() {
+        return mConfig;
+    }
+
+    @Override
+    public UUID getPeriod() {
+        return mPeriod;
+    }
+
+    @Override
+    public SensorConversion[] getConversions() {
+        return mConversions.clone();
+    }
+
+    @Override
+    public List<GattOperation> getEnableSequence() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}
@@ -1,11 +1,6 @@
 package com.jordanleex13.sensortag.profiles;
 
 
-import android.bluetooth.BluetoothGattService;
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
@@ -19,10 +14,12 @@ import android.widget.TextView;
 
 import com.jordanleex13.sensortag.BleService;
 import com.jordanleex13.sensortag.R;
-import com.jordanleex13.sensortag.SensorTag.IntentNames;
 import com.jordanleex13.sensortag.SensorTag.SensorConversion;
 import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
-import com.jordanleex13.sensortag.models.Point3D;
+import com.jordanleex13.sensortag.config.SensorConfig;
+import com.jordanleex13.sensortag.models.FrameArena;
+import com.jordanleex13.sensortag.models.FrameDispatcher;
+import com.jordanleex13.sensortag.ui.DeviceActivity;
 
 /**
  * A simple {@link Fragment} subclass that display humidity data.
@@ -46,8 +43,8 @@ public class HumidityFragment extends Fragment {
      * BLE related variables
      */
     private BleService mBleService;
-    private BluetoothGattService mThis;
-    private static boolean mFirstTime = true;
+    private FrameDispatcher mFrames;
+    private final float[] mValues = new float[3];
     private static final int periodMinVal = 100;
 
 
@@ -79,7 +76,6 @@ public class HumidityFragment extends Fragment {
         super.onCreate(savedInstanceState);
         sectionNumber = getArguments().getInt(FRAGMENT_POSITION);
         mBleService = BleService.getInstance();
-        mThis = mBleService.getServiceFromUUID(SensorTagGatt.UUID_HUM_SERV.toString());
     }
 
     /**
@@ -103,16 +99,19 @@ public class HumidityFragment extends Fragment {
         humData.setText("Humidity: 0.0%rH");
 
         periodLength = (TextView) v.findViewById(R.id.periodLength);
-        periodLength.setText("Sensor period (currently : " + ((90 * 10) + periodMinVal) + "ms)");
+        SensorConfig config = mBleService.getSensorConfig();
+        int period = config.getPeriod(SensorConfig.Sensor.HUMIDITY);
+        periodLength.setText("Sensor period (currently : " + period + "ms)");
 
         periodBar = (SeekBar) v.findViewById(R.id.periodBar);
         periodBar.setMax(245); // because 0-245 corresponds to 100-2550     formula: * 10 + 100
-        periodBar.setProgress(90);
+        periodBar.setProgress((period - periodMinVal) / 10);
         periodBar.setOnSeekBarChangeListener(onSeekBarChangeListener);
 
         sensorSwitch = (Switch) v.findViewById(R.id.sensorSwitch);
+        sensorSwitch.setChecked(config.isNotifying(SensorConfig.Sensor.HUMIDITY));
         sensorSwitch.setOnCheckedChangeListener(onCheckedChangeListener);
-        sensorSwitch.setChecked(true);
+        onCheckedChangeListener.onCheckedChanged(sensorSwitch, sensorSwitch.isChecked());
 
         return v;
     }
@@ -137,12 +136,8 @@ public class HumidityFragment extends Fragment {
             //Log.d(TAG, "Period Stop");
             int period = periodMinVal + (seekBar.getProgress() * 10);
 
-            if (period > 2450) period = 2450;
-            if (period < 100) period = 100;
-            byte p = (byte)((period / 10) + 10);
-
             //Log.d(TAG, "Period characteristic set to: " + period);
-            mBleService.changePeriod(mBleService.getCharacteristicFromUUID(SensorTagGatt.UUID_HUM_PERI.toString()), p);
+            mBleService.setSensorPeriod(SensorConfig.Sensor.HUMIDITY, period);
         }
     };
 
@@ -154,24 +149,17 @@ public class HumidityFragment extends Fragment {
         @Override
         public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
             if (!isChecked) {
-                mBleService.disableNotifications(mThis, SensorTagGatt.UUID_HUM_DATA);
-                //mBleService.disableService(mThis, SensorTagGatt.UUID_IRT_CONF);
+                mBleService.setSensorNotifying(SensorConfig.Sensor.HUMIDITY, false);
                 positionText.setAlpha(0.4f);
                 humData.setAlpha(0.4f);
                 periodLength.setAlpha(0.4f);
                 periodBar.setEnabled(false);
             } else {
-                if (!mFirstTime) {
-                    mBleService.enableNotifications(mThis, SensorTagGatt.UUID_HUM_DATA);
-                    //mBleService.enableService(mThis, SensorTagGatt.UUID_IRT_CONF);
-                    positionText.setAlpha(1.0f);
-                    humData.setAlpha(1.0f);
-                    periodLength.setAlpha(1.0f);
-                    periodBar.setEnabled(true);
-                } else {
-                    mFirstTime = false;
-                    //Log.d(TAG, "FIRST TIME");
-                }
+                mBleService.setSensorNotifying(SensorConfig.Sensor.HUMIDITY, true);
+                positionText.setAlpha(1.0f);
+                humData.setAlpha(1.0f);
+                periodLength.setAlpha(1.0f);
+                periodBar.setEnabled(true);
 
             }
         }
@@ -179,44 +167,35 @@ public class HumidityFragment extends Fragment {
 
 
     /**
-     * Registers the broadcast receiver
+     * Starts showing the humidity values
      */
     @Override
     public void onResume() {
         super.onResume();
-        getActivity().registerReceiver(humidityUpdateReceiver, makeHumidityUpdateIntentFilter());
-        //Log.i(TAG, "Registering HUMIDITY receiver");
+        mFrames = ((DeviceActivity) getActivity()).getFrameDispatcher();
+        mFrames.setPage(SensorTagGatt.UUID_HUM_DATA, humidityPage);
+        //Log.i(TAG, "Registering HUMIDITY page");
     }
 
     /**
-     * Unregisters the broadcast receiver
+     * Stops showing the humidity values
      */
     @Override
     public void onPause() {
         super.onPause();
-        getActivity().unregisterReceiver(humidityUpdateReceiver);
-        //Log.i(TAG, "Unregistering HUMIDITY receiver");
+        mFrames.removePage(SensorTagGatt.UUID_HUM_DATA, humidityPage);
+        //Log.i(TAG, "Unregistering HUMIDITY page");
     }
 
     /**
-     * Receives updates from {@code mGattUpdateReceiver#ACTION_DATA_NOTIFY} and displays updated data
+     * Decodes values handed over by {@code DeviceActivity} straight from their arena slot and displays them
      */
-    private final BroadcastReceiver humidityUpdateReceiver = new BroadcastReceiver() {
+    private final FrameDispatcher.Page humidityPage = new FrameDispatcher.Page() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            final String action = intent.getAction();
-            if (IntentNames.ACTION_HUM_CHANGE.equals(action)) {
-                byte[] value = intent.getByteArrayExtra(IntentNames.EXTRAS_HUM_DATA);
-                Point3D v = SensorConversion.HUMIDITY2.convert(value);
-                humData.setText(String.format("Humidity: %.1f %%rH", v.x));
-            }
+        public void onFrame(FrameArena arena, int slot) {
+            SensorConversion.HUMIDITY2.convert(mFrames.read(arena, slot), mValues, 0);
+            humData.setText(String.format("Humidity: %.1f %%rH", mValues[0]));
         }
     };
 
-    private static IntentFilter makeHumidityUpdateIntentFilter() {
-        final IntentFilter intentFilter = new IntentFilter();
-        intentFilter.addAction(IntentNames.ACTION_HUM_CHANGE);
-        return intentFilter;
-    }
-
 }
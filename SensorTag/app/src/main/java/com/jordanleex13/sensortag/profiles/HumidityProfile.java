@@ -0,0 +1,24 @@
+package com.jordanleex13.sensortag.profiles;
+
+import android.support.v4.app.Fragment;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+
+/**
+ * Humidity service, temperature and relative humidity. Decoded as the HDC1000 of this tag; {@code HUMIDITY}
+ * is the SHT21 of the older one.
+ */
+public class HumidityProfile extends BaseSensorProfile {
+
+    public HumidityProfile() {
+        super("Humidity", 70, SensorTagGatt.UUID_HUM_SERV, SensorTagGatt.UUID_HUM_DATA,
+                SensorTagGatt.UUID_HUM_CONF, SensorTagGatt.UUID_HUM_PERI,
+                SensorConversion.HUMIDITY2);
+    }
+
+    @Override
+    public Fragment newFragment(int position) {
+        return HumidityFragment.newInstance(position);
+    }
+}
@@ -0,0 +1,36 @@
+package com.jordanleex13.sensortag.profiles;
+
+import android.support.v4.app.Fragment;
+
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+import com.jordanleex13.sensortag.config.GattOperation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * IO service: LEDs and buzzer. Nothing notifies
+ */
+public class IOProfile extends BaseSensorProfile {
+
+    public IOProfile() {
+        super("IO", 50, SensorTagGatt.UUID_TST_SERV, null,
+                SensorTagGatt.UUID_TST_CONF, null);
+    }
+
+    /**
+     * Remote mode with everything off. Fixes situation where turns on all IO after connection
+     */
+    @Override
+    public List<GattOperation> getEnableSequence() {
+        List<GattOperation> ops = new ArrayList<>();
+        ops.add(GattOperation.write(SensorTagGatt.UUID_TST_SERV, SensorTagGatt.UUID_TST_CONF, new byte[]{1}));
+        ops.add(GattOperation.write(SensorTagGatt.UUID_TST_SERV, SensorTagGatt.UUID_TST_DATA, new byte[]{0}));
+        return ops;
+    }
+
+    @Override
+    public Fragment newFragment(int position) {
+        return IOFragment.newInstance(position);
+    }
+}
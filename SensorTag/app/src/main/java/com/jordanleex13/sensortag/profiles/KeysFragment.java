@@ -2,10 +2,6 @@ package com.jordanleex13.sensortag.profiles;
 
 
 import android.bluetooth.BluetoothGattService;
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.view.LayoutInflater;
@@ -16,8 +12,10 @@ import android.widget.TextView;
 
 import com.jordanleex13.sensortag.BleService;
 import com.jordanleex13.sensortag.R;
-import com.jordanleex13.sensortag.SensorTag.IntentNames;
 import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+import com.jordanleex13.sensortag.models.FrameArena;
+import com.jordanleex13.sensortag.models.FrameDispatcher;
+import com.jordanleex13.sensortag.ui.DeviceActivity;
 
 /**
  * A simple {@link Fragment} subclass that displays key presses.
@@ -39,6 +37,7 @@ public class KeysFragment extends Fragment {
      * BLE related variables
      */
     private BleService mBleService;
+    private FrameDispatcher mFrames;
     private BluetoothGattService mThis;
 
 
@@ -103,72 +102,59 @@ public class KeysFragment extends Fragment {
 
 
     /**
-     * Registers the broadcast receiver
+     * Starts showing the key presses
      */
     @Override
     public void onResume() {
         super.onResume();
-        getActivity().registerReceiver(keysUpdateReceiver, makeKeysUpdateIntentFilter());
-        //Log.i(TAG, "Registering KEYS receiver");
+        mFrames = ((DeviceActivity) getActivity()).getFrameDispatcher();
+        mFrames.setPage(SensorTagGatt.UUID_KEY_DATA, keysPage);
+        //Log.i(TAG, "Registering KEYS page");
     }
 
     /**
-     * Unregisters the broadcast receiver
+     * Stops showing the key presses
      */
     @Override
     public void onPause() {
         super.onPause();
-        getActivity().unregisterReceiver(keysUpdateReceiver);
-        //Log.i(TAG, "Unregistering KEYS receiver");
+        mFrames.removePage(SensorTagGatt.UUID_KEY_DATA, keysPage);
+        //Log.i(TAG, "Unregistering KEYS page");
     }
 
-
     /**
-     * Receives updates from {@code mGattUpdateReceiver#ACTION_DATA_NOTIFY} and display images corresponding
-     * to updated data.
+     * Displays images corresponding to the key byte handed over by {@code DeviceActivity} in an arena slot
      */
-    private final BroadcastReceiver keysUpdateReceiver = new BroadcastReceiver() {
+    private final FrameDispatcher.Page keysPage = new FrameDispatcher.Page() {
         @Override
-        public void onReceive(Context context, Intent intent) {
+        public void onFrame(FrameArena arena, int slot) {
 
 //        Bit 0      2^0        1 = left
 //        Bit 1      2^1        2 = right
 //                              3 = left + right
 
-            final String action = intent.getAction();
-
-            if (IntentNames.ACTION_KEY_CHANGE.equals(action)) {
-
-                byte[] keyValue = mBleService.getCharacteristicFromUUID(SensorTagGatt.UUID_KEY_DATA.toString()).getValue();
-                switch (keyValue[0]) {
-                    /*
-                     * Taken from TISensorTag source code: reads the byte and does appropriate image swapping
-                     */
-                    case 0x1:
-                        leftKeyImage.setImageResource(R.drawable.leftkeyon_300);
-                        rightKeyImage.setImageResource(R.drawable.rightkeyoff_300);
-                        break;
-                    case 0x2:
-                        leftKeyImage.setImageResource(R.drawable.leftkeyoff_300);
-                        rightKeyImage.setImageResource(R.drawable.rightkeyon_300);
-                        break;
-                    case 0x3:
-                        leftKeyImage.setImageResource(R.drawable.leftkeyon_300);
-                        rightKeyImage.setImageResource(R.drawable.rightkeyon_300);
-                        break;
-                    default:
-                        leftKeyImage.setImageResource(R.drawable.leftkeyoff_300);
-                        rightKeyImage.setImageResource(R.drawable.rightkeyoff_300);
-                        break;
-                }
+            switch (arena.get(slot, 0)) {
+                /*
+                 * Taken from TISensorTag source code: reads the byte and does appropriate image swapping
+                 */
+                case 0x1:
+                    leftKeyImage.setImageResource(R.drawable.leftkeyon_300);
+                    rightKeyImage.setImageResource(R.drawable.rightkeyoff_300);
+                    break;
+                case 0x2:
+                    leftKeyImage.setImageResource(R.drawable.leftkeyoff_300);
+                    rightKeyImage.setImageResource(R.drawable.rightkeyon_300);
+                    break;
+                case 0x3:
+                    leftKeyImage.setImageResource(R.drawable.leftkeyon_300);
+                    rightKeyImage.setImageResource(R.drawable.rightkeyon_300);
+                    break;
+                default:
+                    leftKeyImage.setImageResource(R.drawable.leftkeyoff_300);
+                    rightKeyImage.setImageResource(R.drawable.rightkeyoff_300);
+                    break;
             }
         }
     };
 
-    private static IntentFilter makeKeysUpdateIntentFilter() {
-        final IntentFilter intentFilter = new IntentFilter();
-        intentFilter.addAction(IntentNames.ACTION_KEY_CHANGE);
-        return intentFilter;
-    }
-
 }
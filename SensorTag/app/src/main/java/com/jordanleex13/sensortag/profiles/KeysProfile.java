@@ -0,0 +1,21 @@
+package com.jordanleex13.sensortag.profiles;
+
+import android.support.v4.app.Fragment;
+
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+
+/**
+ * Simple Keys service. Notify only
+ */
+public class KeysProfile extends BaseSensorProfile {
+
+    public KeysProfile() {
+        super("Keys", 40, SensorTagGatt.UUID_KEY_SERV, SensorTagGatt.UUID_KEY_DATA,
+                null, null);
+    }
+
+    @Override
+    public Fragment newFragment(int position) {
+        return KeysFragment.newInstance(position);
+    }
+}
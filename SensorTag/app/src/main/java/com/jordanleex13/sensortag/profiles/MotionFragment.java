@@ -1,11 +1,6 @@
 package com.jordanleex13.sensortag.profiles;
 
 
-import android.bluetooth.BluetoothGattService;
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
@@ -20,10 +15,13 @@ import android.widget.TextView;
 
 import com.jordanleex13.sensortag.BleService;
 import com.jordanleex13.sensortag.R;
-import com.jordanleex13.sensortag.SensorTag.IntentNames;
 import com.jordanleex13.sensortag.SensorTag.SensorConversion;
 import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
-import com.jordanleex13.sensortag.models.Point3D;
+import com.jordanleex13.sensortag.config.SensorConfig;
+import com.jordanleex13.sensortag.models.FrameArena;
+import com.jordanleex13.sensortag.models.FrameDispatcher;
+import com.jordanleex13.sensortag.processing.OrientationFilter;
+import com.jordanleex13.sensortag.ui.DeviceActivity;
 
 /**
  * A simple {@link Fragment} subclass that displays motion data.
@@ -44,6 +42,7 @@ public class MotionFragment extends Fragment {
     private TextView accelData;
     private TextView gyroData;
     private TextView magData;
+    private TextView orientationData;
     private SeekBar periodBar;
     private TextView periodLength;
     private Switch sensorSwitch;
@@ -53,9 +52,10 @@ public class MotionFragment extends Fragment {
      * BLE related variables
      */
     private BleService mBleService;
-    private BluetoothGattService mThis;
-    private static boolean mFirstTime = true;
+    private FrameDispatcher mFrames;
+    private final float[] mValues = new float[3];
     private static final int periodMinVal = 100;
+    private final OrientationFilter mOrientation = new OrientationFilter();
 
 
     public MotionFragment() {
@@ -87,7 +87,6 @@ public class MotionFragment extends Fragment {
         super.onCreate(savedInstanceState);
         sectionNumber = getArguments().getInt(FRAGMENT_POSITION);
         mBleService = BleService.getInstance();
-        mThis = mBleService.getServiceFromUUID(SensorTagGatt.UUID_MOV_SERV.toString());
     }
 
     /**
@@ -116,21 +115,27 @@ public class MotionFragment extends Fragment {
         magData = (TextView) v.findViewById(R.id.mag_data);
         magData.setText("X:0.00mT, Y:0.00mT, Z:0.00mT");
 
+        orientationData = (TextView) v.findViewById(R.id.orientation_data);
+        orientationData.setText("Roll:0.0°, Pitch:0.0°, Yaw:0.0°");
+
         periodLength = (TextView) v.findViewById(R.id.periodLength);
-        periodLength.setText("Sensor period (currently : " + ((90 * 10) + periodMinVal) + "ms)");
+        SensorConfig config = mBleService.getSensorConfig();
+        int period = config.getPeriod(SensorConfig.Sensor.MOVEMENT);
+        periodLength.setText("Sensor period (currently : " + period + "ms)");
 
         periodBar = (SeekBar) v.findViewById(R.id.periodBar);
         periodBar.setMax(245); // because 0-245 corresponds to 100-2550     formula: * 10 + 100
-        periodBar.setProgress(90);
+        periodBar.setProgress((period - periodMinVal) / 10);
         periodBar.setOnSeekBarChangeListener(onSeekBarChangeListener);
 
         sensorSwitch = (Switch) v.findViewById(R.id.sensorSwitch);
+        sensorSwitch.setChecked(config.isNotifying(SensorConfig.Sensor.MOVEMENT));
         sensorSwitch.setOnCheckedChangeListener(onCheckedChangeListener);
-        sensorSwitch.setChecked(true);
+        onCheckedChangeListener.onCheckedChanged(sensorSwitch, sensorSwitch.isChecked());
 
         wakeOnShakeSwitch = (Switch) v.findViewById(R.id.wakeOnShakeSwitch);
+        wakeOnShakeSwitch.setChecked(config.isWakeOnMotion());
         wakeOnShakeSwitch.setOnCheckedChangeListener(onCheckedChangeListener);
-        wakeOnShakeSwitch.setChecked(true);
 
 
         return v;
@@ -156,12 +161,8 @@ public class MotionFragment extends Fragment {
             //Log.d(TAG, "Period Stop");
             int period = periodMinVal + (seekBar.getProgress() * 10);
 
-            if (period > 2450) period = 2450;
-            if (period < 100) period = 100;
-            byte p = (byte)((period / 10) + 10);
-
             //Log.d(TAG, "Period characteristic set to: " + period);
-            mBleService.changePeriod(mBleService.getCharacteristicFromUUID(SensorTagGatt.UUID_MOV_PERI.toString()), p);
+            mBleService.setSensorPeriod(SensorConfig.Sensor.MOVEMENT, period);
         }
     };
 
@@ -176,17 +177,18 @@ public class MotionFragment extends Fragment {
 
                 switch (buttonView.getId()) {
                     case R.id.sensorSwitch:
-                        mBleService.disableNotifications(mThis, SensorTagGatt.UUID_MOV_DATA);
+                        mBleService.setSensorNotifying(SensorConfig.Sensor.MOVEMENT, false);
                         positionText.setAlpha(0.4f);
                         accelData.setAlpha(0.4f);
                         gyroData.setAlpha(0.4f);
                         magData.setAlpha(0.4f);
+                        orientationData.setAlpha(0.4f);
                         periodLength.setAlpha(0.4f);
                         periodBar.setEnabled(false);
                         break;
 
                     case R.id.wakeOnShakeSwitch:
-                        mBleService.enableMotionService(mThis, SensorTagGatt.UUID_MOV_CONF, false);
+                        mBleService.setWakeOnMotion(false);
                         break;
 
                     default:
@@ -197,22 +199,18 @@ public class MotionFragment extends Fragment {
                 switch (buttonView.getId()) {
 
                     case R.id.sensorSwitch:
-                        if (!mFirstTime) {
-                            mBleService.enableNotifications(mThis, SensorTagGatt.UUID_MOV_DATA);
-                            positionText.setAlpha(1.0f);
-                            accelData.setAlpha(1.0f);
-                            gyroData.setAlpha(1.0f);
-                            magData.setAlpha(1.0f);
-                            periodLength.setAlpha(1.0f);
-                            periodBar.setEnabled(true);
-                        } else {
-                            mFirstTime = false;
-                            //Log.d(TAG, "FIRST TIME");
-                        }
+                        mBleService.setSensorNotifying(SensorConfig.Sensor.MOVEMENT, true);
+                        positionText.setAlpha(1.0f);
+                        accelData.setAlpha(1.0f);
+                        gyroData.setAlpha(1.0f);
+                        magData.setAlpha(1.0f);
+                        orientationData.setAlpha(1.0f);
+                        periodLength.setAlpha(1.0f);
+                        periodBar.setEnabled(true);
                         break;
 
                     case R.id.wakeOnShakeSwitch:
-                        mBleService.enableMotionService(mThis, SensorTagGatt.UUID_MOV_CONF, true);
+                        mBleService.setWakeOnMotion(true);
                         break;
 
                     default:
@@ -224,60 +222,56 @@ public class MotionFragment extends Fragment {
     };
 
     /**
-     * Registers the broadcast receiver
+     * Starts showing the movement values and following the orientation
      */
     @Override
     public void onResume() {
         super.onResume();
-        getActivity().registerReceiver(motionUpdateReceiver, makeMotionUpdateIntentFilter());
-        //Log.i(TAG, "Registering MOTION receiver");
+        mOrientation.reset();
+        mBleService.getPipeline().register(mOrientation, OrientationFilter.SENSORS);
+        mFrames = ((DeviceActivity) getActivity()).getFrameDispatcher();
+        mFrames.setPage(SensorTagGatt.UUID_MOV_DATA, motionPage);
+        //Log.i(TAG, "Registering MOTION page");
     }
 
     /**
-     * Unregisters the broadcast receiver
+     * Stops showing the movement values and unregisters the orientation filter
      */
     @Override
     public void onPause() {
         super.onPause();
-        getActivity().unregisterReceiver(motionUpdateReceiver);
-        //Log.i(TAG, "Unregistering MOTION receiver");
+        mFrames.removePage(SensorTagGatt.UUID_MOV_DATA, motionPage);
+        mBleService.getPipeline().unregister(mOrientation);
+        //Log.i(TAG, "Unregistering MOTION page");
     }
 
     /**
-     * Receives updates from {@code mGattUpdateReceiver#ACTION_DATA_NOTIFY} and displays updated data
-     * Converts accel, gyro, and mag data separately using different conversions of the same byte[]
+     * Decodes values handed over by {@code DeviceActivity} straight from their arena slot and displays them.
+     * Converts accel, gyro, and mag data separately using different conversions of the same frame
      */
-    private final BroadcastReceiver motionUpdateReceiver = new BroadcastReceiver() {
+    private final FrameDispatcher.Page motionPage = new FrameDispatcher.Page() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-
-            final String action = intent.getAction();
+        public void onFrame(FrameArena arena, int slot) {
 
-            if (IntentNames.ACTION_MOV_CHANGE.equals(action)) {
+            //Log.i(TAG, "***************** MOTION sensed *****************");
+            byte[] value = mFrames.read(arena, slot);
+            float[] v = mValues;
 
-                //Log.i(TAG, "***************** MOTION sensed *****************");
-                byte[] value = intent.getByteArrayExtra(IntentNames.EXTRAS_MOV_DATA);
-                Point3D v;
+            SensorConversion.MOVEMENT_ACC.convert(value, v, 0);
+            accelData.setText(Html.fromHtml(String.format("<font color=#FF0000>X:%.2fG</font>," +
+                    "<font color=#00967D>Y:%.2fG</font>, <font color=#00000>Z:%.2fG</font>", v[0], v[1], v[2])));
 
-                v = SensorConversion.MOVEMENT_ACC.convert(value);
-                accelData.setText(Html.fromHtml(String.format("<font color=#FF0000>X:%.2fG</font>," +
-                        "<font color=#00967D>Y:%.2fG</font>, <font color=#00000>Z:%.2fG</font>", v.x,v.y,v.z)));
+            SensorConversion.MOVEMENT_GYRO.convert(value, v, 0);
+            gyroData.setText(Html.fromHtml(String.format("<font color=#FF0000>X:%.2f°/s</font>, " +
+                    "<font color=#00967D>Y:%.2f°/s</font>, <font color=#00000>Z:%.2f°/s</font>", v[0], v[1], v[2])));
 
-                v = SensorConversion.MOVEMENT_GYRO.convert(value);
-                gyroData.setText(Html.fromHtml(String.format("<font color=#FF0000>X:%.2f°/s</font>, " +
-                        "<font color=#00967D>Y:%.2f°/s</font>, <font color=#00000>Z:%.2f°/s</font>", v.x, v.y, v.z)));
+            SensorConversion.MOVEMENT_MAG.convert(value, v, 0);
+            magData.setText(Html.fromHtml(String.format("<font color=#FF0000>X:%.2fuT</font>, " +
+                    "<font color=#00967D>Y:%.2fuT</font>, <font color=#00000>Z:%.2fuT</font>", v[0], v[1], v[2])));
 
-                v = SensorConversion.MOVEMENT_MAG.convert(value);
-                magData.setText(Html.fromHtml(String.format("<font color=#FF0000>X:%.2fuT</font>, " +
-                        "<font color=#00967D>Y:%.2fuT</font>, <font color=#00000>Z:%.2fuT</font>", v.x, v.y, v.z)));
-            }
+            orientationData.setText(String.format("Roll:%.1f°, Pitch:%.1f°, Yaw:%.1f°",
+                    mOrientation.getRoll(), mOrientation.getPitch(), mOrientation.getYaw()));
         }
     };
 
-    private static IntentFilter makeMotionUpdateIntentFilter() {
-        final IntentFilter intentFilter = new IntentFilter();
-        intentFilter.addAction(IntentNames.ACTION_MOV_CHANGE);
-        return intentFilter;
-    }
-
 }
@@ -0,0 +1,23 @@
+package com.jordanleex13.sensortag.profiles;
+
+import android.support.v4.app.Fragment;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+
+/**
+ * Movement service: accelerometer, gyroscope and magnetometer in one frame
+ */
+public class MotionProfile extends BaseSensorProfile {
+
+    public MotionProfile() {
+        super("Motion", 10, SensorTagGatt.UUID_MOV_SERV, SensorTagGatt.UUID_MOV_DATA,
+                SensorTagGatt.UUID_MOV_CONF, SensorTagGatt.UUID_MOV_PERI,
+                SensorConversion.MOVEMENT_ACC, SensorConversion.MOVEMENT_GYRO, SensorConversion.MOVEMENT_MAG);
+    }
+
+    @Override
+    public Fragment newFragment(int position) {
+        return MotionFragment.newInstance(position);
+    }
+}
@@ -1,11 +1,6 @@
 package com.jordanleex13.sensortag.profiles;
 
 
-import android.bluetooth.BluetoothGattService;
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
@@ -19,10 +14,12 @@ import android.widget.TextView;
 
 import com.jordanleex13.sensortag.BleService;
 import com.jordanleex13.sensortag.R;
-import com.jordanleex13.sensortag.SensorTag.IntentNames;
 import com.jordanleex13.sensortag.SensorTag.SensorConversion;
 import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
-import com.jordanleex13.sensortag.models.Point3D;
+import com.jordanleex13.sensortag.config.SensorConfig;
+import com.jordanleex13.sensortag.models.FrameArena;
+import com.jordanleex13.sensortag.models.FrameDispatcher;
+import com.jordanleex13.sensortag.ui.DeviceActivity;
 
 /**
  * A simple {@link Fragment} subclass that displays light intensity data.
@@ -46,8 +43,8 @@ public class OpticalFragment extends Fragment {
      * BLE related variables
      */
     private BleService mBleService;
-    private BluetoothGattService mThis;
-    private static boolean mFirstTime;
+    private FrameDispatcher mFrames;
+    private final float[] mValues = new float[3];
     private static final int periodMinVal = 100;
 
 
@@ -79,7 +76,6 @@ public class OpticalFragment extends Fragment {
         super.onCreate(savedInstanceState);
         sectionNumber = getArguments().getInt(FRAGMENT_POSITION);
         mBleService = BleService.getInstance();
-        mThis = mBleService.getServiceFromUUID(SensorTagGatt.UUID_OPT_SERV.toString());
     }
 
     /**
@@ -104,16 +100,19 @@ public class OpticalFragment extends Fragment {
         opticalData.setText("Light Intensity: 0.0 Lux");
 
         periodLength = (TextView) v.findViewById(R.id.periodLength);
-        periodLength.setText("Sensor period (currently : " + ((70 * 10) + periodMinVal) + "ms)");
+        SensorConfig config = mBleService.getSensorConfig();
+        int period = config.getPeriod(SensorConfig.Sensor.LUXOMETER);
+        periodLength.setText("Sensor period (currently : " + period + "ms)");
 
         periodBar = (SeekBar) v.findViewById(R.id.periodBar);
         periodBar.setMax(245);              // because 0-245 corresponds to 100-2550     formula: * 10 + 100
-        periodBar.setProgress(70);
+        periodBar.setProgress((period - periodMinVal) / 10);
         periodBar.setOnSeekBarChangeListener(onSeekBarChangeListener);
 
         sensorSwitch = (Switch) v.findViewById(R.id.sensorSwitch);
+        sensorSwitch.setChecked(config.isNotifying(SensorConfig.Sensor.LUXOMETER));
         sensorSwitch.setOnCheckedChangeListener(onCheckedChangeListener);
-        sensorSwitch.setChecked(true);
+        onCheckedChangeListener.onCheckedChanged(sensorSwitch, sensorSwitch.isChecked());
 
         return v;
     }
@@ -142,12 +141,8 @@ public class OpticalFragment extends Fragment {
             //Log.d(TAG, "Period Stop");
             int period = periodMinVal + (seekBar.getProgress() * 10);
 
-            if (period > 2450) period = 2450;
-            if (period < 100) period = 100;
-            byte p = (byte)((period / 10) + 10);
-
             //Log.d(TAG, "Period characteristic set to: " + period);
-            mBleService.changePeriod(mBleService.getCharacteristicFromUUID(SensorTagGatt.UUID_OPT_PERI.toString()), p);
+            mBleService.setSensorPeriod(SensorConfig.Sensor.LUXOMETER, period);
         }
     };
 
@@ -158,22 +153,17 @@ public class OpticalFragment extends Fragment {
         @Override
         public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
             if (!isChecked) {
-                mBleService.disableNotifications(mThis, SensorTagGatt.UUID_OPT_DATA);
+                mBleService.setSensorNotifying(SensorConfig.Sensor.LUXOMETER, false);
                 positionText.setAlpha(0.4f);
                 opticalData.setAlpha(0.4f);
                 periodLength.setAlpha(0.4f);
                 periodBar.setEnabled(false);
             } else {
-                if (!mFirstTime) {
-                    mBleService.enableNotifications(mThis, SensorTagGatt.UUID_OPT_DATA);
-                    positionText.setAlpha(1.0f);
-                    opticalData.setAlpha(1.0f);
-                    periodLength.setAlpha(1.0f);
-                    periodBar.setEnabled(true);
-                } else {
-                    mFirstTime = false;
-                    //Log.d(TAG, "FIRST TIME");
-                }
+                mBleService.setSensorNotifying(SensorConfig.Sensor.LUXOMETER, true);
+                positionText.setAlpha(1.0f);
+                opticalData.setAlpha(1.0f);
+                periodLength.setAlpha(1.0f);
+                periodBar.setEnabled(true);
 
             }
         }
@@ -181,46 +171,37 @@ public class OpticalFragment extends Fragment {
 
 
     /**
-     * Registers broadcast receiver
+     * Starts showing the luxometer values
      */
     @Override
     public void onResume() {
         super.onResume();
-        getActivity().registerReceiver(opticalUpdateReceiver, makeOpticalUpdateIntentFilter());
-        //Log.i(TAG, "REGISTERING optical RECEIVER");
+        mFrames = ((DeviceActivity) getActivity()).getFrameDispatcher();
+        mFrames.setPage(SensorTagGatt.UUID_OPT_DATA, opticalPage);
+        //Log.i(TAG, "REGISTERING optical PAGE");
     }
 
     /**
-     * Unregisters broadcast receiver
+     * Stops showing the luxometer values
      */
     @Override
     public void onPause() {
         super.onPause();
-        getActivity().unregisterReceiver(opticalUpdateReceiver);
-        //Log.i(TAG, "UNREGISTERING optical RECEIVER");
+        mFrames.removePage(SensorTagGatt.UUID_OPT_DATA, opticalPage);
+        //Log.i(TAG, "UNREGISTERING optical PAGE");
     }
 
     /**
-     * Receives updates from {@code mGattUpdateReceiver#ACTION_DATA_NOTIFY} and displays updated data
+     * Decodes values handed over by {@code DeviceActivity} straight from their arena slot and displays them
      */
-    private final BroadcastReceiver opticalUpdateReceiver = new BroadcastReceiver() {
+    private final FrameDispatcher.Page opticalPage = new FrameDispatcher.Page() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            final String action = intent.getAction();
-            if (IntentNames.ACTION_OPT_CHANGE.equals(action)) {
-                byte[] value = intent.getByteArrayExtra(IntentNames.EXTRAS_OPT_DATA);
-                Point3D v = SensorConversion.LUXOMETER.convert(value);
-                opticalData.setText("Light intensity: " + String.format("%.2f Lux", v.x));
-            }
+        public void onFrame(FrameArena arena, int slot) {
+            SensorConversion.LUXOMETER.convert(mFrames.read(arena, slot), mValues, 0);
+            opticalData.setText("Light intensity: " + String.format("%.2f Lux", mValues[0]));
         }
     };
 
-    private static IntentFilter makeOpticalUpdateIntentFilter() {
-        final IntentFilter intentFilter = new IntentFilter();
-        intentFilter.addAction(IntentNames.ACTION_OPT_CHANGE);
-        return intentFilter;
-    }
-
 }
 
 
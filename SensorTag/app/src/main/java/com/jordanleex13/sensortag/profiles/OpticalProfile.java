@@ -0,0 +1,23 @@
+package com.jordanleex13.sensortag.profiles;
+
+import android.support.v4.app.Fragment;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+
+/**
+ * Optical sensor (luxometer)
+ */
+public class OpticalProfile extends BaseSensorProfile {
+
+    public OpticalProfile() {
+        super("Luxometer", 20, SensorTagGatt.UUID_OPT_SERV, SensorTagGatt.UUID_OPT_DATA,
+                SensorTagGatt.UUID_OPT_CONF, SensorTagGatt.UUID_OPT_PERI,
+                SensorConversion.LUXOMETER);
+    }
+
+    @Override
+    public Fragment newFragment(int position) {
+        return OpticalFragment.newInstance(position);
+    }
+}
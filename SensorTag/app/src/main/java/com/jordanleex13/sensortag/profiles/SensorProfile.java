@@ -0,0 +1,65 @@
+package com.jordanleex13.sensortag.profiles;
+
+import android.support.v4.app.Fragment;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.config.GattOperation;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Everything the app knows about one GATT service of the tag: its characteristics, how its data is decoded,
+ * what has to be written when connecting and the page that shows it.
+ *
+ * Implementations are found with {@link java.util.ServiceLoader}, so a new sensor or firmware variant is
+ * added by listing its class in {@code META-INF/services/com.jordanleex13.sensortag.profiles.SensorProfile}.
+ * They need a public no-argument constructor. See {@link SensorProfiles}.
+ */
+public interface SensorProfile {
+
+    /**
+     * @return short name shown to the user, eg. "Barometer"
+     */
+    String getName();
+
+    /**
+     * @return position among the pages, lower first
+     */
+    int getOrder();
+
+    UUID getService();
+
+    /**
+     * @return the characteristic that notifies, or null if the service has none
+     */
+    UUID getData();
+
+    /**
+     * @return the configuration characteristic, or null
+     */
+    UUID getConfig();
+
+    /**
+     * @return the period characteristic, or null
+     */
+    UUID getPeriod();
+
+    /**
+     * @return decoders of the data characteristic, in {@code SensorConversion} order. Every sample stage of
+     *         the service is registered for them. Empty if its values are not decoded into samples.
+     */
+    SensorConversion[] getConversions();
+
+    /**
+     * @return writes needed on every connection besides the sensor configuration, eg. putting the IO
+     *         service in remote mode. Usually empty.
+     */
+    List<GattOperation> getEnableSequence();
+
+    /**
+     * @param position  Page number
+     * @return          The page that displays this service
+     */
+    Fragment newFragment(int position);
+}
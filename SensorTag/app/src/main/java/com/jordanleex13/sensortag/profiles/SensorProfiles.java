@@ -0,0 +1,107 @@
+package com.jordanleex13.sensortag.profiles;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.UUID;
+
+/**
+ * Registry of the {@link SensorProfile}s, looked up by service or data UUID in maps built once, so routing
+ * a notification does not depend on how many profiles there are.
+ */
+public class SensorProfiles {
+
+    private static SensorProfiles sDefault;
+
+    private final List<SensorProfile> mProfiles;
+    private final Map<UUID, SensorProfile> mByService = new HashMap<>();
+    private final Map<UUID, SensorProfile> mByData = new HashMap<>();
+    private final SensorConversion[] mConversions;
+
+    /**
+     * @throws IllegalStateException if two profiles claim the same service or data characteristic
+     */
+    public SensorProfiles(Iterable<SensorProfile> profiles) {
+        List<SensorProfile> list = new ArrayList<>();
+        for (SensorProfile p : profiles) {
+            if (mByService.put(p.getService(), p) != null) {
+                throw new IllegalStateException("Two profiles for service " + p.getService());
+            }
+            if (p.getData() != null && mByData.put(p.getData(), p) != null) {
+                throw new IllegalStateException("Two profiles for data " + p.getData());
+            }
+            list.add(p);
+        }
+        Collections.sort(list, new Comparator<SensorProfile>() {
+            @Override
+            public int compare(SensorProfile a, SensorProfile b) {
+                return a.getOrder() < b.getOrder() ? -1 : a.getOrder() == b.getOrder() ? 0 : 1;
+            }
+        });
+        mProfiles = Collections.unmodifiableList(list);
+
+        List<SensorConversion> conversions = new ArrayList<>();
+        for (SensorProfile p : list) {
+            Collections.addAll(conversions, p.getConversions());
+        }
+        Collections.sort(conversions);
+        mConversions = conversions.toArray(new SensorConversion[conversions.size()]);
+    }
+
+    /**
+     * @return the profiles listed in {@code META-INF/services}, loaded on first use
+     */
+    public static synchronized SensorProfiles getDefault() {
+        if (sDefault == null) {
+            sDefault = new SensorProfiles(ServiceLoader.load(SensorProfile.class, SensorProfile.class.getClassLoader()));
+        }
+        return sDefault;
+    }
+
+    /**
+     * @return every profile in page order
+     */
+    public List<SensorProfile> getProfiles() {
+        return mProfiles;
+    }
+
+    /**
+     * @return the profiles whose service is in {@code services}, in page order
+     */
+    public List<SensorProfile> getProfiles(Collection<UUID> services) {
+        List<SensorProfile> list = new ArrayList<>();
+        for (SensorProfile p : mProfiles) {
+            if (services.contains(p.getService())) list.add(p);
+        }
+        return list;
+    }
+
+    /**
+     * @return the decoders of every profile in {@code SensorConversion} order, which is what the
+     *         {@code SamplePipeline} stages that take every sample register for
+     */
+    public SensorConversion[] getConversions() {
+        return mConversions.clone();
+    }
+
+    /**
+     * @return the profile of a service, or null
+     */
+    public SensorProfile forService(UUID service) {
+        return mByService.get(service);
+    }
+
+    /**
+     * @return the profile whose data characteristic this is, or null
+     */
+    public SensorProfile forData(UUID data) {
+        return mByData.get(data);
+    }
+}
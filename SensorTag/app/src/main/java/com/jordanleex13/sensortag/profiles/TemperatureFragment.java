@@ -1,11 +1,6 @@
 package com.jordanleex13.sensortag.profiles;
 
 
-import android.bluetooth.BluetoothGattService;
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
@@ -19,10 +14,12 @@ import android.widget.TextView;
 
 import com.jordanleex13.sensortag.BleService;
 import com.jordanleex13.sensortag.R;
-import com.jordanleex13.sensortag.SensorTag.IntentNames;
 import com.jordanleex13.sensortag.SensorTag.SensorConversion;
 import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
-import com.jordanleex13.sensortag.models.Point3D;
+import com.jordanleex13.sensortag.config.SensorConfig;
+import com.jordanleex13.sensortag.models.FrameArena;
+import com.jordanleex13.sensortag.models.FrameDispatcher;
+import com.jordanleex13.sensortag.ui.DeviceActivity;
 
 /**
  * A simple {@link Fragment} subclass that displays temperature data
@@ -47,8 +44,8 @@ public class TemperatureFragment extends Fragment {
      * BLE related variables
      */
     private BleService mBleService;
-    private BluetoothGattService mThis;
-    private static boolean mFirstTime = true;
+    private FrameDispatcher mFrames;
+    private final float[] mValues = new float[3];
     private static final int periodMinVal = 300;
 
 
@@ -80,7 +77,6 @@ public class TemperatureFragment extends Fragment {
         super.onCreate(savedInstanceState);
         sectionNumber = getArguments().getInt(FRAGMENT_POSITION);
         mBleService = BleService.getInstance();
-        mThis = mBleService.getServiceFromUUID(SensorTagGatt.UUID_IRT_SERV.toString());
     }
 
     /**
@@ -106,16 +102,19 @@ public class TemperatureFragment extends Fragment {
         irTemperature.setText("IR Temperature: 0.0'C");
 
         periodLength = (TextView) v.findViewById(R.id.periodLength);
-        periodLength.setText("Sensor period (currently : " + ((70 * 10) + periodMinVal) + "ms)");
+        SensorConfig config = mBleService.getSensorConfig();
+        int period = config.getPeriod(SensorConfig.Sensor.IR_TEMPERATURE);
+        periodLength.setText("Sensor period (currently : " + period + "ms)");
 
         periodBar = (SeekBar) v.findViewById(R.id.periodBar);
         periodBar.setMax(225); // because 0-225 corresponds to 300-2550     formula: * 10 + 300
-        periodBar.setProgress(70);
+        periodBar.setProgress((period - periodMinVal) / 10);
         periodBar.setOnSeekBarChangeListener(onSeekBarChangeListener);
 
         sensorSwitch = (Switch) v.findViewById(R.id.sensorSwitch);
+        sensorSwitch.setChecked(config.isNotifying(SensorConfig.Sensor.IR_TEMPERATURE));
         sensorSwitch.setOnCheckedChangeListener(onCheckedChangeListener);
-        sensorSwitch.setChecked(true);
+        onCheckedChangeListener.onCheckedChanged(sensorSwitch, sensorSwitch.isChecked());
 
 
         return v;
@@ -141,12 +140,8 @@ public class TemperatureFragment extends Fragment {
             //Log.d(TAG, "Period Stop");
             int period = periodMinVal + (seekBar.getProgress() * 10);
 
-            if (period > 2450) period = 2450;
-            if (period < 100) period = 100;
-            byte p = (byte)((period / 10) + 10);
-
             //Log.d(TAG, "Period characteristic set to: " + period);
-            mBleService.changePeriod(mBleService.getCharacteristicFromUUID(SensorTagGatt.UUID_IRT_PERI.toString()), p);
+            mBleService.setSensorPeriod(SensorConfig.Sensor.IR_TEMPERATURE, period);
 
         }
     };
@@ -159,69 +154,55 @@ public class TemperatureFragment extends Fragment {
         @Override
         public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
             if (!isChecked) {
-                mBleService.disableNotifications(mThis, SensorTagGatt.UUID_IRT_DATA);
+                mBleService.setSensorNotifying(SensorConfig.Sensor.IR_TEMPERATURE, false);
                 positionText.setAlpha(0.4f);
                 ambientTemperature.setAlpha(0.4f);
                 irTemperature.setAlpha(0.4f);
                 periodLength.setAlpha(0.4f);
                 periodBar.setEnabled(false);
             } else {
-                if (!mFirstTime) {
-                    mBleService.enableNotifications(mThis, SensorTagGatt.UUID_IRT_DATA);
-                    positionText.setAlpha(1.0f);
-                    ambientTemperature.setAlpha(1.0f);
-                    irTemperature.setAlpha(1.0f);
-                    periodLength.setAlpha(1.0f);
-                    periodBar.setEnabled(true);
-                } else {
-                    mFirstTime = false;
-                    //Log.d(TAG, "FIRST TIME");
-                }
+                mBleService.setSensorNotifying(SensorConfig.Sensor.IR_TEMPERATURE, true);
+                positionText.setAlpha(1.0f);
+                ambientTemperature.setAlpha(1.0f);
+                irTemperature.setAlpha(1.0f);
+                periodLength.setAlpha(1.0f);
+                periodBar.setEnabled(true);
 
             }
         }
     };
 
     /**
-     * Registers broadcast receiver
+     * Starts showing the temperature values
      */
     @Override
     public void onResume() {
         super.onResume();
-        getActivity().registerReceiver(temperatureUpdateReceiver, makeTemperatureUpdateIntentFilter());
-        //Log.i(TAG, "REGISTERING temperature RECEIVER");
+        mFrames = ((DeviceActivity) getActivity()).getFrameDispatcher();
+        mFrames.setPage(SensorTagGatt.UUID_IRT_DATA, temperaturePage);
+        //Log.i(TAG, "REGISTERING temperature PAGE");
     }
 
     /**
-     * Unregisters broadcast receiver
+     * Stops showing the temperature values
      */
     @Override
     public void onPause() {
         super.onPause();
-        getActivity().unregisterReceiver(temperatureUpdateReceiver);
-        //Log.i(TAG, "UNREGISTERING temperature RECEIVER");
+        mFrames.removePage(SensorTagGatt.UUID_IRT_DATA, temperaturePage);
+        //Log.i(TAG, "UNREGISTERING temperature PAGE");
     }
 
     /**
-     * Receives updates from {@code mGattUpdateReceiver#ACTION_DATA_NOTIFY} and displays updated data
+     * Decodes values handed over by {@code DeviceActivity} straight from their arena slot and displays them
      */
-    private final BroadcastReceiver temperatureUpdateReceiver = new BroadcastReceiver() {
+    private final FrameDispatcher.Page temperaturePage = new FrameDispatcher.Page() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            final String action = intent.getAction();
-            if (IntentNames.ACTION_IRT_CHANGE.equals(action)) {
-                byte[] value = intent.getByteArrayExtra(IntentNames.EXTRAS_IRT_DATA);
-                Point3D v = SensorConversion.IR_TEMPERATURE.convert(value);
-                ambientTemperature.setText(String.format("Ambient Temperature: %.1f°C", v.x));
-                irTemperature.setText(String.format("IR Temperature: %.1f°C", v.z));
-            }
+        public void onFrame(FrameArena arena, int slot) {
+            SensorConversion.IR_TEMPERATURE.convert(mFrames.read(arena, slot), mValues, 0);
+            ambientTemperature.setText(String.format("Ambient Temperature: %.1f°C", mValues[0]));
+            irTemperature.setText(String.format("IR Temperature: %.1f°C", mValues[2]));
         }
     };
 
-    private static IntentFilter makeTemperatureUpdateIntentFilter() {
-        final IntentFilter intentFilter = new IntentFilter();
-        intentFilter.addAction(IntentNames.ACTION_IRT_CHANGE);
-        return intentFilter;
-    }
-
 }
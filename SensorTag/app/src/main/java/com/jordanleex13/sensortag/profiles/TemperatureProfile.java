@@ -0,0 +1,23 @@
+package com.jordanleex13.sensortag.profiles;
+
+import android.support.v4.app.Fragment;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+
+/**
+ * IR temperature service, ambient and object temperature
+ */
+public class TemperatureProfile extends BaseSensorProfile {
+
+    public TemperatureProfile() {
+        super("Temperature", 30, SensorTagGatt.UUID_IRT_SERV, SensorTagGatt.UUID_IRT_DATA,
+                SensorTagGatt.UUID_IRT_CONF, SensorTagGatt.UUID_IRT_PERI,
+                SensorConversion.IR_TEMPERATURE);
+    }
+
+    @Override
+    public Fragment newFragment(int position) {
+        return TemperatureFragment.newInstance(position);
+    }
+}
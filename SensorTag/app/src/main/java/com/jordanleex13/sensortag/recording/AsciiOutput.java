@@ -0,0 +1,184 @@
+package com.jordanleex13.sensortag.recording;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Buffered ASCII text sink with its own number formatting. Unlike {@code String.format} or a
+ * {@code Writer} it does not allocate per value and always writes '.' as the decimal separator,
+ * whatever the default locale is.
+ */
+class AsciiOutput {
+
+    private static final long[] POWERS_OF_TEN = new long[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final OutputStream mOut;
+    private final byte[] mBuffer;
+    private final byte[] mDigits = new byte[20];
+    private int mPosition;
+
+    AsciiOutput(OutputStream out, int bufferSize) {
+        mOut = out;
+        mBuffer = new byte[bufferSize];
+    }
+
+    private void ensure(int n) throws IOException {
+        if (mPosition + n > mBuffer.length) {
+            flushBuffer();
+        }
+    }
+
+    AsciiOutput append(char c) throws IOException {
+        ensure(1);
+        mBuffer[mPosition++] = (byte) c;
+        return this;
+    }
+
+    /**
+     * @param s Text that only contains ASCII characters
+     */
+    AsciiOutput append(String s) throws IOException {
+        int n = s.length();
+        if (n > mBuffer.length) {
+            for (int i = 0; i < n; i++) append(s.charAt(i));
+            return this;
+        }
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            mBuffer[mPosition++] = (byte) s.charAt(i);
+        }
+        return this;
+    }
+
+    /**
+     * Appends pre-encoded ASCII, eg. names that are written on every line
+     */
+    AsciiOutput append(byte[] b) throws IOException {
+        if (b.length > mBuffer.length) {
+            flushBuffer();
+            mOut.write(b);
+            return this;
+        }
+        ensure(b.length);
+        System.arraycopy(b, 0, mBuffer, mPosition, b.length);
+        mPosition += b.length;
+        return this;
+    }
+
+    AsciiOutput append(long v) throws IOException {
+        ensure(20);
+        if (v == Long.MIN_VALUE) {
+            return append(Long.toString(v));
+        }
+        if (v < 0) {
+            mBuffer[mPosition++] = '-';
+            v = -v;
+        }
+        if (v <= Integer.MAX_VALUE) {
+            writeDigits((int) v, 0);
+            return this;
+        }
+        if (v / 1000000000 <= Integer.MAX_VALUE) {
+            // Millisecond timestamps: two int conversions instead of thirteen long divisions
+            writeDigits((int) (v / 1000000000), 0);
+            writeDigits((int) (v % 1000000000), 9);
+            return this;
+        }
+        int n = 0;
+        do {
+            mDigits[n++] = (byte) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        while (n > 0) {
+            mBuffer[mPosition++] = mDigits[--n];
+        }
+        return this;
+    }
+
+    /**
+     * Writes a non negative int, left padded with zeros to {@code width} digits. Caller ensures space
+     */
+    private void writeDigits(int v, int width) {
+        int n = 0;
+        do {
+            mDigits[n++] = (byte) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        while (n < width) {
+            mDigits[n++] = '0';
+        }
+        while (n > 0) {
+            mBuffer[mPosition++] = mDigits[--n];
+        }
+    }
+
+    /**
+     * Writes {@code v} rounded to {@code decimals} places, without trailing zeros. Values too large for
+     * fixed point, NaN and infinities fall back to {@code Double.toString}.
+     */
+    AsciiOutput append(double v, int decimals) throws IOException {
+        double scaled = Math.abs(v) * POWERS_OF_TEN[decimals];
+        if (!(scaled < 1e17)) {
+            return append(Double.toString(v));
+        }
+        long r = Math.round(scaled);
+        long scale = POWERS_OF_TEN[decimals];
+        if (v < 0 && r != 0) {
+            append('-');
+        }
+        append(r / scale);
+        long frac = r % scale;
+        if (frac != 0) {
+            int digits = decimals;
+            while (frac % 10 == 0) {
+                frac /= 10;
+                digits--;
+            }
+            ensure(digits + 1);
+            mBuffer[mPosition++] = '.';
+            if (frac <= Integer.MAX_VALUE) {
+                writeDigits((int) frac, digits);
+            } else {
+                for (int i = digits - 1; i >= 0; i--) {
+                    mBuffer[mPosition + i] = (byte) ('0' + (frac % 10));
+                    frac /= 10;
+                }
+                mPosition += digits;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Writes a float with the 7 significant digits it can hold, and at most 6 decimals
+     */
+    AsciiOutput append(float v) throws IOException {
+        float a = Math.abs(v);
+        int decimals;
+        if (a < 10) decimals = 6;
+        else if (a < 100) decimals = 5;
+        else if (a < 1000) decimals = 4;
+        else if (a < 10000) decimals = 3;
+        else if (a < 100000) decimals = 2;
+        else if (a < 1000000) decimals = 1;
+        else decimals = 0;
+        return append((double) v, decimals);
+    }
+
+    private void flushBuffer() throws IOException {
+        mOut.write(mBuffer, 0, mPosition);
+        mPosition = 0;
+    }
+
+    void flush() throws IOException {
+        flushBuffer();
+        mOut.flush();
+    }
+}
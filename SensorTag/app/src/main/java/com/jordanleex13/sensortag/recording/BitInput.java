@@ -0,0 +1,50 @@
+package com.jordanleex13.sensortag.recording;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads values written by {@link BitOutput}
+ */
+class BitInput {
+
+    private final InputStream mIn;
+    private final byte[] mBuffer = new byte[4096];
+    private int mPosition;
+    private int mLength;
+    private long mBits;
+    private int mBitCount;
+
+    BitInput(InputStream in) {
+        mIn = in;
+    }
+
+    /**
+     * Reads {@code count} bits, at most 32, as an unsigned value
+     */
+    long read(int count) throws IOException {
+        while (mBitCount < count) {
+            mBits = (mBits << 8) | nextByte();
+            mBitCount += 8;
+        }
+        mBitCount -= count;
+        return (mBits >>> mBitCount) & ((1L << count) - 1);
+    }
+
+    boolean readBit() throws IOException {
+        return read(1) != 0;
+    }
+
+    private int nextByte() throws IOException {
+        if (mPosition == mLength) {
+            mLength = mIn.read(mBuffer);
+            mPosition = 0;
+            if (mLength <= 0) {
+                mLength = 0;
+                throw new EOFException();
+            }
+        }
+        return mBuffer[mPosition++] & 0xFF;
+    }
+}
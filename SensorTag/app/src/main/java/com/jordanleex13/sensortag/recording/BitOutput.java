@@ -0,0 +1,59 @@
+package com.jordanleex13.sensortag.recording;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes values of arbitrary bit length, most significant bit first, to a stream
+ */
+class BitOutput {
+
+    private final OutputStream mOut;
+    private final byte[] mBuffer = new byte[4096];
+    private int mLength;
+    private long mBits;     // Pending bits, right aligned
+    private int mBitCount;
+    private long mBytesWritten;
+
+    BitOutput(OutputStream out) {
+        mOut = out;
+    }
+
+    /**
+     * Writes the lowest {@code count} bits of {@code value}. {@code count} must be at most 32.
+     */
+    void write(long value, int count) throws IOException {
+        mBits = (mBits << count) | (value & ((1L << count) - 1));
+        mBitCount += count;
+        while (mBitCount >= 8) {
+            mBitCount -= 8;
+            putByte((int) (mBits >>> mBitCount));
+        }
+    }
+
+    private void putByte(int b) throws IOException {
+        if (mLength == mBuffer.length) {
+            mOut.write(mBuffer, 0, mLength);
+            mLength = 0;
+        }
+        mBuffer[mLength++] = (byte) b;
+        mBytesWritten++;
+    }
+
+    /**
+     * Pads the last byte with zeros and writes everything buffered to the stream
+     */
+    void flush() throws IOException {
+        if (mBitCount > 0) {
+            putByte((int) (mBits << (8 - mBitCount)));
+            mBitCount = 0;
+        }
+        mOut.write(mBuffer, 0, mLength);
+        mLength = 0;
+        mOut.flush();
+    }
+
+    long getBytesWritten() {
+        return mBytesWritten + (mBitCount > 0 ? 1 : 0);
+    }
+}
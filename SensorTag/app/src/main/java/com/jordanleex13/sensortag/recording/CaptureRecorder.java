@@ -0,0 +1,265 @@
+package com.jordanleex13.sensortag.recording;
+
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+import com.jordanleex13.sensortag.SensorTag.SensorTagUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Event driven front end for a {@link SessionRecorder}. Raw frames are kept in a short ring per device and
+ * characteristic instead of being written. When a trigger fires, the frames of the last {@code preMillis}
+ * are written in timestamp order, followed by everything that arrives in the next {@code postMillis}; a
+ * trigger during that window extends it. Storage and write bandwidth then follow the events, not the uptime.
+ *
+ * Triggers are {@link #trigger(long)}, which the app calls for alert rules, a press of any Simple Keys
+ * button and, for tags with wake-on-motion on, the first movement notification after a quiet gap.
+ *
+ * The rings are allocated when a stream is first seen and reused, so buffering a frame does not allocate.
+ * Safe to call from the BLE callback and UI threads.
+ */
+public class CaptureRecorder {
+
+    public static final long DEFAULT_PRE_MILLIS = 5000;
+    public static final long DEFAULT_POST_MILLIS = 5000;
+    public static final int DEFAULT_RING_CAPACITY = 512;
+    public static final long DEFAULT_WAKE_GAP_MILLIS = 5000;
+
+    /** BLE notifications with the default MTU carry at most 20 bytes, rings grow for longer frames */
+    private static final int INITIAL_SLOT_SIZE = 20;
+
+    private static final int KEY_DATA = SensorTagUtil.toShortUuid(SensorTagGatt.UUID_KEY_DATA);
+    private static final int MOV_DATA = SensorTagUtil.toShortUuid(SensorTagGatt.UUID_MOV_DATA);
+
+    /**
+     * Frames of one device and characteristic, oldest first from {@code mHead}
+     */
+    private static class Ring {
+        final int mDeviceId;
+        final int mShortUuid;
+        final long[] mTimestamps;
+        final int[] mLengths;
+        byte[] mData;
+        int mSlot = INITIAL_SLOT_SIZE;
+        int mHead;
+        int mSize;
+        long mLastTimestamp = Long.MIN_VALUE;
+
+        Ring(int deviceId, int shortUuid, int capacity) {
+            mDeviceId = deviceId;
+            mShortUuid = shortUuid;
+            mTimestamps = new long[capacity];
+            mLengths = new int[capacity];
+            mData = new byte[capacity * mSlot];
+        }
+
+        void add(long timestamp, byte[] value, int offset, int length) {
+            int capacity = mTimestamps.length;
+            if (length > mSlot) {
+                grow(length);
+            }
+            int i = (mHead + mSize) % capacity;
+            if (mSize == capacity) {
+                mHead = (mHead + 1) % capacity;     // Full, overwrite the oldest
+            } else {
+                mSize++;
+            }
+            mTimestamps[i] = timestamp;
+            mLengths[i] = length;
+            System.arraycopy(value, offset, mData, i * mSlot, length);
+        }
+
+        private void grow(int length) {
+            int slot = Math.min(Math.max(length, mSlot * 2), SessionRecorder.MAX_PAYLOAD);
+            byte[] data = new byte[mTimestamps.length * slot];
+            for (int i = 0; i < mTimestamps.length; i++) {
+                System.arraycopy(mData, i * mSlot, data, i * slot, mSlot);
+            }
+            mData = data;
+            mSlot = slot;
+        }
+
+        /**
+         * Drops frames older than {@code from}
+         */
+        void trim(long from) {
+            while (mSize > 0 && mTimestamps[mHead] < from) {
+                mHead = (mHead + 1) % mTimestamps.length;
+                mSize--;
+            }
+        }
+    }
+
+    private final SessionRecorder mRecorder;
+    private final long mPreMillis;
+    private final long mPostMillis;
+    private final int mRingCapacity;
+    private final List<Ring> mRings = new ArrayList<>();
+    private Ring mLastRing;
+
+    private boolean mTriggerOnKeys = true;
+    private long mWakeGapMillis = -1;
+
+    private long mCaptureUntil = Long.MIN_VALUE;
+    private long mTriggerCount;
+    private long mBufferedCount;
+    private long mWrittenCount;
+
+    public CaptureRecorder(SessionRecorder recorder) {
+        this(recorder, DEFAULT_PRE_MILLIS, DEFAULT_POST_MILLIS, DEFAULT_RING_CAPACITY);
+    }
+
+    /**
+     * @param recorder      Session the captured frames are written to
+     * @param preMillis     Time kept before a trigger
+     * @param postMillis    Time written after the last trigger
+     * @param ringCapacity  Frames kept per device and characteristic. Older frames are lost even if they are
+     *                      within {@code preMillis}.
+     */
+    public CaptureRecorder(SessionRecorder recorder, long preMillis, long postMillis, int ringCapacity) {
+        mRecorder = recorder;
+        mPreMillis = preMillis;
+        mPostMillis = postMillis;
+        mRingCapacity = ringCapacity;
+    }
+
+    /**
+     * @param enabled   Trigger when a Simple Keys notification reports a pressed button. On by default.
+     */
+    public synchronized void setTriggerOnKeys(boolean enabled) {
+        mTriggerOnKeys = enabled;
+    }
+
+    /**
+     * With wake-on-motion the tag only sends movement notifications while it is moving, so a notification
+     * after a gap means the tag has just been picked up or shaken.
+     *
+     * @param gapMillis     Quiet time before a movement notification counts as a wake, or -1 to turn off
+     */
+    public synchronized void setTriggerOnMotionWake(long gapMillis) {
+        mWakeGapMillis = gapMillis;
+    }
+
+    public void declareDevice(int deviceId, String address) {
+        mRecorder.declareDevice(deviceId, address);
+    }
+
+    public void append(long timestamp, int deviceId, UUID characteristic, byte[] value) {
+        append(timestamp, deviceId, SensorTagUtil.toShortUuid(characteristic), value, 0, value.length);
+    }
+
+    /**
+     * Buffers a frame, or writes it while a capture is open. Frames that fire a trigger are part of the
+     * capture.
+     */
+    public synchronized void append(long timestamp, int deviceId, int shortUuid, byte[] value, int offset, int length) {
+        if (length > SessionRecorder.MAX_PAYLOAD) {
+            return;
+        }
+        Ring ring = ring(deviceId, shortUuid);
+        long previous = ring.mLastTimestamp;
+        ring.mLastTimestamp = timestamp;
+
+        boolean fire = false;
+        if (shortUuid == KEY_DATA && mTriggerOnKeys) {
+            for (int i = offset; i < offset + length; i++) {
+                if (value[i] != 0) fire = true;
+            }
+        } else if (shortUuid == MOV_DATA && mWakeGapMillis >= 0) {
+            fire = previous == Long.MIN_VALUE || timestamp - previous > mWakeGapMillis;
+        }
+
+        if (timestamp <= mCaptureUntil) {
+            write(timestamp, deviceId, shortUuid, value, offset, length);
+        } else {
+            ring.add(timestamp, value, offset, length);
+            mBufferedCount++;
+        }
+        if (fire) {
+            trigger(timestamp);
+        }
+    }
+
+    private Ring ring(int deviceId, int shortUuid) {
+        Ring r = mLastRing;
+        if (r != null && r.mDeviceId == deviceId && r.mShortUuid == shortUuid) {
+            return r;
+        }
+        // A handful of streams, a scan is cheaper than boxing a map key
+        for (int i = 0; i < mRings.size(); i++) {
+            r = mRings.get(i);
+            if (r.mDeviceId == deviceId && r.mShortUuid == shortUuid) {
+                mLastRing = r;
+                return r;
+            }
+        }
+        r = new Ring(deviceId, shortUuid, mRingCapacity);
+        mRings.add(r);
+        mLastRing = r;
+        return r;
+    }
+
+    /**
+     * Writes the buffered frames from the last {@code preMillis} and keeps writing until {@code postMillis}
+     * after {@code timestamp}
+     */
+    public synchronized void trigger(long timestamp) {
+        mTriggerCount++;
+        mCaptureUntil = Math.max(mCaptureUntil, timestamp + mPostMillis);
+        long from = timestamp - mPreMillis;
+        for (int i = 0; i < mRings.size(); i++) {
+            mRings.get(i).trim(from);
+        }
+        // Merge the rings by timestamp; each ring is already in order
+        while (true) {
+            Ring oldest = null;
+            for (int i = 0; i < mRings.size(); i++) {
+                Ring r = mRings.get(i);
+                if (r.mSize > 0 && (oldest == null || r.mTimestamps[r.mHead] < oldest.mTimestamps[oldest.mHead])) {
+                    oldest = r;
+                }
+            }
+            if (oldest == null) {
+                break;
+            }
+            int h = oldest.mHead;
+            write(oldest.mTimestamps[h], oldest.mDeviceId, oldest.mShortUuid, oldest.mData, h * oldest.mSlot,
+                    oldest.mLengths[h]);
+            oldest.mHead = (h + 1) % oldest.mTimestamps.length;
+            oldest.mSize--;
+        }
+    }
+
+    private void write(long timestamp, int deviceId, int shortUuid, byte[] value, int offset, int length) {
+        if (mRecorder.append(timestamp, deviceId, shortUuid, value, offset, length)) {
+            mWrittenCount++;
+        }
+    }
+
+    /**
+     * @return true while frames are written straight to the session
+     */
+    public synchronized boolean isCapturing(long now) {
+        return now <= mCaptureUntil;
+    }
+
+    public synchronized long getTriggerCount() {
+        return mTriggerCount;
+    }
+
+    /**
+     * @return frames that went to a ring, whether they were written later or not
+     */
+    public synchronized long getBufferedCount() {
+        return mBufferedCount;
+    }
+
+    public synchronized long getWrittenCount() {
+        return mWrittenCount;
+    }
+
+    public SessionRecorder getRecorder() {
+        return mRecorder;
+    }
+}
@@ -0,0 +1,21 @@
+package com.jordanleex13.sensortag.recording;
+
+/**
+ * Receives records read back from a session. See {@link SessionReader}.
+ */
+public interface RecordVisitor {
+
+    /**
+     * Called once per recorded notification. The payload array is reused between calls and must be
+     * copied if it is kept.
+     *
+     * @param timestamp     Receive time of the notification in milliseconds
+     * @param deviceId      Id of the device, see {@link SessionReader#getDeviceAddress(int)}
+     * @param shortUuid     16 bit UUID of the characteristic
+     * @param payload       Array holding the raw characteristic value
+     * @param offset        Start of the value in {@code payload}
+     * @param length        Length of the value
+     * @return              false to stop reading
+     */
+    boolean onRecord(long timestamp, int deviceId, int shortUuid, byte[] payload, int offset, int length);
+}
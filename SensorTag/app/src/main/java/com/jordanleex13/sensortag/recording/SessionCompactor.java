@@ -0,0 +1,122 @@
+package com.jordanleex13.sensortag.recording;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Converts a raw session into one compressed column file per device and characteristic, see
+ * {@link TimeSeriesEncoder}. Meant for long recordings that are kept after the capture ends.
+ *
+ * A column holds frames of one length. If firmware changes the frame layout mid session, the frames of every
+ * further length go to a column of their own, named by {@link #columnName(int, int, int)}.
+ */
+public class SessionCompactor {
+
+    // Keyed by device id, short UUID and frame length
+    private final Map<Long, Column> mColumns = new HashMap<>();
+    // Frame length of the first column of each device and characteristic
+    private final Map<Integer, Integer> mFirstLengths = new HashMap<>();
+    private final File mOutput;
+    private IOException mError;
+
+    private SessionCompactor(File output) {
+        mOutput = output;
+    }
+
+    /**
+     * File name of the column holding the frames of {@code shortUuid} from {@code deviceId}
+     */
+    public static String columnName(int deviceId, int shortUuid) {
+        return String.format(Locale.US, "column-%d-%04x.tsc", deviceId, shortUuid);
+    }
+
+    /**
+     * File name of the column holding the frames of {@code shortUuid} from {@code deviceId} that are
+     * {@code frameLength} long, when the first frames of the session had another length
+     */
+    public static String columnName(int deviceId, int shortUuid, int frameLength) {
+        return String.format(Locale.US, "column-%d-%04x-%d.tsc", deviceId, shortUuid, frameLength);
+    }
+
+    /**
+     * Compacts a whole session
+     *
+     * @param reader    Session to read
+     * @param output    Directory for the column files
+     * @return          Sum of the raw sizes divided by the sum of the compressed sizes
+     */
+    public static double compact(SessionReader reader, File output) throws IOException {
+        if (!output.isDirectory() && !output.mkdirs()) {
+            throw new IOException("Cannot create " + output);
+        }
+        final SessionCompactor compactor = new SessionCompactor(output);
+        try {
+            reader.read(new RecordVisitor() {
+                @Override
+                public boolean onRecord(long timestamp, int deviceId, int shortUuid, byte[] payload, int offset, int length) {
+                    return compactor.add(timestamp, deviceId, shortUuid, payload, offset, length);
+                }
+            });
+        } finally {
+            compactor.close();
+        }
+        if (compactor.mError != null) {
+            throw compactor.mError;
+        }
+        long raw = 0;
+        long encoded = 0;
+        for (Column c : compactor.mColumns.values()) {
+            raw += c.encoder.getRawBytes();
+            encoded += c.encoder.getEncodedBytes();
+        }
+        return encoded == 0 ? 0 : (double) raw / encoded;
+    }
+
+    private boolean add(long timestamp, int deviceId, int shortUuid, byte[] payload, int offset, int length) {
+        try {
+            long key = ((long) deviceId << 32) | ((long) shortUuid << 16) | length;
+            Column column = mColumns.get(key);
+            if (column == null) {
+                Integer characteristic = (deviceId << 16) | shortUuid;
+                Integer first = mFirstLengths.get(characteristic);
+                String name;
+                if (first == null) {
+                    mFirstLengths.put(characteristic, length);
+                    name = columnName(deviceId, shortUuid);
+                } else {
+                    name = columnName(deviceId, shortUuid, length);
+                }
+                column = new Column(new File(mOutput, name), TimeSeriesEncoder.fieldWidths(shortUuid, length));
+                mColumns.put(key, column);
+            }
+            column.encoder.encode(timestamp, payload, offset, length);
+            return true;
+        } catch (IOException e) {
+            mError = e;
+            return false;
+        }
+    }
+
+    private void close() throws IOException {
+        for (Column c : mColumns.values()) {
+            c.encoder.finish();
+            c.out.close();
+        }
+    }
+
+    private static class Column {
+        final OutputStream out;
+        final TimeSeriesEncoder encoder;
+
+        Column(File file, int[] widths) throws IOException {
+            this.out = new BufferedOutputStream(new FileOutputStream(file));
+            this.encoder = new TimeSeriesEncoder(out, widths);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.jordanleex13.sensortag.recording;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.SensorTag.SensorTagUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the decoded samples of a raw session as CSV or JSON Lines for analysis tools. The session is
+ * read once, in order, and every record is written out as soon as it is decoded, so memory use does not
+ * depend on the length of the recording.
+ *
+ * One row per sample: timestamp, device address, sensor name and its values. The movement frame gives
+ * three rows, one each for the accelerometer, gyroscope and magnetometer.
+ */
+public class SessionExporter {
+
+    public enum Format {
+        /** Header line, then {@code timestamp,device,sensor,x,y,z}. Unused channels are left empty */
+        CSV,
+        /** One object per line: {@code {"t":..,"device":"..","sensor":"..","v":[..]}} */
+        JSON_LINES
+    }
+
+    /** Sensors exported by default, one decoding per value of the characteristic */
+    public static final SensorConversion[] DEFAULT_SENSORS = {
+            SensorConversion.IR_TEMPERATURE, SensorConversion.MOVEMENT_ACC, SensorConversion.MOVEMENT_GYRO,
+            SensorConversion.MOVEMENT_MAG, SensorConversion.HUMIDITY2, SensorConversion.LUXOMETER,
+            SensorConversion.BAROMETER};
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final SessionReader mReader;
+    private final AsciiOutput mOut;
+    private final Format mFormat;
+    private final Map<Integer, SensorConversion[]> mSensors = new HashMap<>();
+    private final byte[][] mFrames = new byte[SessionRecorder.MAX_PAYLOAD + 1][];  // Decoders look at the frame length
+    private final float[] mValues = new float[3];
+    private final byte[][] mSensorNames;    // Row text between the device and the values, by sensor ordinal
+    private byte[][] mDeviceNames = new byte[4][];
+    private long mRows;
+    private IOException mError;
+
+    private SessionExporter(SessionReader reader, OutputStream out, Format format, SensorConversion[] sensors) {
+        mReader = reader;
+        mOut = new AsciiOutput(out, BUFFER_SIZE);
+        mFormat = format;
+
+        mSensorNames = new byte[SensorConversion.values().length][];
+        for (SensorConversion s : SensorConversion.values()) {
+            String text = format == Format.CSV ? "," + s.name() : "\",\"sensor\":\"" + s.name() + "\",\"v\":[";
+            mSensorNames[s.ordinal()] = ascii(text);
+        }
+
+        Map<Integer, List<SensorConversion>> byUuid = new HashMap<>();
+        for (SensorConversion s : sensors) {
+            Integer key = SensorTagUtil.toShortUuid(s.getData());
+            List<SensorConversion> list = byUuid.get(key);
+            if (list == null) {
+                list = new ArrayList<>();
+                byUuid.put(key, list);
+            }
+            list.add(s);
+        }
+        for (Map.Entry<Integer, List<SensorConversion>> e : byUuid.entrySet()) {
+            mSensors.put(e.getKey(), e.getValue().toArray(new SensorConversion[e.getValue().size()]));
+        }
+    }
+
+    /**
+     * Exports a whole session to a stream. The stream is flushed but not closed.
+     *
+     * @param reader    Session to read
+     * @param out       Destination
+     * @param format    Output format
+     * @param sensors   Sensors to decode; records of other characteristics are skipped
+     * @return          Number of rows written
+     */
+    public static long export(SessionReader reader, OutputStream out, Format format,
+                              SensorConversion... sensors) throws IOException {
+        final SessionExporter exporter = new SessionExporter(reader, out, format, sensors);
+        if (format == Format.CSV) {
+            exporter.mOut.append("timestamp,device,sensor,x,y,z\n");
+        }
+        reader.read(new RecordVisitor() {
+            @Override
+            public boolean onRecord(long timestamp, int deviceId, int shortUuid, byte[] payload, int offset, int length) {
+                return exporter.add(timestamp, deviceId, shortUuid, payload, offset, length);
+            }
+        });
+        if (exporter.mError != null) {
+            throw exporter.mError;
+        }
+        exporter.mOut.flush();
+        return exporter.mRows;
+    }
+
+    /**
+     * Exports every default sensor of a session to a file
+     *
+     * @param gzip  Compress the file. Text exports shrink to roughly a fifth.
+     * @return      Number of rows written
+     */
+    public static long export(SessionReader reader, File file, Format format, boolean gzip) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            if (gzip) {
+                // Fastest level: the export stays close to disk speed and still shrinks several times
+                out = new GZIPOutputStream(out, BUFFER_SIZE) {
+                    {
+                        def.setLevel(Deflater.BEST_SPEED);
+                    }
+                };
+            } else {
+                out = new BufferedOutputStream(out, BUFFER_SIZE);
+            }
+            return export(reader, out, format, DEFAULT_SENSORS);
+        } finally {
+            out.close();
+        }
+    }
+
+    private boolean add(long timestamp, int deviceId, int shortUuid, byte[] payload, int offset, int length) {
+        SensorConversion[] sensors = mSensors.get(shortUuid);
+        if (sensors == null) {
+            return true;
+        }
+        byte[] frame = mFrames[length];
+        if (frame == null) {
+            frame = mFrames[length] = new byte[length];
+        }
+        System.arraycopy(payload, offset, frame, 0, length);
+
+        byte[] device = deviceName(deviceId);
+        try {
+            for (SensorConversion s : sensors) {
+                try {
+                    s.convert(frame, mValues, 0);
+                } catch (IndexOutOfBoundsException e) {
+                    continue;   // Truncated frame
+                }
+                if (mFormat == Format.CSV) {
+                    writeCsv(timestamp, device, s);
+                } else {
+                    writeJson(timestamp, device, s);
+                }
+                mRows++;
+            }
+            return true;
+        } catch (IOException e) {
+            mError = e;
+            return false;
+        }
+    }
+
+    private byte[] deviceName(int deviceId) {
+        if (deviceId >= mDeviceNames.length) {
+            byte[][] grown = new byte[Math.max(deviceId + 1, mDeviceNames.length * 2)][];
+            System.arraycopy(mDeviceNames, 0, grown, 0, mDeviceNames.length);
+            mDeviceNames = grown;
+        }
+        if (mDeviceNames[deviceId] == null) {
+            String address = mReader.getDeviceAddress(deviceId);
+            mDeviceNames[deviceId] = ascii(address != null ? address : Integer.toString(deviceId));
+        }
+        return mDeviceNames[deviceId];
+    }
+
+    private static byte[] ascii(String s) {
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) s.charAt(i);
+        }
+        return b;
+    }
+
+    private void writeCsv(long timestamp, byte[] device, SensorConversion sensor) throws IOException {
+        mOut.append(timestamp).append(',').append(device).append(mSensorNames[sensor.ordinal()]);
+        int channels = sensor.getChannelCount();
+        for (int c = 0; c < 3; c++) {
+            mOut.append(',');
+            if (c < channels) {
+                mOut.append(mValues[c]);
+            }
+        }
+        mOut.append('\n');
+    }
+
+    private void writeJson(long timestamp, byte[] device, SensorConversion sensor) throws IOException {
+        mOut.append("{\"t\":").append(timestamp)
+                .append(",\"device\":\"").append(device)
+                .append(mSensorNames[sensor.ordinal()]);
+        int channels = sensor.getChannelCount();
+        for (int c = 0; c < channels; c++) {
+            if (c > 0) {
+                mOut.append(',');
+            }
+            float v = mValues[c];
+            if (Float.isNaN(v) || Float.isInfinite(v)) {
+                mOut.append("null");
+            } else {
+                mOut.append(v);
+            }
+        }
+        mOut.append("]}\n");
+    }
+}
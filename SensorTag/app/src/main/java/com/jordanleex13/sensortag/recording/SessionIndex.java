@@ -0,0 +1,111 @@
+package com.jordanleex13.sensortag.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Sparse time index of one segment: the timestamp of the first record and the offset of every batch,
+ * as written by {@link SessionRecorder}. When the {@code .idx} file is missing it is rebuilt by hopping
+ * over the batch headers of the segment.
+ */
+public class SessionIndex {
+
+    private final long[] mFirstTimestamps;
+    private final int[] mOffsets;
+
+    private SessionIndex(long[] firstTimestamps, int[] offsets) {
+        mFirstTimestamps = firstTimestamps;
+        mOffsets = offsets;
+    }
+
+    /**
+     * Loads the index of segment {@code number} in {@code directory}
+     */
+    public static SessionIndex load(File directory, int number) throws IOException {
+        File idx = new File(directory, SessionRecorder.indexName(number));
+        if (idx.exists()) {
+            RandomAccessFile file = new RandomAccessFile(idx, "r");
+            try {
+                int entries = (int) (file.length() / SessionRecorder.INDEX_ENTRY_SIZE);
+                ByteBuffer b = ByteBuffer.allocate(entries * SessionRecorder.INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                file.readFully(b.array());
+                long[] timestamps = new long[entries];
+                int[] offsets = new int[entries];
+                for (int i = 0; i < entries; i++) {
+                    timestamps[i] = b.getLong();
+                    offsets[i] = b.getInt();
+                    b.getInt();     // Record count, not needed for seeking
+                }
+                return new SessionIndex(timestamps, offsets);
+            } finally {
+                file.close();
+            }
+        }
+        return rebuild(new File(directory, SessionRecorder.segmentName(number)));
+    }
+
+    private static SessionIndex rebuild(File segment) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segment, "r");
+        try {
+            ByteBuffer b = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            b.order(ByteOrder.LITTLE_ENDIAN);
+            int count = 0;
+            long[] timestamps = new long[64];
+            int[] offsets = new int[64];
+            int pos = SessionRecorder.SEGMENT_HEADER_SIZE;
+            while (pos + SessionRecorder.BATCH_HEADER_SIZE + SessionRecorder.RECORD_HEADER_SIZE <= b.limit()
+                    && b.getInt(pos) == SessionRecorder.BATCH_MAGIC) {
+                if (count == timestamps.length) {
+                    timestamps = Arrays.copyOf(timestamps, count * 2);
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+                timestamps[count] = b.getLong(pos + SessionRecorder.BATCH_HEADER_SIZE);
+                offsets[count] = pos;
+                count++;
+                pos += SessionRecorder.BATCH_HEADER_SIZE + b.getInt(pos + 8);
+            }
+            return new SessionIndex(Arrays.copyOf(timestamps, count), Arrays.copyOf(offsets, count));
+        } finally {
+            file.close();
+        }
+    }
+
+    public int size() {
+        return mOffsets.length;
+    }
+
+    /**
+     * @return timestamp of the first record in the segment, or {@code Long.MAX_VALUE} if it is empty
+     */
+    public long getFirstTimestamp() {
+        return mOffsets.length == 0 ? Long.MAX_VALUE : mFirstTimestamps[0];
+    }
+
+    /**
+     * Binary searches for the batch that can contain {@code timestamp}: the last batch starting at or
+     * before it, or the first batch if all start later.
+     *
+     * @return offset of that batch in the segment, or -1 if the segment has no batches
+     */
+    public int seek(long timestamp) {
+        if (mOffsets.length == 0) {
+            return -1;
+        }
+        int lo = 0;
+        int hi = mFirstTimestamps.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (mFirstTimestamps[mid] <= timestamp) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return mOffsets[lo];
+    }
+}
@@ -0,0 +1,160 @@
+package com.jordanleex13.sensortag.recording;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.SensorTag.SensorTagUtil;
+import com.jordanleex13.sensortag.processing.Rollup;
+import com.jordanleex13.sensortag.processing.RollupSet;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Time range queries over a recorded session. The segment and the batch holding the start of the range
+ * are found by binary search over the sparse {@link SessionIndex} of each segment, so only the records in
+ * (or just before) the range are read no matter how long the recording is. Both the search and the end of a
+ * scan rely on {@link SessionRecorder} storing timestamps in non-decreasing order.
+ *
+ * Charts over long ranges read the {@link RollupSet} saved with the session instead, see
+ * {@link #rollup(int, SensorConversion, long, long, int)}.
+ */
+public class SessionQuery {
+
+    /**
+     * Receives decoded samples in blocks of up to {@link #BLOCK_SIZE}. Arrays are reused between calls.
+     */
+    public interface ColumnVisitor {
+        /**
+         * @param timestamps    Timestamp of each sample
+         * @param values        {@code channels} values per sample, sample {@code i} starts at {@code i * channels}
+         * @param count         Number of samples in this block
+         * @param channels      Values per sample
+         * @return              false to stop the query
+         */
+        boolean onColumns(long[] timestamps, float[] values, int count, int channels);
+    }
+
+    public static final int BLOCK_SIZE = 256;
+    public static final int ANY = -1;
+
+    private final SessionReader mReader;
+    private final SessionIndex[] mIndexes;
+    private RollupSet mRollups;
+    private boolean mRollupsLoaded;
+
+    public SessionQuery(SessionReader reader) {
+        mReader = reader;
+        mIndexes = new SessionIndex[reader.getSegmentCount()];
+    }
+
+    private SessionIndex index(int segment) throws IOException {
+        if (mIndexes[segment] == null) {
+            mIndexes[segment] = SessionIndex.load(mReader.getDirectory(), segment);
+        }
+        return mIndexes[segment];
+    }
+
+    /**
+     * @return the last segment whose first record is at or before {@code timestamp}, or 0
+     */
+    private int findSegment(long timestamp) throws IOException {
+        int lo = 0;
+        int hi = mIndexes.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (index(mid).getFirstTimestamp() <= timestamp) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Rollup buckets for charting a range, at the coarsest resolution that still gives one bucket per pixel.
+     * See {@link RollupSet#select(int, SensorConversion, long, long, int)}
+     *
+     * @param deviceId      Device id in the session
+     * @param pixelWidth    Width of the chart in pixels
+     * @return              The rollup to draw from, or null if the session has no rollups for the sensor
+     */
+    public Rollup rollup(int deviceId, SensorConversion sensor, long from, long to, int pixelWidth)
+            throws IOException {
+        if (!mRollupsLoaded) {
+            File file = new File(mReader.getDirectory(), RollupSet.FILE_NAME);
+            mRollups = file.exists() ? RollupSet.read(mReader.getDirectory()) : null;
+            mRollupsLoaded = true;
+        }
+        return mRollups == null ? null : mRollups.select(deviceId, sensor, from, to, pixelWidth);
+    }
+
+    /**
+     * Streams the raw records with {@code from <= timestamp <= to}
+     *
+     * @param deviceId      Device to match, or {@link #ANY}
+     * @param shortUuid     Characteristic to match, or {@link #ANY}
+     */
+    public void scan(final long from, final long to, final int deviceId, final int shortUuid,
+                     final RecordVisitor visitor) throws IOException {
+        RecordVisitor filter = new RecordVisitor() {
+            @Override
+            public boolean onRecord(long timestamp, int device, int uuid, byte[] payload, int offset, int length) {
+                if (timestamp > to) return false;   // Sessions are in time order
+                if (timestamp < from) return true;
+                if (deviceId != ANY && device != deviceId) return true;
+                if (shortUuid != ANY && uuid != shortUuid) return true;
+                return visitor.onRecord(timestamp, device, uuid, payload, offset, length);
+            }
+        };
+
+        int segment = findSegment(from);
+        int offset = index(segment).seek(from);
+        for (; segment < mIndexes.length; segment++) {
+            if (segment > 0 && index(segment).getFirstTimestamp() > to) break;
+            if (offset < 0) offset = SessionRecorder.SEGMENT_HEADER_SIZE;
+            if (!mReader.readSegment(segment, offset, filter)) break;
+            offset = SessionRecorder.SEGMENT_HEADER_SIZE;
+        }
+    }
+
+    /**
+     * Streams the samples of one sensor with {@code from <= timestamp <= to} as decoded columns
+     *
+     * @param deviceId  Device to match, or {@link #ANY}
+     */
+    public void scan(long from, long to, int deviceId, final SensorConversion sensor,
+                     final ColumnVisitor visitor) throws IOException {
+        final int channels = sensor.getChannelCount();
+        final long[] timestamps = new long[BLOCK_SIZE];
+        final float[] values = new float[BLOCK_SIZE * channels];
+        final byte[][] frames = new byte[SessionRecorder.MAX_PAYLOAD + 1][];  // Decoders look at the frame length
+        final int[] count = new int[1];
+        final boolean[] stopped = new boolean[1];
+
+        scan(from, to, deviceId, SensorTagUtil.toShortUuid(sensor.getData()), new RecordVisitor() {
+            @Override
+            public boolean onRecord(long timestamp, int device, int uuid, byte[] payload, int offset, int length) {
+                byte[] frame = frames[length];
+                if (frame == null) {
+                    frame = frames[length] = new byte[length];
+                }
+                System.arraycopy(payload, offset, frame, 0, length);
+                int n = count[0];
+                timestamps[n] = timestamp;
+                sensor.convert(frame, values, n * channels);
+                count[0] = ++n;
+                if (n == BLOCK_SIZE) {
+                    count[0] = 0;
+                    if (!visitor.onColumns(timestamps, values, n, channels)) {
+                        stopped[0] = true;
+                        return false;
+                    }
+                }
+                return true;
+            }
+        });
+        if (!stopped[0] && count[0] > 0) {
+            visitor.onColumns(timestamps, values, count[0], channels);
+        }
+    }
+}
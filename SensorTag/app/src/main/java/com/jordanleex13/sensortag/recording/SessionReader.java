@@ -0,0 +1,165 @@
+package com.jordanleex13.sensortag.recording;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Reads a session written by {@link SessionRecorder}. Batches whose header is missing or whose CRC does
+ * not match are skipped, which is how an interrupted recording is recovered.
+ */
+public class SessionReader {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final File mDirectory;
+    private final List<File> mSegments = new ArrayList<>();
+    private final List<String> mDevices = new ArrayList<>();
+    private final CRC32 mCrc = new CRC32();
+    private byte[] mBatch = new byte[4096];
+    private long mCorruptBatches;
+
+    public SessionReader(File directory) throws IOException {
+        mDirectory = directory;
+        for (int i = 0; ; i++) {
+            File f = new File(directory, SessionRecorder.segmentName(i));
+            if (!f.exists()) break;
+            mSegments.add(f);
+        }
+        if (mSegments.isEmpty()) {
+            throw new IOException("No segments in " + directory);
+        }
+
+        File devices = new File(directory, SessionRecorder.DEVICES_FILE);
+        if (devices.exists()) {
+            BufferedReader in = new BufferedReader(new FileReader(devices));
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    int space = line.indexOf(' ');
+                    if (space > 0) setDevice(Integer.parseInt(line.substring(0, space)), line.substring(space + 1));
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    public int getSegmentCount() {
+        return mSegments.size();
+    }
+
+    public File getSegment(int index) {
+        return mSegments.get(index);
+    }
+
+    /**
+     * @return address of a device declared in the session, or null if unknown
+     */
+    public String getDeviceAddress(int deviceId) {
+        return deviceId < mDevices.size() ? mDevices.get(deviceId) : null;
+    }
+
+    /**
+     * @return id of the device with this address, or -1 if it is not part of the session
+     */
+    public int getDeviceId(String address) {
+        return mDevices.indexOf(address);
+    }
+
+    private void setDevice(int id, String address) {
+        while (mDevices.size() <= id) mDevices.add(null);
+        mDevices.set(id, address);
+    }
+
+    public long getCorruptBatchCount() {
+        return mCorruptBatches;
+    }
+
+    /**
+     * Reads every record of the session in order
+     */
+    public void read(RecordVisitor visitor) throws IOException {
+        for (int i = 0; i < mSegments.size(); i++) {
+            if (!readSegment(i, SessionRecorder.SEGMENT_HEADER_SIZE, visitor)) return;
+        }
+    }
+
+    /**
+     * Reads the records of one segment, starting at the batch that begins at {@code offset}
+     *
+     * @return false if the visitor asked to stop
+     */
+    public boolean readSegment(int index, int offset, RecordVisitor visitor) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mSegments.get(index), "r");
+        try {
+            MappedByteBuffer segment = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+            if (segment.getInt(0) != SessionRecorder.SEGMENT_MAGIC) {
+                throw new IOException("Not a session segment: " + mSegments.get(index));
+            }
+            int pos = offset;
+            while (pos + SessionRecorder.BATCH_HEADER_SIZE <= segment.limit()) {
+                if (segment.getInt(pos) != SessionRecorder.BATCH_MAGIC) break;   // End of committed data
+                int count = segment.getInt(pos + 4);
+                int length = segment.getInt(pos + 8);
+                int crc = segment.getInt(pos + 12);
+                int start = pos + SessionRecorder.BATCH_HEADER_SIZE;
+                if (length < 0 || start + length > segment.limit()) {
+                    mCorruptBatches++;
+                    break;
+                }
+                pos = start + length;
+
+                if (mBatch.length < length) mBatch = new byte[Math.max(length, mBatch.length * 2)];
+                segment.position(start);
+                segment.get(mBatch, 0, length);
+                mCrc.reset();
+                mCrc.update(mBatch, 0, length);
+                if ((int) mCrc.getValue() != crc) {
+                    mCorruptBatches++;
+                    continue;
+                }
+                if (!visitBatch(mBatch, length, count, visitor)) return false;
+            }
+            return true;
+        } finally {
+            file.close();
+        }
+    }
+
+    private boolean visitBatch(byte[] b, int length, int count, RecordVisitor visitor) {
+        int p = 0;
+        for (int r = 0; r < count && p + SessionRecorder.RECORD_HEADER_SIZE <= length; r++) {
+            long timestamp = 0;
+            for (int i = 7; i >= 0; i--) {
+                timestamp = (timestamp << 8) | (b[p + i] & 0xFF);
+            }
+            int device = (b[p + 8] & 0xFF) | (b[p + 9] & 0xFF) << 8;
+            int shortUuid = (b[p + 10] & 0xFF) | (b[p + 11] & 0xFF) << 8;
+            int len = b[p + 12] & 0xFF;
+            int payload = p + SessionRecorder.RECORD_HEADER_SIZE;
+            p = payload + len;
+
+            if (shortUuid == SessionRecorder.DEVICE_RECORD) {
+                setDevice(device, new String(b, payload, len, ASCII));
+            } else if (!visitor.onRecord(timestamp, device, shortUuid, b, payload, len)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,516 @@
+package com.jordanleex13.sensortag.recording;
+
+import com.jordanleex13.sensortag.SensorTag.SensorTagUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only recorder for raw notifications. Every record holds the receive timestamp, a device id, the
+ * short UUID of the characteristic and the raw payload.
+ *
+ * Records are written into fixed size segment files which are memory mapped, so an append is only a copy
+ * into the page cache and never blocks on the disk. Records are grouped in batches; a background timer
+ * closes the current batch every {@code syncIntervalMillis}, writes its header (record count, length and
+ * CRC32 of the records) and forces the segment to disk. A batch without a valid header is ignored by
+ * {@link SessionReader}, so a killed process loses at most the batch that was still open.
+ *
+ * The timer also opens the next segment ahead of time and forces and closes full ones, so when a segment
+ * fills up the appending thread only switches buffers. Declared devices reach {@code devices.txt} on the
+ * next sync. A {@link Listener} is told after every sync.
+ *
+ * Segment layout:
+ * <pre>
+ *     segment header   int magic, int version, long creation time
+ *     batch            int magic, int record count, int length of records, int crc32 of records
+ *       record         long timestamp, short device id, short short-uuid, byte length, payload
+ *       ...
+ *     batch ...
+ * </pre>
+ * A record with short UUID {@link #DEVICE_RECORD} declares a device: the payload is the device address and
+ * the device id is the id used by the records that follow. Declared devices are also appended to
+ * {@code devices.txt} as "id address" lines, so readers that seek into the middle of a session can
+ * resolve them.
+ *
+ * Timestamps in a session never decrease: a record older than the one before it, eg. after the phone's clock
+ * was set back, is stored with the timestamp of the previous record. {@link SessionQuery} relies on this.
+ *
+ * Next to every segment a sparse index ({@code .idx}) gets one entry per committed batch: long timestamp of
+ * the first record, int offset of the batch in the segment and int record count. See {@link SessionIndex}.
+ */
+public class SessionRecorder {
+
+    static final int SEGMENT_MAGIC = 0x53545347;  // "STSG"
+    static final int BATCH_MAGIC = 0x42415443;    // "BATC"
+    static final int VERSION = 1;
+    static final int SEGMENT_HEADER_SIZE = 16;
+    static final int BATCH_HEADER_SIZE = 16;
+    static final int RECORD_HEADER_SIZE = 13;
+    static final int MAX_PAYLOAD = 255;
+    static final int INDEX_ENTRY_SIZE = 16;
+    static final String DEVICES_FILE = "devices.txt";
+    public static final int DEVICE_RECORD = 0;
+
+    /**
+     * Told on the sync timer after each sync, eg. to save state that belongs with the session
+     */
+    public interface Listener {
+        void onSync(SessionRecorder recorder);
+    }
+
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+    public static final long DEFAULT_SYNC_INTERVAL = 1000;
+    /** Longest close() waits for a sync in progress */
+    public static final long CLOSE_TIMEOUT = 5000;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /**
+     * A mapped segment file with its index. Index entries are kept until the timer writes them.
+     */
+    private static class Segment {
+        final int number;
+        final File file;
+        final File indexFile;
+        final RandomAccessFile raf;
+        final MappedByteBuffer map;
+        final FileOutputStream index;
+        ByteBuffer entries = ByteBuffer.allocate(8 * INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        Segment(File directory, int number, int size) throws IOException {
+            this.number = number;
+            file = new File(directory, segmentName(number));
+            indexFile = new File(directory, indexName(number));
+            index = new FileOutputStream(indexFile);
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(size);
+            map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            map.putInt(SEGMENT_MAGIC);
+            map.putInt(VERSION);
+            map.putLong(System.currentTimeMillis());
+        }
+
+        void addEntry(long firstTimestamp, int offset, int records) {
+            if (entries.remaining() < INDEX_ENTRY_SIZE) {
+                ByteBuffer grown = ByteBuffer.allocate(entries.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+                entries.flip();
+                entries = grown.put(entries);
+            }
+            entries.putLong(firstTimestamp).putInt(offset).putInt(records);
+        }
+
+        /**
+         * Takes the entries added since the last call, so they can be written outside the lock
+         */
+        byte[] takeEntries() {
+            byte[] taken = Arrays.copyOf(entries.array(), entries.position());
+            entries.clear();
+            return taken;
+        }
+
+        void writeIndex(byte[] taken) {
+            try {
+                index.write(taken);
+            } catch (IOException e) {
+                // The index only speeds up queries; the batches themselves are committed
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * Writes the rest of the index, flushes the segment and releases the files
+         */
+        void retire() {
+            writeIndex(takeEntries());
+            map.force();
+            try {
+                raf.close();
+                index.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * Removes a segment that never received a batch
+         */
+        void discard() {
+            try {
+                raf.close();
+                index.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            file.delete();
+            indexFile.delete();
+        }
+    }
+
+    private final File mDirectory;
+    private final int mSegmentSize;
+    private final ScheduledExecutorService mSyncTimer;
+    private final Object mSyncLock = new Object();     // Orders the index writes and flushes of sync and close
+    private final Runnable mPrepareNext = new Runnable() {
+        @Override
+        public void run() {
+            prepareNext();
+        }
+    };
+
+    private final Map<Integer, String> mDevices = new HashMap<>();
+    private final StringBuilder mPendingDevices = new StringBuilder();
+    private final byte[] mRecordHeader = new byte[RECORD_HEADER_SIZE];
+    private final CRC32 mCrc = new CRC32();
+
+    private Segment mSegment;
+    private Segment mNext;              // Opened ahead by the timer
+    private boolean mPreparing;         // The timer is opening mNext
+    private List<Segment> mRetired = new ArrayList<>();    // Full segments waiting for the timer to flush them
+    private int mBatchStart = -1;   // -1 when no batch is open
+    private int mBatchRecords;
+    private long mBatchFirstTimestamp;
+    private long mLastTimestamp = Long.MIN_VALUE;
+    private long mRecordCount;
+    private long mDroppedCount;
+    private boolean mClosed;
+    private volatile Listener mListener;
+
+    /**
+     * Opens a new session in {@code directory} with default segment size and sync interval
+     */
+    public SessionRecorder(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_SYNC_INTERVAL);
+    }
+
+    /**
+     * @param directory             Directory for the session. Created if it does not exist; must not already contain segments
+     * @param segmentSize           Size of each segment file in bytes
+     * @param syncIntervalMillis    How often the open batch is committed and flushed to disk
+     */
+    public SessionRecorder(File directory, int segmentSize, long syncIntervalMillis) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create session directory " + directory);
+        }
+        if (segmentSize < SEGMENT_HEADER_SIZE + BATCH_HEADER_SIZE + RECORD_HEADER_SIZE + MAX_PAYLOAD) {
+            throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+        }
+        mDirectory = directory;
+        mSegmentSize = segmentSize;
+        mSegment = new Segment(directory, 0, segmentSize);
+
+        mSyncTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SessionRecorder-sync");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        mSyncTimer.execute(mPrepareNext);
+        mSyncTimer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sync();
+            }
+        }, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    static String segmentName(int number) {
+        return String.format(Locale.US, "segment-%05d.seg", number);
+    }
+
+    static String indexName(int number) {
+        return String.format(Locale.US, "segment-%05d.idx", number);
+    }
+
+    /**
+     * Opens the segment after the current one unless it is already open. Runs on the timer, outside the lock.
+     */
+    private void prepareNext() {
+        int number;
+        synchronized (this) {
+            if (mClosed || mNext != null || mPreparing) return;
+            mPreparing = true;
+            number = mSegment.number + 1;
+        }
+        Segment next = null;
+        try {
+            next = new Segment(mDirectory, number, mSegmentSize);
+        } catch (IOException e) {
+            // append() tries again when it needs the segment
+            e.printStackTrace();
+        }
+        synchronized (this) {
+            mPreparing = false;
+            notifyAll();
+            if (next == null) return;
+            if (mClosed) {
+                next.discard();
+            } else {
+                mNext = next;
+            }
+        }
+    }
+
+    /**
+     * Commits the open batch and moves on to the next segment, leaving the full one to the timer. Only opens
+     * the next segment itself if segments fill up faster than the timer can open them.
+     */
+    private void rotate() throws IOException {
+        int full = mSegment.number;
+        while (mPreparing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the next segment");
+            }
+        }
+        if (mClosed) {
+            throw new IOException("Recorder closed");
+        }
+        if (mSegment.number != full) {
+            // Another thread rotated while this one waited
+            return;
+        }
+        Segment next = mNext;
+        mNext = null;
+        if (next == null) {
+            next = new Segment(mDirectory, mSegment.number + 1, mSegmentSize);
+        }
+        commitBatch();
+        mRetired.add(mSegment);
+        mSegment = next;
+        try {
+            mSyncTimer.execute(mPrepareNext);
+        } catch (RejectedExecutionException e) {
+            // Closing
+        }
+    }
+
+    /**
+     * Declares the address of a device id the first time it is seen. Cheap to call for every record.
+     */
+    public synchronized void declareDevice(int id, String address) {
+        if (mDevices.get(id) != null) {
+            return;
+        }
+        mDevices.put(id, address);
+        byte[] a = address.getBytes(ASCII);
+        // Stamped with the previous record so it does not hold up the time order of the records after it
+        append(mLastTimestamp, id, DEVICE_RECORD, a, 0, a.length);
+        mPendingDevices.append(id).append(' ').append(address).append('\n');
+    }
+
+    /**
+     * Appends a raw notification. Safe to call from the BLE callback thread.
+     */
+    public void append(long timestamp, int deviceId, UUID characteristic, byte[] value) {
+        append(timestamp, deviceId, SensorTagUtil.toShortUuid(characteristic), value, 0, value.length);
+    }
+
+    /**
+     * Appends a record. A timestamp before that of the previous record is replaced by it.
+     *
+     * @return false if the recorder is closed, the payload is too long or the next segment could not be created
+     */
+    public synchronized boolean append(long timestamp, int deviceId, int shortUuid, byte[] value, int offset, int length) {
+        if (mClosed || length > MAX_PAYLOAD) {
+            mDroppedCount++;
+            return false;
+        }
+        // Rechecked after rotating, another thread may have appended while this one waited for the segment
+        while (mSegment.map.remaining() < RECORD_HEADER_SIZE + length + (mBatchStart < 0 ? BATCH_HEADER_SIZE : 0)) {
+            try {
+                rotate();
+            } catch (IOException e) {
+                e.printStackTrace();
+                mDroppedCount++;
+                return false;
+            }
+        }
+        if (timestamp < mLastTimestamp) {
+            timestamp = mLastTimestamp;
+        }
+        mLastTimestamp = timestamp;
+        MappedByteBuffer segment = mSegment.map;
+        if (mBatchStart < 0) {
+            mBatchStart = segment.position();
+            segment.position(mBatchStart + BATCH_HEADER_SIZE);
+            mBatchRecords = 0;
+            mBatchFirstTimestamp = timestamp;
+            mCrc.reset();
+        }
+
+        byte[] h = mRecordHeader;
+        for (int i = 0; i < 8; i++) {
+            h[i] = (byte) (timestamp >>> (8 * i));
+        }
+        h[8] = (byte) deviceId;
+        h[9] = (byte) (deviceId >>> 8);
+        h[10] = (byte) shortUuid;
+        h[11] = (byte) (shortUuid >>> 8);
+        h[12] = (byte) length;
+
+        segment.put(h, 0, RECORD_HEADER_SIZE);
+        segment.put(value, offset, length);
+        mCrc.update(h, 0, RECORD_HEADER_SIZE);
+        mCrc.update(value, offset, length);
+        mBatchRecords++;
+        mRecordCount++;
+        return true;
+    }
+
+    /**
+     * Writes the header of the open batch, making its records visible to readers, and queues its index entry
+     */
+    private void commitBatch() {
+        if (mBatchStart < 0) {
+            return;
+        }
+        MappedByteBuffer segment = mSegment.map;
+        int length = segment.position() - mBatchStart - BATCH_HEADER_SIZE;
+        // Magic goes last so a half written header is never mistaken for a valid one
+        segment.putInt(mBatchStart + 4, mBatchRecords);
+        segment.putInt(mBatchStart + 8, length);
+        segment.putInt(mBatchStart + 12, (int) mCrc.getValue());
+        segment.putInt(mBatchStart, BATCH_MAGIC);
+        mSegment.addEntry(mBatchFirstTimestamp, mBatchStart, mBatchRecords);
+        mBatchStart = -1;
+    }
+
+    /**
+     * Takes the lines of devices declared since the last call
+     */
+    private synchronized String takePendingDevices() {
+        if (mPendingDevices.length() == 0) {
+            return null;
+        }
+        String lines = mPendingDevices.toString();
+        mPendingDevices.setLength(0);
+        return lines;
+    }
+
+    private void writeDevices() {
+        String lines = takePendingDevices();
+        if (lines == null) {
+            return;
+        }
+        try {
+            FileWriter devices = new FileWriter(new File(mDirectory, DEVICES_FILE), true);
+            devices.write(lines);
+            devices.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Commits the open batch and flushes the segment. Called by the timer; full segments are closed, the index
+     * is written, the flush happens and the next segment is opened outside the lock so appends are not held
+     * up by the disk.
+     */
+    public void sync() {
+        synchronized (mSyncLock) {
+            Segment segment;
+            byte[] entries;
+            List<Segment> retired;
+            synchronized (this) {
+                if (mClosed) return;
+                commitBatch();
+                segment = mSegment;
+                entries = segment.takeEntries();
+                retired = mRetired;
+                mRetired = new ArrayList<>();
+            }
+            // Full segments first, their index entries are older than those of the current one
+            for (Segment s : retired) s.retire();
+            segment.writeIndex(entries);
+            segment.map.force();
+            writeDevices();
+        }
+        prepareNext();
+        Listener l = mListener;
+        if (l != null) {
+            l.onSync(this);
+        }
+    }
+
+    /**
+     * Stops the timer, waiting for a sync in progress, then commits outstanding records and flushes them
+     */
+    public void close() throws IOException {
+        mSyncTimer.shutdown();
+        try {
+            // A sync or prepareNext still running would otherwise touch the segments after they are retired
+            mSyncTimer.awaitTermination(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (mSyncLock) {
+            closeSegments();
+        }
+        writeDevices();
+    }
+
+    private void closeSegments() {
+        synchronized (this) {
+            if (mClosed) return;
+            while (mPreparing) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            commitBatch();
+            for (Segment s : mRetired) s.retire();
+            mRetired.clear();
+            mSegment.retire();
+            if (mNext != null) {
+                mNext.discard();
+                mNext = null;
+            }
+            mClosed = true;
+        }
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    public synchronized long getRecordCount() {
+        return mRecordCount;
+    }
+
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+}
@@ -0,0 +1,154 @@
+package com.jordanleex13.sensortag.recording;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.SensorTag.SensorTagUtil;
+import com.jordanleex13.sensortag.processing.QuantileSet;
+import com.jordanleex13.sensortag.processing.SampleListener;
+import com.jordanleex13.sensortag.processing.StatsSet;
+import com.jordanleex13.sensortag.profiles.SensorProfiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Per channel statistics and quantiles of a recorded session. Segments are independent, so each one is
+ * decoded into its own {@link StatsSet} or {@link QuantileSet} on a worker thread and the results are merged.
+ * Statistics come out the same as one pass over the whole session.
+ */
+public class SessionStats {
+
+    private SessionStats() {
+    }
+
+    /**
+     * Makes the per segment stage and folds it into the result
+     */
+    private interface Aggregate<T extends SampleListener> {
+        T create();
+
+        void merge(T into, T part);
+    }
+
+    /**
+     * @param directory     Session directory
+     * @param threads       Number of segments decoded at the same time
+     * @return              Statistics of every sample in the session, as totals
+     */
+    public static StatsSet compute(File directory, int threads) throws IOException {
+        return aggregate(directory, threads, new Aggregate<StatsSet>() {
+            @Override
+            public StatsSet create() {
+                return new StatsSet();
+            }
+
+            @Override
+            public void merge(StatsSet into, StatsSet part) {
+                into.merge(part);
+            }
+        });
+    }
+
+    /**
+     * @param directory     Session directory
+     * @param threads       Number of segments decoded at the same time
+     * @return              Quantile sketches of every channel in the session
+     */
+    public static QuantileSet computeQuantiles(File directory, int threads) throws IOException {
+        return aggregate(directory, threads, new Aggregate<QuantileSet>() {
+            @Override
+            public QuantileSet create() {
+                return new QuantileSet();
+            }
+
+            @Override
+            public void merge(QuantileSet into, QuantileSet part) {
+                into.merge(part);
+            }
+        });
+    }
+
+    private static <T extends SampleListener> T aggregate(final File directory, int threads,
+                                                          final Aggregate<T> aggregate) throws IOException {
+        int segments = new SessionReader(directory).getSegmentCount();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, segments)));
+        try {
+            List<Future<T>> parts = new ArrayList<>();
+            for (int i = 0; i < segments; i++) {
+                final int segment = i;
+                parts.add(executor.submit(new Callable<T>() {
+                    @Override
+                    public T call() throws IOException {
+                        // Readers keep per read buffers, so every task has its own
+                        T part = aggregate.create();
+                        readSegment(new SessionReader(directory), segment, part);
+                        return part;
+                    }
+                }));
+            }
+            T total = aggregate.create();
+            for (Future<T> part : parts) {
+                aggregate.merge(total, part.get());
+            }
+            return total;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Decodes the records of one segment into samples for {@code listener}, with the same decoders the live
+     * pipeline uses. Truncated frames are skipped.
+     */
+    public static void readSegment(SessionReader reader, int segment, final SampleListener listener)
+            throws IOException {
+        final SensorConversion[] sensors = SensorProfiles.getDefault().getConversions();
+        final int[] shortUuids = new int[sensors.length];
+        int maxChannels = 0;
+        for (int i = 0; i < sensors.length; i++) {
+            shortUuids[i] = SensorTagUtil.toShortUuid(sensors[i].getData());
+            maxChannels = Math.max(maxChannels, sensors[i].getChannelCount());
+        }
+        final float[] values = new float[maxChannels];
+        final byte[][] frames = new byte[SessionRecorder.MAX_PAYLOAD + 1][];  // Decoders look at the frame length
+
+        reader.readSegment(segment, SessionRecorder.SEGMENT_HEADER_SIZE, new RecordVisitor() {
+            @Override
+            public boolean onRecord(long timestamp, int device, int uuid, byte[] payload, int offset, int length) {
+                byte[] frame = null;
+                // Several sensors share the movement characteristic
+                for (int i = 0; i < sensors.length; i++) {
+                    if (shortUuids[i] != uuid) continue;
+                    if (frame == null) {
+                        frame = frames[length];
+                        if (frame == null) {
+                            frame = frames[length] = new byte[length];
+                        }
+                        System.arraycopy(payload, offset, frame, 0, length);
+                    }
+                    try {
+                        sensors[i].convert(frame, values, 0);
+                    } catch (IndexOutOfBoundsException e) {
+                        continue;   // Truncated frame
+                    }
+                    listener.onSample(device, sensors[i], timestamp, values);
+                }
+                return true;
+            }
+        });
+    }
+}
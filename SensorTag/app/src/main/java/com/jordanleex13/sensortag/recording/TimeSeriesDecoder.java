@@ -0,0 +1,118 @@
+package com.jordanleex13.sensortag.recording;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streams frames back out of a {@link TimeSeriesEncoder} stream. Usage:
+ * <pre>
+ *     while (decoder.next()) {
+ *         use(decoder.getTimestamp(), decoder.getFrame());
+ *     }
+ * </pre>
+ */
+public class TimeSeriesDecoder {
+
+    private final BitInput mIn;
+    private final int[] mWidths;
+    private final int[] mValues;
+    private final byte[] mFrame;
+
+    private long mTimestamp;
+    private long mDelta;
+    private long mFrameCount;
+    private boolean mFinished;
+
+    public TimeSeriesDecoder(InputStream in) throws IOException {
+        mIn = new BitInput(in);
+        if ((int) mIn.read(32) != TimeSeriesEncoder.MAGIC) {
+            throw new IOException("Not a compressed time series");
+        }
+        int fields = (int) mIn.read(8);
+        mWidths = new int[fields];
+        mValues = new int[fields];
+        int length = 0;
+        for (int i = 0; i < fields; i++) {
+            mWidths[i] = (int) mIn.read(8);
+            length += mWidths[i];
+        }
+        mFrame = new byte[length];
+    }
+
+    /**
+     * Decodes the next frame
+     *
+     * @return false at the end of the stream
+     */
+    public boolean next() throws IOException {
+        if (mFinished) {
+            return false;
+        }
+        if (mFrameCount == 0) {
+            if (!mIn.readBit()) {
+                mFinished = true;
+                return false;
+            }
+            mTimestamp = (mIn.read(32) << 32) | mIn.read(32);
+        } else {
+            long zigzag;
+            if (!mIn.readBit()) {
+                zigzag = 0;
+            } else if (!mIn.readBit()) {
+                zigzag = mIn.read(7);
+            } else if (!mIn.readBit()) {
+                zigzag = mIn.read(12);
+            } else if (!mIn.readBit()) {
+                zigzag = mIn.read(20);
+            } else if (!mIn.readBit()) {
+                zigzag = mIn.read(32);
+            } else if (!mIn.readBit()) {
+                zigzag = (mIn.read(32) << 32) | mIn.read(32);
+            } else {
+                mFinished = true;
+                return false;
+            }
+            long dod = (zigzag >>> 1) ^ -(zigzag & 1);
+            mDelta += dod;
+            mTimestamp += mDelta;
+        }
+
+        int p = 0;
+        for (int f = 0; f < mWidths.length; f++) {
+            int bits = 8 * mWidths[f];
+            int zigzag;
+            if (!mIn.readBit()) {
+                zigzag = 0;
+            } else if (!mIn.readBit()) {
+                zigzag = (int) mIn.read(4);
+            } else if (!mIn.readBit()) {
+                zigzag = (int) mIn.read(8);
+            } else {
+                zigzag = (int) mIn.read(bits);
+            }
+            int delta = (zigzag >>> 1) ^ -(zigzag & 1);
+            int value = (mValues[f] + delta) & (int) ((1L << bits) - 1);
+            mValues[f] = value;
+            for (int b = 0; b < mWidths[f]; b++) {
+                mFrame[p++] = (byte) (value >>> (8 * b));
+            }
+        }
+        mFrameCount++;
+        return true;
+    }
+
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * @return the current frame. The array is reused by the next call to {@link #next()}.
+     */
+    public byte[] getFrame() {
+        return mFrame;
+    }
+
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+}
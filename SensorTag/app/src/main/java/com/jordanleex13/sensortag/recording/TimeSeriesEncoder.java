@@ -0,0 +1,183 @@
+package com.jordanleex13.sensortag.recording;
+
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+import com.jordanleex13.sensortag.SensorTag.SensorTagUtil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compressed column encoding for the frames of one characteristic, in the style of Facebook's Gorilla
+ * time series format.
+ *
+ * Timestamps are stored as delta-of-delta, which is nearly always 0 when a sensor reports at a fixed
+ * period, so most timestamps take a single bit. Each frame is split into little-endian fields (16 bit
+ * words for most sensors, 24 bit values for the barometer) and every field is stored as the zigzag encoded
+ * difference from the same field of the previous frame in a small variable-length bit bucket.
+ *
+ * <pre>
+ *     header       int magic, byte field count, byte width of each field
+ *     first frame  '1' followed by the full 64 bit timestamp, or '0' if the stream is empty
+ *     timestamp    '0' same period | '10' 7 bits | '110' 12 bits | '1110' 20 bits | '11110' 32 bits | '111110' 64 bits
+ *                  '111111' marks the end of the stream
+ *     field        '0' unchanged | '10' 4 bits | '110' 8 bits | '111' full width
+ * </pre>
+ *
+ * See {@link TimeSeriesDecoder} for reading a stream back.
+ */
+public class TimeSeriesEncoder {
+
+    static final int MAGIC = 0x54534331;    // "TSC1"
+
+    private final BitOutput mOut;
+    private final int[] mWidths;
+    private final int mFrameLength;
+    private final int[] mPrevious;
+
+    private long mPrevTimestamp;
+    private long mPrevDelta;
+    private long mFrameCount;
+
+    /**
+     * @param out           Destination of the encoded stream
+     * @param fieldWidths   Width in bytes (1 to 3) of each field of a frame, see {@link #fieldWidths(int, int)}
+     */
+    public TimeSeriesEncoder(OutputStream out, int[] fieldWidths) throws IOException {
+        mOut = new BitOutput(out);
+        mWidths = fieldWidths.clone();
+        mPrevious = new int[fieldWidths.length];
+        int length = 0;
+        for (int w : fieldWidths) {
+            if (w < 1 || w > 3) throw new IllegalArgumentException("Field width must be 1 to 3 bytes: " + w);
+            length += w;
+        }
+        mFrameLength = length;
+
+        mOut.write(MAGIC, 32);
+        mOut.write(fieldWidths.length, 8);
+        for (int w : fieldWidths) {
+            mOut.write(w, 8);
+        }
+    }
+
+    /**
+     * Splits frames of a characteristic into fields: two 24 bit values for the barometer, 16 bit words for
+     * everything else, with a trailing single byte when the frame length is odd.
+     */
+    public static int[] fieldWidths(int shortUuid, int frameLength) {
+        int width = (shortUuid == SensorTagUtil.toShortUuid(SensorTagGatt.UUID_BAR_DATA) && frameLength % 3 == 0) ? 3 : 2;
+        int[] widths = new int[(frameLength + width - 1) / width];
+        for (int i = 0; i < widths.length; i++) {
+            widths[i] = Math.min(width, frameLength - i * width);
+        }
+        return widths;
+    }
+
+    public void encode(long timestamp, byte[] frame) throws IOException {
+        encode(timestamp, frame, 0, frame.length);
+    }
+
+    /**
+     * Appends one frame
+     *
+     * @throws IllegalArgumentException if {@code length} does not match the field layout
+     */
+    public void encode(long timestamp, byte[] frame, int offset, int length) throws IOException {
+        if (length != mFrameLength) {
+            throw new IllegalArgumentException("Frame length " + length + ", expected " + mFrameLength);
+        }
+        if (mFrameCount == 0) {
+            mOut.write(1, 1);
+            mOut.write(timestamp >>> 32, 32);
+            mOut.write(timestamp, 32);
+        } else {
+            long delta = timestamp - mPrevTimestamp;
+            writeTimestamp(delta - mPrevDelta);
+            mPrevDelta = delta;
+        }
+        mPrevTimestamp = timestamp;
+
+        int p = offset;
+        for (int f = 0; f < mWidths.length; f++) {
+            int w = mWidths[f];
+            int value = 0;
+            for (int b = 0; b < w; b++) {
+                value |= (frame[p++] & 0xFF) << (8 * b);
+            }
+            int bits = 8 * w;
+            int shift = 32 - bits;
+            int delta = ((value - mPrevious[f]) << shift) >> shift;     // Wraps to the field width
+            int zigzag = ((delta << 1) ^ (delta >> 31)) & (int) ((1L << bits) - 1);
+            mPrevious[f] = value;
+
+            if (zigzag == 0) {
+                mOut.write(0, 1);
+            } else if (zigzag < (1 << 4)) {
+                mOut.write(0x2, 2);
+                mOut.write(zigzag, 4);
+            } else if (zigzag < (1 << 8)) {
+                mOut.write(0x6, 3);
+                mOut.write(zigzag, 8);
+            } else {
+                mOut.write(0x7, 3);
+                mOut.write(zigzag, bits);
+            }
+        }
+        mFrameCount++;
+    }
+
+    private void writeTimestamp(long dod) throws IOException {
+        long zigzag = (dod << 1) ^ (dod >> 63);
+        if (zigzag == 0) {
+            mOut.write(0, 1);
+        } else if (zigzag >>> 7 == 0) {
+            mOut.write(0x2, 2);
+            mOut.write(zigzag, 7);
+        } else if (zigzag >>> 12 == 0) {
+            mOut.write(0x6, 3);
+            mOut.write(zigzag, 12);
+        } else if (zigzag >>> 20 == 0) {
+            mOut.write(0xE, 4);
+            mOut.write(zigzag, 20);
+        } else if (zigzag >>> 32 == 0) {
+            mOut.write(0x1E, 5);
+            mOut.write(zigzag, 32);
+        } else {
+            mOut.write(0x3E, 6);
+            mOut.write(zigzag >>> 32, 32);
+            mOut.write(zigzag, 32);
+        }
+    }
+
+    /**
+     * Writes the end marker and flushes. The underlying stream is not closed.
+     */
+    public void finish() throws IOException {
+        if (mFrameCount > 0) {
+            mOut.write(0x3F, 6);
+        } else {
+            mOut.write(0, 1);
+        }
+        mOut.flush();
+    }
+
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return size of the same frames recorded raw, as an 8 byte timestamp plus the payload
+     */
+    public long getRawBytes() {
+        return mFrameCount * (8 + mFrameLength);
+    }
+
+    public long getEncodedBytes() {
+        return mOut.getBytesWritten();
+    }
+
+    public double getCompressionRatio() {
+        long encoded = getEncodedBytes();
+        return encoded == 0 ? 0 : (double) getRawBytes() / encoded;
+    }
+}
@@ -0,0 +1,282 @@
+package com.jordanleex13.sensortag.streaming;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.processing.SampleListener;
+import com.jordanleex13.sensortag.wire.SampleEncoder;
+import com.jordanleex13.sensortag.wire.SampleFormat;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Pipeline stage that streams decoded samples to desktop tools on the local network over TCP.
+ *
+ * Every message is a big endian unsigned short length followed by that many bytes, the first of which is
+ * the message type:
+ * <pre>
+ *     HELLO     byte type, byte version, byte sensor count, then per sensor: byte channel count, UTF name
+ *     SAMPLE    byte type, one decoded record in the {@link SampleFormat}, timestamp relative to 0
+ *     DROPPED   byte type, int number of samples dropped since the previous DROPPED message
+ * </pre>
+ * HELLO is sent once on connect and lists the sensors known to the phone. Every SAMPLE is a record of a
+ * fresh stream, so a client can decode it on its own even after samples were dropped.
+ *
+ * A sample is encoded once and copied into a fixed size slot of every subscriber's queue, so onSample()
+ * does not allocate. Each subscriber's queue is drained by its own writer thread; when a client reads too
+ * slowly its queue drops the oldest samples and the client is told with a DROPPED message. onSample() never
+ * waits on a socket.
+ */
+public class SampleServer implements SampleListener {
+
+    public static final int VERSION = 2;
+    public static final int TYPE_HELLO = 0;
+    public static final int TYPE_SAMPLE = 1;
+    public static final int TYPE_DROPPED = 2;
+
+    public static final int DEFAULT_PORT = 5757;
+    public static final int DEFAULT_QUEUE_SIZE = 4096;
+
+    // Longest SAMPLE message: type, then a record with a 5 byte device id and a 10 byte timestamp
+    private static final int SLOT_SIZE = 1 + 1 + 5 + 2 + 10 + 1 + 4 * maxChannels();
+
+    private final ServerSocket mServerSocket;
+    private final int mQueueSize;
+    private final List<Subscriber> mSubscribers = new CopyOnWriteArrayList<>();
+    private final byte[] mHello;
+    private final ByteBuffer mScratch = ByteBuffer.allocate(SLOT_SIZE);
+    private final SampleEncoder mEncoder = new SampleEncoder(mScratch);
+    private volatile boolean mClosed;
+
+    public SampleServer() throws IOException {
+        this(DEFAULT_PORT, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * Starts listening straight away
+     *
+     * @param port          TCP port, or 0 for any free port
+     * @param queueSize     Samples buffered per subscriber before the oldest are dropped
+     */
+    public SampleServer(int port, int queueSize) throws IOException {
+        mQueueSize = queueSize;
+        mHello = hello();
+        mServerSocket = new ServerSocket();
+        mServerSocket.setReuseAddress(true);
+        mServerSocket.bind(new InetSocketAddress(port));
+
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "SampleServer-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private static int maxChannels() {
+        int max = 0;
+        for (SensorConversion s : SensorConversion.values()) {
+            max = Math.max(max, s.getChannelCount());
+        }
+        return max;
+    }
+
+    private static byte[] hello() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(TYPE_HELLO);
+        out.writeByte(VERSION);
+        out.writeByte(SensorConversion.values().length);
+        for (SensorConversion s : SensorConversion.values()) {
+            out.writeByte(s.getChannelCount());
+            out.writeUTF(s.name());
+        }
+        return bytes.toByteArray();
+    }
+
+    public int getPort() {
+        return mServerSocket.getLocalPort();
+    }
+
+    public int getSubscriberCount() {
+        return mSubscribers.size();
+    }
+
+    private void acceptLoop() {
+        while (!mClosed) {
+            try {
+                Socket socket = mServerSocket.accept();
+                socket.setTcpNoDelay(true);
+                Subscriber s = new Subscriber(socket, mQueueSize);
+                mSubscribers.add(s);
+                s.start();
+                //Log.i(TAG, "Subscriber " + socket.getRemoteSocketAddress());
+            } catch (IOException e) {
+                if (!mClosed) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onSample(int deviceId, SensorConversion sensor, long timestamp, float[] values) {
+        if (mSubscribers.isEmpty()) {
+            return;
+        }
+        synchronized (mEncoder) {
+            mScratch.clear();
+            mScratch.put((byte) TYPE_SAMPLE);
+            mEncoder.reset();
+            mEncoder.write(deviceId, sensor, timestamp, values);
+            for (Subscriber s : mSubscribers) {
+                s.offer(mScratch.array(), mScratch.position());
+            }
+        }
+    }
+
+    /**
+     * Stops accepting and disconnects every subscriber
+     */
+    public void close() {
+        mClosed = true;
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (Subscriber s : mSubscribers) {
+            s.close();
+        }
+    }
+
+    /**
+     * @return samples dropped so far, summed over the connected subscribers
+     */
+    public long getDroppedCount() {
+        long n = 0;
+        for (Subscriber s : mSubscribers) {
+            n += s.mTotalDropped;
+        }
+        return n;
+    }
+
+    /**
+     * One connected client: a ring of fixed size message slots and the thread that writes them out
+     */
+    private class Subscriber implements Runnable {
+        private final Socket mSocket;
+        private final int mCapacity;
+        private final byte[] mSlots;
+        private final byte[] mLengths;
+        private int mHead;
+        private int mSize;
+        private int mDropped;           // Since the last DROPPED message
+        private volatile long mTotalDropped;
+        private boolean mOpen = true;
+
+        Subscriber(Socket socket, int capacity) {
+            mSocket = socket;
+            mCapacity = capacity;
+            mSlots = new byte[capacity * SLOT_SIZE];
+            mLengths = new byte[capacity];
+        }
+
+        void start() {
+            Thread t = new Thread(this, "SampleServer-" + mSocket.getRemoteSocketAddress());
+            t.setDaemon(true);
+            t.start();
+        }
+
+        synchronized void offer(byte[] m, int length) {
+            if (mSize == mCapacity) {
+                mHead = (mHead + 1) % mCapacity;
+                mSize--;
+                mDropped++;
+                mTotalDropped++;
+            }
+            int slot = (mHead + mSize) % mCapacity;
+            System.arraycopy(m, 0, mSlots, slot * SLOT_SIZE, length);
+            mLengths[slot] = (byte) length;
+            mSize++;
+            if (mSize == 1) {
+                notify();
+            }
+        }
+
+        @Override
+        public void run() {
+            // Messages taken from the ring, already framed with their length
+            byte[] batch = new byte[mCapacity * (SLOT_SIZE + 2)];
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(mSocket.getOutputStream(), 16 * 1024));
+                write(out, mHello);
+                out.flush();
+                while (true) {
+                    int bytes = 0;
+                    int dropped;
+                    synchronized (this) {
+                        while (mSize == 0 && mOpen) {
+                            wait();
+                        }
+                        if (!mOpen) {
+                            return;
+                        }
+                        for (int i = 0; i < mSize; i++) {
+                            int slot = (mHead + i) % mCapacity;
+                            int length = mLengths[slot] & 0xFF;
+                            batch[bytes] = (byte) (length >>> 8);
+                            batch[bytes + 1] = (byte) length;
+                            System.arraycopy(mSlots, slot * SLOT_SIZE, batch, bytes + 2, length);
+                            bytes += 2 + length;
+                        }
+                        mHead = (mHead + mSize) % mCapacity;
+                        mSize = 0;
+                        dropped = mDropped;
+                        mDropped = 0;
+                    }
+                    if (dropped > 0) {
+                        out.writeShort(5);
+                        out.writeByte(TYPE_DROPPED);
+                        out.writeInt(dropped);
+                    }
+                    out.write(batch, 0, bytes);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                //Log.i(TAG, "Subscriber gone: " + e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                mSubscribers.remove(this);
+                close();
+            }
+        }
+
+        private void write(DataOutputStream out, byte[] m) throws IOException {
+            out.writeShort(m.length);
+            out.write(m);
+        }
+
+        void close() {
+            synchronized (this) {
+                mOpen = false;
+                notify();
+            }
+            try {
+                mSocket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
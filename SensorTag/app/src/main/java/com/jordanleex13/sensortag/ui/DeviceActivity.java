@@ -3,7 +3,6 @@ package com.jordanleex13.sensortag.ui;
 import android.app.AlertDialog;
 import android.app.ProgressDialog;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattService;
 import android.content.BroadcastReceiver;
 import android.content.ComponentName;
@@ -14,7 +13,10 @@ import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.content.pm.ActivityInfo;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
 import android.support.v4.view.ViewPager;
 import android.support.v7.app.AppCompatActivity;
 import android.view.View;
@@ -25,10 +27,14 @@ import android.widget.Toast;
 import com.jordanleex13.sensortag.BleService;
 import com.jordanleex13.sensortag.R;
 import com.jordanleex13.sensortag.SensorTag.IntentNames;
-import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+import com.jordanleex13.sensortag.models.FrameArena;
+import com.jordanleex13.sensortag.models.FrameDispatcher;
+import com.jordanleex13.sensortag.profiles.SensorProfile;
+import com.jordanleex13.sensortag.profiles.SensorProfiles;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
 /**
  * Activity that manages connection with the BLE device. Displays data in fragment view pager where each
@@ -57,6 +63,38 @@ public class DeviceActivity extends AppCompatActivity {
     private SectionsPagerAdapter mSectionsPagerAdapter;
     private ViewPager mViewPager;
 
+    /**
+     * Notification values arrive as arena slots on the BLE thread and are handed to the pages on the UI
+     * thread. Messages come from the pool and carry the arena, so nothing is copied or allocated on the way.
+     */
+    private static final int MSG_FRAME = 1;
+
+    private final Handler mFrameHandler = new Handler(Looper.getMainLooper(), new Handler.Callback() {
+        @Override
+        public boolean handleMessage(Message msg) {
+            mFrameDispatcher.deliver(msg.arg2, (FrameArena) msg.obj, msg.arg1);
+            return true;
+        }
+    });
+
+    private final FrameDispatcher mFrameDispatcher = new FrameDispatcher(pageData(), new FrameDispatcher.Poster() {
+        @Override
+        public void post(int route, FrameArena arena, int slot) {
+            mFrameHandler.obtainMessage(MSG_FRAME, slot, route, arena).sendToTarget();
+        }
+    });
+
+    /**
+     * @return data characteristics of the profiles, which is what the pages show
+     */
+    private static List<UUID> pageData() {
+        List<UUID> data = new ArrayList<>();
+        for (SensorProfile p : SensorProfiles.getDefault().getProfiles()) {
+            if (p.getData() != null) data.add(p.getData());
+        }
+        return data;
+    }
+
 
     /**
      * Interface for monitoring the state of an application service
@@ -86,9 +124,20 @@ public class DeviceActivity extends AppCompatActivity {
             if(!mBleService.initialize()) {
                 //Log.e(TAG, "Cannot initialize");
                 finish();
+                return;
+            }
+            mBleService.addFrameListener(mFrameDispatcher);
+
+            // The service may already be streaming from an earlier visit. Just show the data
+            if (mDeviceAddress.equals(mBleService.getConnectedDeviceAddress()) && mBleService.areSensorsEnabled()) {
+                mConnected = true;
+                showSensors(mBleService.getSupportedGattServices());
+                return;
             }
+
             if (mBleService.connect(mDeviceAddress)) {
                 mConnected = true;
+                showProgress();
             } else {
                 mConnected = false;
                 //Log.e(TAG, "Failed to connect to BLE device");
@@ -136,7 +185,7 @@ public class DeviceActivity extends AppCompatActivity {
             } else if (BleService.ACTION_GATT_SERVICES_DISCOVERED.equals(action))
             {
                 //Log.i(TAG, "Services discovered");
-                setUpGattServices(mBleService.getSupportedGattServices());
+                showSensors(mBleService.getSupportedGattServices());
 
             } else if (BleService.ACTION_DATA_READ.equals(action))
             {
@@ -146,16 +195,6 @@ public class DeviceActivity extends AppCompatActivity {
             {
                 //Log.d(TAG, "Data written");
 
-            } else if (BleService.ACTION_DATA_NOTIFY.equals(action))
-            {
-                /*
-                 * Data was changed and the appropriate fragment will be notified
-                 */
-                String uuidStr = intent.getStringExtra(IntentNames.EXTRA_UUID);
-                byte[] value = intent.getByteArrayExtra(IntentNames.EXTRA_DATA);
-
-                sendNotificationsToFragments(uuidStr, value);
-
             } else
             {
                 //Log.e(TAG, "Unknown received");
@@ -163,57 +202,6 @@ public class DeviceActivity extends AppCompatActivity {
         }
     };
 
-    /**
-     * Compares the current UUID with the UUIDs of the different services and sends a broadcast corresponding
-     * to the correct service.
-     *
-     * @param uuidStr   Data UUID of the service which will receive the broadcast
-     * @param value     The byte array which contains the data
-     */
-    private void sendNotificationsToFragments(String uuidStr, byte[] value) {
-        Intent notifyIntent;
-
-        if (uuidStr.compareTo(SensorTagGatt.UUID_IRT_DATA.toString()) == 0) {
-            //Log.d(TAG, "Notify intent to temperature");
-            notifyIntent = new Intent(IntentNames.ACTION_IRT_CHANGE);
-            notifyIntent.putExtra(IntentNames.EXTRAS_IRT_DATA, value);
-            sendBroadcast(notifyIntent);
-
-        } else if (uuidStr.compareTo(SensorTagGatt.UUID_OPT_DATA.toString()) == 0) {
-            //Log.d(TAG, "Notify intent to optical");
-            notifyIntent = new Intent(IntentNames.ACTION_OPT_CHANGE);
-            notifyIntent.putExtra(IntentNames.EXTRAS_OPT_DATA, value);
-            sendBroadcast(notifyIntent);
-
-        } else if (uuidStr.compareTo(SensorTagGatt.UUID_MOV_DATA.toString()) == 0) {
-            //Log.d(TAG, "Notify intent to motion");
-            notifyIntent = new Intent(IntentNames.ACTION_MOV_CHANGE);
-            notifyIntent.putExtra(IntentNames.EXTRAS_MOV_DATA, value);
-            sendBroadcast(notifyIntent);
-        } else if (uuidStr.compareTo(SensorTagGatt.UUID_KEY_DATA.toString()) == 0) {
-            //Log.d(TAG, "Notify keys");
-            notifyIntent = new Intent(IntentNames.ACTION_KEY_CHANGE);
-            notifyIntent.putExtra(IntentNames.EXTRAS_KEY_DATA, value);
-            sendBroadcast(notifyIntent);
-
-        } else if (uuidStr.compareTo(SensorTagGatt.UUID_HUM_DATA.toString())== 0) {
-            //Log.d(TAG, "Notify intent to humidity");
-            notifyIntent = new Intent(IntentNames.ACTION_HUM_CHANGE);
-            notifyIntent.putExtra(IntentNames.EXTRAS_HUM_DATA, value);
-            sendBroadcast(notifyIntent);
-        } else if (uuidStr.compareTo(SensorTagGatt.UUID_BAR_DATA.toString()) == 0) {
-            //Log.d(TAG, "Notify intent to barometer");
-            notifyIntent = new Intent(IntentNames.ACTION_BAR_CHANGE);
-            notifyIntent.putExtra(IntentNames.EXTRAS_BAR_DATA, value);
-            sendBroadcast(notifyIntent);
-
-        } else {
-            //Log.e(TAG, "Notified something that isn't set up for");
-        }
-    }
-
-
-
     /**
      * Creates activity: Initializes variables and sets up UI. Binds service to this activity
      *
@@ -248,10 +236,10 @@ public class DeviceActivity extends AppCompatActivity {
 
 
         /*
-         * Binds bluetooth service to this activity
+         * Starts the service in foreground mode so it owns the connection, then binds to it to view the data
          */
-        Intent startService = new Intent(DeviceActivity.this, BleService.class);
-        bindService(startService, mServiceConnection, BIND_AUTO_CREATE);
+        startService(makeServiceIntent());
+        bindService(new Intent(DeviceActivity.this, BleService.class), mServiceConnection, BIND_AUTO_CREATE);
     }
 
     /**
@@ -264,8 +252,9 @@ public class DeviceActivity extends AppCompatActivity {
                 case R.id.connectButton:
                     //Log.d(TAG, "connect pressed");
                     if (!mConnected) {
-                        mBleService.connect(mDeviceAddress);
-                        mConnected = true;
+                        startService(makeServiceIntent());
+                        mConnected = mBleService.connect(mDeviceAddress);
+                        if (mConnected) showProgress();
                     } else {
                         Toast.makeText(DeviceActivity.this, "Already connected", Toast.LENGTH_SHORT).show();
                     }
@@ -274,7 +263,11 @@ public class DeviceActivity extends AppCompatActivity {
                 case R.id.disconnectButton:
                     //Log.d(TAG, "disconnect pressed");
                     if (mConnected) {
-                        mBleService.disconnect(mDeviceAddress);
+                        // Same as Stop in the notification: also stops the started service, so the
+                        // connect intent is not redelivered after an explicit disconnect
+                        Intent stop = new Intent(DeviceActivity.this, BleService.class);
+                        stop.setAction(BleService.ACTION_STOP_FOREGROUND);
+                        startService(stop);
                         mConnected = false;
                     } else {
                         Toast.makeText(DeviceActivity.this, "Already disconnected", Toast.LENGTH_SHORT).show();
@@ -306,7 +299,6 @@ public class DeviceActivity extends AppCompatActivity {
         intentFilter.addAction(BleService.ACTION_GATT_SERVICES_DISCOVERED);
         intentFilter.addAction(BleService.ACTION_DATA_READ);
         intentFilter.addAction(BleService.ACTION_DATA_WRITE);
-        intentFilter.addAction(BleService.ACTION_DATA_NOTIFY);
         return intentFilter;
     }
 
@@ -321,16 +313,23 @@ public class DeviceActivity extends AppCompatActivity {
     }
 
     /**
-     * Disconnects from device, closes connection and unbinds service from activity
+     * Unbinds service from activity. The connection is only closed if the service is not running
+     * in foreground mode, otherwise streaming and recording carry on without the activity
      */
     @Override
     protected void onDestroy() {
         super.onDestroy();
         //Log.e(TAG, "ON DESTROY");
-        if (mConnected) {
-            mBleService.disconnect(mDeviceAddress);
+        dismissProgress();
+        if (mBleService != null) {
+            mBleService.removeFrameListener(mFrameDispatcher);
+        }
+        if (mBleService != null && !mBleService.isForeground()) {
+            if (mConnected) {
+                mBleService.disconnect(mDeviceAddress);
+            }
+            mBleService.close();
         }
-        mBleService.close();
         if (mBounded) {
             //Log.d(TAG, "Unbinding service");
             unbindService(mServiceConnection);
@@ -339,295 +338,107 @@ public class DeviceActivity extends AppCompatActivity {
         mBleService = null;
     }
 
+    /**
+     * @return where the pages register to be shown the values of their service
+     */
+    public FrameDispatcher getFrameDispatcher() {
+        return mFrameDispatcher;
+    }
 
     /**
-     * Uses background thread that initializes Gatt services and updates user on status with a dialog
+     * Shows a fragment for each service once BleService has enabled the sensors. Called on discovery, or
+     * straight away when attaching to a service that is already streaming
      *
      * @param gattServices A {@code List} of all the available {@code BluetoothGattService} on the device
      */
-    private void setUpGattServices(final List<BluetoothGattService> gattServices) {
+    private void showSensors(final List<BluetoothGattService> gattServices) {
         if (gattServices == null) return;
+        dismissProgress();
 
-        List<BluetoothGattCharacteristic> charList = new ArrayList<BluetoothGattCharacteristic>();
-
-
-        // Loops through available Gatt services to find number of characteristics
-        for (int i = 0; i < gattServices.size(); i++) {
-            BluetoothGattService s = gattServices.get(i);
-            List<BluetoothGattCharacteristic> c = s.getCharacteristics();
-            if (c.size() > 0) {
-                for (int jj = 0; jj < c.size(); jj++) {
-                    charList.add(c.get(jj));
-                }
-            }
+        int totalCharacteristics = 0;
+        for (BluetoothGattService s : gattServices) {
+            totalCharacteristics += s.getCharacteristics().size();
         }
         //Log.d(TAG, "Total services " + gattServices.size());
-        //Log.d(TAG,"Total characteristics " + charList.size());
-
-
-        // Sets up UI progress dialog to display progress of background thread
-        progressDialog = new ProgressDialog(DeviceActivity.this);
-        progressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
-        progressDialog.setIndeterminate(true);
-        progressDialog.setTitle("Discovering Services");
-        progressDialog.setMessage("");
-        progressDialog.setMax(100);
-        progressDialog.setProgress(0);
-        progressDialog.show();
-
-        Thread worker = new Thread(new Runnable() {
-            @Override
-            public void run() {
-
-                int nrNotificationsOn = 0;
-                int maxNotifications;
-                int servicesDiscovered = 0;
-                int totalCharacteristics = 0;
-
-
-                for (BluetoothGattService s : gattServices) {
-                    List<BluetoothGattCharacteristic> chars = s.getCharacteristics();
-                    totalCharacteristics += chars.size();
+        //Log.d(TAG,"Total characteristics " + totalCharacteristics);
+
+        if (totalCharacteristics == 0) {
+            //Something bad happened, we have a problem
+            AlertDialog.Builder alertDialogBuilder = new AlertDialog.Builder(DeviceActivity.this);
+            alertDialogBuilder.setTitle("Error !");
+            alertDialogBuilder.setMessage(gattServices.size() + " Services found, but no characteristics found, device will be disconnected !");
+            alertDialogBuilder.setPositiveButton("Retry", new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialog, int which) {
+//                    mBtLeService.refreshDeviceCache(mBtGatt);
+//                    //Try again
+//                    discoverServices();
+                    //Log.e(TAG, "FIX THIS");
                 }
-                if (totalCharacteristics == 0) {
-                    //Something bad happened, we have a problem
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            progressDialog.hide();
-                            progressDialog.dismiss();
-                            AlertDialog.Builder alertDialogBuilder = new AlertDialog.Builder(DeviceActivity.this);
-                            alertDialogBuilder.setTitle("Error !");
-                            alertDialogBuilder.setMessage(gattServices.size() + " Services found, but no characteristics found, device will be disconnected !");
-                            alertDialogBuilder.setPositiveButton("Retry", new DialogInterface.OnClickListener() {
-                                @Override
-                                public void onClick(DialogInterface dialog, int which) {
-//                                    mBtLeService.refreshDeviceCache(mBtGatt);
-//                                    //Try again
-//                                    discoverServices();
-                                    //Log.e(TAG, "FIX THIS");
-                                }
-                            });
-                            alertDialogBuilder.setNegativeButton("Disconnect",new DialogInterface.OnClickListener() {
-                                @Override
-                                public void onClick(DialogInterface dialog, int which) {
-                                    mBleService.disconnect(mDeviceAddress);
-                                }
-                            });
-                            AlertDialog a = alertDialogBuilder.create();
-                            a.show();
-                        }
-                    });
-                    return;
+            });
+            alertDialogBuilder.setNegativeButton("Disconnect",new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialog, int which) {
+                    mBleService.stopForegroundMode();
+                    mBleService.disconnect(mDeviceAddress);
                 }
+            });
+            AlertDialog a = alertDialogBuilder.create();
+            a.show();
+            return;
+        }
 
+        if (mSectionsPagerAdapter != null) {
+            // Reconnected after link loss, fragments are already there
+            return;
+        }
 
-                final int final_totalCharacteristics = totalCharacteristics;
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        progressDialog.setIndeterminate(false);
-                        progressDialog.setTitle("Generating GUI");
-                        progressDialog.setMessage("Found a total of " + gattServices.size() + " services with a total of " +
-                                final_totalCharacteristics + " characteristics on this device" );
-
-                    }
-                });
-
-
-                for (int ii = 0; ii < gattServices.size(); ii++) {
-                    BluetoothGattService service = gattServices.get(ii);
-                    List<BluetoothGattCharacteristic> chars = service.getCharacteristics();
-                    if (chars.size() == 0) {
-                        //Log.e(TAG, "No characteristics found for this service !!!");
-                        continue;
-                    }
-                    servicesDiscovered++;
-
-                    final float serviceDiscoveredcalc = (float) servicesDiscovered;
-                    final float serviceTotalcalc = (float) gattServices.size();
-
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            progressDialog.setProgress((int) ((serviceDiscoveredcalc / (serviceTotalcalc - 1)) * 100));
-                        }
-                    });
-
-
-                    String serviceUUID = service.getUuid().toString();
-                    //Log.d("DeviceActivity", "Configuring service with uuid : " + serviceUUID);
-
-
-                    /*
-                     One would hope that after executing those two functions the onCharacteristicChanged
-                     callbacks would start rolling in. But there is one major detail missing. You need
-                     to wait for your first onCharacteristicWrite callback before issuing a new write.
-                     You can't do two writes immediately after each other. The Android BLE stack can only
-                     handle one "remote" request at a time, meaning that if you do a write immediately
-                     after another write the second request will be silently ignored. You can solve this
-                     by either creating a queue for the API calls that require remote callbacks, or sleep
-                     a short while between calls. See /src/com/ti/sensortag/ble/WriteQueue.java for
-                     how the SensorTag app handles this issue.
-                     */
-
-                    /*
-                     * NB: ACC, MAG, GYR are never found since they are included in the MOV sensor
-                     */
-                    if (serviceUUID.compareTo(SensorTagGatt.UUID_IRT_SERV.toString()) == 0)
-                    {
-                        //Log.d(TAG, "IR TEMP FOUND (both ambient and infrared");
-                        mBleService.enableNotifications(service, SensorTagGatt.UUID_IRT_DATA);
-                        safeSleep();
-                        mBleService.enableService(service, SensorTagGatt.UUID_IRT_CONF);
-                        safeSleep();
-
-                    } else if (serviceUUID.compareTo(SensorTagGatt.UUID_ACC_SERV.toString()) == 0)
-                    {
-                        //Log.d(TAG, "ACCEL FOUND");
-                        //see movement
-
-                    } else if (serviceUUID.compareTo(SensorTagGatt.UUID_HUM_SERV.toString()) == 0)
-                    {
-                        //Log.d(TAG, "HUMIDITY FOUND");
-                        mBleService.enableNotifications(service, SensorTagGatt.UUID_HUM_DATA);
-                        safeSleep();
-                        mBleService.enableService(service, SensorTagGatt.UUID_HUM_CONF);
-                        safeSleep();
-
-                    } else if (serviceUUID.compareTo(SensorTagGatt.UUID_MAG_SERV.toString()) == 0)
-                    {
-                        //Log.d(TAG, "MAGNETOMETER FOUND");
-                        //see movement
-
-                    } else if (serviceUUID.compareTo(SensorTagGatt.UUID_OPT_SERV.toString()) == 0)
-                    {
-                        //Log.d(TAG, "OPTICAL SENSOR  (LUXOMETER) FOUND");
-                        mBleService.enableNotifications(service, SensorTagGatt.UUID_OPT_DATA);
-                        safeSleep();
-                        mBleService.enableService(service, SensorTagGatt.UUID_OPT_CONF);
-                        safeSleep();
-
-                    } else if (serviceUUID.compareTo(SensorTagGatt.UUID_BAR_SERV.toString()) == 0)
-                    {
-                        //Log.d(TAG, "BAROMETER FOUND");
-                        mBleService.enableNotifications(service, SensorTagGatt.UUID_BAR_DATA);
-                        safeSleep();
-                        mBleService.enableService(service, SensorTagGatt.UUID_BAR_CONF);
-                        safeSleep();
-
-                    } else if (serviceUUID.compareTo(SensorTagGatt.UUID_GYR_SERV.toString()) == 0)
-                    {
-                        //Log.d(TAG, "GYROSCOPE FOUND");
-                        //see movement
-
-                    } else if (serviceUUID.compareTo(SensorTagGatt.UUID_MOV_SERV.toString()) == 0)
-                    {
-                        //Log.d(TAG, "MOTION SENSOR FOUND");
-                        mBleService.enableNotifications(service, SensorTagGatt.UUID_MOV_DATA);
-                        safeSleep();
-                        mBleService.enableMotionService(service, SensorTagGatt.UUID_MOV_CONF, true);
-                        safeSleep();
-
-                    } else if (serviceUUID.compareTo(SensorTagGatt.UUID_KEY_SERV.toString()) == 0)
-                    {
-                        //Log.d(TAG, "KEYS FOUND");
-
-                        //Notify only service. No read or write
-                        mBleService.enableNotifications(service, SensorTagGatt.UUID_KEY_DATA);
-                        safeSleep();
-
-                    } else if (serviceUUID.compareTo("0000ffb0-0000-1000-8000-00805f9b34fb") == 0)
-                    {
-                        //Log.d(TAG, "Light service UUID FOUND");
-
-                    } else if (serviceUUID.compareTo("f000ad00-0451-4000-b000-000000000000")==0)
-                    {
-                        //Log.d(TAG, "Display service found");
-
-                    } else if (serviceUUID.compareTo("f000ffc0-0451-4000-b000-000000000000") == 0)
-                    {
-                        //Log.d(TAG, "TIOAD service found");
-
-                    } else if (serviceUUID.compareTo(SensorTagGatt.UUID_TST_SERV.toString()) == 0)
-                    {
-                        //Log.d(TAG, "IO SERVICE FOUND");
-                        mBleService.enableService(service, SensorTagGatt.UUID_TST_CONF);
-                        safeSleep();
-
-                    } else if (serviceUUID.compareTo("f000ccc0-0451-4000-b000-000000000000") == 0)
-                    {
-                        //Log.d(TAG, "OAD service found");
-
-                    } else {
-                        //Log.e(TAG, "Unknown service");
-                    }
-
-                }
-
-                final int numOfFragments = 7;
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        progressDialog.setTitle("Enabling Services");
-                        progressDialog.setMax(numOfFragments);
-                        progressDialog.setProgress(0);
-
-                        // Create the adapter that will return a fragment for each data in database
-                        mSectionsPagerAdapter = new SectionsPagerAdapter(getSupportFragmentManager());
-
-                        // Set up the ViewPager with the sections adapter.
-                        mViewPager = (ViewPager) findViewById(R.id.container);
-                        mViewPager.setAdapter(mSectionsPagerAdapter);
-
-                        //two fragments on either side; not applicable for small datasets
-                        mViewPager.setOffscreenPageLimit(2);
-                    }
-                });
-                for (int i = 0; i < numOfFragments; i++) {
-
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            progressDialog.setProgress(progressDialog.getProgress() + 1);
-                        }
-                    });
-
-                }
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-
-                        progressDialog.hide();
-                        progressDialog.dismiss();
-                    }
-                });
-
-                /*
-                 * Fixes situation where turns on all IO after connection
-                 */
-                mBleService.changeIO(mBleService.getCharacteristicFromUUID(SensorTagGatt.UUID_TST_DATA.toString()), new byte[]{0});
+        // Create the adapter that will return a fragment for each service the app has a profile for
+        List<UUID> services = new ArrayList<>();
+        for (BluetoothGattService s : gattServices) {
+            services.add(s.getUuid());
+        }
+        List<SensorProfile> profiles = SensorProfiles.getDefault().getProfiles(services);
+        mSectionsPagerAdapter = new SectionsPagerAdapter(getSupportFragmentManager(), profiles);
 
+        // Set up the ViewPager with the sections adapter.
+        mViewPager = (ViewPager) findViewById(R.id.container);
+        mViewPager.setAdapter(mSectionsPagerAdapter);
 
+        //two fragments on either side; not applicable for small datasets
+        mViewPager.setOffscreenPageLimit(2);
+    }
 
-            }
-        });
-        worker.start();
+    /**
+     * Shown from connecting until BleService reports the sensors are enabled
+     */
+    private void showProgress() {
+        if (progressDialog != null) return;
+        progressDialog = new ProgressDialog(DeviceActivity.this);
+        progressDialog.setIndeterminate(true);
+        progressDialog.setTitle("Discovering Services");
+        progressDialog.setMessage("Enabling sensors");
+        progressDialog.show();
+    }
 
+    private void dismissProgress() {
+        if (progressDialog == null) return;
+        progressDialog.dismiss();
+        progressDialog = null;
     }
 
     /**
-     * Sleeps thread so all tasks in the BLE stack can be performed
+     * Started intent that keeps BleService, and with it the connection, running after this activity
+     * goes away
      */
-    private void safeSleep() {
-        try {
-            //Log.d(TAG, "start sleep");
-            Thread.sleep(200);
-            //Log.d(TAG, "end sleep");
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+    private Intent makeServiceIntent() {
+        Intent intent = new Intent(DeviceActivity.this, BleService.class);
+        intent.setAction(BleService.ACTION_START_FOREGROUND);
+        intent.putExtra(IntentNames.EXTRAS_DEVICE_NAME, mDeviceName);
+        intent.putExtra(IntentNames.EXTRAS_DEVICE_ADDRESS, mDeviceAddress);
+        return intent;
     }
 
 
+
 }
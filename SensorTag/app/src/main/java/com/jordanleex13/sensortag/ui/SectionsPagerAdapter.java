@@ -4,16 +4,12 @@ import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
 import android.support.v4.app.FragmentStatePagerAdapter;
 
-import com.jordanleex13.sensortag.profiles.BarometerFragment;
-import com.jordanleex13.sensortag.profiles.HumidityFragment;
-import com.jordanleex13.sensortag.profiles.IOFragment;
-import com.jordanleex13.sensortag.profiles.KeysFragment;
-import com.jordanleex13.sensortag.profiles.MotionFragment;
-import com.jordanleex13.sensortag.profiles.OpticalFragment;
-import com.jordanleex13.sensortag.profiles.TemperatureFragment;
+import com.jordanleex13.sensortag.profiles.SensorProfile;
+
+import java.util.List;
 
 /**
- * Displays data fragments for each service in the SensorTag
+ * Displays data fragments for each service in the SensorTag, one page per {@link SensorProfile}
  *
  * @author Jordan Lee
  * @since 16-06-07
@@ -22,8 +18,14 @@ public class SectionsPagerAdapter extends FragmentStatePagerAdapter {
 
     //private static final String TAG = SectionsPagerAdapter.class.getSimpleName();
 
-    public SectionsPagerAdapter(FragmentManager fm) {
+    private final List<SensorProfile> mProfiles;
+
+    /**
+     * @param profiles  Profiles of the services found on the tag, in page order
+     */
+    public SectionsPagerAdapter(FragmentManager fm, List<SensorProfile> profiles) {
         super(fm);
+        mProfiles = profiles;
         //Log.d(TAG, "Constructor for adapter");
     }
 
@@ -37,34 +39,16 @@ public class SectionsPagerAdapter extends FragmentStatePagerAdapter {
     public Fragment getItem(int position) {
         //Log.d(TAG, "Get item: " + position);
 
-        switch (position) {
-
-            case 0:
-                return MotionFragment.newInstance(position);
-            case 1:
-                return OpticalFragment.newInstance(position);
-            case 2:
-                return TemperatureFragment.newInstance(position);
-            case 3:
-                return KeysFragment.newInstance(position);
-            case 4:
-                return IOFragment.newInstance(position);
-            case 5:
-                return BarometerFragment.newInstance(position);
-            case 6:
-                return HumidityFragment.newInstance(position);
-
-
-            default:
-                return null;
+        if (position < 0 || position >= mProfiles.size()) {
+            return null;
         }
-
+        return mProfiles.get(position).newFragment(position);
     }
 
 
     @Override
     public int getCount() {
-        return 7;
+        return mProfiles.size();
     }
 
 }
@@ -0,0 +1,469 @@
+package com.jordanleex13.sensortag.upload;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.processing.SampleListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Pipeline stage that forwards samples to an HTTP collector.
+ *
+ * Samples are encoded into a {@link SampleBatch} as they arrive. A batch is closed when it holds
+ * {@code maxSamples} samples or its first sample is {@code maxDelayMillis} old, whichever comes first, and
+ * is then gzipped and POSTed by a small fixed pool of sender threads. Closed batches wait in a bounded
+ * queue; if the senders fall that far behind, the oldest waiting batch is handed to a spool thread that
+ * writes it straight to the spool. If that thread falls behind as well, the batch is dropped.
+ *
+ * A batch that cannot be delivered is written to the spool directory and a retry timer resends spooled
+ * batches, oldest first, until the collector accepts them. The spool is capped at {@code maxSpoolBytes}
+ * by deleting the oldest files. onSample() only encodes into memory and hands batches over, so a slow or
+ * unreachable collector or a slow disk never holds up the BLE callback thread.
+ */
+public class BatchUploader implements SampleListener {
+
+    public static final int DEFAULT_MAX_SAMPLES = 500;
+    public static final long DEFAULT_MAX_DELAY = 2000;
+    public static final int DEFAULT_CONCURRENCY = 2;
+    public static final long DEFAULT_MAX_SPOOL_BYTES = 64L * 1024 * 1024;
+    public static final long RETRY_INTERVAL = 5000;
+
+    private static final int PENDING_BATCHES = 32;
+    private static final int SPILLED_BATCHES = 128;    // About 1 MB of raw batches at the default size
+    private static final int TIMEOUT = 10000;
+    private static final String SPOOL_SUFFIX = ".gz";
+
+    private final URL mUrl;
+    private final File mSpool;
+    private final int mMaxSamples;
+    private final long mMaxDelayNanos;
+    private final long mMaxSpoolBytes;
+    private final ThreadPoolExecutor mSenders;
+    private final ThreadPoolExecutor mSpooler;      // Writes batches that did not fit in the send queue
+    private final ScheduledExecutorService mTimer;
+    private final ScheduledExecutorService mRetryTimer;   // Separate so slow retries never delay closing batches
+    private final AtomicLong mSpoolSequence = new AtomicLong(System.currentTimeMillis() * 1000);
+
+    private final SampleBatch mBatch = new SampleBatch();
+
+    private final AtomicLong mSentBatches = new AtomicLong();
+    private final AtomicLong mSentSamples = new AtomicLong();
+    private final AtomicLong mRawBytes = new AtomicLong();
+    private final AtomicLong mSentBytes = new AtomicLong();
+    private final AtomicLong mFailedPosts = new AtomicLong();
+    private final AtomicLong mSpooledBatches = new AtomicLong();
+    private final AtomicLong mDroppedBatches = new AtomicLong();
+    private final AtomicLong mLatencySum = new AtomicLong();
+    private final AtomicLong mLatencyMax = new AtomicLong();
+    private final AtomicLong mLatencyCount = new AtomicLong();
+
+    public BatchUploader(URL url, File spoolDirectory) {
+        this(url, spoolDirectory, DEFAULT_MAX_SAMPLES, DEFAULT_MAX_DELAY, DEFAULT_CONCURRENCY,
+                DEFAULT_MAX_SPOOL_BYTES, RETRY_INTERVAL);
+    }
+
+    /**
+     * @param url               Collector endpoint, receives one POST per batch
+     * @param spoolDirectory    Where undelivered batches are kept
+     * @param maxSamples        Samples per batch
+     * @param maxDelayMillis    Longest time a sample waits for its batch to fill up
+     * @param concurrency       Number of POSTs in flight at most
+     * @param maxSpoolBytes     Disk space for undelivered batches
+     * @param retryMillis       Interval between attempts to resend spooled batches
+     */
+    public BatchUploader(URL url, File spoolDirectory, int maxSamples, long maxDelayMillis, int concurrency,
+                         long maxSpoolBytes, long retryMillis) {
+        mUrl = url;
+        mSpool = spoolDirectory;
+        mMaxSamples = maxSamples;
+        mMaxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        mMaxSpoolBytes = maxSpoolBytes;
+        if (!mSpool.isDirectory() && !mSpool.mkdirs()) {
+            //Log.e(TAG, "Cannot create spool " + mSpool);
+        }
+
+        mSpooler = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(SPILLED_BATCHES), daemon("BatchUploader-spool"),
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        mDroppedBatches.incrementAndGet();
+                    }
+                });
+        mSenders = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(PENDING_BATCHES), daemon("BatchUploader-send"),
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        // Runs on the thread closing the batch, with it locked: only hands batches over
+                        Send oldest = (Send) executor.getQueue().poll();
+                        if (oldest != null) {
+                            mSpooler.execute(oldest.spill);
+                        }
+                        if (executor.isShutdown()) {
+                            mSpooler.execute(((Send) r).spill);
+                        } else {
+                            executor.execute(r);
+                        }
+                    }
+                });
+        mTimer = Executors.newSingleThreadScheduledExecutor(daemon("BatchUploader-timer"));
+        long tick = Math.max(10, maxDelayMillis / 4);
+        mTimer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                closeIfOlderThan(mMaxDelayNanos);
+            }
+        }, tick, tick, TimeUnit.MILLISECONDS);
+        mRetryTimer = Executors.newSingleThreadScheduledExecutor(daemon("BatchUploader-retry"));
+        mRetryTimer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                resendSpooled();
+            }
+        }, retryMillis, retryMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static ThreadFactory daemon(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    @Override
+    public void onSample(int deviceId, SensorConversion sensor, long timestamp, float[] values) {
+        synchronized (mBatch) {
+            mBatch.add(deviceId, sensor, timestamp, values);
+            if (mBatch.getCount() >= mMaxSamples) {
+                closeBatch();
+            }
+        }
+    }
+
+    private void closeIfOlderThan(long nanos) {
+        synchronized (mBatch) {
+            if (mBatch.getCount() > 0 && System.nanoTime() - mBatch.getCreatedNanos() >= nanos) {
+                closeBatch();
+            }
+        }
+    }
+
+    /**
+     * Hands the current batch to the senders. Called with the batch locked
+     */
+    private void closeBatch() {
+        mSenders.execute(new Send(mBatch.toByteArray(), mBatch.getCount(), mBatch.getCreatedNanos()));
+        mBatch.reset();
+    }
+
+    /**
+     * A closed batch waiting for a sender
+     */
+    private class Send implements Runnable {
+        final byte[] raw;
+        final int count;
+        final long createdNanos;
+
+        Send(byte[] raw, int count, long createdNanos) {
+            this.raw = raw;
+            this.count = count;
+            this.createdNanos = createdNanos;
+        }
+
+        @Override
+        public void run() {
+            byte[] body = gzipOrNull(raw);
+            if (body == null) {
+                return;
+            }
+            if (post(body)) {
+                mSentBatches.incrementAndGet();
+                mSentSamples.addAndGet(count);
+                mSentBytes.addAndGet(body.length);
+                long latency = System.nanoTime() - createdNanos;
+                mLatencySum.addAndGet(latency);
+                mLatencyCount.incrementAndGet();
+                long max;
+                while (latency > (max = mLatencyMax.get()) && !mLatencyMax.compareAndSet(max, latency)) {
+                    // Retry until the larger value is in
+                }
+            } else {
+                spool(body);
+            }
+        }
+
+        /**
+         * Skips the POST, for batches that did not fit in the send queue. Run by the spool thread.
+         */
+        final Runnable spill = new Runnable() {
+            @Override
+            public void run() {
+                byte[] body = gzipOrNull(raw);
+                if (body != null) {
+                    spool(body);
+                }
+            }
+        };
+    }
+
+    private byte[] gzipOrNull(byte[] raw) {
+        mRawBytes.addAndGet(raw.length);
+        try {
+            return gzip(raw);
+        } catch (IOException e) {
+            e.printStackTrace();
+            mDroppedBatches.incrementAndGet();
+            return null;
+        }
+    }
+
+    private static byte[] gzip(byte[] raw) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(raw.length / 3 + 64);
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(raw);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return true if the collector accepted the batch
+     */
+    private boolean post(byte[] body) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) mUrl.openConnection();
+            connection.setConnectTimeout(TIMEOUT);
+            connection.setReadTimeout(TIMEOUT);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/octet-stream");
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            connection.setFixedLengthStreamingMode(body.length);
+            OutputStream out = connection.getOutputStream();
+            out.write(body);
+            out.close();
+
+            int code = connection.getResponseCode();
+            InputStream in = code < 400 ? connection.getInputStream() : connection.getErrorStream();
+            if (in != null) {
+                byte[] skip = new byte[256];
+                while (in.read(skip) != -1) {
+                    // Drain so the connection can be reused
+                }
+                in.close();
+            }
+            if (code / 100 == 2) {
+                return true;
+            }
+            //Log.w(TAG, "Collector answered " + code);
+        } catch (IOException e) {
+            //Log.w(TAG, "Upload failed: " + e);
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+        mFailedPosts.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Saves an undelivered batch. Written under a temporary name so the retry timer never picks up a
+     * partial file
+     */
+    private void spool(byte[] body) {
+        String name = String.format(Locale.US, "%019d", mSpoolSequence.incrementAndGet());
+        File tmp = new File(mSpool, name + ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(new File(mSpool, name + SPOOL_SUFFIX))) {
+                throw new IOException("Cannot rename " + tmp);
+            }
+            mSpooledBatches.incrementAndGet();
+        } catch (IOException e) {
+            e.printStackTrace();
+            tmp.delete();
+            mDroppedBatches.incrementAndGet();
+            return;
+        }
+        trimSpool();
+    }
+
+    private synchronized File[] spooledFiles() {
+        File[] files = mSpool.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        int n = 0;
+        for (File f : files) {
+            if (f.getName().endsWith(SPOOL_SUFFIX)) files[n++] = f;
+        }
+        files = Arrays.copyOf(files, n);
+        Arrays.sort(files);     // Names are zero padded sequence numbers
+        return files;
+    }
+
+    private void trimSpool() {
+        File[] files = spooledFiles();
+        long total = 0;
+        for (File f : files) total += f.length();
+        for (int i = 0; i < files.length && total > mMaxSpoolBytes; i++) {
+            total -= files[i].length();
+            if (files[i].delete()) {
+                mSpooledBatches.decrementAndGet();
+                mDroppedBatches.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Resends spooled batches oldest first, stopping at the first failure
+     */
+    private void resendSpooled() {
+        for (File f : spooledFiles()) {
+            byte[] body;
+            try {
+                body = readFile(f);
+            } catch (IOException e) {
+                // Trimmed meanwhile
+                continue;
+            }
+            if (!post(body)) {
+                return;
+            }
+            if (f.delete()) {
+                mSpooledBatches.decrementAndGet();
+            }
+            mSentBatches.incrementAndGet();
+            mSentBytes.addAndGet(body.length);
+        }
+    }
+
+    private static byte[] readFile(File f) throws IOException {
+        byte[] b = new byte[(int) f.length()];
+        InputStream in = new FileInputStream(f);
+        try {
+            int n = 0;
+            while (n < b.length) {
+                int r = in.read(b, n, b.length - n);
+                if (r < 0) throw new IOException("Truncated " + f);
+                n += r;
+            }
+        } finally {
+            in.close();
+        }
+        return b;
+    }
+
+    /**
+     * Closes the open batch now instead of waiting for it to fill up or time out
+     */
+    public void flush() {
+        closeIfOlderThan(0);
+    }
+
+    /**
+     * Sends the open batch and waits up to {@code timeoutMillis} for the senders, the spool thread and a
+     * resend in progress to finish. Batches that are still undelivered stay in the spool for the next
+     * uploader using the same directory.
+     */
+    public void close(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        flush();
+        mTimer.shutdownNow();
+        mRetryTimer.shutdown();
+        mSenders.shutdown();
+        mSenders.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        mSpooler.shutdown();
+        mSpooler.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        mRetryTimer.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        mRetryTimer.shutdownNow();
+    }
+
+    /**
+     * Batches accepted by the collector, including resent ones
+     */
+    public long getSentBatches() {
+        return mSentBatches.get();
+    }
+
+    /**
+     * Samples accepted by the collector on the first attempt
+     */
+    public long getSentSamples() {
+        return mSentSamples.get();
+    }
+
+    /**
+     * Encoded size before gzip of the batches handed to the senders
+     */
+    public long getRawBytes() {
+        return mRawBytes.get();
+    }
+
+    /**
+     * Gzipped bytes accepted by the collector
+     */
+    public long getSentBytes() {
+        return mSentBytes.get();
+    }
+
+    public long getFailedPosts() {
+        return mFailedPosts.get();
+    }
+
+    /**
+     * Batches currently waiting in the spool
+     */
+    public long getSpooledBatches() {
+        return mSpooledBatches.get();
+    }
+
+    /**
+     * Batches lost because the spool was full or could not be written
+     */
+    public long getDroppedBatches() {
+        return mDroppedBatches.get();
+    }
+
+    /**
+     * @return mean time from the first sample of a batch to its acknowledgement, for batches delivered on
+     *         the first attempt
+     */
+    public double getMeanLatencyMillis() {
+        long n = mLatencyCount.get();
+        return n == 0 ? 0 : mLatencySum.get() / 1e6 / n;
+    }
+
+    public double getMaxLatencyMillis() {
+        return mLatencyMax.get() / 1e6;
+    }
+}
@@ -0,0 +1,68 @@
+package com.jordanleex13.sensortag.upload;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.wire.SampleEncoder;
+import com.jordanleex13.sensortag.wire.SampleFormat;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Samples collected for one upload, encoded as they arrive into a growable buffer.
+ *
+ * The body is a {@link SampleFormat} stream of decoded records: the header followed by one record per
+ * sample. Timestamp deltas of a live stream fit in one or two bytes, so a three channel sample takes
+ * 18 or 19 bytes before gzip.
+ */
+class SampleBatch {
+
+    private ByteBuffer mBuffer = ByteBuffer.allocate(4096);
+    private final SampleEncoder mEncoder = new SampleEncoder(mBuffer);
+    private int mCount;
+    private long mCreatedNanos;
+
+    SampleBatch() {
+        reset();
+    }
+
+    void reset() {
+        mBuffer.clear();
+        SampleFormat.writeHeader(mBuffer);
+        mEncoder.reset();
+        mCount = 0;
+        mCreatedNanos = 0;
+    }
+
+    void add(int deviceId, SensorConversion sensor, long timestamp, float[] values) {
+        if (mCount == 0) {
+            mCreatedNanos = System.nanoTime();
+        }
+        while (!mEncoder.write(deviceId, sensor, timestamp, values)) {
+            ByteBuffer larger = ByteBuffer.allocate(mBuffer.capacity() * 2);
+            mBuffer.flip();
+            larger.put(mBuffer);
+            mBuffer = larger;
+            mEncoder.setBuffer(larger);
+        }
+        mCount++;
+    }
+
+    int getCount() {
+        return mCount;
+    }
+
+    int getLength() {
+        return mBuffer.position();
+    }
+
+    /**
+     * @return {@code System.nanoTime()} when the first sample was added
+     */
+    long getCreatedNanos() {
+        return mCreatedNanos;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(mBuffer.array(), mBuffer.position());
+    }
+}
@@ -0,0 +1,160 @@
+package com.jordanleex13.sensortag.wire;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.SensorTag.SensorTagUtil;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.UUID;
+
+/**
+ * Reads records in the {@link SampleFormat} from a {@code ByteBuffer}. Payloads are not copied: the
+ * accessors read the current record in place, so they are only valid until the next call to {@link #next()}.
+ *
+ * <pre>
+ *     SampleDecoder d = new SampleDecoder(buffer);
+ *     while (d.next()) {
+ *         if (d.isDecoded()) use(d.getSensor(), d.getTimestamp(), d.getValue(0));
+ *     }
+ * </pre>
+ */
+public class SampleDecoder {
+
+    private final ByteBuffer mBuffer;
+    private long mTimestamp;
+    private int mDeviceId;
+    private int mShortUuid;
+    private int mKind;
+    private int mVariant;
+    private int mPayloadOffset;
+    private int mPayloadLength;
+    private int mChannels;
+
+    /**
+     * @param buffer    Records from its position to its limit, without the stream header. See
+     *                  {@link SampleFormat#readHeader(ByteBuffer)}. Its byte order is set to big endian.
+     */
+    public SampleDecoder(ByteBuffer buffer) {
+        mBuffer = buffer;
+        mBuffer.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Moves to the next record
+     *
+     * @return false at the end of the buffer
+     */
+    public boolean next() throws IOException {
+        if (!mBuffer.hasRemaining()) {
+            return false;
+        }
+        try {
+            int flags = mBuffer.get() & 0xFF;
+            if ((flags & SampleFormat.RESERVED_MASK) != 0) {
+                throw new IOException("Bad record flags " + flags + " at " + (mBuffer.position() - 1));
+            }
+            mKind = flags & SampleFormat.KIND_MASK;
+            mVariant = flags >>> SampleFormat.VARIANT_SHIFT;
+            mDeviceId = (int) getVarint();
+            mShortUuid = mBuffer.getShort() & 0xFFFF;
+            long delta = getVarint();
+            mTimestamp += (delta >>> 1) ^ -(delta & 1);
+
+            if (mKind == SampleFormat.KIND_RAW) {
+                mPayloadLength = (int) getVarint();
+                mChannels = 0;
+            } else if (mKind == SampleFormat.KIND_DECODED) {
+                mChannels = mBuffer.get() & 0xFF;
+                mPayloadLength = 4 * mChannels;
+            } else {
+                throw new IOException("Unknown payload kind " + mKind);
+            }
+            mPayloadOffset = mBuffer.position();
+            mBuffer.position(mPayloadOffset + mPayloadLength);
+            return true;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Truncated record", e);
+        }
+    }
+
+    private long getVarint() throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = mBuffer.get();
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return v;
+        }
+        throw new IOException("Varint too long");
+    }
+
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public int getDeviceId() {
+        return mDeviceId;
+    }
+
+    public int getShortUuid() {
+        return mShortUuid;
+    }
+
+    public UUID getUuid() {
+        return SensorTagUtil.fromShortUuid(mShortUuid);
+    }
+
+    /**
+     * @return true if the payload is decoded values, false if it is the characteristic value as received
+     */
+    public boolean isDecoded() {
+        return mKind == SampleFormat.KIND_DECODED;
+    }
+
+    /**
+     * @return the sensor of a decoded record, or null for raw records and sensors this build does not know
+     */
+    public SensorConversion getSensor() {
+        return mKind == SampleFormat.KIND_DECODED ? SampleFormat.sensor(mShortUuid, mVariant) : null;
+    }
+
+    public int getChannelCount() {
+        return mChannels;
+    }
+
+    public float getValue(int channel) {
+        return mBuffer.getFloat(mPayloadOffset + 4 * channel);
+    }
+
+    /**
+     * Copies the decoded values into {@code out} from {@code offset} on
+     */
+    public void getValues(float[] out, int offset) {
+        for (int c = 0; c < mChannels; c++) {
+            out[offset + c] = mBuffer.getFloat(mPayloadOffset + 4 * c);
+        }
+    }
+
+    public int getPayloadLength() {
+        return mPayloadLength;
+    }
+
+    /**
+     * Copies a raw payload into {@code out}, which must hold {@link #getPayloadLength()} bytes from {@code offset}
+     */
+    public void getRaw(byte[] out, int offset) {
+        for (int i = 0; i < mPayloadLength; i++) {
+            out[offset + i] = mBuffer.get(mPayloadOffset + i);
+        }
+    }
+
+    /**
+     * @return a view of the payload that shares the underlying buffer
+     */
+    public ByteBuffer getPayload() {
+        ByteBuffer view = mBuffer.duplicate();
+        view.limit(mPayloadOffset + mPayloadLength).position(mPayloadOffset);
+        return view.slice();
+    }
+}
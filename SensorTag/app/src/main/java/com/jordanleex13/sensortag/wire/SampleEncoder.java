@@ -0,0 +1,108 @@
+package com.jordanleex13.sensortag.wire;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.SensorTag.SensorTagUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.UUID;
+
+/**
+ * Writes records in the {@link SampleFormat} straight into a {@code ByteBuffer}, heap or direct, without
+ * intermediate arrays. A record is only written if it fits entirely, so a caller can send or grow the
+ * buffer and write the same sample again.
+ */
+public class SampleEncoder {
+
+    private ByteBuffer mBuffer;
+    private long mPreviousTimestamp;
+
+    /**
+     * @param buffer    Destination, written from its position on. Its byte order is set to big endian.
+     */
+    public SampleEncoder(ByteBuffer buffer) {
+        setBuffer(buffer);
+    }
+
+    /**
+     * Continues the stream in another buffer, eg. a larger copy of the current one
+     */
+    public void setBuffer(ByteBuffer buffer) {
+        mBuffer = buffer;
+        mBuffer.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    public ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    /**
+     * Starts a new stream: the next timestamp is written relative to 0
+     */
+    public void reset() {
+        mPreviousTimestamp = 0;
+    }
+
+    /**
+     * Writes a decoded sample
+     *
+     * @return false, leaving the buffer untouched, if the record does not fit
+     */
+    public boolean write(int deviceId, SensorConversion sensor, long timestamp, float[] values) {
+        int channels = sensor.getChannelCount();
+        long delta = zigzag(timestamp - mPreviousTimestamp);
+        int length = 1 + SampleFormat.varintLength(deviceId & 0xFFFFFFFFL) + 2 + SampleFormat.varintLength(delta)
+                + 1 + 4 * channels;
+        if (mBuffer.remaining() < length) {
+            return false;
+        }
+        mBuffer.put((byte) (SampleFormat.KIND_DECODED | SampleFormat.variant(sensor) << SampleFormat.VARIANT_SHIFT));
+        putVarint(deviceId & 0xFFFFFFFFL);
+        mBuffer.putShort((short) SampleFormat.shortUuid(sensor));
+        putVarint(delta);
+        mBuffer.put((byte) channels);
+        for (int c = 0; c < channels; c++) {
+            mBuffer.putFloat(values[c]);
+        }
+        mPreviousTimestamp = timestamp;
+        return true;
+    }
+
+    /**
+     * Writes a characteristic value as received
+     *
+     * @return false, leaving the buffer untouched, if the record does not fit
+     */
+    public boolean writeRaw(int deviceId, UUID uuid, long timestamp, byte[] value) {
+        return writeRaw(deviceId, SensorTagUtil.toShortUuid(uuid), timestamp, value, 0, value.length);
+    }
+
+    public boolean writeRaw(int deviceId, int shortUuid, long timestamp, byte[] value, int offset, int count) {
+        long delta = zigzag(timestamp - mPreviousTimestamp);
+        int length = 1 + SampleFormat.varintLength(deviceId & 0xFFFFFFFFL) + 2 + SampleFormat.varintLength(delta)
+                + SampleFormat.varintLength(count) + count;
+        if (mBuffer.remaining() < length) {
+            return false;
+        }
+        mBuffer.put((byte) SampleFormat.KIND_RAW);
+        putVarint(deviceId & 0xFFFFFFFFL);
+        mBuffer.putShort((short) shortUuid);
+        putVarint(delta);
+        putVarint(count);
+        mBuffer.put(value, offset, count);
+        mPreviousTimestamp = timestamp;
+        return true;
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private void putVarint(long v) {
+        while ((v & ~0x7FL) != 0) {
+            mBuffer.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        mBuffer.put((byte) v);
+    }
+}
@@ -0,0 +1,60 @@
+package com.jordanleex13.sensortag;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Timing and output for the benchmark classes, named {@code *Benchmark}. They are not part of the unit test
+ * run and only report numbers; run them with {@code ./gradlew testDebugUnitTest -Pbenchmarks}.
+ */
+public final class Benchmarks {
+
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Runs {@code task} {@code rounds} times, so the first rounds warm up the JIT
+     *
+     * @return nanoseconds taken by the fastest round
+     */
+    public static long best(int rounds, Task task) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    public static void report(String format, Object... args) {
+        System.out.println(String.format(Locale.US, format, args));
+    }
+
+    /**
+     * @return a new empty directory for the files of one benchmark
+     */
+    public static File tempDir(String prefix) throws IOException {
+        File dir = File.createTempFile(prefix, "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        return dir;
+    }
+
+    /**
+     * Deletes a directory made by {@link #tempDir(String)} with the files in it
+     */
+    public static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,198 @@
+package com.jordanleex13.sensortag.SensorTag;
+
+import com.jordanleex13.sensortag.processing.SampleListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Stand-in for a tag in tests: produces decoded samples from scripted signals at the period currently set
+ * for each period characteristic, the way the firmware schedules notifications, and counts the radio
+ * traffic that would take.
+ *
+ * Sensors sharing a period characteristic (the movement sensors) are sent together in one notification.
+ */
+public class SensorTagSimulator {
+
+    /**
+     * Value of a sensor at a time. {@code out} has the sensor's channel count.
+     */
+    public interface Signal {
+        void sample(long timestamp, float[] out);
+    }
+
+    /**
+     * Receives the raw notifications of {@link #runFrames}
+     */
+    public interface FrameSink {
+        void onFrame(int deviceId, UUID data, long timestamp, byte[] value);
+    }
+
+    private static class Stream {
+        final UUID mPeriodUuid;
+        final List<SensorConversion> mSensors = new ArrayList<>();
+        final List<Signal> mSignals = new ArrayList<>();
+        int mPeriod;
+        long mNext;
+        long mNotifications;
+        long mBytes;
+        int mFrameLength;
+        UUID mData;
+        byte[] mFrame;
+
+        Stream(UUID periodUuid, int period) {
+            mPeriodUuid = periodUuid;
+            mPeriod = period;
+        }
+    }
+
+    private final List<Stream> mStreams = new ArrayList<>();
+    private final int mDeviceId;
+    private long mNow;
+
+    public SensorTagSimulator(int deviceId) {
+        mDeviceId = deviceId;
+    }
+
+    /**
+     * @return bytes of the data characteristic of a sensor on a CC2650 tag
+     */
+    public static int frameLength(SensorConversion sensor) {
+        switch (sensor) {
+            case MOVEMENT_ACC:
+            case MOVEMENT_GYRO:
+            case MOVEMENT_MAG:
+                return 18;
+            case BAROMETER:
+                return 6;
+            case LUXOMETER:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+
+    /**
+     * Turns on a sensor at {@code periodMillis}. A sensor sharing the period of one already added uses that
+     * stream and its period.
+     */
+    public void add(SensorConversion sensor, int periodMillis, Signal signal) {
+        Stream stream = stream(sensor.getPeriod());
+        if (stream == null) {
+            stream = new Stream(sensor.getPeriod(), periodMillis);
+            stream.mFrameLength = frameLength(sensor);
+            stream.mData = sensor.getData();
+            stream.mFrame = new byte[stream.mFrameLength];
+            mStreams.add(stream);
+        }
+        stream.mSensors.add(sensor);
+        stream.mSignals.add(signal);
+    }
+
+    private Stream stream(UUID periodUuid) {
+        for (Stream s : mStreams) {
+            if (s.mPeriodUuid.equals(periodUuid)) return s;
+        }
+        return null;
+    }
+
+    /**
+     * Period write. Like the firmware, the sensor clock restarts, so the next notification is one new period
+     * after the write.
+     */
+    public void setPeriod(UUID periodCharacteristic, int periodMillis) {
+        Stream s = stream(periodCharacteristic);
+        if (s != null) {
+            s.mNext = mNow + periodMillis;
+            s.mPeriod = periodMillis;
+        }
+    }
+
+    /**
+     * Sends every notification due in [from, to) to {@code listener} in time order
+     */
+    public void run(long from, long to, SampleListener listener) {
+        float[] values = new float[3];
+        for (Stream s : mStreams) {
+            s.mNext = from;
+        }
+        while (true) {
+            Stream next = null;
+            for (Stream s : mStreams) {
+                if (next == null || s.mNext < next.mNext) next = s;
+            }
+            if (next == null || next.mNext >= to) {
+                return;
+            }
+            long t = next.mNext;
+            mNow = t;
+            next.mNotifications++;
+            next.mBytes += next.mFrameLength;
+            next.mNext = t + next.mPeriod;
+            for (int i = 0; i < next.mSensors.size(); i++) {
+                next.mSignals.get(i).sample(t, values);
+                listener.onSample(mDeviceId, next.mSensors.get(i), t, values);
+            }
+        }
+    }
+
+    /**
+     * Like {@link #run}, but sends each notification as a raw frame of the tag's length. The channels of the
+     * sensors sharing the frame are written in order as little endian int16 hundredths for as far as the
+     * frame goes: the right size and rate, not the tag's encoding. The frame array is reused for the next
+     * notification of the stream, and nothing is allocated once running.
+     */
+    public void runFrames(long from, long to, FrameSink sink) {
+        float[] values = new float[3];
+        for (int i = 0; i < mStreams.size(); i++) {
+            mStreams.get(i).mNext = from;
+        }
+        while (true) {
+            Stream next = null;
+            for (int i = 0; i < mStreams.size(); i++) {
+                Stream s = mStreams.get(i);
+                if (next == null || s.mNext < next.mNext) next = s;
+            }
+            if (next == null || next.mNext >= to) {
+                return;
+            }
+            long t = next.mNext;
+            mNow = t;
+            next.mNotifications++;
+            next.mBytes += next.mFrameLength;
+            next.mNext = t + next.mPeriod;
+            byte[] frame = next.mFrame;
+            int at = 0;
+            for (int i = 0; i < next.mSensors.size(); i++) {
+                next.mSignals.get(i).sample(t, values);
+                for (int c = 0; c < next.mSensors.get(i).getChannelCount() && at + 1 < frame.length; c++) {
+                    int v = Math.round(values[c] * 100);
+                    frame[at++] = (byte) v;
+                    frame[at++] = (byte) (v >> 8);
+                }
+            }
+            sink.onFrame(mDeviceId, next.mData, t, frame);
+        }
+    }
+
+    public long getNotificationCount() {
+        long n = 0;
+        for (Stream s : mStreams) n += s.mNotifications;
+        return n;
+    }
+
+    public long getNotificationCount(SensorConversion sensor) {
+        Stream s = stream(sensor.getPeriod());
+        return s == null ? 0 : s.mNotifications;
+    }
+
+    /**
+     * @return payload bytes of every notification sent
+     */
+    public long getByteCount() {
+        long n = 0;
+        for (Stream s : mStreams) n += s.mBytes;
+        return n;
+    }
+}
@@ -0,0 +1,197 @@
+package com.jordanleex13.sensortag.config;
+
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GattQueueTest {
+
+    /**
+     * Records what is issued; like the BLE stack, refuses a request while another one is outstanding
+     */
+    private static class FakeGatt implements GattQueue.Executor {
+        final List<GattOperation> issued = new ArrayList<>();
+        GattOperation outstanding;
+        boolean missingLuxometer;
+
+        @Override
+        public boolean execute(GattOperation operation) {
+            assertNull("Issued while " + outstanding + " is outstanding", outstanding);
+            if (missingLuxometer && operation.getService().equals(SensorTagGatt.UUID_OPT_SERV)) {
+                return false;
+            }
+            issued.add(operation);
+            outstanding = operation;
+            return true;
+        }
+
+        void complete(GattQueue queue) {
+            GattOperation op = outstanding;
+            outstanding = null;
+            queue.onComplete(op.getCharacteristic());
+        }
+    }
+
+    private static class IdleCounter implements GattQueue.Listener {
+        volatile int count;
+
+        @Override
+        public void onIdle() {
+            count++;
+        }
+    }
+
+    @Test
+    public void issuesOneAtATimeInOrder() {
+        FakeGatt gatt = new FakeGatt();
+        GattQueue queue = new GattQueue(gatt);
+        IdleCounter idle = new IdleCounter();
+        queue.setListener(idle);
+        List<GattOperation> batch = SensorConfig.defaults().diff(SensorConfig.tagDefaults());
+        queue.enqueue(batch);
+        assertEquals(1, gatt.issued.size());
+        assertEquals(batch.size() - 1, queue.getPendingCount());
+
+        // A completion for something the queue did not issue does not start the next request
+        queue.onComplete(SensorTagGatt.UUID_TST_DATA);
+        assertEquals(1, gatt.issued.size());
+
+        while (gatt.outstanding != null) {
+            assertEquals(0, idle.count);
+            gatt.complete(queue);
+        }
+        assertEquals(batch, gatt.issued);
+        assertEquals(1, idle.count);
+        assertTrue(queue.isIdle());
+    }
+
+    @Test
+    public void pendingWritesToTheSameAttributeCollapse() {
+        FakeGatt gatt = new FakeGatt();
+        GattQueue queue = new GattQueue(gatt);
+        // Low power, then high rate, then low power again before the first batch has gone out
+        queue.enqueue(SensorConfig.lowPower().diff(SensorConfig.defaults()));
+        queue.enqueue(SensorConfig.highRate().diff(SensorConfig.lowPower()));
+        queue.enqueue(SensorConfig.lowPower().diff(SensorConfig.highRate()));
+        while (gatt.outstanding != null) {
+            gatt.complete(queue);
+        }
+        // Each attribute is written at most twice: once already in flight and once with the final value
+        List<String> targets = new ArrayList<>();
+        for (GattOperation op : gatt.issued) {
+            targets.add(op.getCharacteristic() + " " + (op.getType() == GattOperation.Type.WRITE));
+        }
+        for (String t : targets) {
+            assertTrue(t, targets.indexOf(t) == targets.lastIndexOf(t) || targets.indexOf(t) == 0);
+        }
+        assertTrue(gatt.issued.size() <= 8);
+
+        // The tag ends up in the low power state
+        GattOperation lastMovementConfig = null;
+        GattOperation lastIrPeriod = null;
+        for (GattOperation op : gatt.issued) {
+            if (op.getCharacteristic().equals(SensorTagGatt.UUID_MOV_CONF)) lastMovementConfig = op;
+            if (op.getCharacteristic().equals(SensorTagGatt.UUID_IRT_PERI)) lastIrPeriod = op;
+        }
+        assertEquals("write aa82=0000", lastMovementConfig.toString());
+        assertEquals("write aa03=ff", lastIrPeriod.toString());
+    }
+
+    /**
+     * A replaced write moves behind what was queued before it, so a sensor is stopped before its period changes
+     */
+    @Test
+    public void aReplacedWriteKeepsTheOrderOfItsBatch() {
+        FakeGatt gatt = new FakeGatt();
+        GattQueue queue = new GattQueue(gatt);
+        queue.enqueue(GattOperation.write(SensorTagGatt.UUID_TST_SERV, SensorTagGatt.UUID_TST_DATA, new byte[]{0}));
+        queue.enqueue(GattOperation.write(SensorTagGatt.UUID_IRT_SERV, SensorTagGatt.UUID_IRT_PERI, new byte[]{10}));
+        List<GattOperation> batch = new ArrayList<>();
+        batch.add(GattOperation.notifications(SensorTagGatt.UUID_IRT_SERV, SensorTagGatt.UUID_IRT_DATA, false));
+        batch.add(GattOperation.write(SensorTagGatt.UUID_IRT_SERV, SensorTagGatt.UUID_IRT_PERI, new byte[]{50}));
+        queue.enqueue(batch);
+        while (gatt.outstanding != null) {
+            gatt.complete(queue);
+        }
+        assertEquals(3, gatt.issued.size());
+        assertEquals(batch, gatt.issued.subList(1, 3));
+    }
+
+    /**
+     * A lost callback does not hold up the queue: the request is issued once more and then given up
+     */
+    @Test
+    public void aLostCallbackTimesOut() throws Exception {
+        final List<GattOperation> issued = new ArrayList<>();
+        GattQueue queue = new GattQueue(new GattQueue.Executor() {
+            @Override
+            public boolean execute(GattOperation operation) {
+                synchronized (issued) {
+                    issued.add(operation);
+                }
+                return true;
+            }
+        }, 20);
+        IdleCounter idle = new IdleCounter();
+        queue.setListener(idle);
+        GattOperation lost = GattOperation.write(SensorTagGatt.UUID_IRT_SERV, SensorTagGatt.UUID_IRT_CONF, new byte[]{1});
+        GattOperation next = GattOperation.write(SensorTagGatt.UUID_IRT_SERV, SensorTagGatt.UUID_IRT_PERI, new byte[]{50});
+        List<GattOperation> batch = new ArrayList<>();
+        batch.add(lost);
+        batch.add(next);
+        queue.enqueue(batch);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (idle.count == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        synchronized (issued) {
+            assertEquals(4, issued.size());
+            assertEquals(lost, issued.get(0));
+            assertEquals(lost, issued.get(1));
+            assertEquals(next, issued.get(2));
+            assertEquals(next, issued.get(3));
+        }
+        assertEquals(2, queue.getTimedOutCount());
+        assertTrue(queue.isIdle());
+        assertEquals(1, idle.count);
+    }
+
+    @Test
+    public void skipsWhatCannotBeIssued() {
+        FakeGatt gatt = new FakeGatt();
+        gatt.missingLuxometer = true;
+        GattQueue queue = new GattQueue(gatt);
+        IdleCounter idle = new IdleCounter();
+        queue.setListener(idle);
+        queue.enqueue(SensorConfig.defaults().diff(SensorConfig.tagDefaults()));
+        while (gatt.outstanding != null) {
+            gatt.complete(queue);
+        }
+        assertEquals(9, gatt.issued.size());
+        assertEquals(2, queue.getSkippedCount());
+        assertEquals(1, idle.count);
+
+        // An empty batch still reports the queue idle
+        queue.enqueue(new ArrayList<GattOperation>());
+        assertEquals(2, idle.count);
+    }
+
+    @Test
+    public void clearDropsEverything() {
+        FakeGatt gatt = new FakeGatt();
+        GattQueue queue = new GattQueue(gatt);
+        queue.enqueue(SensorConfig.defaults().diff(SensorConfig.tagDefaults()));
+        queue.clear();
+        assertTrue(queue.isIdle());
+        // After a reconnect the stack has forgotten the outstanding request
+        gatt.outstanding = null;
+        queue.enqueue(GattOperation.write(SensorTagGatt.UUID_TST_SERV, SensorTagGatt.UUID_TST_DATA, new byte[]{0}));
+        assertEquals("write aa65=00", gatt.issued.get(gatt.issued.size() - 1).toString());
+    }
+}
@@ -0,0 +1,85 @@
+package com.jordanleex13.sensortag.config;
+
+import com.jordanleex13.sensortag.config.SensorConfig.Sensor;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SensorConfigTest {
+
+    @Test
+    public void connectingWritesWhatTheOldSetupDid() {
+        List<GattOperation> ops = SensorConfig.defaults().diff(SensorConfig.tagDefaults());
+        // Periods are at their power up values, so only notifications and configurations are written
+        assertEquals("[notify aa01 on, notify aa21 on, notify aa71 on, notify aa41 on, notify aa81 on, "
+                + "notify ffe1 on, write aa02=01, write aa22=01, write aa72=01, write aa42=01, write aa82=ff00]",
+                ops.toString());
+    }
+
+    @Test
+    public void sameProfileWritesNothing() {
+        assertTrue(SensorConfig.lowPower().diff(SensorConfig.lowPower()).isEmpty());
+        SensorConfig c = SensorConfig.defaults();
+        c.setNotifying(Sensor.LUXOMETER, false);
+        assertEquals("[notify aa71 off]", c.diff(SensorConfig.defaults()).toString());
+    }
+
+    @Test
+    public void switchingPresetsWritesOnlyWhatChanges() {
+        List<GattOperation> ops = SensorConfig.highRate().diff(SensorConfig.lowPower());
+        // Five periods, plus movement notifications and power; keys, power and notifications of the others stay
+        assertEquals("[write aa03=1e, write aa23=0a, write aa73=0a, write aa44=0a, write aa83=0a, notify aa81 on, "
+                + "write aa82=7f00]", ops.toString());
+
+        ops = SensorConfig.lowPower().diff(SensorConfig.highRate());
+        // Movement stops notifying and powers down before the periods are written
+        assertEquals("[notify aa81 off, write aa82=0000, write aa03=ff, write aa23=ff, write aa73=ff, "
+                + "write aa44=ff, write aa83=ff]", ops.toString());
+    }
+
+    @Test
+    public void rangeAndWakeOnlyMatterWhileMovementIsOn() {
+        SensorConfig on = SensorConfig.defaults();
+        on.setAccelRange(8);
+        assertEquals("[write aa82=ff02]", on.diff(SensorConfig.defaults()).toString());
+
+        SensorConfig off = SensorConfig.lowPower();
+        SensorConfig changed = off.copy();
+        changed.setAccelRange(16);
+        changed.setWakeOnMotion(true);
+        assertTrue(changed.diff(off).isEmpty());
+    }
+
+    @Test
+    public void textRoundTrips() {
+        SensorConfig c = SensorConfig.highRate();
+        c.setAccelRange(4);
+        c.setWakeOnMotion(true);
+        c.setNotifying(Sensor.KEYS, false);
+        c.setEnabled(Sensor.HUMIDITY, false);
+        c.setPeriod(Sensor.BAROMETER, 1234);
+        String text = c.toString();
+        assertEquals("IR_TEMPERATURE=on,300ms,notify;HUMIDITY=off,100ms,notify;LUXOMETER=on,100ms,notify;"
+                + "BAROMETER=on,1230ms,notify;MOVEMENT=on,100ms,notify,4G,wake;KEYS=", text);
+        assertEquals(c, SensorConfig.parse(text));
+        assertEquals(SensorConfig.defaults(), SensorConfig.parse(SensorConfig.defaults().toString()));
+        assertEquals(SensorConfig.tagDefaults(), SensorConfig.parse(""));
+    }
+
+    @Test
+    public void rejectsBadProfiles() {
+        String[] bad = {"IR_TEMPERATURE", "GYRO=on", "IR_TEMPERATURE=on,100ms", "HUMIDITY=on,fastms",
+                "MOVEMENT=3G", "BAROMETER=wake", "KEYS=1000ms", "LUXOMETER=maybe"};
+        for (String text : bad) {
+            try {
+                SensorConfig.parse(text);
+                fail(text);
+            } catch (IllegalArgumentException expected) {
+                // Expected
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.jordanleex13.sensortag.frames;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes {@link FrameDecoders} from the {@link FrameSpec}s: one static method per field made of the byte
+ * reads, shifts and the division spelled out, so there is no loop, branch or boxing left for the sample path.
+ *
+ * Run {@link #main(String[])} from the app module after changing a spec; {@code FrameDecodersTest} fails
+ * until the checked in source matches.
+ */
+public class FrameDecoderGenerator {
+
+    static final String PATH = "src/main/java/com/jordanleex13/sensortag/frames/FrameDecoders.java";
+
+    public static void main(String[] args) throws IOException {
+        File file = new File(args.length > 0 ? args[0] : PATH);
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write(generate(FrameSpec.all()));
+        } finally {
+            out.close();
+        }
+        System.out.println("Wrote " + file.getAbsolutePath());
+    }
+
+    /**
+     * @return the source of {@code FrameDecoders} for these specs
+     */
+    public static String generate(List<FrameSpec> specs) {
+        StringBuilder s = new StringBuilder();
+        s.append("package com.jordanleex13.sensortag.frames;\n\n");
+        s.append("/**\n");
+        s.append(" * Straight-line decoders of the fields described in {@link FrameSpec}.\n");
+        s.append(" *\n");
+        s.append(" * Generated by FrameDecoderGenerator, do not edit.\n");
+        s.append(" */\n");
+        s.append("public final class FrameDecoders {\n\n");
+        for (FrameSpec spec : specs) {
+            s.append("    public static final int ").append(constantName(spec.getName())).append("_LENGTH = ")
+                    .append(spec.getLength()).append(";\n");
+        }
+        s.append("\n    private FrameDecoders() {\n    }\n");
+        for (FrameSpec spec : specs) {
+            for (FrameField f : spec.getFields()) {
+                s.append('\n');
+                appendMethod(s, spec, f);
+            }
+        }
+        s.append("}\n");
+        return s.toString();
+    }
+
+    /**
+     * @return name of the decoder of a field, eg. movementAccX
+     */
+    public static String methodName(FrameSpec spec, FrameField field) {
+        String name = field.getName();
+        return spec.getName() + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static void appendMethod(StringBuilder s, FrameSpec spec, FrameField f) {
+        String type = f.isScaled() ? "float" : "int";
+        s.append("    /**\n");
+        s.append("     * ").append(spec.getName()).append('.').append(f.getName()).append(": ")
+                .append(describe(f)).append('\n');
+        s.append("     */\n");
+        s.append("    public static ").append(type).append(' ').append(methodName(spec, f)).append("(byte[] v) {\n");
+
+        String raw = integer(f);
+        if (f.getEncoding() == FrameField.Encoding.SFLOAT) {
+            s.append("        int r = ").append(raw).append(";\n");
+            raw = "(r & 0x0FFF) << (r >>> 12)";
+        } else if (f.getMask() != -1) {
+            raw = "(" + raw + ") & " + hex(f.getMask());
+        }
+        if (f.isScaled()) {
+            s.append("        return (float) ((").append(raw).append(") / ").append(f.getDivisor()).append(");\n");
+        } else {
+            s.append("        return ").append(raw).append(";\n");
+        }
+        s.append("    }\n");
+    }
+
+    /**
+     * @return the expression assembling the bytes of a field, least significant first
+     */
+    private static String integer(FrameField f) {
+        StringBuilder e = new StringBuilder();
+        int width = f.getWidth();
+        for (int k = 0; k < width; k++) {
+            int index = f.getOffset() + (f.isBigEndian() ? width - 1 - k : k);
+            boolean signExtend = f.isSigned() && k == width - 1;
+            if (k > 0) e.append(" | ");
+            String b = signExtend ? "v[" + index + "]" : "(v[" + index + "] & 0xFF)";
+            e.append(b);
+            if (k > 0) e.append(" << ").append(8 * k);
+        }
+        return e.toString();
+    }
+
+    private static String describe(FrameField f) {
+        String d;
+        if (f.getEncoding() == FrameField.Encoding.SFLOAT) {
+            d = "sfloat";
+        } else {
+            d = (f.isSigned() ? "int" : "uint") + 8 * f.getWidth();
+        }
+        d += " at " + f.getOffset();
+        if (f.getWidth() > 1) d += f.isBigEndian() ? ", big endian" : ", little endian";
+        if (f.getMask() != -1) d += ", mask " + hex(f.getMask());
+        if (f.isScaled()) d += ", / " + f.getDivisor();
+        return d;
+    }
+
+    private static String hex(int value) {
+        return String.format(Locale.US, "0x%04X", value);
+    }
+
+    private static String constantName(String camel) {
+        return camel.replaceAll("([a-z0-9])([A-Z])", "$1_$2").toUpperCase(Locale.US);
+    }
+}
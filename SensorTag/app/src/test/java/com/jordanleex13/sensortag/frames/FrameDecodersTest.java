@@ -0,0 +1,193 @@
+package com.jordanleex13.sensortag.frames;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.Random;
+
+import static java.lang.Math.pow;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the generated decoders against the frame description and the sensor conversions against the
+ * hand written decoders they replaced, for every value of every 16 bits of every field.
+ */
+public class FrameDecodersTest {
+
+    /**
+     * The decoders as written in the TI source, with the movement low byte masked as it should have been
+     */
+    private static float[] reference(SensorConversion sensor, byte[] v) {
+        switch (sensor) {
+            case IR_TEMPERATURE: {
+                double ambient = shortUnsignedAtOffset(v, 2) / 128.0;
+                double Vobj2 = shortSignedAtOffset(v, 0) * 0.00000015625;
+                double Tdie = ambient + 273.15;
+                double Tref = 298.15;
+                double S = 5.593E-14 * (1 + 1.75E-3 * (Tdie - Tref) + -1.678E-5 * pow((Tdie - Tref), 2));
+                double Vos = -2.94E-5 + -5.7E-7 * (Tdie - Tref) + 4.63E-9 * pow((Tdie - Tref), 2);
+                double fObj = (Vobj2 - Vos) + 13.4 * pow((Vobj2 - Vos), 2);
+                double target = pow(pow(Tdie, 4) + (fObj / S), .25) - 273.15;
+                return new float[]{(float) ambient, (float) target, (float) (shortUnsignedAtOffset(v, 0) / 128.0)};
+            }
+            case MOVEMENT_ACC:
+                return new float[]{(shortSignedAtOffset(v, 6) / 4096f) * -1,
+                        shortSignedAtOffset(v, 8) / 4096f, (shortSignedAtOffset(v, 10) / 4096f) * -1};
+            case MOVEMENT_GYRO:
+                return new float[]{shortSignedAtOffset(v, 0) / 128f, shortSignedAtOffset(v, 2) / 128f,
+                        shortSignedAtOffset(v, 4) / 128f};
+            case MOVEMENT_MAG: {
+                final float SCALE = (float) (32768 / 4912);
+                return new float[]{shortSignedAtOffset(v, 12) / SCALE, shortSignedAtOffset(v, 14) / SCALE,
+                        shortSignedAtOffset(v, 16) / SCALE};
+            }
+            case HUMIDITY: {
+                int a = shortUnsignedAtOffset(v, 2);
+                a = a - (a % 4);
+                return new float[]{(-6f) + 125f * (a / 65535f)};
+            }
+            case HUMIDITY2:
+                return new float[]{100f * (shortUnsignedAtOffset(v, 2) / 65535f)};
+            case LUXOMETER:
+                return new float[]{(float) (sfloatAtOffset(v, 0) / 100.0f)};
+            case BAROMETER:
+                if (v.length > 4) {
+                    int val = ((v[4] & 0xFF) << 16) + shortUnsignedAtOffset(v, 2);
+                    return new float[]{(float) (val / 100.0)};
+                }
+                return new float[]{(float) (sfloatAtOffset(v, 2) / 100.0f)};
+            default:
+                throw new AssertionError(sensor);
+        }
+    }
+
+    private static int shortSignedAtOffset(byte[] c, int offset) {
+        return (c[offset + 1] << 8) + (c[offset] & 0xFF);
+    }
+
+    private static int shortUnsignedAtOffset(byte[] c, int offset) {
+        return ((c[offset + 1] & 0xFF) << 8) + (c[offset] & 0xFF);
+    }
+
+    private static double sfloatAtOffset(byte[] c, int offset) {
+        int sfloat = shortUnsignedAtOffset(c, offset);
+        return (sfloat & 0x0FFF) * pow(2.0f, (sfloat >> 12) & 0xFF);
+    }
+
+    /**
+     * @return the frame of a sensor, random apart from the field under test
+     */
+    private static byte[] frame(SensorConversion sensor, Random random) {
+        byte[] frame = new byte[sensor.getData().equals(FrameSpec.MOVEMENT.getData()) ? 18
+                : sensor == SensorConversion.BAROMETER ? 6 : 4];
+        random.nextBytes(frame);
+        return frame;
+    }
+
+    private static void assertSame(String message, float expected, float actual) {
+        if (Float.floatToIntBits(expected) != Float.floatToIntBits(actual)) {
+            fail(message + " expected " + expected + " but was " + actual);
+        }
+    }
+
+    @Test
+    public void checkedInSourceIsGenerated() throws Exception {
+        File file = new File(FrameDecoderGenerator.PATH);
+        if (!file.exists()) file = new File("app", FrameDecoderGenerator.PATH);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) > 0; ) bytes.write(buffer, 0, n);
+        } finally {
+            in.close();
+        }
+        assertEquals("FrameDecoders.java is out of date, run FrameDecoderGenerator",
+                FrameDecoderGenerator.generate(FrameSpec.all()), bytes.toString("UTF-8"));
+    }
+
+    @Test
+    public void generatedDecodersFollowTheSpec() throws Exception {
+        Random random = new Random(46);
+        for (FrameSpec spec : FrameSpec.all()) {
+            for (FrameField field : spec.getFields()) {
+                Method decoder = FrameDecoders.class.getMethod(FrameDecoderGenerator.methodName(spec, field), byte[].class);
+                byte[] v = new byte[spec.getLength()];
+                random.nextBytes(v);
+                // The two most significant bytes take every value, a wider field's low byte varies with them
+                int high = field.getOffset() + (field.isBigEndian() ? 0 : field.getWidth() - 1);
+                int next = field.getOffset() + (field.isBigEndian() ? 1 : field.getWidth() - 2);
+                for (int i = 0; i < 1 << 16; i++) {
+                    v[high] = (byte) (i >> 8);
+                    if (field.getWidth() > 1) v[next] = (byte) i;
+                    if (field.getWidth() > 2) v[field.getOffset() + (field.isBigEndian() ? 2 : 0)] = (byte) (i * 31);
+                    Object actual = decoder.invoke(null, (Object) v);
+                    if (field.isScaled()) {
+                        assertSame(spec.getName() + "." + field.getName() + " " + i,
+                                (float) field.value(v), (Float) actual);
+                    } else {
+                        assertEquals(spec.getName() + "." + field.getName() + " " + i, field.raw(v), actual);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void conversionsMatchTheHandWrittenDecoders() {
+        Random random = new Random(2016);
+        float[] out = new float[3];
+        for (SensorConversion sensor : SensorConversion.values()) {
+            byte[] v = frame(sensor, random);
+            for (int at = 0; at + 1 < v.length; at += 2) {
+                for (int i = 0; i < 1 << 16; i++) {
+                    v[at] = (byte) i;
+                    v[at + 1] = (byte) (i >> 8);
+                    float[] expected = reference(sensor, v);
+                    sensor.convert(v, out, 0);
+                    for (int c = 0; c < sensor.getChannelCount(); c++) {
+                        assertSame(sensor + "[" + c + "] bytes " + at + " = " + i, expected[c], out[c]);
+                    }
+                }
+            }
+        }
+        // Early barometer firmware
+        byte[] v = new byte[4];
+        for (int i = 0; i < 1 << 16; i++) {
+            v[2] = (byte) i;
+            v[3] = (byte) (i >> 8);
+            SensorConversion.BAROMETER.convert(v, out, 0);
+            assertSame("sfloat barometer " + i, reference(SensorConversion.BAROMETER, v)[0], out[0]);
+        }
+    }
+
+    @Test
+    public void movementLowByteIsUnsigned() {
+        byte[] v = new byte[18];
+        v[0] = (byte) 0x80;     // gyro x = 128, read as -128 when the low byte was not masked
+        v[6] = (byte) 0xFF;     // acc x = 255
+        v[12] = (byte) 0xF0;
+        v[13] = 0x01;           // mag x = 0x1F0
+        assertEquals(1f, SensorConversion.MOVEMENT_GYRO.convert(v).x, 0);
+        assertEquals(-255 / 4096f, SensorConversion.MOVEMENT_ACC.convert(v).x, 0);
+        assertEquals(0x1F0 / 6f, SensorConversion.MOVEMENT_MAG.convert(v).x, 0);
+    }
+
+    @Test
+    public void specsRejectFieldsOutsideTheFrame() {
+        try {
+            new FrameSpec("short", FrameSpec.LUXOMETER.getData(), 2, FrameField.uint24("value", 0));
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // Needs 3 bytes
+        }
+        assertEquals(0x1234, FrameField.uint16("be", 0).bigEndian().raw(new byte[]{0x12, 0x34}));
+        assertEquals(-2, FrameField.int24("t", 0).raw(new byte[]{(byte) 0xFE, (byte) 0xFF, (byte) 0xFF}));
+    }
+}
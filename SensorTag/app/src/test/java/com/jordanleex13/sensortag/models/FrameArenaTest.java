@@ -0,0 +1,224 @@
+package com.jordanleex13.sensortag.models;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.SensorTag.SensorTagSimulator;
+import com.jordanleex13.sensortag.config.SensorConfig;
+import com.jordanleex13.sensortag.processing.AlertEngine;
+import com.jordanleex13.sensortag.processing.QuantileSet;
+import com.jordanleex13.sensortag.processing.SamplePipeline;
+import com.jordanleex13.sensortag.processing.StatsSet;
+import com.jordanleex13.sensortag.processing.TimestampReconstructor;
+import com.jordanleex13.sensortag.profiles.SensorProfile;
+import com.jordanleex13.sensortag.profiles.SensorProfiles;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class FrameArenaTest {
+
+    @Test
+    public void slotsReturnWithTheLastRelease() {
+        FrameArena arena = new FrameArena(2, 20);
+        int a = arena.acquire(new byte[]{1, 2, 3});
+        int b = arena.acquire(new byte[18]);
+        assertNotEquals(a, b);
+        assertEquals(-1, arena.acquire(new byte[]{9}));
+        assertEquals(1, arena.getDroppedCount());
+
+        assertEquals(3, arena.getLength(a));
+        assertEquals(2, arena.get(a, 1));
+        byte[] out = new byte[20];
+        assertEquals(3, arena.copy(a, out));
+        assertArrayEquals(new byte[]{1, 2, 3}, Arrays.copyOf(out, 3));
+
+        arena.retain(a);
+        arena.release(a);
+        assertEquals(0, arena.getFreeCount());
+        arena.release(a);
+        assertEquals(1, arena.getFreeCount());
+        try {
+            arena.release(a);
+            fail();
+        } catch (IllegalStateException expected) {
+            // Already back in the pool
+        }
+        try {
+            arena.retain(a);
+            fail();
+        } catch (IllegalStateException expected) {
+            // Only a holder may add a reference
+        }
+        assertEquals(a, arena.acquire(new byte[]{4}));
+        assertEquals(4, arena.get(a, 0));
+        try {
+            arena.acquire(new byte[21]);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // Longer than a slot
+        }
+    }
+
+    /**
+     * A producer acquiring and a consumer thread releasing, as the BLE and UI threads do
+     */
+    @Test
+    public void slotsCrossThreads() throws Exception {
+        final FrameArena arena = new FrameArena(64, 20);
+        final int[] queue = new int[1 << 16];
+        final AtomicLong head = new AtomicLong();
+        final int frames = 200000;
+        final CountDownLatch done = new CountDownLatch(1);
+        final long[] sum = new long[1];
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (long tail = 0; tail < frames; ) {
+                    if (tail == head.get()) {
+                        Thread.yield();
+                        continue;
+                    }
+                    int slot = queue[(int) (tail++ & 0xFFFF)];
+                    sum[0] += arena.get(slot, 0) & 0xFF;
+                    arena.release(slot);
+                }
+                done.countDown();
+            }
+        });
+        consumer.start();
+        long expected = 0;
+        byte[] value = new byte[18];
+        for (int i = 0; i < frames; ) {
+            value[0] = (byte) i;
+            int slot = arena.acquire(value);
+            if (slot < 0) {
+                Thread.yield();
+                continue;
+            }
+            expected += i & 0xFF;
+            queue[i & 0xFFFF] = slot;
+            head.set(++i);
+        }
+        done.await();
+        assertEquals(expected, sum[0]);
+        assertEquals(64, arena.getFreeCount());
+    }
+
+    /**
+     * The service's notification path with the simulator sending every sensor at its shortest period:
+     * timestamps, history, pipeline stages and the hand over through the activity's dispatcher to pages that
+     * decode every value.
+     */
+    @Test
+    public void notificationPathDoesNotAllocate() {
+        final TimestampReconstructor timestamps = new TimestampReconstructor();
+        for (SensorConfig.Sensor s : SensorConfig.Sensor.values()) {
+            if (s.getPeriod() != null) timestamps.setPeriod(s, s.getMinPeriod());
+        }
+        final FrameHistory history = new FrameHistory(6000);
+        final SamplePipeline pipeline = new SamplePipeline();
+        SensorConversion[] all = {SensorConversion.IR_TEMPERATURE, SensorConversion.MOVEMENT_ACC,
+                SensorConversion.MOVEMENT_GYRO, SensorConversion.MOVEMENT_MAG, SensorConversion.HUMIDITY2,
+                SensorConversion.LUXOMETER, SensorConversion.BAROMETER};
+        pipeline.register(new StatsSet(), all);
+        pipeline.register(new QuantileSet(), SensorConversion.IR_TEMPERATURE, SensorConversion.HUMIDITY2,
+                SensorConversion.LUXOMETER, SensorConversion.BAROMETER);
+        pipeline.register(new AlertEngine(), all);
+        final FrameArena arena = new FrameArena(256, RawFrameStore.MAX_FRAME_LENGTH);
+
+        // The activity: posted slots queued as the pooled messages would carry them, and handled like the UI
+        // thread does once it gets to them
+        final int[] routes = new int[32];
+        final FrameArena[] arenas = new FrameArena[32];
+        final int[] slots = new int[32];
+        final int[] queued = new int[1];
+        final FrameDispatcher[] dispatcher = new FrameDispatcher[1];
+        final Runnable handle = new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < queued[0]; i++) dispatcher[0].deliver(routes[i], arenas[i], slots[i]);
+                queued[0] = 0;
+            }
+        };
+        List<UUID> data = new ArrayList<>();
+        for (SensorProfile p : SensorProfiles.getDefault().getProfiles()) {
+            if (p.getData() != null) data.add(p.getData());
+        }
+        dispatcher[0] = new FrameDispatcher(data, new FrameDispatcher.Poster() {
+            @Override
+            public void post(int route, FrameArena a, int slot) {
+                routes[queued[0]] = route;
+                arenas[queued[0]] = a;
+                slots[queued[0]] = slot;
+                if (++queued[0] == slots.length) handle.run();
+            }
+        });
+        // The pages, decoding every value they are shown
+        final long[] shown = new long[1];
+        for (UUID d : data) {
+            final SensorConversion[] conversions = SensorProfiles.getDefault().forData(d).getConversions();
+            final float[] values = new float[3];
+            dispatcher[0].setPage(d, new FrameDispatcher.Page() {
+                @Override
+                public void onFrame(FrameArena a, int slot) {
+                    byte[] value = dispatcher[0].read(a, slot);
+                    for (SensorConversion c : conversions) c.convert(value, values, 0);
+                    shown[0]++;
+                }
+            });
+        }
+        final long[] notified = new long[1];
+        SensorTagSimulator.FrameSink service = new SensorTagSimulator.FrameSink() {
+            @Override
+            public void onFrame(int deviceId, UUID data, long timestamp, byte[] value) {
+                long time = timestamps.reconstruct(deviceId, data, timestamp);
+                history.append(deviceId, data, time, value);
+                pipeline.onNotification(deviceId, data, time, value);
+                int slot = arena.acquire(value);
+                dispatcher[0].onFrame(deviceId, data, time, arena, slot);
+                arena.release(slot);
+                notified[0]++;
+            }
+        };
+
+        SensorTagSimulator tag = new SensorTagSimulator(0);
+        SensorTagSimulator.Signal wave = new SensorTagSimulator.Signal() {
+            @Override
+            public void sample(long timestamp, float[] out) {
+                out[0] = out[1] = out[2] = (float) Math.sin(timestamp / 1000.0) * 50;
+            }
+        };
+        for (SensorConversion s : all) {
+            tag.add(s, s == SensorConversion.IR_TEMPERATURE ? 300 : 100, wave);
+        }
+
+        // Warm up past the history capacity so every block exists, then measure three hours of notifications.
+        // What is left is the fixed cost of the first measurement, independent of the number of notifications.
+        tag.runFrames(0, 3600000L, service);
+        long overhead = allocatedBytes();
+        overhead = allocatedBytes() - overhead;
+        long before = allocatedBytes();
+        tag.runFrames(3600000L, 4 * 3600000L, service);
+        long allocated = allocatedBytes() - before - overhead;
+
+        handle.run();
+
+        assertEquals(0, arena.getDroppedCount());
+        assertEquals(notified[0], shown[0]);
+        assertEquals(arena.getSlotCount(), arena.getFreeCount());
+        assertTrue(allocated + " bytes allocated", allocated < 1024);
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
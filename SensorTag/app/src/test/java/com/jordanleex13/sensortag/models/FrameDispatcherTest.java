@@ -0,0 +1,118 @@
+package com.jordanleex13.sensortag.models;
+
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class FrameDispatcherTest {
+
+    /**
+     * Only values of a showing page are kept for the UI thread, and every posted slot is released once handled
+     */
+    @Test
+    public void slotsAreKeptOnlyForShowingPages() {
+        FrameArena arena = new FrameArena(4, 20);
+        final int[] posted = new int[2];
+        final int[] count = new int[1];
+        FrameDispatcher dispatcher = new FrameDispatcher(
+                Arrays.asList(SensorTagGatt.UUID_OPT_DATA, SensorTagGatt.UUID_BAR_DATA), new FrameDispatcher.Poster() {
+            @Override
+            public void post(int route, FrameArena a, int slot) {
+                posted[0] = route;
+                posted[1] = slot;
+                count[0]++;
+            }
+        });
+        final byte[] seen = new byte[1];
+        FrameDispatcher.Page page = new FrameDispatcher.Page() {
+            @Override
+            public void onFrame(FrameArena a, int slot) {
+                seen[0] = a.get(slot, 0);
+            }
+        };
+
+        int slot = arena.acquire(new byte[]{7, 0});
+        dispatcher.onFrame(0, SensorTagGatt.UUID_BAR_DATA, 0, arena, slot);
+        dispatcher.onFrame(0, SensorTagGatt.UUID_KEY_DATA, 0, arena, slot);
+        assertEquals(0, count[0]);
+
+        dispatcher.setPage(SensorTagGatt.UUID_BAR_DATA, page);
+        dispatcher.onFrame(0, SensorTagGatt.UUID_BAR_DATA, 0, arena, slot);
+        arena.release(slot);
+        assertEquals(1, count[0]);
+        assertEquals(1, posted[0]);
+        assertEquals(3, arena.getFreeCount());
+
+        dispatcher.deliver(posted[0], arena, posted[1]);
+        assertEquals(7, seen[0]);
+        assertEquals(4, arena.getFreeCount());
+
+        // A page that went away before its value was handled still gets the slot released
+        slot = arena.acquire(new byte[]{8, 0});
+        dispatcher.onFrame(0, SensorTagGatt.UUID_BAR_DATA, 0, arena, slot);
+        arena.release(slot);
+        dispatcher.removePage(SensorTagGatt.UUID_BAR_DATA, page);
+        dispatcher.deliver(posted[0], arena, posted[1]);
+        assertEquals(7, seen[0]);
+        assertEquals(4, arena.getFreeCount());
+    }
+
+    @Test
+    public void removingAReplacedPageKeepsTheNewOne() {
+        final int[] count = new int[1];
+        FrameDispatcher dispatcher = new FrameDispatcher(Arrays.asList(SensorTagGatt.UUID_OPT_DATA),
+                new FrameDispatcher.Poster() {
+            @Override
+            public void post(int route, FrameArena a, int slot) {
+                count[0]++;
+                a.release(slot);
+            }
+        });
+        FrameDispatcher.Page old = new FrameDispatcher.Page() {
+            @Override
+            public void onFrame(FrameArena a, int slot) {
+            }
+        };
+        FrameDispatcher.Page current = new FrameDispatcher.Page() {
+            @Override
+            public void onFrame(FrameArena a, int slot) {
+            }
+        };
+        // The page being recreated resumes before the old one is paused
+        dispatcher.setPage(SensorTagGatt.UUID_OPT_DATA, old);
+        dispatcher.setPage(SensorTagGatt.UUID_OPT_DATA, current);
+        dispatcher.removePage(SensorTagGatt.UUID_OPT_DATA, old);
+
+        FrameArena arena = new FrameArena(1, 20);
+        int slot = arena.acquire(new byte[2]);
+        dispatcher.onFrame(0, SensorTagGatt.UUID_OPT_DATA, 0, arena, slot);
+        assertEquals(1, count[0]);
+
+        try {
+            dispatcher.setPage(SensorTagGatt.UUID_KEY_DATA, current);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // No route for it
+        }
+    }
+
+    /**
+     * Decoders look at the value length, so a read gives an array of exactly that length
+     */
+    @Test
+    public void readsIntoAnArrayPerLength() {
+        FrameDispatcher dispatcher = new FrameDispatcher(Arrays.<UUID>asList(), null);
+        FrameArena arena = new FrameArena(2, 20);
+        int a = arena.acquire(new byte[]{1, 2, 3, 4, 5, 6});
+        int b = arena.acquire(new byte[]{9, 8, 7, 6});
+        byte[] six = dispatcher.read(arena, a);
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6}, six);
+        assertArrayEquals(new byte[]{9, 8, 7, 6}, dispatcher.read(arena, b));
+        assertSame(six, dispatcher.read(arena, a));
+    }
+}
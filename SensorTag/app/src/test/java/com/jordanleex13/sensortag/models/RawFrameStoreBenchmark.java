@@ -0,0 +1,50 @@
+package com.jordanleex13.sensortag.models;
+
+import com.jordanleex13.sensortag.Benchmarks;
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class RawFrameStoreBenchmark {
+
+    private static final int FRAMES = 2000000;
+
+    /**
+     * Appending raw frames against decoding every sample into float columns as it arrives
+     */
+    @Test
+    public void appendAgainstDecodingOnIngest() throws Exception {
+        Random random = new Random(1);
+        final byte[][] frames = new byte[64][18];
+        for (byte[] frame : frames) random.nextBytes(frame);
+
+        long append = Benchmarks.best(3, new Benchmarks.Task() {
+            @Override
+            public void run() {
+                RawFrameStore store = new RawFrameStore(SensorTagGatt.UUID_MOV_DATA, 100000);
+                for (int i = 0; i < FRAMES; i++) store.append(i, frames[i & 63]);
+            }
+        });
+        long decoding = Benchmarks.best(3, new Benchmarks.Task() {
+            @Override
+            public void run() {
+                SensorConversion[] sensors = {SensorConversion.MOVEMENT_ACC, SensorConversion.MOVEMENT_GYRO,
+                        SensorConversion.MOVEMENT_MAG};
+                long[] timestamps = new long[100000];
+                float[][] columns = new float[sensors.length][100000 * 3];
+                for (int i = 0; i < FRAMES; i++) {
+                    int slot = i % 100000;
+                    timestamps[slot] = i;
+                    for (int s = 0; s < sensors.length; s++) {
+                        sensors[s].convert(frames[i & 63], columns[s], slot * 3);
+                    }
+                }
+            }
+        });
+        Benchmarks.report("RawFrameStore: %.1f ns per append, decoding on ingest %.1f ns per frame",
+                append / (double) FRAMES, decoding / (double) FRAMES);
+    }
+}
@@ -0,0 +1,170 @@
+package com.jordanleex13.sensortag.models;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RawFrameStoreTest {
+
+    private static byte[] movement(Random random) {
+        byte[] frame = new byte[18];
+        random.nextBytes(frame);
+        return frame;
+    }
+
+    @Test
+    public void decodesOnlyTheBlocksThatAreRead() {
+        RawFrameStore store = new RawFrameStore(SensorTagGatt.UUID_MOV_DATA, 2000);
+        Random random = new Random(47);
+        byte[][] frames = new byte[1000][];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = movement(random);
+            store.append(1000L + i, frames[i]);
+        }
+        assertEquals(0, store.getDecodedCount());
+
+        long[] timestamps = new long[10];
+        float[] values = new float[30];
+        assertEquals(10, store.read(SensorConversion.MOVEMENT_ACC, 300, 10, timestamps, values));
+        assertEquals(RawFrameStore.BLOCK_SIZE, store.getDecodedCount());
+        float[] expected = new float[3];
+        for (int i = 0; i < 10; i++) {
+            assertEquals(1300L + i, timestamps[i]);
+            SensorConversion.MOVEMENT_ACC.convert(frames[300 + i], expected, 0);
+            for (int c = 0; c < 3; c++) assertEquals(expected[c], values[i * 3 + c], 0);
+        }
+
+        // Cached: reading the same block again costs nothing, another sensor of the frame has its own column
+        store.read(SensorConversion.MOVEMENT_ACC, 260, 40, null, new float[120]);
+        assertEquals(RawFrameStore.BLOCK_SIZE, store.getDecodedCount());
+        SensorConversion.MOVEMENT_GYRO.convert(frames[301], expected, 0);
+        assertEquals(expected[1], store.get(SensorConversion.MOVEMENT_GYRO, 301, 1), 0);
+        assertEquals(2 * RawFrameStore.BLOCK_SIZE, store.getDecodedCount());
+
+        // The newest block is still filling; only the frames added since the last read are decoded
+        assertEquals(24, store.read(SensorConversion.MOVEMENT_ACC, 976, 100, null, new float[300]));
+        long decoded = store.getDecodedCount();
+        store.append(2000L, frames[0]);
+        assertEquals(3, store.read(SensorConversion.MOVEMENT_ACC, 998, 3, null, new float[9]));
+        assertEquals(decoded + 1, store.getDecodedCount());
+    }
+
+    @Test
+    public void ringKeepsNewestFrames() {
+        RawFrameStore store = new RawFrameStore(SensorTagGatt.UUID_MOV_DATA, 300);
+        Random random = new Random(7);
+        byte[][] frames = new byte[2000][];
+        float[] expected = new float[3];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = movement(random);
+            store.append(i, frames[i]);
+            // Read while appending so that cached columns of reused blocks are exercised
+            if (i % 97 == 0) {
+                int last = store.size() - 1;
+                SensorConversion.MOVEMENT_MAG.convert(frames[i], expected, 0);
+                assertEquals(expected[2], store.get(SensorConversion.MOVEMENT_MAG, last, 2), 0);
+            }
+        }
+        assertEquals(300, store.size());
+        assertEquals(1700, store.getTimestamp(0));
+        float[] values = new float[900];
+        assertEquals(300, store.read(SensorConversion.MOVEMENT_MAG, 0, 1000, null, values));
+        for (int i = 0; i < 300; i++) {
+            SensorConversion.MOVEMENT_MAG.convert(frames[1700 + i], expected, 0);
+            for (int c = 0; c < 3; c++) assertEquals(expected[c], values[i * 3 + c], 0);
+        }
+        byte[] raw = new byte[18];
+        assertEquals(18, store.getFrame(299, raw));
+        assertArrayEquals(frames[1999], raw);
+
+        try {
+            store.getTimestamp(300);
+            fail();
+        } catch (IndexOutOfBoundsException expectedException) {
+            // Beyond the newest frame
+        }
+        store.clear();
+        assertEquals(0, store.size());
+        assertEquals(0, store.read(SensorConversion.MOVEMENT_MAG, 0, 10, null, values));
+    }
+
+    @Test
+    public void framesKeepTheirLength() {
+        RawFrameStore store = new RawFrameStore(SensorTagGatt.UUID_BAR_DATA, 10);
+        // The early firmware sends the pressure as a 4 byte SFLOAT frame, the BMP280 as 6 bytes
+        byte[] sfloat = {0, 0, (byte) 0x10, (byte) 0x5A};
+        byte[] bmp = {0, 0, 0, (byte) 0x8A, (byte) 0x9A, 0x01};
+        store.append(1, sfloat);
+        store.append(2, bmp);
+        float[] expected = new float[1];
+        SensorConversion.BAROMETER.convert(sfloat, expected, 0);
+        assertEquals(expected[0], store.get(SensorConversion.BAROMETER, 0, 0), 0);
+        SensorConversion.BAROMETER.convert(bmp, expected, 0);
+        assertEquals(expected[0], store.get(SensorConversion.BAROMETER, 1, 0), 0);
+        // Longer than any barometer frame
+        assertFalse(store.append(3, new byte[7]));
+        assertEquals(2, store.size());
+        assertEquals(1, store.getDroppedCount());
+        try {
+            store.get(SensorConversion.LUXOMETER, 0, 0);
+            fail();
+        } catch (IllegalArgumentException expectedException) {
+            // Not decoded from this characteristic
+        }
+    }
+
+    /**
+     * A million luxometer samples kept as raw frames must take less than half the heap of the same samples
+     * decoded into {@code Point3D}s with their timestamps
+     */
+    @Test
+    public void millionSamplesTakeLessThanHalfTheHeapOfPoint3D() {
+        int n = 1000000;
+        byte[] frame = {(byte) 0x34, (byte) 0x12};
+
+        long before = usedHeap();
+        RawFrameStore store = new RawFrameStore(SensorTagGatt.UUID_OPT_DATA, n);
+        for (int i = 0; i < n; i++) store.append(i, frame);
+        long raw = usedHeap() - before;
+
+        before = usedHeap();
+        long[] timestamps = new long[n];
+        Point3D[] decoded = new Point3D[n];
+        for (int i = 0; i < n; i++) {
+            timestamps[i] = i;
+            decoded[i] = SensorConversion.LUXOMETER.convert(frame);
+        }
+        long boxed = usedHeap() - before;
+
+        // Still reachable while measured
+        assertEquals(n, store.size());
+        assertEquals(n - 1, timestamps[n - 1]);
+        assertEquals(store.get(SensorConversion.LUXOMETER, n - 1, 0), decoded[n - 1].x, 1e-3);
+        assertTrue(raw + " bytes raw, " + boxed + " as Point3D", raw * 2 < boxed);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Test
+    public void historyKeepsOneStorePerDeviceAndCharacteristic() {
+        FrameHistory history = new FrameHistory(100);
+        history.append(0, SensorTagGatt.UUID_MOV_DATA, 1, new byte[18]);
+        history.append(5, SensorTagGatt.UUID_OPT_DATA, 2, new byte[]{1, 0});
+        history.append(5, SensorTagGatt.UUID_KEY_DATA, 3, new byte[]{1});
+        assertSame(history.get(0, SensorConversion.MOVEMENT_ACC), history.get(0, SensorConversion.MOVEMENT_MAG));
+        assertEquals(1, history.get(0, SensorConversion.MOVEMENT_GYRO).size());
+        assertNull(history.get(0, SensorConversion.LUXOMETER));
+        assertEquals(0.01f, history.get(5, SensorConversion.LUXOMETER).get(SensorConversion.LUXOMETER, 0, 0), 1e-6);
+        history.clear();
+        assertEquals(0, history.get(5, SensorConversion.LUXOMETER).size());
+    }
+}
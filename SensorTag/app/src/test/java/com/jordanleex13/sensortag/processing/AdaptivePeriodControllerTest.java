@@ -0,0 +1,245 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.SensorTag.SensorTagSimulator;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class AdaptivePeriodControllerTest {
+
+    private static final long MINUTE = 60 * 1000;
+    private static final long HOUR = 60 * MINUTE;
+
+    /**
+     * An hour on a desk: a light switched on at 10 min, steam from a kettle at 30 min, the tag picked up
+     * and shaken at 40 min and a hot mug put in front of the IR sensor at 50 min. Everything else is noise.
+     */
+    private static SensorTagSimulator desk() {
+        SensorTagSimulator tag = new SensorTagSimulator(0);
+        final Random random = new Random(19);
+        tag.add(SensorConversion.IR_TEMPERATURE, 300, new SensorTagSimulator.Signal() {
+            @Override
+            public void sample(long t, float[] out) {
+                out[0] = (float) (22 + 0.02 * random.nextGaussian());
+                out[1] = (float) (irTarget(t) + 0.02 * random.nextGaussian());
+                out[2] = out[1];
+            }
+        });
+        tag.add(SensorConversion.MOVEMENT_ACC, 100, new SensorTagSimulator.Signal() {
+            @Override
+            public void sample(long t, float[] out) {
+                out[0] = (float) (shake(t, 0.5) + 0.004 * random.nextGaussian());
+                out[1] = (float) (0.004 * random.nextGaussian());
+                out[2] = (float) (1 + 0.004 * random.nextGaussian());
+            }
+        });
+        tag.add(SensorConversion.MOVEMENT_GYRO, 100, new SensorTagSimulator.Signal() {
+            @Override
+            public void sample(long t, float[] out) {
+                out[0] = (float) (0.5 * random.nextGaussian());
+                out[1] = (float) (shake(t, 100) + 0.5 * random.nextGaussian());
+                out[2] = (float) (0.5 * random.nextGaussian());
+            }
+        });
+        tag.add(SensorConversion.MOVEMENT_MAG, 100, new SensorTagSimulator.Signal() {
+            @Override
+            public void sample(long t, float[] out) {
+                out[0] = (float) (30 + random.nextGaussian());
+                out[1] = (float) (-10 + random.nextGaussian());
+                out[2] = (float) (40 + random.nextGaussian());
+            }
+        });
+        tag.add(SensorConversion.HUMIDITY2, 100, new SensorTagSimulator.Signal() {
+            @Override
+            public void sample(long t, float[] out) {
+                out[0] = (float) (humidity(t) + 0.03 * random.nextGaussian());
+            }
+        });
+        tag.add(SensorConversion.LUXOMETER, 800, new SensorTagSimulator.Signal() {
+            @Override
+            public void sample(long t, float[] out) {
+                out[0] = (float) ((t < 10 * MINUTE ? 300 : 800) + 0.5 * random.nextGaussian());
+            }
+        });
+        tag.add(SensorConversion.BAROMETER, 100, new SensorTagSimulator.Signal() {
+            @Override
+            public void sample(long t, float[] out) {
+                out[0] = (float) (1000 + 0.008 * random.nextGaussian());
+            }
+        });
+        return tag;
+    }
+
+    private static double irTarget(long t) {
+        return t < 50 * MINUTE ? 25 : 60;
+    }
+
+    private static double shake(long t, double amplitude) {
+        return t >= 40 * MINUTE && t < 40 * MINUTE + 10000 ? amplitude * Math.sin(2 * Math.PI * 3 * t / 1000.0) : 0;
+    }
+
+    /**
+     * 10 % in 30 s, then the room dries slowly
+     */
+    private static double humidity(long t) {
+        double s = (t - 30 * MINUTE) / 1000.0;
+        if (s < 0) return 40;
+        if (s < 30) return 40 + s / 3;
+        return 40 + 10 * Math.exp(-(s - 30) / 600);
+    }
+
+    private static class Received implements SampleListener {
+        final List<long[]> samples = new ArrayList<>();
+        final SensorConversion sensor;
+        final int channel;
+
+        Received(SensorConversion sensor, int channel) {
+            this.sensor = sensor;
+            this.channel = channel;
+        }
+
+        @Override
+        public void onSample(int deviceId, SensorConversion s, long timestamp, float[] values) {
+            if (s == sensor) samples.add(new long[]{timestamp, Float.floatToIntBits(values[channel])});
+        }
+
+        int count(long from, long to) {
+            int n = 0;
+            for (long[] s : samples) if (s[0] >= from && s[0] < to) n++;
+            return n;
+        }
+
+        /**
+         * @return the first two timestamps at or after {@code from}
+         */
+        long[] after(long from) {
+            for (int i = 0; i < samples.size() - 1; i++) {
+                if (samples.get(i)[0] >= from) return new long[]{samples.get(i)[0], samples.get(i + 1)[0]};
+            }
+            return null;
+        }
+
+        float value(int i) {
+            return Float.intBitsToFloat((int) samples.get(i)[1]);
+        }
+    }
+
+    private static class Fanout implements SampleListener {
+        final SampleListener[] listeners;
+
+        Fanout(SampleListener... listeners) {
+            this.listeners = listeners;
+        }
+
+        @Override
+        public void onSample(int deviceId, SensorConversion sensor, long timestamp, float[] values) {
+            for (SampleListener l : listeners) l.onSample(deviceId, sensor, timestamp, values);
+        }
+    }
+
+    @Test
+    public void quietDeskSavesTrafficWithoutMissingEvents() {
+        SensorTagSimulator baseline = desk();
+        Received baseShake = new Received(SensorConversion.MOVEMENT_ACC, 0);
+        baseline.run(0, HOUR, baseShake);
+
+        final SensorTagSimulator tag = desk();
+        AdaptivePeriodController controller = new AdaptivePeriodController();
+        final int[] writes = new int[1];
+        controller.setListener(new AdaptivePeriodController.Listener() {
+            @Override
+            public void onPeriodChange(UUID periodCharacteristic, int periodMillis) {
+                writes[0]++;
+                tag.setPeriod(periodCharacteristic, periodMillis);
+            }
+        });
+        Received acc = new Received(SensorConversion.MOVEMENT_ACC, 0);
+        Received lux = new Received(SensorConversion.LUXOMETER, 0);
+        Received ir = new Received(SensorConversion.IR_TEMPERATURE, 1);
+        Received hum = new Received(SensorConversion.HUMIDITY2, 0);
+        tag.run(0, HOUR, new Fanout(controller, acc, lux, ir, hum));
+
+        double ratio = (double) (tag.getNotificationCount() + writes[0]) / baseline.getNotificationCount();
+        assertTrue("traffic ratio " + ratio, ratio < 0.15);
+
+        // The shake is caught within one long period and followed at the full rate from then on
+        long shakeStart = 40 * MINUTE;
+        int caught = acc.count(shakeStart, shakeStart + 10000);
+        int all = baseShake.count(shakeStart, shakeStart + 10000);
+        assertTrue(caught + " of " + all + " samples during the shake", caught > all * 0.7);
+
+        // Steps: the first sample after the step is at most one long period late, the next one is fast
+        long[] step = lux.after(10 * MINUTE);
+        assertTrue(step[0] - 10 * MINUTE <= AdaptivePeriodController.MAX_PERIOD);
+        assertEquals(800, step[1] - step[0]);
+        step = ir.after(50 * MINUTE);
+        assertTrue(step[0] - 50 * MINUTE <= AdaptivePeriodController.MAX_PERIOD);
+        assertEquals(300, step[1] - step[0]);
+
+        // The kettle is followed closely enough that interpolating the received samples stays near the curve
+        double worst = 0;
+        for (int i = 0; i < hum.samples.size() - 1; i++) {
+            long t0 = hum.samples.get(i)[0], t1 = hum.samples.get(i + 1)[0];
+            if (t0 < 30 * MINUTE || t0 > 35 * MINUTE) continue;
+            for (long t = t0; t < t1; t += 50) {
+                double interpolated = hum.value(i) + (hum.value(i + 1) - hum.value(i)) * (t - t0) / (t1 - t0);
+                worst = Math.max(worst, Math.abs(interpolated - humidity(t)));
+            }
+        }
+        assertTrue("worst humidity error " + worst, worst < 1.0);
+    }
+
+    @Test
+    public void lengthensWhenQuietAndRespectsBounds() {
+        AdaptivePeriodController controller = new AdaptivePeriodController(AdaptivePeriodController.ANY_DEVICE, 3);
+        controller.configure(SensorConversion.BAROMETER, 200, 1000, 1f, 0.5f);
+        final List<Integer> periods = new ArrayList<>();
+        controller.setListener(new AdaptivePeriodController.Listener() {
+            @Override
+            public void onPeriodChange(UUID periodCharacteristic, int periodMillis) {
+                assertEquals(SensorConversion.BAROMETER.getPeriod(), periodCharacteristic);
+                periods.add(periodMillis);
+            }
+        });
+        float[] v = {1000};
+        long t = 0;
+        for (int i = 0; i < 20; i++) {
+            controller.onSample(0, SensorConversion.BAROMETER, t += 100, v);
+        }
+        // Changes between the thresholds keep the period
+        v[0] = 1000.7f;
+        controller.onSample(0, SensorConversion.BAROMETER, t += 100, v);
+        assertEquals(1000, controller.getPeriod(SensorConversion.BAROMETER));
+        v[0] = 1002;
+        controller.onSample(0, SensorConversion.BAROMETER, t += 100, v);
+        assertEquals("[200, 400, 800, 1000, 200]", periods.toString());
+        assertEquals(5, controller.getWriteCount(SensorConversion.BAROMETER));
+    }
+
+    @Test
+    public void movementSensorsShareOnePeriod() {
+        AdaptivePeriodController controller = new AdaptivePeriodController(AdaptivePeriodController.ANY_DEVICE, 2);
+        float[] still = {0, 0, 1};
+        float[] spin = {0, 0, 0};
+        long t = 0;
+        for (int i = 0; i < 40; i++) {
+            t += 100;
+            controller.onSample(0, SensorConversion.MOVEMENT_ACC, t, still);
+            spin[2] = i * 10;   // Turning steadily, so the gyroscope keeps the period short
+            controller.onSample(0, SensorConversion.MOVEMENT_GYRO, t, spin);
+        }
+        assertEquals(100, controller.getPeriod(SensorConversion.MOVEMENT_ACC));
+        controller.disable(SensorConversion.MOVEMENT_GYRO);
+        for (int i = 0; i < 40; i++) {
+            controller.onSample(0, SensorConversion.MOVEMENT_ACC, t += 100, still);
+        }
+        assertEquals(AdaptivePeriodController.MAX_PERIOD, controller.getPeriod(SensorConversion.MOVEMENT_GYRO));
+    }
+}
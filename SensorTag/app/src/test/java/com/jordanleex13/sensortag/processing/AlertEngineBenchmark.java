@@ -0,0 +1,41 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.Benchmarks;
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+
+import org.junit.Test;
+
+public class AlertEngineBenchmark {
+
+    private static final int SAMPLES = 2000000;
+
+    private static long timeTemperatureSamples(final AlertEngine engine) throws Exception {
+        final float[] v = {20, 25, 25};
+        return Benchmarks.best(5, new Benchmarks.Task() {
+            @Override
+            public void run() {
+                for (int i = 0; i < SAMPLES; i++) {
+                    engine.onSample(0, SensorConversion.IR_TEMPERATURE, 100L * i, v);
+                }
+            }
+        }) / SAMPLES;
+    }
+
+    /**
+     * Rules on other channels should not make a sample more expensive
+     */
+    @Test
+    public void costOfOtherChannels() throws Exception {
+        AlertEngine engine = new AlertEngine();
+        engine.add("hot", "IR_TEMPERATURE.y > 60 for 5s");
+        engine.add("warming", "rate IR_TEMPERATURE.x > 1/min");
+        long few = timeTemperatureSamples(engine);
+        for (int i = 0; i < 1000; i++) {
+            engine.add("acc" + i, "MOVEMENT_ACC.z > " + i);
+            engine.add("hum" + i, "rate HUMIDITY2 > " + i + "/min");
+        }
+        long many = timeTemperatureSamples(engine);
+        Benchmarks.report("AlertEngine: %d ns per IR sample with 2 rules, %d ns with 2000 more rules on other sensors",
+                few, many);
+    }
+}
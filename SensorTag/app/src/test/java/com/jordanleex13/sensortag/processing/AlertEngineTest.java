@@ -0,0 +1,99 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AlertEngineTest {
+
+    private static class Capture implements AlertEngine.Listener {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onAlert(AlertRule rule, int deviceId, long timestamp, double value, boolean raised) {
+            events.add((raised ? "+" : "-") + rule.getName() + "@" + timestamp);
+        }
+    }
+
+    @Test
+    public void parsesRules() {
+        AlertRule rule = AlertRule.parse("hot", "IR_TEMPERATURE.y > 60 for 5s");
+        assertEquals(SensorConversion.IR_TEMPERATURE, rule.getSensor());
+        assertEquals(1, rule.getChannel());
+        assertEquals(SensorConversion.HUMIDITY2, AlertRule.parse("wet", "rate humidity2 > 2/min").getSensor());
+
+        String[] bad = {"", "IR_TEMPERATURE", "NOPE > 1", "BAROMETER.y > 1", "BAROMETER = 1", "BAROMETER > x",
+                "BAROMETER > 1/min", "BAROMETER > 1 for 5", "BAROMETER > 1 for 5days", "BAROMETER > 1 soon"};
+        for (String text : bad) {
+            try {
+                AlertRule.parse("bad", text);
+                fail("Parsed \"" + text + "\"");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void thresholdWithHoldTimeAndHysteresis() {
+        AlertEngine engine = new AlertEngine();
+        Capture capture = new Capture();
+        engine.setListener(capture);
+        engine.add("hot", "IR_TEMPERATURE.y > 60 hysteresis 2 for 5s");
+        float[] v = new float[3];
+
+        // A 3 s spike is not long enough
+        float[] target = {50, 65, 65, 65, 50, 61, 61, 61, 61, 61, 61, 61, 59, 61, 57, 57};
+        for (int i = 0; i < target.length; i++) {
+            v[1] = target[i];
+            engine.onSample(0, SensorConversion.IR_TEMPERATURE, 1000L * i, v);
+        }
+        // Above from 5 s, held for 5 s at 10 s, 59 is within the hysteresis, cleared at 57
+        assertEquals("[+hot@10000, -hot@14000]", capture.events.toString());
+    }
+
+    @Test
+    public void rateOfChange() {
+        AlertEngine engine = new AlertEngine();
+        Capture capture = new Capture();
+        engine.setListener(capture);
+        AlertRule rule = engine.add("wet", "rate HUMIDITY2 > 2/min hysteresis 1");
+        float[] v = new float[1];
+        // Steady, then rising 6 %/min for two minutes, then steady again
+        double humidity = 40;
+        long raised = -1, cleared = -1;
+        for (int s = 0; s < 600; s++) {
+            if (s >= 120 && s < 240) humidity += 0.1;
+            v[0] = (float) humidity;
+            engine.onSample(0, SensorConversion.HUMIDITY2, 1000L * s, v);
+            if (rule.isActive() && raised < 0) raised = s;
+            if (!rule.isActive() && raised >= 0 && cleared < 0) cleared = s;
+        }
+        assertEquals(2, capture.events.size());
+        // The smoothed rate crosses 2 %/min about 4 s after the rise starts
+        assertTrue("Raised at " + raised, raised > 120 && raised < 130);
+        assertTrue("Cleared at " + cleared, cleared > 240 && cleared < 260);
+    }
+
+    @Test
+    public void onlyRulesOfTheSampleChannelRun() {
+        AlertEngine engine = new AlertEngine();
+        Capture capture = new Capture();
+        engine.setListener(capture);
+        engine.add("cold", "BAROMETER < 990");
+        engine.add("bright", "LUXOMETER > 1000");
+        engine.add("spin", "MOVEMENT_GYRO.z > 100");
+        engine.onSample(0, SensorConversion.LUXOMETER, 1, new float[]{2000});
+        engine.onSample(0, SensorConversion.MOVEMENT_GYRO, 2, new float[]{500, 500, 0});
+        assertEquals("[+bright@1]", capture.events.toString());
+        assertTrue(engine.remove("bright"));
+        assertFalse(engine.remove("bright"));
+        assertEquals(2, engine.getRules().size());
+        assertArrayEquals(new SensorConversion[]{SensorConversion.MOVEMENT_GYRO, SensorConversion.BAROMETER},
+                engine.getSensors());
+    }
+}
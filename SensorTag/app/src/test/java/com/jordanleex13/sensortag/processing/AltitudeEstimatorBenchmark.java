@@ -0,0 +1,30 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.Benchmarks;
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+
+import org.junit.Test;
+
+public class AltitudeEstimatorBenchmark {
+
+    private static final int SAMPLES = 1000000;
+
+    @Test
+    public void update() throws Exception {
+        final AltitudeEstimator estimator = new AltitudeEstimator(AltitudeEstimator.ANY_DEVICE, true);
+        final float[] pressure = {1000};
+        final float[] acc = {0, 0, -1};
+        final long[] t = new long[1];
+        long best = Benchmarks.best(3, new Benchmarks.Task() {
+            @Override
+            public void run() {
+                for (int i = 0; i < SAMPLES; i++) {
+                    t[0] += 100;
+                    estimator.onSample(0, SensorConversion.MOVEMENT_ACC, t[0], acc);
+                    estimator.onSample(0, SensorConversion.BAROMETER, t[0], pressure);
+                }
+            }
+        });
+        Benchmarks.report("AltitudeEstimator: %d ns per barometer and accelerometer sample pair", best / SAMPLES);
+    }
+}
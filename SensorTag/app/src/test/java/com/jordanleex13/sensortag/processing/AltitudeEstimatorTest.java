@@ -0,0 +1,103 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AltitudeEstimatorTest {
+
+    private static float pressureAt(double altitude) {
+        return (float) (AltitudeEstimator.SEA_LEVEL_HPA * Math.pow(1 - altitude / 44330.0, 5.255));
+    }
+
+    /**
+     * Lift ride sampled every 100 ms: still for 10 s, 1 m/s^2 up for 2 s, then 2 m/s for 20 s. Returns the RMS
+     * speed error over the 5 s after the lift starts moving.
+     */
+    private static double ride(AltitudeEstimator estimator, double altitudeNoise, double accelNoise) {
+        Random random = new Random(10);
+        float[] pressure = new float[1];
+        float[] acc = new float[3];
+        double altitude = 50;
+        double speed = 0;
+        double sumSquares = 0;
+        int n = 0;
+        for (int i = 0; i < 320; i++) {
+            double t = i / 10.0;
+            double accel = t >= 10 && t < 12 ? 1 : 0;
+            speed += accel * 0.1;
+            altitude += speed * 0.1;
+            long timestamp = 1466000000000L + 100L * i;
+
+            // Tag mounted on its side, specific force is gravity plus the lift's acceleration
+            double g = 1 + accel / AltitudeEstimator.GRAVITY;
+            acc[0] = (float) (g + accelNoise * random.nextGaussian());
+            acc[1] = (float) (accelNoise * random.nextGaussian());
+            acc[2] = (float) (accelNoise * random.nextGaussian());
+            estimator.onSample(0, SensorConversion.MOVEMENT_ACC, timestamp, acc);
+            pressure[0] = pressureAt(altitude + altitudeNoise * random.nextGaussian());
+            estimator.onSample(0, SensorConversion.BAROMETER, timestamp, pressure);
+
+            if (t >= 10 && t < 15) {
+                double e = estimator.getVerticalSpeed() - speed;
+                sumSquares += e * e;
+                n++;
+            }
+        }
+        assertEquals(2, speed, 1e-9);
+        assertEquals(2, estimator.getVerticalSpeed(), 0.3);
+        assertEquals(altitude, estimator.getAltitude(), 0.5);
+        return Math.sqrt(sumSquares / n);
+    }
+
+    @Test
+    public void standardAtmosphere() {
+        assertEquals(0, AltitudeEstimator.toAltitude(1013.25, 1013.25), 1e-9);
+        assertEquals(1000, AltitudeEstimator.toAltitude(898.76, 1013.25), 2);
+        assertEquals(5000, AltitudeEstimator.toAltitude(540.48, 1013.25), 10);
+    }
+
+    @Test
+    public void calibratesReferenceToKnownAltitude() {
+        AltitudeEstimator estimator = new AltitudeEstimator();
+        estimator.onSample(0, SensorConversion.BAROMETER, 0, new float[]{1000});
+        estimator.calibrate(250);
+        estimator.onSample(0, SensorConversion.BAROMETER, 100, new float[]{1000});
+        assertEquals(250, estimator.getRawAltitude(), 0.01);
+        assertTrue(estimator.getReferencePressure() > 1000);
+    }
+
+    @Test
+    public void smoothsNoisyStaticReadings() {
+        AltitudeEstimator estimator = new AltitudeEstimator();
+        Random random = new Random(11);
+        float[] pressure = new float[1];
+        double sum = 0, sumSquares = 0;
+        int n = 0;
+        for (int i = 0; i < 600; i++) {
+            pressure[0] = pressureAt(100 + 0.5 * random.nextGaussian());
+            estimator.onSample(0, SensorConversion.BAROMETER, 100L * i, pressure);
+            if (i >= 300) {
+                sum += estimator.getAltitude();
+                sumSquares += estimator.getAltitude() * estimator.getAltitude();
+                n++;
+            }
+        }
+        double mean = sum / n;
+        double std = Math.sqrt(sumSquares / n - mean * mean);
+        assertEquals(100, mean, 0.2);
+        assertTrue("Filtered std " + std, std < 0.25);
+        assertEquals(0, estimator.getVerticalSpeed(), 0.3);
+    }
+
+    @Test
+    public void accelerometerShortensSpeedLag() {
+        double barometerOnly = ride(new AltitudeEstimator(), 0.5, 0.02);
+        double fused = ride(new AltitudeEstimator(AltitudeEstimator.ANY_DEVICE, true), 0.5, 0.02);
+        assertTrue(fused + " m/s fused vs " + barometerOnly + " m/s", fused < barometerOnly / 2);
+    }
+}
@@ -0,0 +1,33 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.Benchmarks;
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+
+import org.junit.Test;
+
+public class OrientationFilterBenchmark {
+
+    private static final int FRAMES = 1000000;
+
+    @Test
+    public void update() throws Exception {
+        final OrientationFilter filter = new OrientationFilter();
+        // Tilted tag at rest, readings in the units of SensorConversion
+        final float[] acc = {0.34f, -0.5f, 0.8f};
+        final float[] gyro = {0.2f, -0.1f, 0.05f};
+        final float[] mag = {20f, 5f, -40f};
+        final long[] t = new long[1];
+        long best = Benchmarks.best(3, new Benchmarks.Task() {
+            @Override
+            public void run() {
+                for (int i = 0; i < FRAMES; i++) {
+                    t[0] += 10;
+                    filter.onSample(0, SensorConversion.MOVEMENT_ACC, t[0], acc);
+                    filter.onSample(0, SensorConversion.MOVEMENT_GYRO, t[0], gyro);
+                    filter.onSample(0, SensorConversion.MOVEMENT_MAG, t[0], mag);
+                }
+            }
+        });
+        Benchmarks.report("OrientationFilter: %d ns per update", best / FRAMES);
+    }
+}
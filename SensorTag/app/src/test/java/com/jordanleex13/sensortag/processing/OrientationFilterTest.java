@@ -0,0 +1,177 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class OrientationFilterTest {
+
+    private static final double DEG = Math.PI / 180;
+    /** Earth field in uT, 60 degrees inclination, x pointing to magnetic north */
+    private static final double[] EARTH_MAG = {24, 0, -41.6};
+    private static final double[] GRAVITY = {0, 0, 1};
+
+    /**
+     * Simulated tag: the true orientation (sensor to earth) and the readings it produces, in the units
+     * and axis conventions of {@code SensorConversion}
+     */
+    private static class Tag {
+        double[] q = {1, 0, 0, 0};
+        double[] rate = new double[3];      // Body rate, rad/s
+        double gyroNoise, gyroBias, accNoise, magNoise;
+        boolean magnetometer = true;
+        final Random random = new Random(5);
+        final float[] acc = new float[3], gyro = new float[3], mag = new float[3];
+
+        void setEuler(double roll, double pitch, double yaw) {
+            q = mul(mul(new double[]{Math.cos(yaw / 2), 0, 0, Math.sin(yaw / 2)},
+                    new double[]{Math.cos(pitch / 2), 0, Math.sin(pitch / 2), 0}),
+                    new double[]{Math.cos(roll / 2), Math.sin(roll / 2), 0, 0});
+        }
+
+        /** Advances the true orientation by {@code dt} seconds in 1 ms steps */
+        void move(double dt) {
+            for (double t = 0; t < dt - 1e-9; t += 0.001) {
+                double h = Math.min(0.001, dt - t);
+                double[] d = mul(q, new double[]{0, rate[0], rate[1], rate[2]});
+                for (int i = 0; i < 4; i++) q[i] += 0.5 * d[i] * h;
+                normalize(q);
+            }
+        }
+
+        void send(OrientationFilter filter, long timestamp) {
+            double[] a = toBody(GRAVITY);
+            double[] m = toBody(EARTH_MAG);
+            acc[0] = (float) -(a[0] + accNoise * random.nextGaussian());
+            acc[1] = (float) (a[1] + accNoise * random.nextGaussian());
+            acc[2] = (float) -(a[2] + accNoise * random.nextGaussian());
+            for (int i = 0; i < 3; i++) {
+                gyro[i] = (float) (rate[i] / DEG + gyroBias + gyroNoise * random.nextGaussian());
+            }
+            if (magnetometer) {
+                mag[0] = (float) (m[1] + magNoise * random.nextGaussian());
+                mag[1] = (float) (m[0] + magNoise * random.nextGaussian());
+                mag[2] = (float) -(m[2] + magNoise * random.nextGaussian());
+            }
+            filter.onSample(0, SensorConversion.MOVEMENT_ACC, timestamp, acc);
+            filter.onSample(0, SensorConversion.MOVEMENT_GYRO, timestamp, gyro);
+            filter.onSample(0, SensorConversion.MOVEMENT_MAG, timestamp, mag);
+        }
+
+        double[] toBody(double[] v) {
+            double[] c = {q[0], -q[1], -q[2], -q[3]};
+            double[] r = mul(mul(c, new double[]{0, v[0], v[1], v[2]}), q);
+            return new double[]{r[1], r[2], r[3]};
+        }
+
+        /** Angle in degrees between the true and estimated orientation */
+        double error(OrientationFilter filter) {
+            float[] e = new float[4];
+            filter.getQuaternion(e);
+            double dot = Math.abs(q[0] * e[0] + q[1] * e[1] + q[2] * e[2] + q[3] * e[3]);
+            return 2 * Math.acos(Math.min(1, dot)) / DEG;
+        }
+    }
+
+    private static double[] mul(double[] a, double[] b) {
+        return new double[]{
+                a[0] * b[0] - a[1] * b[1] - a[2] * b[2] - a[3] * b[3],
+                a[0] * b[1] + a[1] * b[0] + a[2] * b[3] - a[3] * b[2],
+                a[0] * b[2] - a[1] * b[3] + a[2] * b[0] + a[3] * b[1],
+                a[0] * b[3] + a[1] * b[2] - a[2] * b[1] + a[3] * b[0]};
+    }
+
+    private static void normalize(double[] q) {
+        double n = Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+        for (int i = 0; i < 4; i++) q[i] /= n;
+    }
+
+    /**
+     * Holds the tag still and feeds it for {@code millis} at a fixed period
+     */
+    private static long hold(Tag tag, OrientationFilter filter, long start, long millis, long period) {
+        long t = start;
+        for (; t < start + millis; t += period) tag.send(filter, t);
+        return t;
+    }
+
+    @Test
+    public void convergesToStaticAttitude() {
+        double[][] attitudes = {{30, -20, 120}, {-60, 45, -90}, {170, 10, 10}, {0, 0, 0}};
+        for (double[] a : attitudes) {
+            Tag tag = new Tag();
+            tag.setEuler(a[0] * DEG, a[1] * DEG, a[2] * DEG);
+            OrientationFilter filter = new OrientationFilter();
+            hold(tag, filter, 1000, 4000, 20);
+            assertEquals(a[0], filter.getRoll(), 1.0);
+            assertEquals(a[1], filter.getPitch(), 1.0);
+            assertEquals(a[2], filter.getYaw(), 1.0);
+        }
+    }
+
+    @Test
+    public void withoutMagnetometerOnlyTiltIsObserved() {
+        Tag tag = new Tag();
+        tag.magnetometer = false;
+        tag.setEuler(25 * DEG, -40 * DEG, 0);
+        OrientationFilter filter = new OrientationFilter();
+        hold(tag, filter, 0, 4000, 20);
+        assertEquals(25, filter.getRoll(), 1.0);
+        assertEquals(-40, filter.getPitch(), 1.0);
+    }
+
+    /**
+     * Tumbling trajectory sampled at irregular intervals with noisy, biased sensors
+     */
+    @Test
+    public void tracksTumblingTagWithIrregularSpacing() {
+        Tag tag = new Tag();
+        tag.gyroNoise = 0.5;
+        tag.gyroBias = 0.3;
+        tag.accNoise = 0.01;
+        tag.magNoise = 0.5;
+        tag.setEuler(10 * DEG, 20 * DEG, -30 * DEG);
+        OrientationFilter filter = new OrientationFilter();
+        long t = hold(tag, filter, 0, 3000, 20);
+
+        Random random = new Random(6);
+        double maxError = 0;
+        double sumError = 0;
+        int n = 0;
+        long end = t + 30000;
+        while (t < end) {
+            double s = t / 1000.0;
+            tag.rate[0] = 60 * DEG * Math.sin(0.7 * s);
+            tag.rate[1] = 45 * DEG * Math.cos(0.4 * s);
+            tag.rate[2] = 30 * DEG;
+            long step = 5 + random.nextInt(41);
+            tag.move(step / 1000.0);
+            t += step;
+            tag.send(filter, t);
+            double e = tag.error(filter);
+            maxError = Math.max(maxError, e);
+            sumError += e;
+            n++;
+        }
+        assertTrue("Mean error " + sumError / n, sumError / n < 3);
+        assertTrue("Max error " + maxError, maxError < 8);
+    }
+
+    @Test
+    public void reconvergesAfterGap() {
+        Tag tag = new Tag();
+        tag.setEuler(0, 0, 0);
+        OrientationFilter filter = new OrientationFilter();
+        long t = hold(tag, filter, 0, 3000, 20);
+        assertTrue(tag.error(filter) < 1);
+
+        // Turned over while out of range
+        tag.setEuler(-120 * DEG, 30 * DEG, 75 * DEG);
+        hold(tag, filter, t + 20000, 100, 20);
+        assertTrue("Error " + tag.error(filter), tag.error(filter) < 1);
+    }
+}
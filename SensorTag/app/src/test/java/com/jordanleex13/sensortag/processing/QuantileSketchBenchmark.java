@@ -0,0 +1,26 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.Benchmarks;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class QuantileSketchBenchmark {
+
+    @Test
+    public void add() throws Exception {
+        final QuantileSketch sketch = new QuantileSketch();
+        final double[] samples = new double[1 << 20];
+        Random random = new Random(17);
+        for (int i = 0; i < samples.length; i++) samples[i] = random.nextGaussian();
+        long best = Benchmarks.best(5, new Benchmarks.Task() {
+            @Override
+            public void run() {
+                for (double x : samples) sketch.add(x);
+            }
+        });
+        Benchmarks.report("QuantileSketch: %.1f ns per sample, %d centroids after %d samples",
+                (double) best / samples.length, sketch.getCentroidCount(), sketch.getCount());
+    }
+}
@@ -0,0 +1,208 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.SensorTag.SensorTagSimulator;
+import com.jordanleex13.sensortag.recording.SessionReader;
+import com.jordanleex13.sensortag.recording.SessionRecorder;
+import com.jordanleex13.sensortag.recording.SessionStats;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class QuantileSketchTest {
+
+    private static final double[] QUANTILES = {0.001, 0.01, 0.05, 0.25, 0.5, 0.75, 0.95, 0.99, 0.999};
+
+    /**
+     * @return how far, in rank, {@code estimate} is from quantile {@code q} of the sorted samples
+     */
+    static double rankError(double[] sorted, double q, double estimate) {
+        int below = 0;
+        while (below < sorted.length && sorted[below] < estimate) below++;
+        int atOrBelow = below;
+        while (atOrBelow < sorted.length && sorted[atOrBelow] <= estimate) atOrBelow++;
+        double lo = (double) below / sorted.length;
+        double hi = (double) atOrBelow / sorted.length;
+        return q < lo ? lo - q : q > hi ? q - hi : 0;
+    }
+
+    /**
+     * Rank error allowed at {@code q}: the t-digest is most accurate at the tails
+     */
+    private static double bound(double q) {
+        return 0.002 + 0.01 * q * (1 - q);
+    }
+
+    private static void check(String name, double[] samples, QuantileSketch sketch) {
+        double[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        for (double q : QUANTILES) {
+            double e = rankError(sorted, q, sketch.quantile(q));
+            assertTrue(name + " q=" + q + " rank error " + e, e <= bound(q));
+        }
+        assertEquals(sorted[0], sketch.getMin(), 0);
+        assertEquals(sorted[sorted.length - 1], sketch.getMax(), 0);
+        assertEquals(sorted[0], sketch.quantile(0), 0);
+        assertEquals(sorted[sorted.length - 1], sketch.quantile(1), 0);
+    }
+
+    private static double[] generate(String distribution, int n, long seed) {
+        Random random = new Random(seed);
+        double[] samples = new double[n];
+        for (int i = 0; i < n; i++) {
+            switch (distribution) {
+                case "uniform":
+                    samples[i] = random.nextDouble();
+                    break;
+                case "normal":
+                    samples[i] = 21 + 0.3 * random.nextGaussian();
+                    break;
+                case "exponential":
+                    samples[i] = -Math.log(1 - random.nextDouble()) * 300;
+                    break;
+                default:
+                    // Slow drift, the worst case for a sketch that only sees nearby values together
+                    samples[i] = i + random.nextDouble();
+                    break;
+            }
+        }
+        return samples;
+    }
+
+    @Test
+    public void accurateAcrossDistributions() {
+        for (String d : new String[]{"uniform", "normal", "exponential", "ascending"}) {
+            double[] samples = generate(d, 200000, 15);
+            QuantileSketch sketch = new QuantileSketch();
+            for (double x : samples) sketch.add(x);
+            assertEquals(samples.length, sketch.getCount());
+            assertTrue(sketch.getCentroidCount() <= 2 * QuantileSketch.DEFAULT_COMPRESSION);
+            check(d, samples, sketch);
+        }
+    }
+
+    @Test
+    public void mergedPartsMatchExactQuantiles() {
+        double[] samples = generate("exponential", 200000, 16);
+        QuantileSketch merged = new QuantileSketch();
+        // Uneven parts, like segments of a session or tags of different age
+        int from = 0;
+        for (int size : new int[]{7, 1000, 50000, 3, 148990}) {
+            QuantileSketch part = new QuantileSketch();
+            for (int i = from; i < from + size; i++) part.add(samples[i]);
+            from += size;
+            merged.merge(part);
+        }
+        assertEquals(samples.length, merged.getCount());
+        check("merged", samples, merged);
+    }
+
+    /**
+     * Half a day of IR temperature and light from a simulated tag, recorded, read back and sketched per
+     * segment in parallel, against the exact quantiles of the decoded recording
+     */
+    @Test
+    public void recordedSessionMatchesExactQuantiles() throws Exception {
+        File dir = File.createTempFile("quantiles", "");
+        assertTrue(dir.delete());
+        try {
+            final SessionRecorder recorder = new SessionRecorder(dir, 1 << 16, 1000);
+            final Random random = new Random(40);
+            SensorTagSimulator tag = new SensorTagSimulator(0);
+            tag.add(SensorConversion.IR_TEMPERATURE, 1000, new SensorTagSimulator.Signal() {
+                @Override
+                public void sample(long timestamp, float[] out) {
+                    double day = Math.sin(timestamp * 2 * Math.PI / 86400000);
+                    out[0] = (float) (30 + 3 * day + 0.5 * random.nextGaussian());
+                    out[1] = (float) (22 + 2 * day + 0.1 * random.nextGaussian());
+                }
+            });
+            tag.add(SensorConversion.LUXOMETER, 800, new SensorTagSimulator.Signal() {
+                @Override
+                public void sample(long timestamp, float[] out) {
+                    // Lamp light, with daylight through a window for part of the day
+                    double sun = Math.max(0, Math.sin(timestamp * 2 * Math.PI / 86400000 - 1));
+                    out[0] = (float) (150 + 150 * sun + 10 * random.nextGaussian());
+                }
+            });
+            tag.runFrames(0, 12 * 3600 * 1000, new SensorTagSimulator.FrameSink() {
+                @Override
+                public void onFrame(int deviceId, UUID data, long timestamp, byte[] value) {
+                    recorder.append(timestamp, deviceId, data, value);
+                }
+            });
+            recorder.close();
+
+            // Exact: every decoded sample of the recording
+            final List<List<Double>> exact = new ArrayList<>();
+            final SensorConversion[] sensors = {SensorConversion.IR_TEMPERATURE, SensorConversion.LUXOMETER};
+            for (SensorConversion s : sensors) {
+                for (int c = 0; c < s.getChannelCount(); c++) exact.add(new ArrayList<Double>());
+            }
+            SessionReader reader = new SessionReader(dir);
+            assertTrue(reader.getSegmentCount() > 4);
+            for (int segment = 0; segment < reader.getSegmentCount(); segment++) {
+                SessionStats.readSegment(reader, segment, new SampleListener() {
+                    @Override
+                    public void onSample(int deviceId, SensorConversion sensor, long timestamp, float[] values) {
+                        int list = 0;
+                        for (SensorConversion s : sensors) {
+                            if (s == sensor) {
+                                for (int c = 0; c < s.getChannelCount(); c++) exact.get(list + c).add((double) values[c]);
+                                return;
+                            }
+                            list += s.getChannelCount();
+                        }
+                    }
+                });
+            }
+
+            QuantileSet quantiles = SessionStats.computeQuantiles(dir, 4);
+            int list = 0;
+            for (SensorConversion s : sensors) {
+                for (int c = 0; c < s.getChannelCount(); c++, list++) {
+                    double[] sorted = new double[exact.get(list).size()];
+                    for (int i = 0; i < sorted.length; i++) sorted[i] = exact.get(list).get(i);
+                    Arrays.sort(sorted);
+                    assertEquals(tag.getNotificationCount(s), sorted.length);
+                    for (double q : new double[]{0.5, 0.95, 0.99}) {
+                        double e = rankError(sorted, q, quantiles.quantile(0, s, c, q));
+                        assertTrue(s + "." + c + " q=" + q + " rank error " + e, e <= bound(q));
+                    }
+                }
+            }
+        } finally {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File f : files) f.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void smallAndEmpty() {
+        QuantileSketch sketch = new QuantileSketch();
+        assertTrue(Double.isNaN(sketch.quantile(0.5)));
+        sketch.add(Double.NaN);
+        assertEquals(0, sketch.getCount());
+        sketch.add(3);
+        assertEquals(3, sketch.quantile(0.5), 0);
+        for (int i = 1; i <= 5; i++) sketch.add(i);
+        // Exact while the buffer holds every sample
+        assertEquals(1, sketch.quantile(0), 0);
+        assertEquals(5, sketch.quantile(1), 0);
+        assertEquals(3, sketch.quantile(0.5), 0.5);
+        sketch.reset();
+        assertEquals(0, sketch.getCount());
+        assertTrue(Double.isNaN(sketch.getMax()));
+    }
+}
@@ -0,0 +1,130 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class RollupSetTest {
+
+    private static final long START = 1465999980000L;   // Minute aligned
+
+    /**
+     * One sample every 100 ms for two hours, value = seconds since start
+     */
+    private static RollupSet feed() {
+        RollupSet set = new RollupSet();
+        feed(set, 0, 2 * 3600 * 10);
+        return set;
+    }
+
+    private static void feed(RollupSet set, int from, int to) {
+        float[] v = new float[1];
+        for (int i = from; i < to; i++) {
+            v[0] = i / 10;
+            set.onSample(0, SensorConversion.LUXOMETER, START + i * 100L, v);
+        }
+    }
+
+    @Test
+    public void bucketsHoldMinMaxMean() {
+        RollupSet set = feed();
+        Rollup minutes = set.get(0, SensorConversion.LUXOMETER, 1);
+        assertEquals(120, minutes.size());
+        int b = minutes.find(START + 60 * 1000 + 5);
+        assertEquals(START + 60 * 1000, minutes.getStart(b));
+        assertEquals(600, minutes.getCount(b));
+        assertEquals(60f, minutes.getMin(b, 0), 0);
+        assertEquals(119f, minutes.getMax(b, 0), 0);
+        assertEquals(89.5f, minutes.getMean(b, 0), 1e-3);
+        assertNull(set.get(1, SensorConversion.LUXOMETER, 0));
+    }
+
+    @Test
+    public void selectPicksCoarsestResolutionThatFillsTheChart() {
+        RollupSet set = feed();
+        long day = 24 * 60 * 60 * 1000L;
+        assertEquals(60 * 60 * 1000L, set.select(0, SensorConversion.LUXOMETER, START, START + 30 * day, 500).getWidth());
+        assertEquals(60 * 1000L, set.select(0, SensorConversion.LUXOMETER, START, START + day, 500).getWidth());
+        long lastMinute = START + 2 * 60 * 60 * 1000L - 60 * 1000;
+        assertEquals(1000L, set.select(0, SensorConversion.LUXOMETER, lastMinute, lastMinute + 60 * 1000, 500).getWidth());
+        // The 1 s buckets of the first hour are gone
+        assertEquals(60 * 1000L, set.select(0, SensorConversion.LUXOMETER, START, START + 60 * 1000, 500).getWidth());
+    }
+
+    @Test
+    public void fineResolutionsKeepOnlyTheRecentPast() {
+        RollupSet set = feed();
+        Rollup seconds = set.get(0, SensorConversion.LUXOMETER, 0);
+        assertEquals(RollupSet.RETENTION[0], seconds.size());
+        assertEquals(START + 3600 * 1000L, seconds.getStart(0));
+        assertEquals(3600f, seconds.getMin(0, 0), 0);
+        assertEquals(seconds.size() - 1, seconds.find(START + 2 * 3600 * 1000L - 1));
+        assertFalse(seconds.covers(START));
+        assertTrue(seconds.covers(START + 3600 * 1000L));
+        Rollup minutes = set.get(0, SensorConversion.LUXOMETER, 1);
+        assertEquals(120, minutes.size());
+        assertTrue(minutes.covers(START - 1));
+    }
+
+    @Test
+    public void writeReadRoundTrip() throws Exception {
+        File dir = File.createTempFile("rollups", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+        try {
+            feed().write(dir);
+            RollupSet set = RollupSet.read(dir);
+            Rollup seconds = set.get(0, SensorConversion.LUXOMETER, 0);
+            assertEquals(3600, seconds.size());
+            assertEquals(10, seconds.getCount(42));
+            assertEquals(3642f, seconds.getMean(42, 0), 0);
+            assertEquals(120, set.get(0, SensorConversion.LUXOMETER, 1).size());
+        } finally {
+            new File(dir, RollupSet.FILE_NAME).delete();
+            dir.delete();
+        }
+    }
+
+    /**
+     * Each save appends what is new since the previous one, so it does not grow with the session
+     */
+    @Test
+    public void savesAppendOnlyNewBuckets() throws Exception {
+        File dir = File.createTempFile("rollups", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+        File file = new File(dir, RollupSet.FILE_NAME);
+        try {
+            RollupSet live = new RollupSet();
+            long previous = 0;
+            long[] growth = new long[12];
+            // Ten minutes at a time, stopping half way into a second so its bucket is saved open and again later
+            for (int step = 0; step < growth.length; step++) {
+                feed(live, step * 6000 + (step == 0 ? 0 : 5), (step + 1) * 6000 + 5);
+                live.write(dir);
+                growth[step] = file.length() - previous;
+                previous = file.length();
+            }
+            assertEquals(growth[1], growth[growth.length - 1], 100);
+
+            RollupSet read = RollupSet.read(dir);
+            for (int r = 0; r < RollupSet.RESOLUTIONS.length; r++) {
+                Rollup expected = live.get(0, SensorConversion.LUXOMETER, r);
+                Rollup actual = read.get(0, SensorConversion.LUXOMETER, r);
+                assertEquals(expected.size(), actual.size());
+                for (int b = 0; b < expected.size(); b++) {
+                    assertEquals(expected.getStart(b), actual.getStart(b));
+                    assertEquals(expected.getCount(b), actual.getCount(b));
+                    assertEquals(expected.getMean(b, 0), actual.getMean(b, 0), 0);
+                }
+            }
+        } finally {
+            file.delete();
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.Benchmarks;
+
+import org.junit.Test;
+
+public class RunningStatsBenchmark {
+
+    private static final int SAMPLES = 10000000;
+
+    @Test
+    public void add() throws Exception {
+        final RunningStats stats = new RunningStats(3);
+        final float[] v = {0.1f, -0.2f, 1.0f};
+        long best = Benchmarks.best(3, new Benchmarks.Task() {
+            @Override
+            public void run() {
+                for (int i = 0; i < SAMPLES; i++) {
+                    v[0] = i & 0xFF;
+                    stats.add(v);
+                }
+            }
+        });
+        Benchmarks.report("RunningStats: %.1f ns per three channel sample", (double) best / SAMPLES);
+    }
+}
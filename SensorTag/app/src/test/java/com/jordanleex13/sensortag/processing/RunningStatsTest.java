@@ -0,0 +1,100 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RunningStatsTest {
+
+    private static double[] twoPass(float[][] samples, int channel) {
+        double mean = 0;
+        for (float[] s : samples) mean += s[channel];
+        mean /= samples.length;
+        double m2 = 0;
+        for (float[] s : samples) m2 += (s[channel] - mean) * (s[channel] - mean);
+        return new double[]{mean, m2 / (samples.length - 1)};
+    }
+
+    @Test
+    public void matchesTwoPassOnLargeOffset() {
+        // Pressure in Pa with centimetre scale noise: the naive sum of squares loses every digit
+        Random random = new Random(12);
+        float[][] samples = new float[100000][2];
+        RunningStats stats = new RunningStats(2);
+        for (float[] s : samples) {
+            s[0] = (float) (101325 + 0.5 * random.nextGaussian());
+            s[1] = (float) (-3 + 2 * random.nextGaussian());
+            stats.add(s);
+        }
+        for (int c = 0; c < 2; c++) {
+            double[] expected = twoPass(samples, c);
+            assertEquals(expected[0], stats.getMean(c), 1e-9 * Math.abs(expected[0]));
+            assertEquals(expected[1], stats.getVariance(c), 1e-6 * expected[1]);
+        }
+        assertEquals(samples.length, stats.getCount());
+    }
+
+    @Test
+    public void mergeEqualsSequential() {
+        Random random = new Random(13);
+        RunningStats all = new RunningStats(3);
+        RunningStats[] parts = {new RunningStats(3), new RunningStats(3), new RunningStats(3), new RunningStats(3)};
+        float[] v = new float[3];
+        for (int i = 0; i < 10000; i++) {
+            for (int c = 0; c < 3; c++) v[c] = (float) (1000 * c + (c + 1) * random.nextGaussian());
+            all.add(v);
+            // Uneven parts, one of them empty
+            parts[i < 10 ? 0 : i < 7000 ? 1 : 3].add(v);
+        }
+        RunningStats merged = new RunningStats(3);
+        for (RunningStats p : parts) merged.merge(p);
+        assertEquals(all.getCount(), merged.getCount());
+        for (int c = 0; c < 3; c++) {
+            assertEquals(all.getMean(c), merged.getMean(c), 1e-9 * Math.abs(all.getMean(c)) + 1e-12);
+            assertEquals(all.getVariance(c), merged.getVariance(c), 1e-9 * all.getVariance(c));
+            assertEquals(all.getMin(c), merged.getMin(c), 0);
+            assertEquals(all.getMax(c), merged.getMax(c), 0);
+        }
+    }
+
+    @Test
+    public void emptyAndReset() {
+        RunningStats stats = new RunningStats(1);
+        assertTrue(Double.isNaN(stats.getMean(0)));
+        assertTrue(Float.isNaN(stats.getMin(0)));
+        stats.add(new float[]{4});
+        assertEquals(4, stats.getMean(0), 0);
+        assertTrue(Double.isNaN(stats.getVariance(0)));
+        stats.add(new float[]{8});
+        assertEquals(8, stats.getVariance(0), 1e-12);
+        assertEquals(4, stats.getMin(0), 0);
+        assertEquals(8, stats.getMax(0), 0);
+        stats.reset();
+        assertEquals(0, stats.getCount());
+        assertTrue(Float.isNaN(stats.getMax(0)));
+    }
+
+    @Test
+    public void windowsRestartAndTotalsKeepCounting() {
+        StatsSet set = new StatsSet();
+        float[] v = new float[3];
+        for (int i = 0; i < 10; i++) {
+            v[0] = i;
+            set.onSample(5, SensorConversion.MOVEMENT_ACC, i, v);
+        }
+        set.resetWindows();
+        for (int i = 0; i < 4; i++) {
+            v[0] = 100;
+            set.onSample(5, SensorConversion.MOVEMENT_ACC, i, v);
+        }
+        assertEquals(14, set.getTotal(5, SensorConversion.MOVEMENT_ACC).getCount());
+        assertEquals(4, set.getWindow(5, SensorConversion.MOVEMENT_ACC).getCount());
+        assertEquals(100, set.getWindow(5, SensorConversion.MOVEMENT_ACC).getMean(0), 0);
+        assertNull(set.getTotal(0, SensorConversion.MOVEMENT_ACC));
+        assertNull(set.getTotal(5, SensorConversion.BAROMETER));
+    }
+}
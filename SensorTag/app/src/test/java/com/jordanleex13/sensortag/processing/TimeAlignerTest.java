@@ -0,0 +1,150 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.SensorTag.SensorTagSimulator;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TimeAlignerTest {
+
+    /**
+     * Every channel a ramp of one unit per second, so a correctly interpolated frame holds its own time
+     */
+    private static final SensorTagSimulator.Signal RAMP = new SensorTagSimulator.Signal() {
+        @Override
+        public void sample(long timestamp, float[] out) {
+            out[0] = out[1] = out[2] = timestamp / 1000f;
+        }
+    };
+
+    private static class Frames implements TimeAligner.Listener {
+        final List<Long> times = new ArrayList<>();
+        final List<float[]> values = new ArrayList<>();
+        long receivedAt;
+        long maxLatency;
+
+        @Override
+        public void onFrame(int deviceId, long timestamp, float[] v) {
+            times.add(timestamp);
+            values.add(v.clone());
+            maxLatency = Math.max(maxLatency, receivedAt - timestamp);
+        }
+    }
+
+    private static SampleListener feed(final TimeAligner aligner, final Frames frames) {
+        return new SampleListener() {
+            @Override
+            public void onSample(int deviceId, SensorConversion sensor, long timestamp, float[] values) {
+                frames.receivedAt = timestamp;
+                aligner.onSample(deviceId, sensor, timestamp, values);
+            }
+        };
+    }
+
+    private static SensorTagSimulator tag() {
+        SensorTagSimulator tag = new SensorTagSimulator(0);
+        tag.add(SensorConversion.IR_TEMPERATURE, 300, RAMP);
+        tag.add(SensorConversion.MOVEMENT_ACC, 100, RAMP);
+        tag.add(SensorConversion.BAROMETER, 250, RAMP);
+        tag.add(SensorConversion.LUXOMETER, 800, RAMP);
+        return tag;
+    }
+
+    @Test
+    public void linearFramesLineUpSensorsWithDifferentPeriods() {
+        TimeAligner aligner = new TimeAligner(TimeAligner.ANY_DEVICE, 50, 2000, TimeAligner.Interpolation.LINEAR,
+                "IR_TEMPERATURE.y", "MOVEMENT_ACC.z", "BAROMETER", "LUXOMETER");
+        assertArrayEquals(new SensorConversion[]{SensorConversion.IR_TEMPERATURE, SensorConversion.MOVEMENT_ACC,
+                SensorConversion.BAROMETER, SensorConversion.LUXOMETER}, aligner.getSensors());
+        Frames frames = new Frames();
+        aligner.setListener(frames);
+        tag().run(1000, 61000, feed(aligner, frames));
+
+        // Ticks every 50 ms from the first sample, up to the last luxometer sample at 60.2 s
+        assertEquals(1000, (long) frames.times.get(0));
+        assertEquals(60200, (long) frames.times.get(frames.times.size() - 1));
+        for (int i = 1; i < frames.times.size(); i++) {
+            assertEquals(50, frames.times.get(i) - frames.times.get(i - 1));
+        }
+        for (int i = 0; i < frames.times.size(); i++) {
+            float[] v = frames.values.get(i);
+            for (int c = 0; c < 4; c++) {
+                assertEquals("tick " + frames.times.get(i) + " channel " + c, frames.times.get(i) / 1000f, v[c], 1e-3);
+            }
+        }
+        // A tick waits for the slowest sensor, never longer than its period
+        assertTrue("latency " + frames.maxLatency, frames.maxLatency <= 800);
+        assertEquals(frames.times.size(), aligner.getFrameCount());
+    }
+
+    @Test
+    public void holdUsesTheLastSampleAndLookbackBoundsTheWait() {
+        TimeAligner aligner = new TimeAligner(0, 100, 500, TimeAligner.Interpolation.HOLD,
+                "MOVEMENT_ACC.x", "HUMIDITY2");
+        Frames frames = new Frames();
+        aligner.setListener(frames);
+        float[] v = new float[3];
+        // Humidity reports once at the start and then goes quiet
+        v[0] = 40;
+        aligner.onSample(0, SensorConversion.HUMIDITY2, 1000, v);
+        for (long t = 1000; t <= 3000; t += 100) {
+            v[0] = t;
+            frames.receivedAt = t;
+            aligner.onSample(0, SensorConversion.MOVEMENT_ACC, t + 30, v);
+        }
+        // Samples of another device are ignored
+        aligner.onSample(1, SensorConversion.MOVEMENT_ACC, 3100, v);
+
+        assertEquals(1000, (long) frames.times.get(0));
+        assertTrue(Float.isNaN(frames.values.get(0)[0]));
+        assertEquals(40f, frames.values.get(0)[1], 0);
+        // Each later tick holds the accelerometer sample 70 ms before it, released 500 ms after the tick
+        assertEquals(1100, (long) frames.times.get(1));
+        assertEquals(1000f, frames.values.get(1)[0], 0);
+        assertEquals(40f, frames.values.get(frames.values.size() - 1)[1], 0);
+        assertEquals(2500, (long) frames.times.get(frames.times.size() - 1));
+    }
+
+    @Test
+    public void gridRestartsAfterAGap() {
+        TimeAligner aligner = new TimeAligner(TimeAligner.ANY_DEVICE, 100, 200, TimeAligner.Interpolation.LINEAR,
+                "BAROMETER");
+        Frames frames = new Frames();
+        aligner.setListener(frames);
+        float[] v = new float[1];
+        for (long t = 0; t <= 1000; t += 100) {
+            v[0] = t;
+            aligner.onSample(0, SensorConversion.BAROMETER, t, v);
+        }
+        int before = frames.times.size();
+        assertEquals(1000, (long) frames.times.get(before - 1));
+
+        // Reconnected a minute later: no frames for the minute in between
+        for (long t = 61050; t <= 61500; t += 100) {
+            v[0] = t;
+            aligner.onSample(0, SensorConversion.BAROMETER, t, v);
+        }
+        assertEquals(61100, (long) frames.times.get(before));
+        assertEquals(61100f, frames.values.get(before)[0], 1e-3);
+        assertEquals(before + 4, frames.times.size());
+    }
+
+    @Test
+    public void rejectsUnknownChannels() {
+        for (String channel : new String[]{"BAROMETER.y", "THERMOMETER", "MOVEMENT_GYRO.w"}) {
+            try {
+                new TimeAligner(TimeAligner.ANY_DEVICE, 100, 500, TimeAligner.Interpolation.HOLD, channel);
+                fail(channel);
+            } catch (IllegalArgumentException expected) {
+                // Not a channel
+            }
+        }
+        assertArrayEquals(new String[]{"MOVEMENT_GYRO.z", "LUXOMETER"}, new TimeAligner(TimeAligner.ANY_DEVICE,
+                100, 500, TimeAligner.Interpolation.HOLD, "MOVEMENT_GYRO.z", " LUXOMETER").getChannels());
+    }
+}
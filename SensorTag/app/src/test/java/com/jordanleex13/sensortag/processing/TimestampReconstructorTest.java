@@ -0,0 +1,160 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+import com.jordanleex13.sensortag.SensorTag.SensorTagSimulator;
+import com.jordanleex13.sensortag.config.SensorConfig;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class TimestampReconstructorTest {
+
+    private static final SensorTagSimulator.Signal FLAT = new SensorTagSimulator.Signal() {
+        @Override
+        public void sample(long timestamp, float[] out) {
+            out[0] = out[1] = out[2] = 1;
+        }
+    };
+
+    /**
+     * A tag whose clock runs 2 % slow and a phone that wakes up at random, up to 400 ms apart, and then
+     * delivers every notification received since in one burst
+     */
+    private static class Phone implements SensorTagSimulator.FrameSink {
+        final TimestampReconstructor reconstructor;
+        final Random random = new Random(42);
+        long wake;
+        final List<Long> sampled = new ArrayList<>();
+        final List<Long> arrived = new ArrayList<>();
+        final List<Long> reconstructed = new ArrayList<>();
+
+        Phone(TimestampReconstructor reconstructor) {
+            this.reconstructor = reconstructor;
+        }
+
+        @Override
+        public void onFrame(int deviceId, UUID data, long timestamp, byte[] value) {
+            long sample = Math.round(timestamp * 1.02);
+            // Radio and stack latency before the phone can see it
+            while (wake < sample + 8) {
+                wake += random.nextInt(400);
+            }
+            long time = reconstructor.reconstruct(deviceId, data, wake);
+            if (data.equals(SensorTagGatt.UUID_MOV_DATA)) {
+                sampled.add(sample);
+                arrived.add(wake);
+                reconstructed.add(time);
+            }
+        }
+    }
+
+    private static long spread(List<Long> times, List<Long> sampled, int from, int to) {
+        long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+        for (int i = from; i < to; i++) {
+            long e = times.get(i) - sampled.get(i);
+            min = Math.min(min, e);
+            max = Math.max(max, e);
+        }
+        return max - min;
+    }
+
+    @Test
+    public void burstsAreSmoothedAndDriftIsFitted() {
+        TimestampReconstructor reconstructor = new TimestampReconstructor();
+        reconstructor.setPeriod(SensorConfig.Sensor.MOVEMENT, 100);
+        reconstructor.setPeriod(SensorConfig.Sensor.IR_TEMPERATURE, 300);
+        Phone phone = new Phone(reconstructor);
+        SensorTagSimulator tag = new SensorTagSimulator(0);
+        tag.add(SensorConversion.MOVEMENT_ACC, 100, FLAT);
+        tag.add(SensorConversion.IR_TEMPERATURE, 300, FLAT);
+        tag.runFrames(0, 600000, phone);
+
+        int n = phone.sampled.size();
+        int warm = 2 * TimestampReconstructor.WINDOW;
+        long raw = spread(phone.arrived, phone.sampled, warm, n);
+        long smoothed = spread(phone.reconstructed, phone.sampled, warm, n);
+        RunningStats jitter = reconstructor.getJitter(0, SensorConfig.Sensor.MOVEMENT);
+
+        assertTrue(raw > 300);
+        assertTrue("spread " + smoothed, smoothed < 40);
+        assertEquals(102, reconstructor.getFittedPeriod(0, SensorConfig.Sensor.MOVEMENT), 0.2);
+        assertEquals(306, reconstructor.getFittedPeriod(0, SensorConfig.Sensor.IR_TEMPERATURE), 1);
+        for (int i = warm + 1; i < n; i++) {
+            long step = phone.reconstructed.get(i) - phone.reconstructed.get(i - 1);
+            assertTrue("step " + step, step >= 101 && step <= 103);
+        }
+        // Uniform delays of up to 400 ms
+        assertEquals(n, jitter.getCount());
+        assertEquals(100, jitter.getStandardDeviation(0), 20);
+        assertEquals(0, reconstructor.getGapCount(0, SensorConfig.Sensor.MOVEMENT));
+    }
+
+    @Test
+    public void linkLossIsAGapAndTheStreamRestarts() {
+        TimestampReconstructor reconstructor = new TimestampReconstructor();
+        reconstructor.setPeriod(SensorConfig.Sensor.MOVEMENT, 100);
+        final long[] gap = new long[3];
+        reconstructor.setListener(new TimestampReconstructor.Listener() {
+            @Override
+            public void onGap(int deviceId, SensorConfig.Sensor sensor, long last, long arrival, long missed) {
+                assertEquals(SensorConfig.Sensor.MOVEMENT, sensor);
+                gap[0] = last;
+                gap[1] = arrival;
+                gap[2] = missed;
+            }
+        });
+        Phone phone = new Phone(reconstructor);
+        SensorTagSimulator tag = new SensorTagSimulator(0);
+        tag.add(SensorConversion.MOVEMENT_ACC, 100, FLAT);
+        tag.runFrames(0, 120000, phone);
+        int before = phone.sampled.size();
+        tag.runFrames(180000, 300000, phone);
+
+        assertEquals(1, reconstructor.getGapCount(0, SensorConfig.Sensor.MOVEMENT));
+        assertEquals((long) phone.reconstructed.get(before - 1), gap[0]);
+        assertEquals((long) phone.arrived.get(before), gap[1]);
+        assertEquals(60000 * 1.02 / 102, gap[2], 5);
+        // Picks up the fitted period straight away
+        int warm = before + 2 * TimestampReconstructor.WINDOW;
+        assertTrue(spread(phone.reconstructed, phone.sampled, warm, phone.sampled.size()) < 40);
+        assertEquals(102, reconstructor.getFittedPeriod(0, SensorConfig.Sensor.MOVEMENT), 0.2);
+    }
+
+    @Test
+    public void periodChangeRestartsTheFit() {
+        TimestampReconstructor reconstructor = new TimestampReconstructor();
+        reconstructor.setPeriod(SensorConfig.Sensor.MOVEMENT, 100);
+        Phone phone = new Phone(reconstructor);
+        SensorTagSimulator tag = new SensorTagSimulator(0);
+        tag.add(SensorConversion.MOVEMENT_ACC, 100, FLAT);
+        tag.runFrames(0, 60000, phone);
+        tag.setPeriod(SensorTagGatt.UUID_MOV_PERI, 500);
+        reconstructor.setPeriod(SensorConfig.Sensor.MOVEMENT, 500);
+        assertEquals(500, reconstructor.getFittedPeriod(0, SensorConfig.Sensor.MOVEMENT), 0);
+        int before = phone.sampled.size();
+        tag.runFrames(60000, 600000, phone);
+
+        assertEquals(0, reconstructor.getGapCount(0, SensorConfig.Sensor.MOVEMENT));
+        assertEquals(510, reconstructor.getFittedPeriod(0, SensorConfig.Sensor.MOVEMENT), 1);
+        int warm = before + 2 * TimestampReconstructor.WINDOW;
+        assertTrue(spread(phone.reconstructed, phone.sampled, warm, phone.sampled.size()) < 40);
+        for (int i = 1; i < phone.reconstructed.size(); i++) {
+            assertTrue(phone.reconstructed.get(i) > phone.reconstructed.get(i - 1));
+        }
+    }
+
+    @Test
+    public void keysKeepTheirArrivalTime() {
+        TimestampReconstructor reconstructor = new TimestampReconstructor();
+        assertEquals(1234, reconstructor.reconstruct(0, SensorTagGatt.UUID_KEY_DATA, 1234));
+        assertEquals(1000, reconstructor.getPeriod(SensorConfig.Sensor.MOVEMENT));
+        assertNull(reconstructor.getJitter(0, SensorConfig.Sensor.KEYS));
+    }
+}
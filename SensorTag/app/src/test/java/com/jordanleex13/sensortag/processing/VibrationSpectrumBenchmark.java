@@ -0,0 +1,43 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.Benchmarks;
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class VibrationSpectrumBenchmark {
+
+    private static final int HOPS = 400;
+
+    @Test
+    public void hop() throws Exception {
+        // The movement service reports at most every 100 ms, the budget is the time between hops
+        double period = 100;
+        for (int window : new int[]{256, 1024, 4096}) {
+            int hop = window / 4;
+            final VibrationSpectrum spectrum = new VibrationSpectrum(VibrationSpectrum.ANY_DEVICE, window, hop, 8);
+            final int samples = window + HOPS * hop;
+            final float[][] frames = new float[samples][3];
+            Random random = new Random(9);
+            for (int i = 0; i < samples; i++) {
+                frames[i][2] = (float) -(1 + 0.1 * random.nextGaussian());
+            }
+            final long[] t = new long[1];
+            long best = Benchmarks.best(3, new Benchmarks.Task() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < samples; i++) {
+                        t[0] += 10;
+                        spectrum.onSample(0, SensorConversion.MOVEMENT_ACC, t[0], frames[i]);
+                    }
+                }
+            });
+            long perHop = best / HOPS;
+            double budget = hop * period * 1000000;
+            Benchmarks.report("VibrationSpectrum: window %4d hop %4d  %6.1f us per hop including ingest, "
+                    + "%.5f %% of the budget at 10 Hz", window, hop, perHop / 1000.0, 100 * perHop / budget);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.jordanleex13.sensortag.processing;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class VibrationSpectrumTest {
+
+    /**
+     * Feeds a machine vibrating along z on top of gravity, sampled every {@code period} ms
+     */
+    private static void feed(VibrationSpectrum spectrum, int samples, double period, double jitter,
+                             double[] frequencies, double[] amplitudes) {
+        Random random = new Random(7);
+        float[] values = new float[3];
+        for (int i = 0; i < samples; i++) {
+            double t = i * period / 1000;
+            double z = 1;
+            for (int f = 0; f < frequencies.length; f++) {
+                z += amplitudes[f] * Math.sin(2 * Math.PI * frequencies[f] * t);
+            }
+            values[0] = 0;
+            values[1] = 0;
+            values[2] = (float) -z;
+            long received = Math.round(i * period + jitter * (random.nextDouble() * 2 - 1));
+            spectrum.onSample(0, SensorConversion.MOVEMENT_ACC, 1466000000000L + received, values);
+        }
+    }
+
+    private static class Capture implements VibrationSpectrum.Listener {
+        int hops;
+        float[] bands;
+
+        @Override
+        public void onSpectrum(int deviceId, long timestamp, float sampleRate, float dominant, float[] bands) {
+            hops++;
+            this.bands = bands.clone();
+        }
+    }
+
+    @Test
+    public void fftMatchesDirectTransform() {
+        Random random = new Random(8);
+        for (int n : new int[]{4, 8, 64, 512}) {
+            float[] in = new float[n];
+            for (int i = 0; i < n; i++) in[i] = random.nextFloat() * 2 - 1;
+            float[] power = new float[n / 2 + 1];
+            new RealFft(n).powerSpectrum(in, power);
+            for (int k = 0; k <= n / 2; k++) {
+                double re = 0, im = 0;
+                for (int i = 0; i < n; i++) {
+                    re += in[i] * Math.cos(2 * Math.PI * k * i / n);
+                    im -= in[i] * Math.sin(2 * Math.PI * k * i / n);
+                }
+                double expected = re * re + im * im;
+                assertEquals("n=" + n + " k=" + k, expected, power[k], 1e-4 * n + 1e-4 * expected);
+            }
+        }
+    }
+
+    @Test
+    public void findsDominantFrequencyAndBandEnergy() {
+        VibrationSpectrum spectrum = new VibrationSpectrum();
+        Capture capture = new Capture();
+        spectrum.setListener(capture);
+        feed(spectrum, 1000, 10, 0, new double[]{13.7}, new double[]{0.3});
+
+        assertEquals((1000 - 256) / 64 + 1, capture.hops);
+        assertEquals(100, spectrum.getSampleRate(), 0.01);
+        assertEquals(13.7, spectrum.getDominantFrequency(), 0.1);
+        // 8 bands of 6.25 Hz, so 13.7 Hz is in band 2 and carries 0.3^2 / 2
+        assertEquals(0.045, capture.bands[2], 0.045 * 0.1);
+        for (int b = 0; b < capture.bands.length; b++) {
+            if (b != 2) assertTrue("Band " + b + " " + capture.bands[b], capture.bands[b] < 0.045 * 0.05);
+        }
+    }
+
+    @Test
+    public void separatesTonesInDifferentBands() {
+        VibrationSpectrum spectrum = new VibrationSpectrum(VibrationSpectrum.ANY_DEVICE, 1024, 256, 16);
+        Capture capture = new Capture();
+        spectrum.setListener(capture);
+        feed(spectrum, 2048, 10, 0, new double[]{4.1, 36.0}, new double[]{0.05, 0.2});
+
+        assertEquals(36.0, spectrum.getDominantFrequency(), 0.05);
+        // 16 bands of 3.125 Hz
+        assertEquals(0.05 * 0.05 / 2, capture.bands[1], 0.05 * 0.05 / 2 * 0.1);
+        assertEquals(0.2 * 0.2 / 2, capture.bands[11], 0.2 * 0.2 / 2 * 0.1);
+        assertEquals(37.5, spectrum.getBandEdge(11), 0.01);
+    }
+
+    /**
+     * Receive timestamps wander around the real sample instants with the connection interval
+     */
+    @Test
+    public void toleratesReceiveJitter() {
+        VibrationSpectrum spectrum = new VibrationSpectrum();
+        feed(spectrum, 1000, 10, 4, new double[]{21.0}, new double[]{0.1});
+        assertEquals(100, spectrum.getSampleRate(), 4);
+        assertEquals(21.0, spectrum.getDominantFrequency(), 1.0);
+    }
+
+    @Test
+    public void ignoresOtherSensors() {
+        VibrationSpectrum spectrum = new VibrationSpectrum(VibrationSpectrum.ANY_DEVICE, 16, 4, 2);
+        Capture capture = new Capture();
+        spectrum.setListener(capture);
+        float[] values = new float[3];
+        for (int i = 0; i < 100; i++) {
+            spectrum.onSample(0, SensorConversion.MOVEMENT_GYRO, i, values);
+        }
+        assertEquals(0, capture.hops);
+    }
+}
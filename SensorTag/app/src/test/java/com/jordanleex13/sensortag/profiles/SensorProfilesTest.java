@@ -0,0 +1,106 @@
+package com.jordanleex13.sensortag.profiles;
+
+import android.support.v4.app.Fragment;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class SensorProfilesTest {
+
+    /**
+     * A service of a newer firmware, added without touching the routing code
+     */
+    public static class BatteryProfile extends BaseSensorProfile {
+        static final UUID SERVICE = UUID.fromString("0000180f-0000-1000-8000-00805f9b34fb");
+        static final UUID LEVEL = UUID.fromString("00002a19-0000-1000-8000-00805f9b34fb");
+
+        public BatteryProfile() {
+            super("Battery", 45, SERVICE, LEVEL, null, null);
+        }
+
+        @Override
+        public Fragment newFragment(int position) {
+            return null;
+        }
+    }
+
+    private static List<String> names(List<SensorProfile> profiles) {
+        List<String> names = new ArrayList<>();
+        for (SensorProfile p : profiles) names.add(p.getName());
+        return names;
+    }
+
+    @Test
+    public void loadsBuiltInProfilesInPageOrder() {
+        List<SensorProfile> profiles = SensorProfiles.getDefault().getProfiles();
+        assertEquals("[Motion, Luxometer, Temperature, Keys, IO, Barometer, Humidity]", names(profiles).toString());
+    }
+
+    @Test
+    public void routesEveryDecodedSensorByItsData() {
+        SensorProfiles registry = SensorProfiles.getDefault();
+        for (SensorConversion c : SensorConversion.values()) {
+            assertNotNull(c.name(), registry.forData(c.getData()));
+        }
+        assertEquals("[IR_TEMPERATURE, MOVEMENT_ACC, MOVEMENT_GYRO, MOVEMENT_MAG, HUMIDITY2, LUXOMETER, BAROMETER]",
+                Arrays.toString(registry.getConversions()));
+        for (SensorConversion c : registry.getConversions()) {
+            assertTrue(c.name(), Arrays.asList(registry.forData(c.getData()).getConversions()).contains(c));
+        }
+        for (SensorProfile p : registry.getProfiles()) {
+            assertSame(p, registry.forService(p.getService()));
+            for (SensorConversion c : p.getConversions()) {
+                assertEquals(p.getData(), c.getData());
+            }
+        }
+        assertEquals("Keys", registry.forData(SensorTagGatt.UUID_KEY_DATA).getName());
+        assertNull(registry.forData(SensorTagGatt.UUID_TST_DATA));
+        assertNull(registry.forService(SensorTagGatt.UUID_DEVINFO_SERV));
+    }
+
+    @Test
+    public void onlyIoNeedsWritesBesidesTheConfiguration() {
+        for (SensorProfile p : SensorProfiles.getDefault().getProfiles()) {
+            if (p.getService().equals(SensorTagGatt.UUID_TST_SERV)) {
+                assertEquals("[write aa66=01, write aa65=00]", p.getEnableSequence().toString());
+            } else {
+                assertTrue(p.getName(), p.getEnableSequence().isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void pagesFollowTheServicesOfTheTag() {
+        List<UUID> services = Arrays.asList(SensorTagGatt.UUID_DEVINFO_SERV, SensorTagGatt.UUID_HUM_SERV,
+                SensorTagGatt.UUID_IRT_SERV, SensorTagGatt.UUID_KEY_SERV);
+        assertEquals("[Temperature, Keys, Humidity]",
+                names(SensorProfiles.getDefault().getProfiles(services)).toString());
+    }
+
+    @Test
+    public void newProfilesPlugIn() {
+        List<SensorProfile> all = new ArrayList<>(SensorProfiles.getDefault().getProfiles());
+        all.add(new BatteryProfile());
+        SensorProfiles registry = new SensorProfiles(all);
+        assertEquals("Battery", registry.forData(BatteryProfile.LEVEL).getName());
+        assertEquals("[Motion, Luxometer, Temperature, Keys, Battery, IO, Barometer, Humidity]",
+                names(registry.getProfiles()).toString());
+
+        all.add(new BatteryProfile());
+        try {
+            new SensorProfiles(all);
+            fail();
+        } catch (IllegalStateException expected) {
+            // Two profiles for the same service
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.jordanleex13.sensortag.recording;
+
+import com.jordanleex13.sensortag.Benchmarks;
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+import com.jordanleex13.sensortag.SensorTag.SensorTagUtil;
+
+import org.junit.Test;
+
+import java.io.File;
+
+public class CaptureRecorderBenchmark {
+
+    private static final int MOV = SensorTagUtil.toShortUuid(SensorTagGatt.UUID_MOV_DATA);
+    private static final int HUM = SensorTagUtil.toShortUuid(SensorTagGatt.UUID_HUM_DATA);
+    private static final int FRAMES = 2000000;
+
+    @Test
+    public void bufferedAppend() throws Exception {
+        File dir = Benchmarks.tempDir("capture");
+        SessionRecorder recorder = new SessionRecorder(dir, 1 << 16, Long.MAX_VALUE / 2);
+        final CaptureRecorder capture = new CaptureRecorder(recorder);
+        final byte[] mov = new byte[18];
+        final long[] t = new long[1];
+        long best = Benchmarks.best(3, new Benchmarks.Task() {
+            @Override
+            public void run() {
+                for (int i = 0; i < FRAMES; i++) {
+                    t[0] += 100;
+                    capture.append(t[0], 0, MOV, mov, 0, mov.length);
+                    capture.append(t[0], 0, HUM, mov, 0, 4);
+                }
+            }
+        });
+        Benchmarks.report("CaptureRecorder: %d ns per buffered frame, %d frames written",
+                best / (2 * FRAMES), capture.getWrittenCount());
+        recorder.close();
+        Benchmarks.delete(dir);
+    }
+}
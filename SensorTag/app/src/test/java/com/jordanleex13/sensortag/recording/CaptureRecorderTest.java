@@ -0,0 +1,122 @@
+package com.jordanleex13.sensortag.recording;
+
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+import com.jordanleex13.sensortag.SensorTag.SensorTagUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CaptureRecorderTest {
+
+    private static final int MOV = SensorTagUtil.toShortUuid(SensorTagGatt.UUID_MOV_DATA);
+    private static final int HUM = SensorTagUtil.toShortUuid(SensorTagGatt.UUID_HUM_DATA);
+    private static final int KEY = SensorTagUtil.toShortUuid(SensorTagGatt.UUID_KEY_DATA);
+
+    private File dir;
+    private SessionRecorder recorder;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("capture", "");
+        assertTrue(dir.delete());
+        recorder = new SessionRecorder(dir, 1 << 16, Long.MAX_VALUE / 2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * @return "uuid@timestamp" of every record in the session, in file order
+     */
+    private List<String> read() throws Exception {
+        recorder.close();
+        final List<String> records = new ArrayList<>();
+        new SessionReader(dir).read(new RecordVisitor() {
+            @Override
+            public boolean onRecord(long timestamp, int deviceId, int shortUuid, byte[] payload, int offset, int length) {
+                if (shortUuid != SessionRecorder.DEVICE_RECORD) {
+                    String name = shortUuid == MOV ? "mov" : shortUuid == HUM ? "hum" : "key";
+                    records.add(name + "@" + timestamp);
+                    if (shortUuid == MOV) assertEquals((byte) (timestamp / 100), payload[offset]);
+                }
+                return true;
+            }
+        });
+        return records;
+    }
+
+    @Test
+    public void writesPreAndPostTriggerWindows() throws Exception {
+        CaptureRecorder capture = new CaptureRecorder(recorder, 300, 200, 64);
+        capture.declareDevice(0, "AA:AA:AA:AA:AA:AA");
+        byte[] mov = new byte[18];
+        byte[] hum = new byte[4];
+        for (long t = 0; t <= 3000; t += 100) {
+            mov[0] = (byte) (t / 100);
+            capture.append(t, 0, MOV, mov, 0, mov.length);
+            if (t % 500 == 0) capture.append(t + 50, 0, HUM, hum, 0, hum.length);
+            if (t == 1000) capture.trigger(t);
+        }
+        // 700..1000 before, up to 1200 after; the humidity at 550 is too old
+        assertEquals("[mov@700, mov@800, mov@900, mov@1000, hum@1050, mov@1100, mov@1200]", read().toString());
+        assertEquals(1, capture.getTriggerCount());
+        assertEquals(7, capture.getWrittenCount());
+    }
+
+    @Test
+    public void keyPressesTrigger() throws Exception {
+        CaptureRecorder capture = new CaptureRecorder(recorder, 150, 150, 64);
+        byte[] mov = new byte[18];
+        byte[] released = {0};
+        byte[] pressed = {1};
+        for (long t = 0; t <= 2000; t += 100) {
+            mov[0] = (byte) (t / 100);
+            capture.append(t, 0, MOV, mov, 0, mov.length);
+            if (t == 500) capture.append(t + 10, 0, KEY, released, 0, 1);
+            if (t == 1000 || t == 1200) capture.append(t + 10, 0, KEY, pressed, 0, 1);
+        }
+        // The release does not trigger; the second press lands after the first window and opens another
+        assertEquals("[mov@900, mov@1000, key@1010, mov@1100, mov@1200, key@1210, mov@1300]", read().toString());
+        assertEquals(2, capture.getTriggerCount());
+    }
+
+    @Test
+    public void motionWakeTriggers() throws Exception {
+        CaptureRecorder capture = new CaptureRecorder(recorder, 1000, 250, 64);
+        capture.setTriggerOnMotionWake(2000);
+        byte[] mov = new byte[18];
+        long[] times = {100, 200, 300, 5000, 5100, 5200, 5300, 5400};
+        for (long t : times) {
+            mov[0] = (byte) (t / 100);
+            capture.append(t, 0, MOV, mov, 0, mov.length);
+        }
+        // The first notification wakes, and so does the one after the 4.7 s gap
+        assertEquals("[mov@100, mov@200, mov@300, mov@5000, mov@5100, mov@5200]", read().toString());
+    }
+
+    @Test
+    public void ringKeepsOnlyItsCapacity() throws Exception {
+        CaptureRecorder capture = new CaptureRecorder(recorder, 100000, 0, 4);
+        byte[] mov = new byte[18];
+        for (long t = 0; t < 1000; t += 100) {
+            mov[0] = (byte) (t / 100);
+            capture.append(t, 0, MOV, mov, 0, mov.length);
+        }
+        capture.trigger(900);
+        assertEquals("[mov@600, mov@700, mov@800, mov@900]", read().toString());
+        assertEquals(10, capture.getBufferedCount());
+    }
+}
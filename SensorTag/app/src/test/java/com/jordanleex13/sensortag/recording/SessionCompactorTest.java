@@ -0,0 +1,69 @@
+package com.jordanleex13.sensortag.recording;
+
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+import com.jordanleex13.sensortag.SensorTag.SensorTagUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+
+import static org.junit.Assert.*;
+
+public class SessionCompactorTest {
+
+    private File dir;
+    private File output;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("session", "");
+        assertTrue(dir.delete());
+        output = new File(dir, "columns");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (File d : new File[]{output, dir}) {
+            File[] files = d.listFiles();
+            if (files != null) {
+                for (File f : files) f.delete();
+            }
+            d.delete();
+        }
+    }
+
+    private static int countFrames(File column, int length) throws Exception {
+        TimeSeriesDecoder decoder = new TimeSeriesDecoder(new BufferedInputStream(new FileInputStream(column)));
+        int count = 0;
+        long last = Long.MIN_VALUE;
+        while (decoder.next()) {
+            assertEquals(length, decoder.getFrame().length);
+            assertTrue(decoder.getTimestamp() > last);
+            last = decoder.getTimestamp();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Firmware that switches the movement frame from 18 to 12 bytes mid session keeps every frame
+     */
+    @Test
+    public void frameLengthChangeStartsANewColumn() throws Exception {
+        SessionRecorder recorder = new SessionRecorder(dir, 1 << 16, 1000000);
+        for (int i = 0; i < 300; i++) {
+            recorder.append(1000L + 100 * i, 0, SensorTagGatt.UUID_MOV_DATA, new byte[i < 200 ? 18 : 12]);
+        }
+        recorder.close();
+
+        SessionCompactor.compact(new SessionReader(dir), output);
+        int movement = SensorTagUtil.toShortUuid(SensorTagGatt.UUID_MOV_DATA);
+        assertEquals(200, countFrames(new File(output, SessionCompactor.columnName(0, movement)), 18));
+        assertEquals(100, countFrames(new File(output, SessionCompactor.columnName(0, movement, 12)), 12));
+        assertEquals(2, output.list().length);
+    }
+}
@@ -0,0 +1,72 @@
+package com.jordanleex13.sensortag.recording;
+
+import com.jordanleex13.sensortag.Benchmarks;
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class SessionExporterBenchmark {
+
+    private static class CountingStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) throws IOException {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            count += len;
+        }
+    }
+
+    private static long mbPerSecond(long bytes, long nanos) {
+        return bytes * 1000000000L / nanos / (1024 * 1024);
+    }
+
+    /**
+     * 1.5 M movement frames, about 46 MB raw, exported to a discarding stream and to a file
+     */
+    @Test
+    public void exportThroughput() throws Exception {
+        File dir = Benchmarks.tempDir("export");
+        SessionRecorder recorder = new SessionRecorder(dir);
+        recorder.declareDevice(0, "B0:B4:48:BD:10:85");
+        byte[] frame = new byte[18];
+        int n = 1500000;
+        for (int i = 0; i < n; i++) {
+            for (int b = 0; b < frame.length; b++) frame[b] = (byte) (i * 31 + b);
+            recorder.append(1466000000000L + i * 10, 0, SensorTagGatt.UUID_MOV_DATA, frame);
+        }
+        recorder.close();
+        final SessionReader reader = new SessionReader(dir);
+        long raw = 0;
+        for (int i = 0; i < reader.getSegmentCount(); i++) raw += reader.getSegment(i).length();
+
+        final CountingStream sink = new CountingStream();
+        long elapsed = Benchmarks.best(1, new Benchmarks.Task() {
+            @Override
+            public void run() throws Exception {
+                SessionExporter.export(reader, sink, SessionExporter.Format.CSV, SessionExporter.DEFAULT_SENSORS);
+            }
+        });
+        Benchmarks.report("SessionExporter CSV: %d MB/s raw in, %d MB/s text out", mbPerSecond(raw, elapsed),
+                mbPerSecond(sink.count, elapsed));
+
+        final File file = new File(dir, "export.jsonl.gz");
+        elapsed = Benchmarks.best(1, new Benchmarks.Task() {
+            @Override
+            public void run() throws Exception {
+                SessionExporter.export(reader, file, SessionExporter.Format.JSON_LINES, true);
+            }
+        });
+        Benchmarks.report("SessionExporter JSON Lines + gzip to file: %d MB/s raw in, %d KB written",
+                mbPerSecond(raw, elapsed), file.length() / 1024);
+        Benchmarks.delete(dir);
+    }
+}
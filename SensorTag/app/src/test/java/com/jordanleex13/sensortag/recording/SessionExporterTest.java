@@ -0,0 +1,81 @@
+package com.jordanleex13.sensortag.recording;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class SessionExporterTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("export", "");
+        assertTrue(dir.delete());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void numbersIgnoreLocale() throws Exception {
+        Locale previous = Locale.getDefault();
+        Locale.setDefault(Locale.GERMANY);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            AsciiOutput out = new AsciiOutput(bytes, 16);
+            out.append(1013.25, 6).append(' ')
+                    .append(-0.000244140625, 6).append(' ')
+                    .append(-0.0000001, 6).append(' ')
+                    .append(42.0, 6).append(' ')
+                    .append(Double.NaN, 6).append(' ')
+                    .append(Long.MIN_VALUE).append(' ')
+                    .append(1466000000042L).append(' ')
+                    .append(1e20, 6).append(' ')
+                    .append(4912.1234f).append(' ')
+                    .append(-0.1f);
+            out.flush();
+            assertEquals("1013.25 -0.000244 0 42 NaN -9223372036854775808 1466000000042 1.0E20 4912.124 -0.1",
+                    bytes.toString("US-ASCII"));
+        } finally {
+            Locale.setDefault(previous);
+        }
+    }
+
+    @Test
+    public void csvAndJsonLines() throws Exception {
+        SessionRecorder recorder = new SessionRecorder(dir);
+        recorder.declareDevice(0, "B0:B4:48:BD:10:85");
+        recorder.append(1000, 0, SensorTagGatt.UUID_OPT_DATA, new byte[]{(byte) 0xD0, 0x07});        // 20.0 lux
+        recorder.append(1001, 0, SensorTagGatt.UUID_HUM_DATA, new byte[]{0, 0, 0, (byte) 0x80});    // 50.0 %
+        recorder.append(1002, 0, SensorTagGatt.UUID_KEY_DATA, new byte[]{1});                        // Not a sensor
+        recorder.close();
+        SessionReader reader = new SessionReader(dir);
+
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        assertEquals(2, SessionExporter.export(reader, csv, SessionExporter.Format.CSV, SessionExporter.DEFAULT_SENSORS));
+        assertEquals("timestamp,device,sensor,x,y,z\n"
+                + "1000,B0:B4:48:BD:10:85,LUXOMETER,20,,\n"
+                + "1001,B0:B4:48:BD:10:85,HUMIDITY2,50.00076,,\n", csv.toString("US-ASCII"));
+
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        SessionExporter.export(reader, json, SessionExporter.Format.JSON_LINES, SensorConversion.LUXOMETER);
+        assertEquals("{\"t\":1000,\"device\":\"B0:B4:48:BD:10:85\",\"sensor\":\"LUXOMETER\",\"v\":[20]}\n",
+                json.toString("US-ASCII"));
+    }
+}
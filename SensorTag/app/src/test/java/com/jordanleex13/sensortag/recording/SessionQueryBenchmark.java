@@ -0,0 +1,52 @@
+package com.jordanleex13.sensortag.recording;
+
+import com.jordanleex13.sensortag.Benchmarks;
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+
+import org.junit.Test;
+
+import java.io.File;
+
+public class SessionQueryBenchmark {
+
+    private static final long START = 1466000000000L;
+    private static final long MINUTE = 60 * 1000;
+
+    /**
+     * Five minutes of one tag out of a day of humidity from two tags, sampled once a second
+     */
+    @Test
+    public void fiveMinutesOfADay() throws Exception {
+        File dir = Benchmarks.tempDir("query");
+        SessionRecorder recorder = new SessionRecorder(dir, 1 << 18, Long.MAX_VALUE / 2);
+        recorder.declareDevice(0, "AA:AA:AA:AA:AA:AA");
+        recorder.declareDevice(1, "BB:BB:BB:BB:BB:BB");
+        byte[] frame = new byte[4];
+        for (int s = 0; s < 24 * 3600; s++) {
+            frame[2] = (byte) s;
+            recorder.append(START + s * 1000L, 0, SensorTagGatt.UUID_HUM_DATA, frame);
+            recorder.append(START + s * 1000L, 1, SensorTagGatt.UUID_HUM_DATA, frame);
+            if (s % 60 == 59) recorder.sync();
+        }
+        recorder.close();
+        final SessionReader reader = new SessionReader(dir);
+        final int device = reader.getDeviceId("BB:BB:BB:BB:BB:BB");
+        final long from = START + 14 * 60 * MINUTE + 5 * MINUTE;
+        final SessionQuery.ColumnVisitor visitor = new SessionQuery.ColumnVisitor() {
+            @Override
+            public boolean onColumns(long[] timestamps, float[] values, int n, int channels) {
+                return true;
+            }
+        };
+        long best = Benchmarks.best(1, new Benchmarks.Task() {
+            @Override
+            public void run() throws Exception {
+                new SessionQuery(reader).scan(from, from + 5 * MINUTE, device, SensorConversion.HUMIDITY2, visitor);
+            }
+        });
+        Benchmarks.report("SessionQuery: 5 min of 24 h in %d us over %d segments", best / 1000,
+                reader.getSegmentCount());
+        Benchmarks.delete(dir);
+    }
+}
@@ -0,0 +1,119 @@
+package com.jordanleex13.sensortag.recording;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+import com.jordanleex13.sensortag.processing.Rollup;
+import com.jordanleex13.sensortag.processing.RollupSet;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class SessionQueryTest {
+
+    private static final long START = 1466000000000L;
+    private static final long MINUTE = 60 * 1000;
+
+    private File dir;
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * Records humidity and IR temperature once a second from two tags, committing a batch every minute
+     */
+    private SessionReader record(int hours) throws Exception {
+        dir = File.createTempFile("query", "");
+        assertTrue(dir.delete());
+        SessionRecorder recorder = new SessionRecorder(dir, 1 << 18, Long.MAX_VALUE / 2);
+        int tagA = 0;
+        int tagB = 1;
+        recorder.declareDevice(tagA, "AA:AA:AA:AA:AA:AA");
+        recorder.declareDevice(tagB, "BB:BB:BB:BB:BB:BB");
+        byte[] frame = new byte[4];
+        for (int s = 0; s < hours * 3600; s++) {
+            long t = START + s * 1000L;
+            frame[2] = (byte) s;
+            frame[3] = (byte) (s >> 8);
+            recorder.append(t, tagA, SensorTagGatt.UUID_HUM_DATA, frame);
+            recorder.append(t, tagB, SensorTagGatt.UUID_HUM_DATA, frame);
+            recorder.append(t, tagA, SensorTagGatt.UUID_IRT_DATA, frame);
+            if (s % 60 == 59) recorder.sync();
+        }
+        recorder.close();
+        return new SessionReader(dir);
+    }
+
+    @Test
+    public void fiveMinuteWindowOfOneTag() throws Exception {
+        SessionReader reader = record(24);
+        assertTrue(reader.getSegmentCount() > 10);
+        SessionQuery query = new SessionQuery(reader);
+
+        final long from = START + 14 * 60 * MINUTE + 5 * MINUTE;
+        final long to = from + 5 * MINUTE;
+        final int[] count = new int[1];
+        final long[] last = {Long.MIN_VALUE};
+        query.scan(from, to, reader.getDeviceId("BB:BB:BB:BB:BB:BB"), SensorConversion.HUMIDITY2,
+                new SessionQuery.ColumnVisitor() {
+                    @Override
+                    public boolean onColumns(long[] timestamps, float[] values, int n, int channels) {
+                        assertEquals(1, channels);
+                        for (int i = 0; i < n; i++) {
+                            assertTrue(timestamps[i] >= from && timestamps[i] <= to);
+                            assertTrue(timestamps[i] > last[0]);
+                            last[0] = timestamps[i];
+                        }
+                        count[0] += n;
+                        return true;
+                    }
+                });
+        assertEquals(301, count[0]);
+    }
+
+    @Test
+    public void indexIsRebuiltWhenMissing() throws Exception {
+        SessionReader reader = record(2);
+        for (int i = 0; i < reader.getSegmentCount(); i++) {
+            assertTrue(new File(dir, SessionRecorder.indexName(i)).delete());
+        }
+        final int[] count = new int[1];
+        new SessionQuery(reader).scan(START + 30 * MINUTE, START + 31 * MINUTE - 1, SessionQuery.ANY, SessionQuery.ANY,
+                new RecordVisitor() {
+                    @Override
+                    public boolean onRecord(long timestamp, int deviceId, int shortUuid, byte[] payload, int offset, int length) {
+                        count[0]++;
+                        return true;
+                    }
+                });
+        assertEquals(60 * 3, count[0]);
+    }
+
+    @Test
+    public void chartsComeFromTheSavedRollups() throws Exception {
+        SessionReader reader = record(2);
+        SessionQuery query = new SessionQuery(reader);
+        assertNull(query.rollup(0, SensorConversion.HUMIDITY2, START, START + 2 * 60 * MINUTE, 100));
+
+        RollupSet rollups = new RollupSet();
+        float[] v = {50};
+        for (long t = START; t < START + 2 * 60 * MINUTE; t += 1000) {
+            rollups.onSample(0, SensorConversion.HUMIDITY2, t, v);
+        }
+        rollups.write(dir);
+        query = new SessionQuery(reader);
+        Rollup minutes = query.rollup(0, SensorConversion.HUMIDITY2, START, START + 2 * 60 * MINUTE, 100);
+        assertEquals(MINUTE, minutes.getWidth());
+        assertEquals(50f, minutes.getMean(minutes.find(START + 30 * MINUTE), 0), 0);
+        assertNull(query.rollup(1, SensorConversion.HUMIDITY2, START, START + MINUTE, 100));
+    }
+}
@@ -0,0 +1,35 @@
+package com.jordanleex13.sensortag.recording;
+
+import com.jordanleex13.sensortag.Benchmarks;
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+
+import org.junit.Test;
+
+import java.io.File;
+
+public class SessionRecorderBenchmark {
+
+    private static final int RECORDS = 500000;
+
+    @Test
+    public void append() throws Exception {
+        final File dir = Benchmarks.tempDir("session");
+        final byte[] frame = new byte[18];
+        final SessionRecorder[] recorder = new SessionRecorder[1];
+        long best = Benchmarks.best(3, new Benchmarks.Task() {
+            @Override
+            public void run() throws Exception {
+                if (recorder[0] != null) recorder[0].close();
+                Benchmarks.delete(dir);
+                recorder[0] = new SessionRecorder(dir);
+                for (int i = 0; i < RECORDS; i++) {
+                    recorder[0].append(i, i & 3, SensorTagGatt.UUID_MOV_DATA, frame);
+                }
+            }
+        });
+        recorder[0].close();
+        Benchmarks.report("SessionRecorder: %d ns/append, %d records/s", best / RECORDS,
+                RECORDS * 1000000000L / best);
+        Benchmarks.delete(dir);
+    }
+}
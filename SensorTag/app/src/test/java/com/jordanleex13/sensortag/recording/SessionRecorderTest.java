@@ -0,0 +1,197 @@
+package com.jordanleex13.sensortag.recording;
+
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+import com.jordanleex13.sensortag.SensorTag.SensorTagUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class SessionRecorderTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("session", "");
+        assertTrue(dir.delete());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void recordsRoundTripAcrossSegments() throws Exception {
+        SessionRecorder recorder = new SessionRecorder(dir, 4096, 10000);
+        int device = 0;
+        recorder.declareDevice(device, "B0:B4:48:BD:10:85");
+        byte[] frame = new byte[18];
+        for (int i = 0; i < 1000; i++) {
+            frame[0] = (byte) i;
+            recorder.append(1000L + i, device, SensorTagGatt.UUID_MOV_DATA, frame);
+        }
+        recorder.close();
+
+        final SessionReader reader = new SessionReader(dir);
+        assertTrue(reader.getSegmentCount() > 1);
+        final int[] count = new int[1];
+        reader.read(new RecordVisitor() {
+            @Override
+            public boolean onRecord(long timestamp, int deviceId, int shortUuid, byte[] payload, int offset, int length) {
+                assertEquals(1000L + count[0], timestamp);
+                assertEquals("B0:B4:48:BD:10:85", reader.getDeviceAddress(deviceId));
+                assertEquals(SensorTagGatt.UUID_MOV_DATA, SensorTagUtil.fromShortUuid(shortUuid));
+                assertEquals(18, length);
+                assertEquals((byte) count[0], payload[offset]);
+                count[0]++;
+                return true;
+            }
+        });
+        assertEquals(1000, count[0]);
+        assertEquals(0, reader.getCorruptBatchCount());
+    }
+
+    /**
+     * Records after the last sync are lost when the process dies, everything before survives
+     */
+    @Test
+    public void unsyncedBatchIsDroppedAfterKill() throws Exception {
+        SessionRecorder recorder = new SessionRecorder(dir, 1 << 16, 1000000);
+        byte[] frame = new byte[4];
+        for (int i = 0; i < 10; i++) {
+            recorder.append(i, 0, SensorTagGatt.UUID_IRT_DATA, frame);
+        }
+        recorder.sync();
+        for (int i = 0; i < 5; i++) {
+            recorder.append(100 + i, 0, SensorTagGatt.UUID_IRT_DATA, frame);
+        }
+        // No close(): simulates the process being killed
+
+        assertEquals(10, countRecords(new SessionReader(dir)));
+    }
+
+    @Test
+    public void corruptBatchIsSkipped() throws Exception {
+        SessionRecorder recorder = new SessionRecorder(dir, 1 << 16, 1000000);
+        byte[] frame = new byte[4];
+        recorder.append(1, 0, SensorTagGatt.UUID_IRT_DATA, frame);
+        recorder.sync();
+        recorder.append(2, 0, SensorTagGatt.UUID_IRT_DATA, frame);
+        recorder.close();
+
+        RandomAccessFile f = new RandomAccessFile(new File(dir, SessionRecorder.segmentName(0)), "rw");
+        f.seek(SessionRecorder.SEGMENT_HEADER_SIZE + SessionRecorder.BATCH_HEADER_SIZE);
+        f.write(0x7F);
+        f.close();
+
+        SessionReader reader = new SessionReader(dir);
+        assertEquals(1, countRecords(reader));
+        assertEquals(1, reader.getCorruptBatchCount());
+    }
+
+    /**
+     * A clock set back mid session must not break the time order queries rely on
+     */
+    @Test
+    public void timestampsNeverDecrease() throws Exception {
+        SessionRecorder recorder = new SessionRecorder(dir, 1 << 16, 1000000);
+        recorder.declareDevice(0, "B0:B4:48:BD:10:85");
+        byte[] frame = new byte[4];
+        recorder.append(5000, 0, SensorTagGatt.UUID_IRT_DATA, frame);
+        recorder.append(2000, 0, SensorTagGatt.UUID_IRT_DATA, frame);
+        recorder.append(6000, 0, SensorTagGatt.UUID_IRT_DATA, frame);
+        recorder.close();
+
+        final long[] expected = {5000, 5000, 6000};
+        final int[] count = new int[1];
+        new SessionReader(dir).read(new RecordVisitor() {
+            @Override
+            public boolean onRecord(long timestamp, int deviceId, int shortUuid, byte[] payload, int offset, int length) {
+                assertEquals(expected[count[0]++], timestamp);
+                return true;
+            }
+        });
+        assertEquals(3, count[0]);
+    }
+
+    /**
+     * The next segment is opened ahead of time; closing removes it if it was never used
+     */
+    @Test
+    public void devicesAreWrittenOnSyncAndTheSpareSegmentIsRemoved() throws Exception {
+        SessionRecorder recorder = new SessionRecorder(dir, 4096, 1000000);
+        final int[] syncs = new int[1];
+        recorder.setListener(new SessionRecorder.Listener() {
+            @Override
+            public void onSync(SessionRecorder recorder) {
+                syncs[0]++;
+            }
+        });
+        recorder.declareDevice(3, "B0:B4:48:BD:10:85");
+        File devices = new File(dir, SessionRecorder.DEVICES_FILE);
+        assertFalse(devices.exists());
+        recorder.sync();
+        assertTrue(devices.exists());
+        assertEquals(1, syncs[0]);
+        recorder.close();
+
+        SessionReader reader = new SessionReader(dir);
+        assertEquals(1, reader.getSegmentCount());
+        assertFalse(new File(dir, SessionRecorder.indexName(1)).exists());
+        assertEquals("B0:B4:48:BD:10:85", reader.getDeviceAddress(3));
+    }
+
+    /**
+     * With the timer syncing all the time, close must not retire segments under a sync in progress
+     */
+    @Test
+    public void closeWaitsForTheTimer() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            SessionRecorder recorder = new SessionRecorder(dir, 4096, 1);
+            byte[] frame = new byte[18];
+            for (int i = 0; i < 500; i++) {
+                recorder.append(i, 0, SensorTagGatt.UUID_MOV_DATA, frame);
+            }
+            recorder.close();
+            SessionReader reader = new SessionReader(dir);
+            assertEquals(500, countRecords(reader));
+            assertEquals(0, reader.getCorruptBatchCount());
+            tearDown();
+        }
+    }
+
+    @Test
+    public void keepsEveryRecordOfALongSession() throws Exception {
+        SessionRecorder recorder = new SessionRecorder(dir);
+        byte[] frame = new byte[18];
+        int n = 500000;
+        for (int i = 0; i < n; i++) {
+            recorder.append(i, i & 3, SensorTagGatt.UUID_MOV_DATA, frame);
+        }
+        recorder.close();
+        assertEquals(n, countRecords(new SessionReader(dir)));
+    }
+
+    private static int countRecords(SessionReader reader) throws Exception {
+        final int[] count = new int[1];
+        reader.read(new RecordVisitor() {
+            @Override
+            public boolean onRecord(long timestamp, int deviceId, int shortUuid, byte[] payload, int offset, int length) {
+                count[0]++;
+                return true;
+            }
+        });
+        return count[0];
+    }
+}
@@ -0,0 +1,160 @@
+package com.jordanleex13.sensortag.recording;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+import com.jordanleex13.sensortag.processing.QuantileSet;
+import com.jordanleex13.sensortag.processing.RunningStats;
+import com.jordanleex13.sensortag.processing.StatsSet;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SessionStatsTest {
+
+    private File dir;
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void parallelSegmentsMatchLiveStatistics() throws Exception {
+        dir = File.createTempFile("stats", "");
+        assertTrue(dir.delete());
+        SessionRecorder recorder = new SessionRecorder(dir, 1 << 14, 1000);
+        recorder.declareDevice(0, "AA:AA:AA:AA:AA:AA");
+        recorder.declareDevice(1, "BB:BB:BB:BB:BB:BB");
+
+        // What the pipeline would have seen while recording
+        StatsSet live = new StatsSet();
+        float[] values = new float[3];
+        Random random = new Random(14);
+        byte[] movement = new byte[18];
+        byte[] barometer = new byte[6];
+        for (int i = 0; i < 20000; i++) {
+            long t = 1466000000000L + 100L * i;
+            int device = i & 1;
+            random.nextBytes(movement);
+            recorder.append(t, device, SensorTagGatt.UUID_MOV_DATA, movement);
+            for (SensorConversion s : new SensorConversion[]{SensorConversion.MOVEMENT_ACC,
+                    SensorConversion.MOVEMENT_GYRO, SensorConversion.MOVEMENT_MAG}) {
+                s.convert(movement, values, 0);
+                live.onSample(device, s, t, values);
+            }
+            random.nextBytes(barometer);
+            recorder.append(t, device, SensorTagGatt.UUID_BAR_DATA, barometer);
+            SensorConversion.BAROMETER.convert(barometer, values, 0);
+            live.onSample(device, SensorConversion.BAROMETER, t, values);
+        }
+        recorder.close();
+        assertTrue(new SessionReader(dir).getSegmentCount() > 4);
+
+        StatsSet computed = SessionStats.compute(dir, 4);
+        for (int device = 0; device < 2; device++) {
+            for (SensorConversion s : new SensorConversion[]{SensorConversion.MOVEMENT_ACC,
+                    SensorConversion.MOVEMENT_GYRO, SensorConversion.MOVEMENT_MAG, SensorConversion.BAROMETER}) {
+                RunningStats expected = live.getTotal(device, s);
+                RunningStats actual = computed.getTotal(device, s);
+                assertEquals(10000, actual.getCount());
+                for (int c = 0; c < s.getChannelCount(); c++) {
+                    assertEquals(expected.getMean(c), actual.getMean(c), 1e-9 * Math.abs(expected.getMean(c)) + 1e-9);
+                    assertEquals(expected.getVariance(c), actual.getVariance(c), 1e-9 * expected.getVariance(c));
+                    assertEquals(expected.getMin(c), actual.getMin(c), 0);
+                    assertEquals(expected.getMax(c), actual.getMax(c), 0);
+                }
+            }
+        }
+        assertNull(computed.getTotal(0, SensorConversion.HUMIDITY2));
+    }
+
+    /**
+     * Humidity is decoded as the HDC1000 of this tag only, like the live pipeline does, and a truncated
+     * frame is skipped
+     */
+    @Test
+    public void decodesWhatTheLivePipelineDecodes() throws Exception {
+        dir = File.createTempFile("stats", "");
+        assertTrue(dir.delete());
+        SessionRecorder recorder = new SessionRecorder(dir, 1 << 14, 1000);
+        byte[] humidity = {0, 0, (byte) 0xFF, (byte) 0x7F};
+        for (int i = 0; i < 10; i++) {
+            recorder.append(1000L * i, 0, SensorTagGatt.UUID_HUM_DATA, humidity);
+        }
+        recorder.append(10000, 0, SensorTagGatt.UUID_HUM_DATA, new byte[]{0});
+        recorder.close();
+
+        StatsSet computed = SessionStats.compute(dir, 2);
+        assertNull(computed.getTotal(0, SensorConversion.HUMIDITY));
+        RunningStats stats = computed.getTotal(0, SensorConversion.HUMIDITY2);
+        assertEquals(10, stats.getCount());
+        assertEquals(SensorConversion.HUMIDITY2.convert(humidity).x, stats.getMean(0), 1e-4);
+    }
+
+    /**
+     * Shift of lux and IR temperature readings from one tag, quantiles sketched per segment in parallel
+     */
+    @Test
+    public void quantilesOfRecordingMatchExact() throws Exception {
+        dir = File.createTempFile("quantiles", "");
+        assertTrue(dir.delete());
+        SessionRecorder recorder = new SessionRecorder(dir, 1 << 14, 1000);
+        int n = 50000;
+        double[] lux = new double[n];
+        double[] ambient = new double[n];
+        float[] values = new float[3];
+        Random random = new Random(18);
+        byte[] frame = new byte[4];
+        for (int i = 0; i < n; i++) {
+            long t = 1466000000000L + 1000L * i;
+            // Mostly indoor light with the occasional window, exponent in the top nibble
+            int exponent = random.nextInt(10) == 0 ? 6 + random.nextInt(3) : 2 + random.nextInt(2);
+            int mantissa = random.nextInt(4096);
+            frame[0] = (byte) mantissa;
+            frame[1] = (byte) ((exponent << 4) | (mantissa >> 8));
+            recorder.append(t, 0, SensorTagGatt.UUID_OPT_DATA, Arrays.copyOf(frame, 2));
+            SensorConversion.LUXOMETER.convert(Arrays.copyOf(frame, 2), values, 0);
+            lux[i] = values[0];
+
+            int raw = (int) ((21 + 2 * Math.sin(i / 3000.0) + 0.2 * random.nextGaussian()) * 128);
+            frame[0] = (byte) random.nextInt();
+            frame[1] = (byte) random.nextInt();
+            frame[2] = (byte) raw;
+            frame[3] = (byte) (raw >> 8);
+            recorder.append(t, 0, SensorTagGatt.UUID_IRT_DATA, frame);
+            SensorConversion.IR_TEMPERATURE.convert(frame, values, 0);
+            ambient[i] = values[0];
+        }
+        recorder.close();
+        assertTrue(new SessionReader(dir).getSegmentCount() > 4);
+
+        QuantileSet quantiles = SessionStats.computeQuantiles(dir, 4);
+        Arrays.sort(lux);
+        Arrays.sort(ambient);
+        for (double q : new double[]{0.5, 0.95, 0.99}) {
+            assertEquals(0, rankError(lux, q, quantiles.quantile(0, SensorConversion.LUXOMETER, 0, q)), 0.005);
+            assertEquals(0, rankError(ambient, q, quantiles.quantile(0, SensorConversion.IR_TEMPERATURE, 0, q)), 0.005);
+        }
+        assertTrue(Double.isNaN(quantiles.quantile(0, SensorConversion.HUMIDITY2, 0, 0.5)));
+    }
+
+    private static double rankError(double[] sorted, double q, double estimate) {
+        int below = 0;
+        while (below < sorted.length && sorted[below] < estimate) below++;
+        int atOrBelow = below;
+        while (atOrBelow < sorted.length && sorted[atOrBelow] <= estimate) atOrBelow++;
+        double lo = (double) below / sorted.length;
+        double hi = (double) atOrBelow / sorted.length;
+        return q < lo ? lo - q : q > hi ? q - hi : 0;
+    }
+}
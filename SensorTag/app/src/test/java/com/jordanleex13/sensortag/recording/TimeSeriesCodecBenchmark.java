@@ -0,0 +1,45 @@
+package com.jordanleex13.sensortag.recording;
+
+import com.jordanleex13.sensortag.Benchmarks;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+public class TimeSeriesCodecBenchmark {
+
+    private static final int FRAMES = 200000;
+
+    @Test
+    public void humidityThroughput() throws Exception {
+        final long[] timestamps = new long[FRAMES];
+        final byte[][] frames = TimeSeriesCodecTest.humidity(timestamps);
+        final TimeSeriesEncoder[] encoder = new TimeSeriesEncoder[1];
+        final ByteArrayOutputStream[] out = new ByteArrayOutputStream[1];
+        long encode = Benchmarks.best(3, new Benchmarks.Task() {
+            @Override
+            public void run() throws Exception {
+                out[0] = new ByteArrayOutputStream();
+                encoder[0] = new TimeSeriesEncoder(out[0], new int[]{2, 2});
+                for (int i = 0; i < FRAMES; i++) {
+                    encoder[0].encode(timestamps[i], frames[i]);
+                }
+                encoder[0].finish();
+            }
+        });
+        final byte[] encoded = out[0].toByteArray();
+        long decode = Benchmarks.best(3, new Benchmarks.Task() {
+            @Override
+            public void run() throws Exception {
+                TimeSeriesDecoder decoder = new TimeSeriesDecoder(new ByteArrayInputStream(encoded));
+                while (decoder.next()) {
+                    decoder.getTimestamp();
+                }
+            }
+        });
+        double rawMb = encoder[0].getRawBytes() / 1e6;
+        Benchmarks.report("TimeSeriesCodec: ratio %.1fx, encode %.0f MB/s, decode %.0f MB/s (raw)",
+                encoder[0].getCompressionRatio(), rawMb / (encode / 1e9), rawMb / (decode / 1e9));
+    }
+}
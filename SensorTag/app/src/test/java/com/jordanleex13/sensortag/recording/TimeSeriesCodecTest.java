@@ -0,0 +1,117 @@
+package com.jordanleex13.sensortag.recording;
+
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+import com.jordanleex13.sensortag.SensorTag.SensorTagUtil;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TimeSeriesCodecTest {
+
+    private static final int FRAMES = 200000;
+
+    @Test
+    public void emptyStream() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TimeSeriesEncoder encoder = new TimeSeriesEncoder(out, new int[]{2, 2});
+        encoder.finish();
+        TimeSeriesDecoder decoder = new TimeSeriesDecoder(new ByteArrayInputStream(out.toByteArray()));
+        assertFalse(decoder.next());
+    }
+
+    @Test
+    public void roundTripsArbitraryFrames() throws Exception {
+        Random random = new Random(1);
+        byte[][] frames = new byte[5000][18];
+        long[] timestamps = new long[frames.length];
+        long t = System.currentTimeMillis();
+        for (int i = 0; i < frames.length; i++) {
+            random.nextBytes(frames[i]);
+            t += random.nextInt(3) == 0 ? random.nextInt(100000) - 50000 : 100;
+            timestamps[i] = t;
+        }
+        timestamps[10] = Long.MIN_VALUE / 4;
+        timestamps[11] = Long.MAX_VALUE / 4;
+
+        int[] widths = TimeSeriesEncoder.fieldWidths(SensorTagUtil.toShortUuid(SensorTagGatt.UUID_MOV_DATA), 18);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TimeSeriesEncoder encoder = new TimeSeriesEncoder(out, widths);
+        for (int i = 0; i < frames.length; i++) {
+            encoder.encode(timestamps[i], frames[i]);
+        }
+        encoder.finish();
+
+        TimeSeriesDecoder decoder = new TimeSeriesDecoder(new ByteArrayInputStream(out.toByteArray()));
+        for (int i = 0; i < frames.length; i++) {
+            assertTrue(decoder.next());
+            assertEquals(timestamps[i], decoder.getTimestamp());
+            assertTrue(Arrays.equals(frames[i], decoder.getFrame()));
+        }
+        assertFalse(decoder.next());
+    }
+
+    @Test
+    public void barometerUses24BitFields() throws Exception {
+        assertArrayEquals(new int[]{3, 3},
+                TimeSeriesEncoder.fieldWidths(SensorTagUtil.toShortUuid(SensorTagGatt.UUID_BAR_DATA), 6));
+        assertArrayEquals(new int[]{2, 2},
+                TimeSeriesEncoder.fieldWidths(SensorTagUtil.toShortUuid(SensorTagGatt.UUID_HUM_DATA), 4));
+        assertArrayEquals(new int[]{2, 1},
+                TimeSeriesEncoder.fieldWidths(SensorTagUtil.toShortUuid(SensorTagGatt.UUID_KEY_DATA), 3));
+    }
+
+    /**
+     * Humidity frames at a 1 s period with occasional 1 ms receive jitter
+     *
+     * @param timestamps    Filled with the receive times, one per frame
+     */
+    static byte[][] humidity(long[] timestamps) {
+        Random random = new Random(7);
+        byte[][] frames = new byte[timestamps.length][];
+        int temperature = 25 * 65536 / 165;
+        int humidity = 45 * 65536 / 100;
+        long t = 1466000000000L;
+        for (int i = 0; i < frames.length; i++) {
+            t += 1000;
+            timestamps[i] = t + (random.nextInt(10) == 0 ? random.nextInt(3) - 1 : 0);
+            if (random.nextInt(4) == 0) temperature += random.nextInt(3) - 1;
+            if (random.nextInt(4) == 0) humidity += random.nextInt(9) - 4;
+            int h = (humidity & ~3) | random.nextInt(4);    // Low two bits are status bits
+            frames[i] = new byte[]{(byte) temperature, (byte) (temperature >> 8), (byte) h, (byte) (h >> 8)};
+        }
+        return frames;
+    }
+
+    /**
+     * Slowly changing humidity must compress at least 5x
+     */
+    @Test
+    public void environmentalDataCompressesFiveTimes() throws Exception {
+        long[] timestamps = new long[FRAMES];
+        byte[][] frames = humidity(timestamps);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TimeSeriesEncoder encoder = new TimeSeriesEncoder(out, new int[]{2, 2});
+        for (int i = 0; i < FRAMES; i++) {
+            encoder.encode(timestamps[i], frames[i]);
+        }
+        encoder.finish();
+
+        byte[] encoded = out.toByteArray();
+        TimeSeriesDecoder decoder = new TimeSeriesDecoder(new ByteArrayInputStream(encoded));
+        int n = 0;
+        while (decoder.next()) {
+            assertEquals(timestamps[n], decoder.getTimestamp());
+            n++;
+        }
+        assertEquals(FRAMES, n);
+        assertEquals(encoded.length, encoder.getEncodedBytes());
+        assertTrue("Ratio " + encoder.getCompressionRatio(), encoder.getCompressionRatio() >= 5);
+    }
+}
@@ -0,0 +1,58 @@
+package com.jordanleex13.sensortag.streaming;
+
+import com.jordanleex13.sensortag.Benchmarks;
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SampleServerBenchmark {
+
+    private SampleServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new SampleServer(0, 8192);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void fanOutToTwelveSubscribers() throws Exception {
+        int subscribers = 12;
+        int samples = 200000;
+        List<SampleServerTest.Client> clients = new ArrayList<>();
+        for (int i = 0; i < subscribers; i++) {
+            clients.add(new SampleServerTest.Client(server.getPort(), samples));
+        }
+        long end = System.currentTimeMillis() + 5000;
+        while (server.getSubscriberCount() < subscribers && System.currentTimeMillis() < end) Thread.sleep(5);
+        for (SampleServerTest.Client c : clients) c.start();
+
+        long start = System.nanoTime();
+        float[] values = new float[3];
+        for (int i = 0; i < samples; i++) {
+            values[0] = i % 1000;
+            server.onSample(0, SensorConversion.MOVEMENT_ACC, i, values);
+        }
+        long ingest = System.nanoTime() - start;
+        long received = 0;
+        long dropped = 0;
+        for (SampleServerTest.Client c : clients) {
+            c.join(30000);
+            received += c.received;
+            dropped += c.dropped;
+        }
+        long elapsed = System.nanoTime() - start;
+        Benchmarks.report("SampleServer: %d subscribers, %d ns/sample on ingest, %d samples/s delivered in total,"
+                        + " %.1f %% dropped", subscribers, ingest / samples, received * 1000000000L / elapsed,
+                100.0 * dropped / (received + dropped));
+    }
+}
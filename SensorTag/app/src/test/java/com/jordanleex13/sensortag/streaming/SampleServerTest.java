@@ -0,0 +1,150 @@
+package com.jordanleex13.sensortag.streaming;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.wire.SampleDecoder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SampleServerTest {
+
+    private SampleServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new SampleServer(0, 8192);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    /**
+     * Desktop side: reads messages until it has accounted for {@code expected} samples, received or dropped
+     */
+    static class Client extends Thread {
+        final Socket socket;
+        final long expected;
+        long received;
+        long dropped;
+        long lastTimestamp = Long.MIN_VALUE;
+        Throwable error;
+
+        Client(int port, long expected) throws IOException {
+            this.socket = new Socket("127.0.0.1", port);
+            this.expected = expected;
+        }
+
+        @Override
+        public void run() {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+                int length = in.readUnsignedShort();
+                assertEquals(SampleServer.TYPE_HELLO, in.readByte());
+                assertEquals(SampleServer.VERSION, in.readByte());
+                int sensors = in.readByte();
+                int[] channels = new int[sensors];
+                for (int i = 0; i < sensors; i++) {
+                    channels[i] = in.readByte();
+                    assertEquals(SensorConversion.values()[i].name(), in.readUTF());
+                }
+                while (received + dropped < expected) {
+                    length = in.readUnsignedShort();
+                    int type = in.readByte();
+                    if (type == SampleServer.TYPE_DROPPED) {
+                        dropped += in.readInt();
+                        continue;
+                    }
+                    assertEquals(SampleServer.TYPE_SAMPLE, type);
+                    byte[] record = new byte[length - 1];
+                    in.readFully(record);
+                    SampleDecoder decoder = new SampleDecoder(ByteBuffer.wrap(record));
+                    assertTrue(decoder.next());
+                    assertEquals(channels[decoder.getSensor().ordinal()], decoder.getChannelCount());
+                    long timestamp = decoder.getTimestamp();
+                    assertTrue(timestamp > lastTimestamp);
+                    lastTimestamp = timestamp;
+                    assertEquals(timestamp % 1000, decoder.getValue(0), 0);
+                    assertFalse(decoder.next());
+                    received++;
+                }
+            } catch (Throwable t) {
+                error = t;
+            }
+        }
+    }
+
+    private void waitForSubscribers(int n) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (server.getSubscriberCount() < n && System.currentTimeMillis() < end) Thread.sleep(5);
+        assertEquals(n, server.getSubscriberCount());
+    }
+
+    private void feed(int n) {
+        float[] values = new float[3];
+        for (int i = 0; i < n; i++) {
+            values[0] = i % 1000;
+            server.onSample(0, SensorConversion.MOVEMENT_ACC, i, values);
+        }
+    }
+
+    @Test
+    public void fanOutToTwelveSubscribers() throws Exception {
+        int subscribers = 12;
+        int samples = 200000;
+        List<Client> clients = new ArrayList<>();
+        for (int i = 0; i < subscribers; i++) {
+            Client c = new Client(server.getPort(), samples);
+            clients.add(c);
+        }
+        waitForSubscribers(subscribers);
+        for (Client c : clients) c.start();
+
+        feed(samples);
+        for (Client c : clients) {
+            c.join(30000);
+            assertNull(c.error);
+            assertEquals(samples, c.received + c.dropped);
+        }
+    }
+
+    /**
+     * A client that never reads must not slow down ingest or the other subscribers
+     */
+    @Test
+    public void stalledClientOnlyDropsItsOwnSamples() throws Exception {
+        Socket stalled = new Socket("127.0.0.1", server.getPort());
+        Client reader = new Client(server.getPort(), 500000);
+        waitForSubscribers(2);
+        reader.start();
+
+        for (int burst = 0; burst < 100; burst++) {
+            float[] values = new float[3];
+            for (int i = 0; i < 5000; i++) {      // Less than a queue
+                int n = burst * 5000 + i;
+                values[0] = n % 1000;
+                server.onSample(0, SensorConversion.MOVEMENT_ACC, n, values);
+            }
+            Thread.sleep(10);   // Gives the reader time to drain, the stalled client never does
+        }
+        reader.join(10000);
+        assertNull(reader.error);
+        assertEquals(500000, reader.received + reader.dropped);
+        // Whatever did not fit in the socket buffers and the queue
+        assertTrue("Dropped " + server.getDroppedCount(), server.getDroppedCount() > 100000);
+        assertTrue("Reader dropped " + reader.dropped, reader.dropped * 10 < server.getDroppedCount());
+        stalled.close();
+    }
+}
@@ -0,0 +1,101 @@
+package com.jordanleex13.sensortag.upload;
+
+import com.jordanleex13.sensortag.Benchmarks;
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+public class BatchUploaderBenchmark {
+
+    private HttpServer server;
+    private URL url;
+    private File spool;
+    private volatile boolean accepting = true;
+    private final AtomicInteger posts = new AtomicInteger();
+
+    /**
+     * Collector that accepts and discards every batch
+     */
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/samples", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                byte[] b = new byte[4096];
+                while (in.read(b) != -1) {
+                    // Drain
+                }
+                in.close();
+                if (accepting) posts.incrementAndGet();
+                exchange.sendResponseHeaders(accepting ? 204 : 503, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/samples");
+        spool = Benchmarks.tempDir("spool");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        Benchmarks.delete(spool);
+    }
+
+    private static void feed(BatchUploader uploader, int n, long pauseNanos) {
+        float[] values = new float[3];
+        for (int i = 0; i < n; i++) {
+            values[0] = Math.round(4096 * 0.2 * Math.sin(i * 0.05)) / 4096f;
+            values[1] = Math.round(4096 * 0.1 * Math.cos(i * 0.03)) / 4096f;
+            values[2] = Math.round(4096 * (1 + 0.05 * Math.sin(i * 0.7))) / 4096f;
+            uploader.onSample(i & 1, SensorConversion.MOVEMENT_ACC, 1466000000000L + i * 10, values);
+            if (pauseNanos > 0) LockSupport.parkNanos(pauseNanos);
+        }
+    }
+
+    @Test
+    public void ingestWithTheCollectorDown() throws Exception {
+        accepting = false;
+        final BatchUploader uploader = new BatchUploader(url, spool, 100, 50, 2, 1 << 20, 100);
+        long best = Benchmarks.best(5, new Benchmarks.Task() {
+            @Override
+            public void run() {
+                feed(uploader, 1000, 0);
+            }
+        });
+        uploader.close(1000);
+        Benchmarks.report("BatchUploader: %d ns/sample on ingest with the collector down", best / 1000);
+    }
+
+    /**
+     * 10000 samples/s for half a second at several batch sizes
+     */
+    @Test
+    public void batchSizeTradeOff() throws Exception {
+        for (int size : new int[]{10, 100, 1000}) {
+            posts.set(0);
+            BatchUploader uploader = new BatchUploader(url, spool, size, 1000, 2, 1 << 20, 60000);
+            feed(uploader, 5000, 100000);
+            uploader.close(5000);
+            Benchmarks.report("BatchUploader: %4d samples/batch  %4d POSTs  %5.1f B/sample gzipped"
+                            + "  %5.1f B/sample raw  latency mean %6.1f ms max %6.1f ms",
+                    size, posts.get(), (double) uploader.getSentBytes() / 5000, (double) uploader.getRawBytes() / 5000,
+                    uploader.getMeanLatencyMillis(), uploader.getMaxLatencyMillis());
+        }
+    }
+}
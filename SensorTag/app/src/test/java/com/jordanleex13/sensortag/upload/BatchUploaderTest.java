@@ -0,0 +1,159 @@
+package com.jordanleex13.sensortag.upload;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.wire.SampleDecoder;
+import com.jordanleex13.sensortag.wire.SampleFormat;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class BatchUploaderTest {
+
+    private HttpServer server;
+    private URL url;
+    private File spool;
+    private volatile boolean accepting = true;
+    private final AtomicInteger received = new AtomicInteger();
+    private final AtomicInteger posts = new AtomicInteger();
+
+    /**
+     * Local stand-in for the collector. Decodes every batch and counts its samples
+     */
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/samples", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = readAll(exchange.getRequestBody());
+                if (!accepting) {
+                    exchange.sendResponseHeaders(503, -1);
+                    exchange.close();
+                    return;
+                }
+                assertEquals("gzip", exchange.getRequestHeaders().getFirst("Content-Encoding"));
+                received.addAndGet(countSamples(readAll(new GZIPInputStream(new ByteArrayInputStream(body)))));
+                posts.incrementAndGet();
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/samples");
+        spool = File.createTempFile("spool", "");
+        assertTrue(spool.delete());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+        File[] files = spool.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        spool.delete();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] b = new byte[4096];
+        int n;
+        while ((n = in.read(b)) != -1) out.write(b, 0, n);
+        in.close();
+        return out.toByteArray();
+    }
+
+    private static int countSamples(byte[] batch) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(batch);
+        SampleFormat.readHeader(in);
+        SampleDecoder decoder = new SampleDecoder(in);
+        int count = 0;
+        while (decoder.next()) {
+            assertEquals(SensorConversion.MOVEMENT_ACC, decoder.getSensor());
+            count++;
+        }
+        return count;
+    }
+
+    private static void feed(BatchUploader uploader, int n, long pauseNanos) {
+        float[] values = new float[3];
+        for (int i = 0; i < n; i++) {
+            // Accelerometer resolution is 1/4096 g
+            values[0] = Math.round(4096 * 0.2 * Math.sin(i * 0.05)) / 4096f;
+            values[1] = Math.round(4096 * 0.1 * Math.cos(i * 0.03)) / 4096f;
+            values[2] = Math.round(4096 * (1 + 0.05 * Math.sin(i * 0.7))) / 4096f;
+            uploader.onSample(i & 1, SensorConversion.MOVEMENT_ACC, 1466000000000L + i * 10, values);
+            if (pauseNanos > 0) LockSupport.parkNanos(pauseNanos);
+        }
+    }
+
+    private static void waitFor(AtomicInteger value, int expected, long timeoutMillis) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeoutMillis;
+        while (value.get() < expected && System.currentTimeMillis() < end) Thread.sleep(10);
+    }
+
+    @Test
+    public void deliversEverySample() throws Exception {
+        // Fed much faster than it can send, so part of it goes through the spool
+        BatchUploader uploader = new BatchUploader(url, spool, 100, 50, 2, 1 << 20, 50);
+        feed(uploader, 10050, 0);
+        uploader.flush();
+        waitFor(received, 10050, 10000);
+        uploader.close(5000);
+        assertEquals(10050, received.get());
+        assertEquals(0, uploader.getDroppedBatches());
+        assertEquals(0, spool.list().length);
+    }
+
+    @Test
+    public void spoolsWhileCollectorIsDownThenResends() throws Exception {
+        accepting = false;
+        BatchUploader uploader = new BatchUploader(url, spool, 100, 50, 2, 1 << 20, 100);
+        feed(uploader, 1000, 0);
+        uploader.flush();
+        long end = System.currentTimeMillis() + 5000;
+        while (uploader.getSpooledBatches() < 10 && System.currentTimeMillis() < end) Thread.sleep(10);
+        assertEquals(10, uploader.getSpooledBatches());
+        assertEquals(0, received.get());
+
+        accepting = true;
+        waitFor(received, 1000, 5000);
+        uploader.close(1000);
+        assertEquals(1000, received.get());
+        assertEquals(0, spool.list().length);
+    }
+
+    /**
+     * 10000 samples/s for half a second at several batch sizes
+     */
+    @Test
+    public void batchesNeverExceedTheirSize() throws Exception {
+        for (int size : new int[]{10, 100, 1000}) {
+            received.set(0);
+            posts.set(0);
+            BatchUploader uploader = new BatchUploader(url, spool, size, 1000, 2, 1 << 20, 60000);
+            feed(uploader, 5000, 100000);
+            uploader.close(5000);
+            assertEquals(5000, received.get());
+            assertTrue("POSTs " + posts.get(), posts.get() >= 5000 / size);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.jordanleex13.sensortag.wire;
+
+import com.jordanleex13.sensortag.Benchmarks;
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class SampleCodecBenchmark {
+
+    private static final int N = 200000;
+    private static final long BASE = 1466000000000L;
+
+    private final SensorConversion[] sensors = SensorConversion.values();
+    private final float[][] values = SampleCodecTest.convertedSamples(N, sensors);
+    private final ByteBuffer buffer = ByteBuffer.allocate(N * 24);
+    private final SampleEncoder encoder = new SampleEncoder(buffer);
+    private final StringBuilder json = new StringBuilder(N * 100);
+    private byte[] jsonBytes;
+    // Keeps the decoded values alive so the work is not optimised away
+    private double sum;
+
+    @Test
+    public void againstJson() throws Exception {
+        long binaryEncode = Benchmarks.best(5, new Benchmarks.Task() {
+            @Override
+            public void run() {
+                buffer.clear();
+                encoder.reset();
+                for (int i = 0; i < N; i++) {
+                    encoder.write(i & 1, sensors[i % sensors.length], BASE + 10 * i, values[i]);
+                }
+            }
+        });
+        long jsonEncode = Benchmarks.best(5, new Benchmarks.Task() {
+            @Override
+            public void run() {
+                json.setLength(0);
+                for (int i = 0; i < N; i++) {
+                    SampleCodecTest.appendJson(json, i & 1, sensors[i % sensors.length], BASE + 10 * i, values[i]);
+                }
+                jsonBytes = json.toString().getBytes(SampleCodecTest.UTF8);
+            }
+        });
+        final int binaryBytes = buffer.position();
+        long binaryDecode = Benchmarks.best(5, new Benchmarks.Task() {
+            @Override
+            public void run() throws Exception {
+                buffer.position(0).limit(binaryBytes);
+                SampleDecoder decoder = new SampleDecoder(buffer);
+                while (decoder.next()) {
+                    decoder.getSensor();
+                    for (int c = 0; c < decoder.getChannelCount(); c++) sum += decoder.getValue(c);
+                }
+            }
+        });
+        long jsonDecode = Benchmarks.best(5, new Benchmarks.Task() {
+            @Override
+            public void run() {
+                sum += SampleCodecTest.parseJson(new String(jsonBytes, SampleCodecTest.UTF8));
+            }
+        });
+
+        Benchmarks.report("SampleFormat: %5.1f B/sample, encode %4d ns/sample, decode %4d ns/sample",
+                (double) binaryBytes / N, binaryEncode / N, binaryDecode / N);
+        Benchmarks.report("JSON:         %5.1f B/sample, encode %4d ns/sample, decode %4d ns/sample",
+                (double) jsonBytes.length / N, jsonEncode / N, jsonDecode / N);
+    }
+}
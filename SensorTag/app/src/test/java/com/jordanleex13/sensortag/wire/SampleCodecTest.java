@@ -0,0 +1,228 @@
+package com.jordanleex13.sensortag.wire;
+
+import com.jordanleex13.sensortag.SensorTag.SensorConversion;
+import com.jordanleex13.sensortag.SensorTag.SensorTagGatt;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class SampleCodecTest {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void roundTripsDecodedSamples() throws Exception {
+        Random random = new Random(1);
+        SensorConversion[] sensors = SensorConversion.values();
+        int n = 5000;
+        int[] devices = new int[n];
+        SensorConversion[] sampleSensors = new SensorConversion[n];
+        long[] timestamps = new long[n];
+        float[][] values = new float[n][3];
+        long t = 1466000000000L;
+        for (int i = 0; i < n; i++) {
+            devices[i] = random.nextInt(4) == 0 ? random.nextInt() : random.nextInt(3);
+            sampleSensors[i] = sensors[random.nextInt(sensors.length)];
+            t += random.nextInt(5) == 0 ? random.nextInt(2000000) - 1000000 : 10;
+            timestamps[i] = t;
+            for (int c = 0; c < 3; c++) values[i][c] = random.nextFloat() * 2000 - 1000;
+        }
+        timestamps[7] = Long.MIN_VALUE;
+        timestamps[8] = Long.MAX_VALUE;
+        values[9][0] = Float.NaN;
+        values[10][0] = Float.NEGATIVE_INFINITY;
+
+        ByteBuffer buffer = ByteBuffer.allocate(n * 40);
+        SampleFormat.writeHeader(buffer);
+        SampleEncoder encoder = new SampleEncoder(buffer);
+        for (int i = 0; i < n; i++) {
+            assertTrue(encoder.write(devices[i], sampleSensors[i], timestamps[i], values[i]));
+        }
+        buffer.flip();
+
+        assertEquals(SampleFormat.VERSION, SampleFormat.readHeader(buffer));
+        SampleDecoder decoder = new SampleDecoder(buffer);
+        float[] out = new float[3];
+        for (int i = 0; i < n; i++) {
+            assertTrue(decoder.next());
+            assertTrue(decoder.isDecoded());
+            assertEquals(devices[i], decoder.getDeviceId());
+            assertEquals(sampleSensors[i], decoder.getSensor());
+            assertEquals(sampleSensors[i].getData(), decoder.getUuid());
+            assertEquals(timestamps[i], decoder.getTimestamp());
+            int channels = sampleSensors[i].getChannelCount();
+            assertEquals(channels, decoder.getChannelCount());
+            decoder.getValues(out, 0);
+            for (int c = 0; c < channels; c++) {
+                assertEquals(Float.floatToIntBits(values[i][c]), Float.floatToIntBits(out[c]));
+            }
+        }
+        assertFalse(decoder.next());
+    }
+
+    @Test
+    public void roundTripsRawFramesInDirectBuffer() throws Exception {
+        Random random = new Random(2);
+        UUID[] uuids = {SensorTagGatt.UUID_MOV_DATA, SensorTagGatt.UUID_BAR_DATA, SensorTagGatt.UUID_KEY_DATA};
+        int n = 1000;
+        byte[][] frames = new byte[n][];
+        ByteBuffer buffer = ByteBuffer.allocateDirect(n * 40);
+        SampleFormat.writeHeader(buffer);
+        SampleEncoder encoder = new SampleEncoder(buffer);
+        for (int i = 0; i < n; i++) {
+            frames[i] = new byte[random.nextInt(21)];
+            random.nextBytes(frames[i]);
+            assertTrue(encoder.writeRaw(i % 2, uuids[i % uuids.length], 1000L * i, frames[i]));
+        }
+        buffer.flip();
+
+        SampleFormat.readHeader(buffer);
+        SampleDecoder decoder = new SampleDecoder(buffer);
+        for (int i = 0; i < n; i++) {
+            assertTrue(decoder.next());
+            assertFalse(decoder.isDecoded());
+            assertNull(decoder.getSensor());
+            assertEquals(uuids[i % uuids.length], decoder.getUuid());
+            assertEquals(1000L * i, decoder.getTimestamp());
+            assertEquals(frames[i].length, decoder.getPayloadLength());
+            byte[] copy = new byte[frames[i].length];
+            decoder.getRaw(copy, 0);
+            assertTrue(Arrays.equals(frames[i], copy));
+            ByteBuffer view = decoder.getPayload();
+            assertEquals(frames[i].length, view.remaining());
+            if (frames[i].length > 0) assertEquals(frames[i][0], view.get(0));
+        }
+        assertFalse(decoder.next());
+    }
+
+    @Test
+    public void refusesRecordThatDoesNotFit() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(30);
+        SampleEncoder encoder = new SampleEncoder(buffer);
+        float[] values = {1, 2, 3};
+        assertTrue(encoder.write(0, SensorConversion.MOVEMENT_GYRO, 100, values));
+        int position = buffer.position();
+        assertFalse(encoder.write(0, SensorConversion.MOVEMENT_GYRO, 110, values));
+        assertEquals(position, buffer.position());
+
+        // The refused sample goes into the next buffer with the same timestamp base
+        ByteBuffer next = ByteBuffer.allocate(30);
+        encoder.setBuffer(next);
+        assertTrue(encoder.write(0, SensorConversion.MOVEMENT_GYRO, 110, values));
+        ByteBuffer both = ByteBuffer.allocate(60);
+        buffer.flip();
+        next.flip();
+        both.put(buffer).put(next).flip();
+        SampleDecoder decoder = new SampleDecoder(both);
+        assertTrue(decoder.next());
+        assertTrue(decoder.next());
+        assertEquals(110, decoder.getTimestamp());
+        assertEquals(SensorConversion.MOVEMENT_GYRO, decoder.getSensor());
+        assertEquals(3, decoder.getValue(2), 0);
+    }
+
+    @Test
+    public void rejectsForeignAndTruncatedData() throws Exception {
+        try {
+            SampleFormat.readHeader(ByteBuffer.wrap("{\"t\":1}".getBytes(UTF8)));
+            fail();
+        } catch (IOException expected) {
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        new SampleEncoder(buffer).write(3, SensorConversion.BAROMETER, 1466000000000L, new float[]{1013.25f});
+        byte[] truncated = Arrays.copyOf(buffer.array(), buffer.position() - 1);
+        try {
+            new SampleDecoder(ByteBuffer.wrap(truncated)).next();
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    /**
+     * Realistic outputs of every sensor: random frames run through the actual conversions
+     */
+    static float[][] convertedSamples(int n, SensorConversion[] sensors) {
+        Random random = new Random(3);
+        float[][] values = new float[n][3];
+        byte[] frame = new byte[18];
+        for (int i = 0; i < n; i++) {
+            random.nextBytes(frame);
+            sensors[i % sensors.length].convert(frame, values[i], 0);
+        }
+        return values;
+    }
+
+    static void appendJson(StringBuilder sb, int device, SensorConversion sensor, long timestamp, float[] values) {
+        sb.append("{\"t\":").append(timestamp)
+                .append(",\"device\":").append(device)
+                .append(",\"sensor\":\"").append(sensor.name())
+                .append("\",\"v\":[");
+        for (int c = 0; c < sensor.getChannelCount(); c++) {
+            if (c > 0) sb.append(',');
+            sb.append(values[c]);
+        }
+        sb.append("]}\n");
+    }
+
+    /**
+     * Minimal parser for the lines written by appendJson. Returns the sum of the values so the work is not
+     * optimised away.
+     */
+    static double parseJson(String text) {
+        double sum = 0;
+        int pos = 0;
+        while (pos < text.length()) {
+            int end = text.indexOf('\n', pos);
+            Long.parseLong(text.substring(pos + 5, text.indexOf(',', pos)));
+            int device = text.indexOf("\"device\":", pos) + 9;
+            Integer.parseInt(text.substring(device, text.indexOf(',', device)));
+            int sensor = text.indexOf("\"sensor\":\"", pos) + 10;
+            SensorConversion.valueOf(text.substring(sensor, text.indexOf('"', sensor)));
+            int v = text.indexOf('[', sensor) + 1;
+            int close = text.indexOf(']', v);
+            while (v < close) {
+                int comma = text.indexOf(',', v);
+                int stop = comma < 0 || comma > close ? close : comma;
+                sum += Float.parseFloat(text.substring(v, stop));
+                v = stop + 1;
+            }
+            pos = end + 1;
+        }
+        return sum;
+    }
+
+    @Test
+    public void aThirdTheSizeOfJson() throws Exception {
+        SensorConversion[] sensors = SensorConversion.values();
+        int n = 20000;
+        float[][] values = convertedSamples(n, sensors);
+        long base = 1466000000000L;
+        ByteBuffer buffer = ByteBuffer.allocate(n * 24);
+        SampleEncoder encoder = new SampleEncoder(buffer);
+        StringBuilder json = new StringBuilder(n * 100);
+        for (int i = 0; i < n; i++) {
+            encoder.write(i & 1, sensors[i % sensors.length], base + 10 * i, values[i]);
+            appendJson(json, i & 1, sensors[i % sensors.length], base + 10 * i, values[i]);
+        }
+        byte[] jsonBytes = json.toString().getBytes(UTF8);
+
+        buffer.flip();
+        SampleDecoder decoder = new SampleDecoder(buffer);
+        double binarySum = 0;
+        while (decoder.next()) {
+            for (int c = 0; c < decoder.getChannelCount(); c++) binarySum += decoder.getValue(c);
+        }
+        double jsonSum = parseJson(new String(jsonBytes, UTF8));
+        assertEquals(jsonSum, binarySum, Math.abs(jsonSum) * 1e-6);
+        assertTrue(buffer.limit() * 3 < jsonBytes.length);
+    }
+}